@@ -1,34 +1,55 @@
 package com.eteks.homeview3d.applet;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.eteks.homeview3d.io.ContentRecording;
+import com.eteks.homeview3d.io.ContentTypeCompressionPolicy;
 import com.eteks.homeview3d.io.DefaultHomeInputStream;
 import com.eteks.homeview3d.io.DefaultHomeOutputStream;
+import com.eteks.homeview3d.io.EntryCompressionPolicy;
 import com.eteks.homeview3d.model.Home;
 import com.eteks.homeview3d.model.HomeRecorder;
 import com.eteks.homeview3d.model.InterruptedRecorderException;
 import com.eteks.homeview3d.model.RecorderException;
+import com.eteks.homeview3d.tools.OperatingSystem;
 
 
 public class HomeAppletRecorder implements HomeRecorder {
-  private final String           writeHomeURL;
-  private final String           readHomeURL;
-  private final String           listHomesURL;
-  private final String           deleteHomeURL;
-  private final ContentRecording contentRecording;
-  private long                   availableHomesCacheTime;
-  private String []              availableHomesCache;
+  private static final int UPLOAD_CHUNK_LENGTH = 256 * 1024;
+  private static final int UPLOAD_MAX_RETRIES  = 5;
+  private static final int UPLOAD_RETRY_DELAY  = 500;
+
+  private final String                 writeHomeURL;
+  private final String                 readHomeURL;
+  private final String                 listHomesURL;
+  private final String                 deleteHomeURL;
+  private final String                 uploadHomeURL;
+  private final ContentRecording       contentRecording;
+  private final EntryCompressionPolicy compressionPolicy;
+  private final Map<String, Long>      homeDataLengths = new ConcurrentHashMap<String, Long>();
+  private final Map<String, Long>      contentLengths = new ConcurrentHashMap<String, Long>();
+  private long                         availableHomesCacheTime;
+  private String []                    availableHomesCache;
 
   public HomeAppletRecorder(String writeHomeURL, 
                             String readHomeURL,
@@ -62,14 +83,49 @@ public class HomeAppletRecorder implements HomeRecorder {
                             String listHomesURL,
                             String deleteHomeURL,
                             ContentRecording contentRecording) {
+    this(writeHomeURL, readHomeURL, listHomesURL, deleteHomeURL, contentRecording, 
+        new ContentTypeCompressionPolicy(9));
+  }
+
+  /**
+   * Creates a recorder that will use the URLs in parameter to write, read, list and delete homes,
+   * and will compress each entry of sent homes as chosen by <code>compressionPolicy</code>.
+   */
+  public HomeAppletRecorder(String writeHomeURL, 
+                            String readHomeURL,
+                            String listHomesURL,
+                            String deleteHomeURL,
+                            ContentRecording contentRecording,
+                            EntryCompressionPolicy compressionPolicy) {
+    this(writeHomeURL, readHomeURL, listHomesURL, deleteHomeURL, null, contentRecording, compressionPolicy);
+  }
+
+  /**
+   * Creates a recorder that will use the URLs in parameter to write, read, list and delete homes.
+   * If <code>uploadHomeURL</code> isn't <code>null</code>, homes will be saved with that URL by sending 
+   * first the digests of their content, then in chunks only the entries that the server doesn't own yet.
+   */
+  public HomeAppletRecorder(String writeHomeURL, 
+                            String readHomeURL,
+                            String listHomesURL,
+                            String deleteHomeURL,
+                            String uploadHomeURL,
+                            ContentRecording contentRecording,
+                            EntryCompressionPolicy compressionPolicy) {
     this.writeHomeURL = writeHomeURL;
     this.readHomeURL = readHomeURL;
     this.listHomesURL = listHomesURL;
     this.deleteHomeURL = deleteHomeURL;
+    this.uploadHomeURL = uploadHomeURL;
     this.contentRecording = contentRecording;
+    this.compressionPolicy = compressionPolicy;
   }
   
   public void writeHome(Home home, String name) throws RecorderException {
+    if (this.uploadHomeURL != null) {
+      uploadHome(home, name);
+      return;
+    }
     HttpURLConnection connection = null;
     try {
       // ýۿ   
@@ -88,10 +144,12 @@ public class HomeAppletRecorder implements HomeRecorder {
           + name.replace('\"', '\'') + "\"\r\n").getBytes("UTF-8"));
       out.write(("Content-Type: application/octet-stream\r\n\r\n").getBytes("UTF-8"));
       out.flush();
-      DefaultHomeOutputStream homeOut = createHomeOutputStream(out);
+      LengthOutputStream lengthOut = new LengthOutputStream(out);
+      DefaultHomeOutputStream homeOut = createHomeOutputStream(lengthOut);
       // Ȩ 
       homeOut.writeHome(home);
       homeOut.flush();
+      storeHomeLengths(name, homeOut, lengthOut.getLength());
       
       out.write(("\r\n--" + multiPartBoundary + "--\r\n").getBytes("UTF-8"));
       out.close();
@@ -119,7 +177,167 @@ public class HomeAppletRecorder implements HomeRecorder {
    * ͷ ư
    */
   private DefaultHomeOutputStream createHomeOutputStream(OutputStream out) throws IOException {
-    return new DefaultHomeOutputStream(out, 9, this.contentRecording, true, null);
+    return createHomeOutputStream(out, null);
+  }
+
+  private DefaultHomeOutputStream createHomeOutputStream(OutputStream out, 
+                                                         Set<String> omittedContentDigests) throws IOException {
+    return new DefaultHomeOutputStream(out, this.compressionPolicy, this.contentRecording, true, null, 
+        null, omittedContentDigests);
+  }
+
+  /**
+   * Saves the given home with the upload URL, sending only the content missing on the server.
+   */
+  private void uploadHome(Home home, String name) throws RecorderException {
+    File homeFile = null;
+    try {
+      String homeParameter = "&home=" + URLEncoder.encode(name, "UTF-8");
+      // Send the digests of home content and get the ones the server misses 
+      Set<String> contentDigests = createHomeOutputStream(null).getContentDigests(home);
+      StringBuilder manifest = new StringBuilder();
+      for (String digest : contentDigests) {
+        manifest.append(digest).append('\n');
+      }
+      byte [] manifestBytes = manifest.toString().getBytes("UTF-8");
+      String [] response = sendUploadRequest("action=manifest" + homeParameter, 
+          manifestBytes, 0, manifestBytes.length);
+      if (response == null) {
+        throw new RecorderException("Saving home " + name + " failed");
+      }
+      Set<String> omittedContentDigests = new HashSet<String>(contentDigests);
+      for (int i = 1; i < response.length; i++) {
+        omittedContentDigests.remove(response [i].trim());
+      }
+      
+      // Write home in a temporary file to keep in memory only the chunk sent to the server  
+      homeFile = OperatingSystem.createTemporaryFile("upload", ".sh3d");
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(homeFile));
+      DefaultHomeOutputStream homeOut;
+      try {
+        homeOut = createHomeOutputStream(out, omittedContentDigests);
+        homeOut.writeHome(home);
+        homeOut.flush();
+      } finally {
+        out.close();
+      }
+      long homeLength = homeFile.length();
+      storeHomeLengths(name, homeOut, homeLength);
+
+      String uploadParameter = "&upload=" + UUID.randomUUID();
+      RandomAccessFile homeIn = new RandomAccessFile(homeFile, "r");
+      try {
+        byte [] chunk = new byte [UPLOAD_CHUNK_LENGTH];
+        long offset = 0;
+        int failureCount = 0;
+        while (offset < homeLength) {
+          try {
+            if (failureCount > 0) {
+              // Resume from the count of bytes received by the server
+              response = sendUploadRequest("action=status" + uploadParameter, null, 0, 0);
+            } else {
+              int chunkLength = (int)Math.min(UPLOAD_CHUNK_LENGTH, homeLength - offset);
+              homeIn.seek(offset);
+              homeIn.readFully(chunk, 0, chunkLength);
+              response = sendUploadRequest("action=chunk" + uploadParameter + "&offset=" + offset, 
+                  chunk, 0, chunkLength);
+            }
+            if (response == null || response.length < 2) {
+              throw new RecorderException("Saving home " + name + " failed");
+            }
+            offset = Long.parseLong(response [1].trim());
+            failureCount = 0;
+          } catch (InterruptedIOException ex) {
+            throw ex;
+          } catch (IOException ex) {
+            if (++failureCount > UPLOAD_MAX_RETRIES) {
+              throw ex;
+            }
+            try {
+              Thread.sleep(UPLOAD_RETRY_DELAY << (failureCount - 1));
+            } catch (InterruptedException ex2) {
+              throw new InterruptedIOException();
+            }
+          } catch (NumberFormatException ex) {
+            throw new RecorderException("Saving home " + name + " failed", ex);
+          }
+        }
+      } finally {
+        homeIn.close();
+      }
+      
+      if (sendUploadRequest("action=commit" + uploadParameter + homeParameter 
+          + "&length=" + homeLength, null, 0, 0) == null) {
+        throw new RecorderException("Saving home " + name + " failed");
+      }
+      this.availableHomesCache = null; 
+    } catch (InterruptedIOException ex) {
+      throw new InterruptedRecorderException("Save " + name + " interrupted");
+    } catch (IOException ex) {
+      throw new RecorderException("Can't save home " + name, ex);
+    } finally {
+      if (homeFile != null) {
+        homeFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Posts the given data to the upload URL with the given parameters, and returns the lines 
+   * of the response or <code>null</code> if the server refused the request.
+   */
+  private String [] sendUploadRequest(String parameters, 
+                                      byte [] data, int offset, int length) throws IOException {
+    if (Thread.interrupted()) {
+      throw new InterruptedIOException();
+    }
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection)new URL(this.uploadHomeURL 
+          + (this.uploadHomeURL.indexOf('?') < 0 ? '?' : '&') + parameters).openConnection();
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      connection.setDoOutput(true);
+      connection.setDoInput(true);
+      connection.setUseCaches(false);
+      connection.setFixedLengthStreamingMode(length);
+      OutputStream out = connection.getOutputStream();
+      if (data != null) {
+        out.write(data, offset, length);
+      }
+      out.close();
+
+      InputStream in = connection.getInputStream();
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      byte [] buffer = new byte [1024];
+      for (int size; (size = in.read(buffer)) != -1; ) {
+        response.write(buffer, 0, size);
+      }
+      in.close();
+      String [] lines = new String(response.toByteArray(), "UTF-8").split("\n");
+      return lines [0].trim().equals("1")
+          ? lines
+          : null;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Stores the lengths of the data and of each content written for the home saved with the given name.
+   */
+  private void storeHomeLengths(String name, DefaultHomeOutputStream homeOut, long homeLength) {
+    Map<String, Long> writtenContentLengths = homeOut.getContentLengths();
+    long homeDataLength = homeLength;
+    for (Long contentLength : writtenContentLengths.values()) {
+      homeDataLength -= contentLength;
+    }
+    if (name != null) {
+      this.homeDataLengths.put(name, homeDataLength);
+    }
+    this.contentLengths.putAll(writtenContentLengths);
   }
 
   public Home readHome(String name) throws RecorderException {
@@ -245,12 +463,37 @@ public class HomeAppletRecorder implements HomeRecorder {
     return this.deleteHomeURL != null;
   }
 
+  /**
+   * Returns the length of the given <code>home</code> once saved. If a home with the same name 
+   * was already written or measured, the returned length is an estimation computed from the length 
+   * of its last saved data and from the known lengths of its content, without writing it again.
+   */
   public long getHomeLength(Home home) throws RecorderException {
     try {
-      LengthOutputStream out = new LengthOutputStream();
+      String name = home.getName();
+      Long homeDataLength = name != null 
+          ? this.homeDataLengths.get(name)
+          : null;
+      if (homeDataLength != null) {
+        long homeLength = homeDataLength;
+        for (String digest : createHomeOutputStream(null).getContentDigests(home)) {
+          Long contentLength = this.contentLengths.get(digest);
+          if (contentLength == null) {
+            homeLength = -1;
+            break;
+          }
+          homeLength += contentLength;
+        }
+        if (homeLength >= 0) {
+          return homeLength;
+        }
+      }
+      
+      LengthOutputStream out = new LengthOutputStream(null);
       DefaultHomeOutputStream homeOut = createHomeOutputStream(out);
       homeOut.writeHome(home);
       homeOut.flush();
+      storeHomeLengths(name, homeOut, out.getLength());
       return out.getLength();
     } catch (InterruptedIOException ex) {
       throw new InterruptedRecorderException("Home length computing interrupted");
@@ -259,14 +502,40 @@ public class HomeAppletRecorder implements HomeRecorder {
     }
   }
   
-  private class LengthOutputStream extends OutputStream {
-    private long length;
+  /**
+   * An output stream that counts the bytes written to it, and forwards them to another stream if it exists.
+   */
+  private static class LengthOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long               length;
+    
+    public LengthOutputStream(OutputStream out) {
+      this.out = out;
+    }
     
     @Override
     public void write(int b) throws IOException {
+      if (this.out != null) {
+        this.out.write(b);
+      }
       this.length++;
     }
     
+    @Override
+    public void write(byte [] b, int off, int len) throws IOException {
+      if (this.out != null) {
+        this.out.write(b, off, len);
+      }
+      this.length += len;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+      if (this.out != null) {
+        this.out.flush();
+      }
+    }
+    
     public long getLength() {
       return this.length;
     }
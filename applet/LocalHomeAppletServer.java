@@ -0,0 +1,516 @@
+package com.eteks.homeview3d.applet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A minimal HTTP server storing homes in a local folder, that implements the requests
+ * sent by {@link HomeAppletRecorder} to write, read, list, delete and upload homes.
+ * This server is meant to be used for tests and accepts only requests coming from the local host.
+ * Once started on a port, its URLs are <code>http://localhost:port/write</code>,
+ * <code>/read?home=%s</code>, <code>/list</code>, <code>/delete?home=%s</code> and <code>/upload</code>.
+ */
+public class LocalHomeAppletServer {
+  private static final String HOME_EXTENSION = ".sh3d";
+
+  private final File                               homesFolder;
+  private final Map<String, ByteArrayOutputStream> uploads = new HashMap<String, ByteArrayOutputStream>();
+  private ServerSocket                             serverSocket;
+  private Thread                                   serverThread;
+  private int                                      chunkFailures;
+
+  public LocalHomeAppletServer(File homesFolder) {
+    this.homesFolder = homesFolder;
+  }
+
+  /**
+   * Starts this server on the given <code>port</code>, or on a free port if it's equal to 0.
+   */
+  public synchronized void start(int port) throws IOException {
+    if (this.serverSocket != null) {
+      throw new IllegalStateException("Server already started");
+    }
+    this.homesFolder.mkdirs();
+    this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+    final ServerSocket serverSocket = this.serverSocket;
+    this.serverThread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            while (true) {
+              Socket socket = serverSocket.accept();
+              try {
+                handleRequest(socket);
+              } catch (IOException ex) {
+                // Ignore requests that failed
+              } finally {
+                socket.close();
+              }
+            }
+          } catch (IOException ex) {
+            // Server socket closed
+          }
+        }
+      }, "LocalHomeAppletServer");
+    this.serverThread.setDaemon(true);
+    this.serverThread.start();
+  }
+
+  /**
+   * Returns the port of this server once started.
+   */
+  public synchronized int getPort() {
+    if (this.serverSocket == null) {
+      throw new IllegalStateException("Server not started");
+    }
+    return this.serverSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the URL ending by a slash to which the paths of requests should be added.
+   */
+  public String getBaseURL() {
+    return "http://localhost:" + getPort() + "/";
+  }
+
+  /**
+   * Stops this server.
+   */
+  public void stop() throws IOException {
+    Thread serverThread;
+    synchronized (this) {
+      if (this.serverSocket == null) {
+        return;
+      }
+      this.serverSocket.close();
+      this.serverSocket = null;
+      serverThread = this.serverThread;
+      this.serverThread = null;
+    }
+    try {
+      serverThread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sets the count of next chunk requests that will be stored by this server
+   * but will be answered by closing their connection, to simulate network failures.
+   */
+  public synchronized void setChunkFailures(int chunkFailures) {
+    this.chunkFailures = chunkFailures;
+  }
+
+  private void handleRequest(Socket socket) throws IOException {
+    InputStream in = socket.getInputStream();
+    String [] requestLine = readLine(in).split(" ");
+    if (requestLine.length < 2) {
+      return;
+    }
+    Map<String, String> headers = new HashMap<String, String>();
+    for (String header; (header = readLine(in)).length() > 0; ) {
+      int colonIndex = header.indexOf(':');
+      if (colonIndex > 0) {
+        headers.put(header.substring(0, colonIndex).trim().toLowerCase(), header.substring(colonIndex + 1).trim());
+      }
+    }
+    byte [] body = new byte [0];
+    String contentLength = headers.get("content-length");
+    if (contentLength != null) {
+      body = new byte [Integer.parseInt(contentLength)];
+      for (int offset = 0, read; offset < body.length; offset += read) {
+        read = in.read(body, offset, body.length - offset);
+        if (read == -1) {
+          throw new IOException("Unexpected end of request");
+        }
+      }
+    }
+
+    String path = requestLine [1];
+    Map<String, String> parameters = new HashMap<String, String>();
+    int questionMarkIndex = path.indexOf('?');
+    if (questionMarkIndex >= 0) {
+      for (String parameter : path.substring(questionMarkIndex + 1).split("&")) {
+        int equalIndex = parameter.indexOf('=');
+        if (equalIndex > 0) {
+          parameters.put(parameter.substring(0, equalIndex),
+              URLDecoder.decode(parameter.substring(equalIndex + 1), "UTF-8"));
+        }
+      }
+      path = path.substring(0, questionMarkIndex);
+    }
+
+    byte [] response;
+    try {
+      if ("/write".equals(path)) {
+        response = writeHome(headers.get("content-type"), body);
+      } else if ("/read".equals(path)) {
+        response = readHome(parameters.get("home"));
+      } else if ("/list".equals(path)) {
+        response = listHomes();
+      } else if ("/delete".equals(path)) {
+        response = deleteHome(parameters.get("home"));
+      } else if ("/upload".equals(path)) {
+        response = upload(parameters, body);
+      } else {
+        response = null;
+      }
+    } catch (SocketException ex) {
+      // Simulated failure
+      return;
+    }
+
+    OutputStream out = socket.getOutputStream();
+    if (response != null) {
+      out.write(("HTTP/1.0 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: "
+          + response.length + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+      out.write(response);
+    } else {
+      out.write("HTTP/1.0 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+    }
+    out.flush();
+  }
+
+  private String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int b; (b = in.read()) != '\n'; ) {
+      if (b == -1) {
+        break;
+      } else if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return new String(line.toByteArray(), "ISO-8859-1");
+  }
+
+  private File getHomeFile(String name) throws IOException {
+    return new File(this.homesFolder, URLEncoder.encode(name, "UTF-8") + HOME_EXTENSION);
+  }
+
+  /**
+   * Stores the home contained in the multipart <code>body</code>.
+   */
+  private byte [] writeHome(String contentType, byte [] body) throws IOException {
+    int boundaryIndex = contentType != null ? contentType.indexOf("boundary=") : -1;
+    if (boundaryIndex < 0) {
+      return "0".getBytes("UTF-8");
+    }
+    byte [] partEnd = ("\r\n--" + contentType.substring(boundaryIndex + "boundary=".length())).getBytes("ISO-8859-1");
+    int headersEnd = indexOf(body, "\r\n\r\n".getBytes("ISO-8859-1"), 0);
+    int dataEnd = headersEnd >= 0 ? indexOf(body, partEnd, headersEnd) : -1;
+    if (dataEnd < 0) {
+      return "0".getBytes("UTF-8");
+    }
+    String partHeaders = new String(body, 0, headersEnd, "UTF-8");
+    int fileNameIndex = partHeaders.indexOf("filename=\"");
+    if (fileNameIndex < 0) {
+      return "0".getBytes("UTF-8");
+    }
+    fileNameIndex += "filename=\"".length();
+    String name = partHeaders.substring(fileNameIndex, partHeaders.indexOf('\"', fileNameIndex));
+    writeFile(getHomeFile(name), body, headersEnd + 4, dataEnd - headersEnd - 4);
+    return "1".getBytes("UTF-8");
+  }
+
+  private int indexOf(byte [] data, byte [] searched, int fromIndex) {
+    for (int i = fromIndex, n = data.length - searched.length; i <= n; i++) {
+      int j = 0;
+      while (j < searched.length && data [i + j] == searched [j]) {
+        j++;
+      }
+      if (j == searched.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private synchronized void writeFile(File file, byte [] data, int offset, int length) throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    OutputStream out = new FileOutputStream(tempFile);
+    try {
+      out.write(data, offset, length);
+    } finally {
+      out.close();
+    }
+    if ((file.exists() && !file.delete())
+        || !tempFile.renameTo(file)) {
+      throw new IOException("Can't store " + file);
+    }
+  }
+
+  private synchronized byte [] readHome(String name) throws IOException {
+    File homeFile = name != null ? getHomeFile(name) : null;
+    if (homeFile == null || !homeFile.isFile()) {
+      return null;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    InputStream in = new FileInputStream(homeFile);
+    try {
+      byte [] buffer = new byte [8192];
+      for (int size; (size = in.read(buffer)) != -1; ) {
+        out.write(buffer, 0, size);
+      }
+    } finally {
+      in.close();
+    }
+    return out.toByteArray();
+  }
+
+  private synchronized byte [] listHomes() throws IOException {
+    StringBuilder homes = new StringBuilder();
+    for (String name : getHomeNames()) {
+      if (homes.length() > 0) {
+        homes.append('\n');
+      }
+      homes.append(name);
+    }
+    return homes.toString().getBytes("UTF-8");
+  }
+
+  private List<String> getHomeNames() throws IOException {
+    List<String> names = new ArrayList<String>();
+    File [] files = this.homesFolder.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String fileName = file.getName();
+        if (fileName.endsWith(HOME_EXTENSION)) {
+          names.add(URLDecoder.decode(fileName.substring(0, fileName.length() - HOME_EXTENSION.length()), "UTF-8"));
+        }
+      }
+    }
+    return names;
+  }
+
+  private synchronized byte [] deleteHome(String name) throws IOException {
+    return (name != null && getHomeFile(name).delete() ? "1" : "0").getBytes("UTF-8");
+  }
+
+  /**
+   * Handles the <code>manifest</code>, <code>chunk</code>, <code>status</code>
+   * and <code>commit</code> actions of an upload.
+   */
+  private synchronized byte [] upload(Map<String, String> parameters, byte [] body) throws IOException {
+    String action = parameters.get("action");
+    String upload = parameters.get("upload");
+    ByteArrayOutputStream uploadedData = upload != null ? this.uploads.get(upload) : null;
+    if ("manifest".equals(action)) {
+      Map<String, ContentLocation> storedContent = getStoredContent();
+      StringBuilder response = new StringBuilder("1\n");
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"));
+      for (String digest; (digest = reader.readLine()) != null; ) {
+        digest = digest.trim();
+        if (digest.length() > 0 && !storedContent.containsKey(digest)) {
+          response.append(digest).append('\n');
+        }
+      }
+      return response.toString().getBytes("UTF-8");
+    } else if ("chunk".equals(action) && upload != null) {
+      if (uploadedData == null) {
+        uploadedData = new ByteArrayOutputStream();
+        this.uploads.put(upload, uploadedData);
+      }
+      // Ignore chunks already received or out of sequence
+      if (Long.parseLong(parameters.get("offset")) == uploadedData.size()) {
+        uploadedData.write(body);
+      }
+      if (this.chunkFailures > 0) {
+        this.chunkFailures--;
+        throw new SocketException("Simulated failure");
+      }
+      return ("1\n" + uploadedData.size()).getBytes("UTF-8");
+    } else if ("status".equals(action)) {
+      return (uploadedData != null ? "1\n" + uploadedData.size() : "0").getBytes("UTF-8");
+    } else if ("commit".equals(action)
+               && uploadedData != null
+               && parameters.get("home") != null
+               && String.valueOf(uploadedData.size()).equals(parameters.get("length"))) {
+      this.uploads.remove(upload);
+      byte [] home = completeHome(uploadedData.toByteArray());
+      if (home == null) {
+        return "0".getBytes("UTF-8");
+      }
+      writeFile(getHomeFile(parameters.get("home")), home, 0, home.length);
+      return "1".getBytes("UTF-8");
+    } else {
+      return "0".getBytes("UTF-8");
+    }
+  }
+
+  /**
+   * Returns the given uploaded home completed with the content entries it omitted,
+   * copied from stored homes, or <code>null</code> if some content is missing.
+   */
+  private byte [] completeHome(byte [] uploadedHome) throws IOException {
+    ByteArrayOutputStream completedHome = new ByteArrayOutputStream();
+    ZipOutputStream zipOut = new ZipOutputStream(completedHome);
+    Set<String> writtenDirectories = new HashSet<String>();
+    Map<String, String> contentDigests = new LinkedHashMap<String, String>();
+    ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(uploadedHome));
+    for (ZipEntry entry; (entry = zipIn.getNextEntry()) != null; ) {
+      byte [] data = readEntry(zipIn);
+      if ("ContentDigests".equals(entry.getName())) {
+        contentDigests = readContentDigests(new ByteArrayInputStream(data));
+      }
+      writtenDirectories.add(getEntryDirectory(entry.getName()));
+      zipOut.putNextEntry(new ZipEntry(entry.getName()));
+      zipOut.write(data);
+      zipOut.closeEntry();
+    }
+
+    Map<String, ContentLocation> storedContent = null;
+    for (Map.Entry<String, String> contentDigest : contentDigests.entrySet()) {
+      String entryDirectory = getEntryDirectory(contentDigest.getKey());
+      if (!writtenDirectories.contains(entryDirectory)) {
+        if (storedContent == null) {
+          storedContent = getStoredContent();
+        }
+        ContentLocation location = storedContent.get(contentDigest.getValue());
+        if (location == null) {
+          zipOut.close();
+          return null;
+        }
+        writtenDirectories.add(entryDirectory);
+        String storedDirectory = getEntryDirectory(location.entryName);
+        ZipFile zipFile = new ZipFile(location.homeFile);
+        try {
+          for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+            ZipEntry entry = entries.nextElement();
+            if (storedDirectory.equals(getEntryDirectory(entry.getName()))) {
+              InputStream in = zipFile.getInputStream(entry);
+              zipOut.putNextEntry(new ZipEntry(entryDirectory + entry.getName().substring(storedDirectory.length())));
+              zipOut.write(readEntry(in));
+              zipOut.closeEntry();
+              in.close();
+            }
+          }
+        } finally {
+          zipFile.close();
+        }
+      }
+    }
+    zipOut.close();
+    return completedHome.toByteArray();
+  }
+
+  private String getEntryDirectory(String entryName) {
+    int slashIndex = entryName.indexOf('/');
+    return slashIndex > 0 ? entryName.substring(0, slashIndex) : entryName;
+  }
+
+  private byte [] readEntry(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte [] buffer = new byte [8192];
+    for (int size; (size = in.read(buffer)) != -1; ) {
+      out.write(buffer, 0, size);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the location of the content of stored homes mapped to their Base64 encoded digest.
+   */
+  private Map<String, ContentLocation> getStoredContent() throws IOException {
+    Map<String, ContentLocation> storedContent = new HashMap<String, ContentLocation>();
+    for (String name : getHomeNames()) {
+      File homeFile = getHomeFile(name);
+      try {
+        ZipFile zipFile = new ZipFile(homeFile);
+        try {
+          ZipEntry contentDigestsEntry = zipFile.getEntry("ContentDigests");
+          if (contentDigestsEntry != null) {
+            Map<String, String> contentDigests = readContentDigests(zipFile.getInputStream(contentDigestsEntry));
+            for (Map.Entry<String, String> contentDigest : contentDigests.entrySet()) {
+              if (zipFile.getEntry(contentDigest.getKey()) != null) {
+                storedContent.put(contentDigest.getValue(), new ContentLocation(homeFile, contentDigest.getKey()));
+              }
+            }
+          }
+        } finally {
+          zipFile.close();
+        }
+      } catch (IOException ex) {
+        // Ignore damaged homes
+      }
+    }
+    return storedContent;
+  }
+
+  /**
+   * Returns the digests listed in a <code>ContentDigests</code> entry mapped to their entry name.
+   */
+  private Map<String, String> readContentDigests(InputStream in) throws IOException {
+    Map<String, String> contentDigests = new LinkedHashMap<String, String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    String entryName = null;
+    for (String line; (line = reader.readLine()) != null; ) {
+      if (line.startsWith("Name:")) {
+        entryName = line.substring("Name:".length()).trim();
+      } else if (line.startsWith("SHA-1-Digest:") && entryName != null) {
+        contentDigests.put(entryName, line.substring("SHA-1-Digest:".length()).trim());
+        entryName = null;
+      }
+    }
+    reader.close();
+    return contentDigests;
+  }
+
+  /**
+   * The home file and the entry where a content is stored.
+   */
+  private static class ContentLocation {
+    private final File   homeFile;
+    private final String entryName;
+
+    public ContentLocation(File homeFile, String entryName) {
+      this.homeFile = homeFile;
+      this.entryName = entryName;
+    }
+  }
+
+  /**
+   * Runs a server with the port and the homes folder given in parameters.
+   */
+  public static void main(String [] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: LocalHomeAppletServer port homesFolder");
+      System.exit(1);
+    }
+    LocalHomeAppletServer server = new LocalHomeAppletServer(new File(args [1]));
+    server.start(Integer.parseInt(args [0]));
+    System.out.println("Homes served at " + server.getBaseURL() + " from " + args [1]);
+    try {
+      synchronized (server) {
+        server.wait();
+      }
+    } catch (InterruptedException ex) {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.eteks.homeview3d.applet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.eteks.homeview3d.io.ContentRecording;
+import com.eteks.homeview3d.io.ContentTypeCompressionPolicy;
+import com.eteks.homeview3d.model.CatalogPieceOfFurniture;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.Wall;
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * Saves homes with the upload URL of {@link HomeAppletRecorder} to a {@link LocalHomeAppletServer}
+ * that simulates network failures, and checks that the manifest, chunk, status and commit requests
+ * store homes that are read back with the same content. The second saved home shares its content
+ * with the first one, so only its other entries are uploaded.
+ * Run it with <code>java com.eteks.homeview3d.applet.HomeAppletRecorderUploadBenchmark [contentLength]</code>.
+ */
+public class HomeAppletRecorderUploadBenchmark {
+  public static void main(String [] args) throws Exception {
+    int contentLength = args.length > 0
+        ? Integer.parseInt(args [0])
+        : 2 * 1024 * 1024;
+    File homesFolder = File.createTempFile("homes", "");
+    homesFolder.delete();
+    File contentFile = File.createTempFile("content", ".bin");
+    LocalHomeAppletServer server = new LocalHomeAppletServer(homesFolder);
+    try {
+      // Write a content that can't be compressed, sent in several chunks
+      byte [] contentData = new byte [contentLength];
+      new Random(0).nextBytes(contentData);
+      OutputStream out = new FileOutputStream(contentFile);
+      try {
+        out.write(contentData);
+      } finally {
+        out.close();
+      }
+      Content content = new URLContent(contentFile.toURI().toURL());
+      Home home = new Home();
+      home.addPieceOfFurniture(new HomePieceOfFurniture(
+          new CatalogPieceOfFurniture("Piece", content, content, 50, 50, 50, true, false)));
+
+      server.start(0);
+      String baseURL = server.getBaseURL();
+      HomeAppletRecorder recorder = new HomeAppletRecorder(baseURL + "write", baseURL + "read?home=%s",
+          baseURL + "list", baseURL + "delete?home=%s", baseURL + "upload",
+          ContentRecording.INCLUDE_ALL_CONTENT, new ContentTypeCompressionPolicy(0));
+
+      // Fail two chunks of the first upload which must be resumed
+      server.setChunkFailures(2);
+      long start = System.nanoTime();
+      recorder.writeHome(home, "home1");
+      long firstUploadTime = System.nanoTime() - start;
+      checkHome(recorder.readHome("home1"), 0, contentData);
+
+      home.addWall(new Wall(0, 0, 100, 0, 10, 250));
+      server.setChunkFailures(1);
+      start = System.nanoTime();
+      recorder.writeHome(home, "home2");
+      long secondUploadTime = System.nanoTime() - start;
+      checkHome(recorder.readHome("home2"), 1, contentData);
+      checkHome(recorder.readHome("home1"), 0, contentData);
+
+      System.out.println("Home with " + contentLength + " bytes of content: "
+          + "upload with all content " + firstUploadTime / 1000000 + " ms, "
+          + "upload with content already stored " + secondUploadTime / 1000000 + " ms "
+          + "(including retry delays)");
+    } finally {
+      server.stop();
+      contentFile.delete();
+      File [] homeFiles = homesFolder.listFiles();
+      if (homeFiles != null) {
+        for (File homeFile : homeFiles) {
+          homeFile.delete();
+        }
+      }
+      homesFolder.delete();
+    }
+  }
+
+  /**
+   * Checks the given read home contains the expected items and content.
+   */
+  private static void checkHome(Home home, int wallCount, byte [] contentData) throws IOException {
+    if (home.getFurniture().size() != 1
+        || home.getWalls().size() != wallCount) {
+      throw new AssertionError("Unexpected items in read home");
+    }
+    HomePieceOfFurniture piece = home.getFurniture().get(0);
+    if (!Arrays.equals(readContent(piece.getIcon()), contentData)
+        || !Arrays.equals(readContent(piece.getModel()), contentData)) {
+      throw new AssertionError("Unexpected content in read home");
+    }
+  }
+
+  private static byte [] readContent(Content content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    InputStream in = content.openStream();
+    try {
+      byte [] buffer = new byte [8192];
+      for (int size; (size = in.read(buffer)) != -1; ) {
+        out.write(buffer, 0, size);
+      }
+    } finally {
+      in.close();
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,334 @@
+package com.eteks.homeview3d.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import com.eteks.homeview3d.model.Baseboard;
+import com.eteks.homeview3d.model.CatalogDoorOrWindow;
+import com.eteks.homeview3d.model.CatalogLight;
+import com.eteks.homeview3d.model.CatalogPieceOfFurniture;
+import com.eteks.homeview3d.model.CatalogTexture;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.DimensionLine;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomeDoorOrWindow;
+import com.eteks.homeview3d.model.HomeFurnitureGroup;
+import com.eteks.homeview3d.model.HomeLight;
+import com.eteks.homeview3d.model.HomeMaterial;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.HomeRecorder;
+import com.eteks.homeview3d.model.HomeTexture;
+import com.eteks.homeview3d.model.Label;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.LightSource;
+import com.eteks.homeview3d.model.PatternsCatalog;
+import com.eteks.homeview3d.model.Polyline;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.Sash;
+import com.eteks.homeview3d.model.TextStyle;
+import com.eteks.homeview3d.model.Wall;
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * Checks that homes written in <code>Home.bin</code> entries by {@link HomeBinaryWriter} and
+ * read by {@link HomeBinaryReader} export to the same XML as the original homes and as
+ * homes read from <code>Home.xml</code> entries, then compares the CPU time and the memory
+ * allocated to write and read a synthetic home in both formats.
+ * Run it with <code>java com.eteks.homeview3d.io.HomeBinaryEntryBenchmark [itemCount]</code>.
+ */
+public class HomeBinaryEntryBenchmark {
+  private static final int RUN_COUNT = 5;
+
+  public static void main(String [] args) throws Exception {
+    int itemCount = args.length > 0
+        ? Integer.parseInt(args [0])
+        : 3000;
+    File contentFolder = createTemporaryFolder();
+    try {
+      Home home = createHome(itemCount, contentFolder);
+      byte [] homeXml = writeHomeXml(home);
+      byte [] homeBin = writeHomeBin(home);
+      byte [] expectedXml = exportHome(home);
+      checkSameHome(expectedXml, readHomeXml(homeXml), "SAX parser");
+      checkSameHome(expectedXml, readHomeBin(homeBin), "binary reader");
+      checkSameHomeWithRecorder(home);
+
+      com.sun.management.ThreadMXBean threadBean =
+          (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      for (int i = 0; i < 2; i++) {
+        long [] xmlWrite = new long [2];
+        long [] binWrite = new long [2];
+        long [] xmlRead = new long [2];
+        long [] binRead = new long [2];
+        for (int j = 0; j < 4; j++) {
+          long cpuTime = threadBean.getCurrentThreadCpuTime();
+          long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+          for (int k = 0; k < RUN_COUNT; k++) {
+            switch (j) {
+              case 0 : writeHomeXml(home); break;
+              case 1 : writeHomeBin(home); break;
+              case 2 : readHomeXml(homeXml); break;
+              default : readHomeBin(homeBin); break;
+            }
+          }
+          long [] result = j == 0 ? xmlWrite : (j == 1 ? binWrite : (j == 2 ? xmlRead : binRead));
+          result [0] = (threadBean.getCurrentThreadCpuTime() - cpuTime) / RUN_COUNT / 1000000;
+          result [1] = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes) / RUN_COUNT / 1024;
+        }
+        System.out.println((i == 0 ? "Warm up" : "Run") + " with " + itemCount + " walls, rooms and pieces ("
+            + "Home.xml " + homeXml.length / 1024 + " KB, Home.bin " + homeBin.length / 1024 + " KB): "
+            + "write XML " + xmlWrite [0] + " ms / " + xmlWrite [1] + " KB, "
+            + "write bin " + binWrite [0] + " ms / " + binWrite [1] + " KB, "
+            + "read XML " + xmlRead [0] + " ms / " + xmlRead [1] + " KB, "
+            + "read bin " + binRead [0] + " ms / " + binRead [1] + " KB");
+      }
+    } finally {
+      for (File file : contentFolder.listFiles()) {
+        file.delete();
+      }
+      contentFolder.delete();
+    }
+  }
+
+  private static File createTemporaryFolder() throws IOException {
+    File folder = File.createTempFile("content", "");
+    folder.delete();
+    folder.mkdir();
+    return folder;
+  }
+
+  private static Content createContent(File folder, String name, int size) throws IOException {
+    File file = new File(folder, name);
+    OutputStream out = new FileOutputStream(file);
+    byte [] bytes = new byte [size];
+    new Random(size).nextBytes(bytes);
+    out.write(bytes);
+    out.close();
+    return new URLContent(file.toURI().toURL());
+  }
+
+  /**
+   * Returns a home with walls, rooms and pieces stored in sections, and at least one item
+   * of each kind stored in the XML document of <code>Home.bin</code> entries.
+   */
+  private static Home createHome(int itemCount, File contentFolder) throws IOException {
+    Home home = new Home();
+    Level level0 = new Level("Level 0", 0, 12, 250);
+    Level level1 = new Level("Level 1", 250, 12, 250);
+    home.addLevel(level0);
+    home.addLevel(level1);
+    home.setProperty("author", "benchmark");
+
+    Content icon = createContent(contentFolder, "icon", 100);
+    Content model = createContent(contentFolder, "model", 2000);
+    HomeTexture [] textures = new HomeTexture [5];
+    for (int i = 0; i < textures.length; i++) {
+      textures [i] = new HomeTexture(new CatalogTexture("texture" + i, "Texture " + i,
+          createContent(contentFolder, "texture" + i, 300 + i), 20 + i, 30, "eTeks"), i * 0.1f, i % 2 == 0);
+    }
+    TextStyle nameStyle = new TextStyle("Serif", 24, true, false);
+    TextStyle areaStyle = new TextStyle(18, false, true);
+    Baseboard baseboard = Baseboard.getInstance(1, 10, 0xFFFFFF, null);
+    Baseboard texturedBaseboard = Baseboard.getInstance(1.5f, 12, null, textures [1]);
+    PatternsCatalog patterns = new DefaultUserPreferences(false, null).getPatternsCatalog();
+
+    Random random = new Random(0);
+    CatalogPieceOfFurniture catalogPiece = new CatalogPieceOfFurniture("eTeks#box", "Box", "A box", icon, model,
+        50, 50, 50, 0, true, null, "eTeks", true, new BigDecimal("10.5"), new BigDecimal("0.2"));
+    Wall previousWall = null;
+    for (int i = 0; i < itemCount; i++) {
+      Level level = i % 2 == 0 ? level0 : level1;
+      Wall wall = new Wall(random.nextFloat() * 1000, random.nextFloat() * 1000,
+          random.nextFloat() * 1000, random.nextFloat() * 1000, 10, 250);
+      wall.setLeftSideColor(0xFF0000);
+      wall.setRightSideTexture(textures [i % textures.length]);
+      wall.setRightSideShininess(0.25f);
+      if (i % 10 == 0) {
+        wall.setLeftSideBaseboard(baseboard);
+        wall.setRightSideBaseboard(texturedBaseboard);
+        wall.setHeightAtEnd(200f);
+        wall.setArcExtent(0.5f);
+        wall.setTopColor(0x00FF00);
+        wall.setPattern(patterns.getPattern(i % patterns.getPatterns().size()));
+      }
+      if (i % 3 != 0) {
+        wall.setHeight(240f + i % 3);
+        wall.setProperty("id", String.valueOf(i));
+      }
+      wall.setLevel(level);
+      home.addWall(wall);
+      if (previousWall != null && i % 4 != 0) {
+        wall.setWallAtStart(previousWall);
+        previousWall.setWallAtEnd(wall);
+      }
+      previousWall = wall;
+
+      float [][] points = new float [3 + i % 4][];
+      for (int j = 0; j < points.length; j++) {
+        points [j] = new float [] {i + random.nextFloat() * 100, random.nextFloat() * 100};
+      }
+      Room room = new Room(points);
+      room.setName(i % 5 == 0 ? null : "Room " + i);
+      room.setNameStyle(nameStyle);
+      room.setAreaStyle(i % 2 == 0 ? areaStyle : null);
+      room.setAreaVisible(i % 2 == 0);
+      room.setAreaXOffset(5);
+      room.setFloorColor(i % 3 == 0 ? 0x808080 : null);
+      room.setFloorTexture(i % 3 == 1 ? textures [2] : null);
+      room.setCeilingVisible(i % 7 != 0);
+      room.setCeilingShininess(0.5f);
+      room.setProperty("id", String.valueOf(i));
+      room.setLevel(level);
+      home.addRoom(room);
+
+      HomePieceOfFurniture piece = new HomePieceOfFurniture(catalogPiece);
+      piece.setName("Piece " + i);
+      piece.setX(random.nextFloat() * 1000);
+      piece.setY(random.nextFloat() * 1000);
+      piece.setAngle(random.nextFloat());
+      piece.setModelMirrored(i % 2 == 0);
+      piece.setVisible(i % 11 != 0);
+      if (i % 3 == 0) {
+        piece.setColor(0x0000FF);
+      } else if (i % 3 == 1) {
+        piece.setTexture(textures [3]);
+      }
+      if (i % 4 == 0) {
+        piece.setShininess(0.3f);
+      }
+      piece.setNameVisible(i % 5 == 0);
+      piece.setNameStyle(i % 5 == 0 ? nameStyle : null);
+      piece.setProperty("id", String.valueOf(i));
+      piece.setProperty("tag", "furniture");
+      piece.setLevel(level);
+      home.addPieceOfFurniture(piece);
+    }
+
+    HomeDoorOrWindow door = new HomeDoorOrWindow(new CatalogDoorOrWindow("eTeks#door", "Door", null, icon, model,
+        90, 10, 210, 0, true, 1, 0, new Sash [] {new Sash(0, 0, 90, 0, (float)Math.PI / 2)},
+        null, "eTeks", true, null, null));
+    door.setLevel(level0);
+    home.addPieceOfFurniture(door, 1);
+    HomeLight light = new HomeLight(new CatalogLight("eTeks#light", "Light", null, icon, model,
+        20, 20, 20, 200, true, new LightSource [] {new LightSource(0.5f, 0.5f, 0.5f, 0xFFFFFF)},
+        null, "eTeks", true, null, null));
+    light.setLevel(level1);
+    home.addPieceOfFurniture(light);
+    HomePieceOfFurniture materialPiece = new HomePieceOfFurniture(catalogPiece);
+    materialPiece.setModelMaterials(new HomeMaterial [] {new HomeMaterial("wood", 0x8B4513, null, 0.1f)});
+    home.addPieceOfFurniture(materialPiece, 3);
+    List<HomePieceOfFurniture> groupFurniture = new ArrayList<HomePieceOfFurniture>();
+    groupFurniture.add(new HomePieceOfFurniture(catalogPiece));
+    groupFurniture.add(new HomePieceOfFurniture(catalogPiece));
+    groupFurniture.get(1).setX(100);
+    HomeFurnitureGroup group = new HomeFurnitureGroup(groupFurniture, "Group");
+    home.addPieceOfFurniture(group);
+
+    Label label = new Label("Label", 100, 200);
+    label.setLevel(level0);
+    home.addLabel(label);
+    home.addPolyline(new Polyline(new float [][] {{0, 0}, {100, 100}, {200, 0}}));
+    home.addDimensionLine(new DimensionLine(0, 0, 500, 0, 20));
+    return home;
+  }
+
+  private static byte [] writeHomeXml(Home home) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLWriter writer = new XMLWriter(out);
+    HomeXMLExporter exporter = new HomeXMLExporter();
+    exporter.setSavedContentNames(new HashMap<Content, String>());
+    exporter.writeElement(writer, home);
+    writer.flush();
+    return out.toByteArray();
+  }
+
+  private static byte [] writeHomeBin(Home home) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new HomeBinaryWriter(new HashMap<Content, String>()).write(out, home);
+    return out.toByteArray();
+  }
+
+  private static Home readHomeXml(byte [] homeXml) throws Exception {
+    HomeXMLHandler handler = new HomeXMLHandler();
+    SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(homeXml), handler);
+    return handler.getHome();
+  }
+
+  private static Home readHomeBin(byte [] homeBin) throws IOException {
+    return new HomeBinaryReader().read(new ByteArrayInputStream(homeBin), new HomeXMLHandler());
+  }
+
+  /**
+   * Checks that the <code>Home.bin</code> and <code>Home.xml</code> entries of a file saved
+   * by a recorder are read as the same home, with the index of a file or from a stream.
+   */
+  private static void checkSameHomeWithRecorder(Home home) throws Exception {
+    File homeFile = File.createTempFile("home", ".sh3d");
+    try {
+      HomeRecorder recorder = new HomeFileRecorder(new ContentTypeCompressionPolicy(0),
+          false, null, false, true, false, false, false, true);
+      recorder.writeHome(home, homeFile.getPath());
+      // Read Home.xml entry with a handler subclass
+      DefaultHomeInputStream in = new DefaultHomeInputStream(homeFile, ContentRecording.INCLUDE_ALL_CONTENT,
+          new HomeXMLHandler() { }, null, false, false);
+      byte [] expectedXml;
+      try {
+        expectedXml = exportHome(in.readHome());
+      } finally {
+        in.close();
+      }
+      checkSameHome(expectedXml, recorder.readHome(homeFile.getPath()), "recorder from stream");
+      HomeRecorder lazyRecorder = new HomeFileRecorder(new ContentTypeCompressionPolicy(0),
+          false, null, false, true, false, true, false, true);
+      checkSameHome(expectedXml, lazyRecorder.readHome(homeFile.getPath()), "recorder from index");
+    } finally {
+      homeFile.delete();
+    }
+  }
+
+  /**
+   * Exports the given home to XML with content named after their digest.
+   */
+  private static byte [] exportHome(Home home) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLWriter writer = new XMLWriter(out);
+    HomeXMLExporter exporter = new HomeXMLExporter() {
+        @Override
+        protected String getExportedContentName(Object owner, Content content) {
+          if (content == null) {
+            return null;
+          } else {
+            StringBuilder digest = new StringBuilder();
+            for (byte b : ContentDigestManager.getInstance().getContentDigest(content)) {
+              digest.append(Integer.toHexString(b & 0xFF));
+            }
+            return digest.toString();
+          }
+        }
+      };
+    exporter.setSavedContentNames(new HashMap<Content, String>());
+    exporter.writeElement(writer, home);
+    writer.flush();
+    return out.toByteArray();
+  }
+
+  private static void checkSameHome(byte [] expectedXml, Home readHome, String reader) throws IOException {
+    if (!Arrays.equals(expectedXml, exportHome(readHome))) {
+      throw new AssertionError("Home read by " + reader + " is different");
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package com.eteks.homeview3d.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.eteks.homeview3d.model.BackgroundImage;
+import com.eteks.homeview3d.model.Baseboard;
+import com.eteks.homeview3d.model.CatalogPieceOfFurniture;
+import com.eteks.homeview3d.model.CatalogTexture;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomeFurnitureGroup;
+import com.eteks.homeview3d.model.HomeMaterial;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.HomeTexture;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.Wall;
+import com.eteks.homeview3d.tools.ResourceURLContent;
+import com.eteks.homeview3d.tools.SimpleURLContent;
+import com.eteks.homeview3d.tools.TemporaryURLContent;
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * Compares the CPU time and the memory allocated by {@link HomeContentCollector}
+ * with the serialization dry run that <code>DefaultHomeOutputStream</code> used
+ * to find the content of a home, and checks both collect the same content.
+ * Run it with <code>java com.eteks.homeview3d.io.HomeContentCollectorBenchmark [pieceCount]</code>.
+ */
+public class HomeContentCollectorBenchmark {
+  private static final int CATALOG_PIECE_COUNT = 250;
+  private static final int TEXTURE_COUNT       = 20;
+  private static final int RUN_COUNT           = 10;
+
+  public static void main(String [] args) throws Exception {
+    int pieceCount = args.length > 0
+        ? Integer.parseInt(args [0])
+        : 5000;
+    File contentFolder = File.createTempFile("content", "");
+    contentFolder.delete();
+    contentFolder.mkdir();
+    try {
+      Home home = createHome(contentFolder, pieceCount);
+      checkSameContent(home);
+
+      com.sun.management.ThreadMXBean threadBean =
+          (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      for (int i = 0; i < 2; i++) {
+        long cpuTime = threadBean.getCurrentThreadCpuTime();
+        long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+        for (int j = 0; j < RUN_COUNT; j++) {
+          collectContentWithDryRun(home);
+        }
+        long dryRunCpuTime = threadBean.getCurrentThreadCpuTime() - cpuTime;
+        long dryRunAllocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+
+        cpuTime = threadBean.getCurrentThreadCpuTime();
+        allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+        for (int j = 0; j < RUN_COUNT; j++) {
+          collectContentWithVisitor(home);
+        }
+        long visitorCpuTime = threadBean.getCurrentThreadCpuTime() - cpuTime;
+        long visitorAllocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+
+        if (i > 0) {
+          System.out.println(pieceCount + " pieces, average of " + RUN_COUNT + " runs");
+          System.out.printf("  serialization dry run: %8.2f ms CPU %10d KB allocated%n",
+              dryRunCpuTime / 1E6 / RUN_COUNT, dryRunAllocatedBytes / 1024 / RUN_COUNT);
+          System.out.printf("  content visitor:       %8.2f ms CPU %10d KB allocated%n",
+              visitorCpuTime / 1E6 / RUN_COUNT, visitorAllocatedBytes / 1024 / RUN_COUNT);
+        }
+      }
+    } finally {
+      for (File file : contentFolder.listFiles()) {
+        file.delete();
+      }
+      contentFolder.delete();
+    }
+  }
+
+  /**
+   * Returns a home with grouped furniture, model materials, baseboards,
+   * textured rooms and levels with a background image.
+   */
+  private static Home createHome(File contentFolder, int pieceCount) throws IOException {
+    List<HomeTexture> textures = new ArrayList<HomeTexture>();
+    for (int i = 0; i < TEXTURE_COUNT; i++) {
+      // Give the last texture the same content as the first one to test entries sharing
+      Content image = createContent(contentFolder, "texture" + i, i % (TEXTURE_COUNT - 1));
+      textures.add(new HomeTexture(new CatalogTexture("Texture " + i, image, 50, 50)));
+    }
+    List<CatalogPieceOfFurniture> catalogFurniture = new ArrayList<CatalogPieceOfFurniture>();
+    for (int i = 0; i < CATALOG_PIECE_COUNT; i++) {
+      catalogFurniture.add(new CatalogPieceOfFurniture("Piece " + i,
+          createContent(contentFolder, "icon" + i, 1000 + i),
+          createContent(contentFolder, "model" + i, 2000 + i), 50, 50, 50, true, false));
+    }
+
+    Home home = new Home();
+    home.setBackgroundImage(new BackgroundImage(
+        createContent(contentFolder, "background", 3000), 100, 0, 0, 100, 0, 0, 0));
+    home.getEnvironment().setGroundTexture(textures.get(0));
+    home.getEnvironment().setSkyTexture(textures.get(1));
+    Level [] levels = new Level [3];
+    for (int i = 0; i < levels.length; i++) {
+      levels [i] = new Level("Level " + i, i * 250, 12, 250);
+      levels [i].setBackgroundImage(new BackgroundImage(
+          createContent(contentFolder, "level" + i, 3001 + i), 100, 0, 0, 100, 0, 0, 0));
+      home.addLevel(levels [i]);
+    }
+
+    List<HomePieceOfFurniture> groupedFurniture = new ArrayList<HomePieceOfFurniture>();
+    for (int i = 0; i < pieceCount; i++) {
+      HomePieceOfFurniture piece = new HomePieceOfFurniture(catalogFurniture.get(i % CATALOG_PIECE_COUNT));
+      piece.setX(i % 100 * 60);
+      piece.setY(i / 100 * 60);
+      if (i % 5 == 0) {
+        piece.setModelMaterials(new HomeMaterial [] {
+            new HomeMaterial("material", null, textures.get(i % TEXTURE_COUNT), null), null});
+      } else if (i % 7 == 0) {
+        piece.setTexture(textures.get(i % TEXTURE_COUNT));
+      }
+      piece.setLevel(levels [i % levels.length]);
+      if (i % 10 == 0) {
+        groupedFurniture.add(piece);
+      } else {
+        home.addPieceOfFurniture(piece);
+      }
+    }
+    for (int i = 0; i + 2 <= groupedFurniture.size(); i += 2) {
+      HomeFurnitureGroup group = new HomeFurnitureGroup(
+          new ArrayList<HomePieceOfFurniture>(groupedFurniture.subList(i, i + 2)), "Group " + i);
+      home.addPieceOfFurniture(group);
+    }
+
+    for (int i = 0; i < 100; i++) {
+      Wall wall = new Wall(i * 100, 0, i * 100 + 100, 0, 10, 250);
+      wall.setLeftSideTexture(textures.get(i % TEXTURE_COUNT));
+      wall.setLeftSideBaseboard(Baseboard.getInstance(1, 10, null, textures.get((i + 3) % TEXTURE_COUNT)));
+      wall.setRightSideBaseboard(Baseboard.getInstance(1, 12, null, null));
+      wall.setLevel(levels [i % levels.length]);
+      home.addWall(wall);
+      Room room = new Room(new float [][] {{i * 100, 0}, {i * 100 + 100, 0}, {i * 100 + 100, 100}, {i * 100, 100}});
+      room.setFloorTexture(textures.get((i + 5) % TEXTURE_COUNT));
+      room.setCeilingTexture(textures.get((i + 7) % TEXTURE_COUNT));
+      room.setLevel(levels [i % levels.length]);
+      home.addRoom(room);
+    }
+    return home;
+  }
+
+  private static Content createContent(File contentFolder, String name, int seed) throws IOException {
+    File file = new File(contentFolder, name);
+    OutputStream out = new FileOutputStream(file);
+    byte [] data = new byte [4096];
+    Arrays.fill(data, (byte)seed);
+    data [0] = (byte)(seed >> 8);
+    out.write(data);
+    out.close();
+    return new TemporaryURLContent(file.toURI().toURL());
+  }
+
+  /**
+   * Checks the visitor finds the same content and the same count of shared entries
+   * as the serialization dry run.
+   */
+  private static void checkSameContent(Home home) throws IOException {
+    Map<Content, String> dryRunContentNames = collectContentWithDryRun(home);
+    Map<Content, String> visitorContentNames = collectContentWithVisitor(home);
+    Set<Content> dryRunContents = newIdentitySet(dryRunContentNames.keySet());
+    Set<Content> visitorContents = newIdentitySet(visitorContentNames.keySet());
+    if (!dryRunContents.equals(visitorContents)) {
+      throw new AssertionError("Different content: " + dryRunContents.size()
+          + " found by dry run, " + visitorContents.size() + " found by visitor");
+    }
+    int dryRunEntryCount = new HashSet<String>(dryRunContentNames.values()).size();
+    int visitorEntryCount = new HashSet<String>(visitorContentNames.values()).size();
+    if (dryRunEntryCount != visitorEntryCount) {
+      throw new AssertionError("Different entry count: " + dryRunEntryCount
+          + " for dry run, " + visitorEntryCount + " for visitor");
+    }
+    System.out.println("Same " + visitorContents.size() + " contents saved in "
+        + visitorEntryCount + " entries");
+  }
+
+  private static Set<Content> newIdentitySet(Set<Content> contents) {
+    Set<Content> identitySet = Collections.newSetFromMap(
+        new IdentityHashMap<Content, Boolean>());
+    identitySet.addAll(contents);
+    return identitySet;
+  }
+
+  private static Map<Content, String> collectContentWithVisitor(Home home) throws IOException {
+    HomeContentCollector contentCollector = new HomeContentCollector(ContentRecording.INCLUDE_TEMPORARY_CONTENT);
+    contentCollector.collectContent(home);
+    return contentCollector.getSavedContentNames();
+  }
+
+  private static Map<Content, String> collectContentWithDryRun(Home home) throws IOException {
+    HomeContentObjectsTracker contentTracker = new HomeContentObjectsTracker(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+        }
+      });
+    contentTracker.writeObject(home);
+    return contentTracker.getSavedContentNames();
+  }
+
+  /**
+   * The serialization dry run formerly used by <code>DefaultHomeOutputStream</code>
+   * with {@link ContentRecording#INCLUDE_TEMPORARY_CONTENT} recording.
+   */
+  private static class HomeContentObjectsTracker extends ObjectOutputStream {
+    private Map<Content, String> savedContentNames = new LinkedHashMap<Content, String>();
+    private int savedContentIndex = 0;
+
+    public HomeContentObjectsTracker(OutputStream out) throws IOException {
+      super(out);
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+      if (obj instanceof TemporaryURLContent
+          || obj instanceof HomeURLContent) {
+        String subEntryName = "";
+        if (obj instanceof URLContent) {
+          URLContent urlContent = (URLContent)obj;
+          ContentDigestManager contentDigestManager = ContentDigestManager.getInstance();
+          for (Map.Entry<Content, String> contentEntry : this.savedContentNames.entrySet()) {
+            if (contentDigestManager.equals(urlContent, contentEntry.getKey())) {
+              this.savedContentNames.put((Content)obj, contentEntry.getValue());
+              return obj;
+            }
+          }
+          if (Thread.interrupted()) {
+            throw new InterruptedIOException();
+          }
+          if (urlContent.isJAREntry()) {
+            String entryName = urlContent.getJAREntryName();
+            if (urlContent instanceof HomeURLContent) {
+              int slashIndex = entryName.indexOf('/');
+              if (slashIndex > 0) {
+                subEntryName = entryName.substring(slashIndex);
+              }
+            } else if (urlContent instanceof ResourceURLContent) {
+              ResourceURLContent resourceUrlContent = (ResourceURLContent)urlContent;
+              if (resourceUrlContent.isMultiPartResource()) {
+                int lastSlashIndex = entryName.lastIndexOf('/');
+                if (lastSlashIndex != -1) {
+                  subEntryName = entryName.substring(lastSlashIndex);
+                }
+              }
+            } else if (!(urlContent instanceof SimpleURLContent)) {
+              subEntryName = "/" + entryName;
+            }
+          } else if (urlContent instanceof ResourceURLContent) {
+            ResourceURLContent resourceUrlContent = (ResourceURLContent)urlContent;
+            if (resourceUrlContent.isMultiPartResource()) {
+              try {
+                subEntryName = "/" + new File(resourceUrlContent.getURL().toURI()).getName();
+              } catch (URISyntaxException ex) {
+                IOException ex2 = new IOException();
+                ex2.initCause(ex);
+                throw ex2;
+              }
+            }
+          }
+        }
+
+        String homeContentPath = this.savedContentIndex++ + subEntryName;
+        this.savedContentNames.put((Content)obj, homeContentPath);
+      }
+      return obj;
+    }
+
+    public Map<Content, String> getSavedContentNames() {
+      return this.savedContentNames;
+    }
+  }
+}
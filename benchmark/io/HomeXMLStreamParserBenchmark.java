@@ -0,0 +1,144 @@
+package com.eteks.homeview3d.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import com.eteks.homeview3d.model.Baseboard;
+import com.eteks.homeview3d.model.CatalogPieceOfFurniture;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.Wall;
+
+/**
+ * Compares the CPU time and the memory allocated by {@link HomeXMLHandler} to read
+ * a synthetic <code>Home.xml</code> entry with a SAX parser and with {@link HomeXMLStreamParser},
+ * and checks that both parsers and {@link HomeFileRecorder} build the same home.
+ * Run it with <code>java com.eteks.homeview3d.io.HomeXMLStreamParserBenchmark [itemCount]</code>.
+ */
+public class HomeXMLStreamParserBenchmark {
+  private static final int RUN_COUNT = 5;
+
+  public static void main(String [] args) throws Exception {
+    int itemCount = args.length > 0
+        ? Integer.parseInt(args [0])
+        : 3000;
+    Home home = createHome(itemCount);
+    byte [] homeXml = exportHome(home);
+    checkSameHome(home, readHomeWithSaxParser(homeXml), "SAX parser");
+    checkSameHome(home, readHomeWithStreamParser(homeXml), "StAX parser");
+    checkSameHomeWithRecorder(home);
+
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int i = 0; i < 2; i++) {
+      long cpuTime = threadBean.getCurrentThreadCpuTime();
+      long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+      for (int j = 0; j < RUN_COUNT; j++) {
+        readHomeWithSaxParser(homeXml);
+      }
+      long saxCpuTime = (threadBean.getCurrentThreadCpuTime() - cpuTime) / RUN_COUNT;
+      long saxAllocatedBytes = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes) / RUN_COUNT;
+
+      cpuTime = threadBean.getCurrentThreadCpuTime();
+      allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+      for (int j = 0; j < RUN_COUNT; j++) {
+        readHomeWithStreamParser(homeXml);
+      }
+      long staxCpuTime = (threadBean.getCurrentThreadCpuTime() - cpuTime) / RUN_COUNT;
+      long staxAllocatedBytes = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes) / RUN_COUNT;
+
+      System.out.println((i == 0 ? "Warm up" : "Run") + " with " + itemCount + " walls, rooms and pieces ("
+          + homeXml.length / 1024 + " KB): "
+          + "SAX " + saxCpuTime / 1000000 + " ms / " + saxAllocatedBytes / 1024 + " KB, "
+          + "StAX " + staxCpuTime / 1000000 + " ms / " + staxAllocatedBytes / 1024 + " KB");
+    }
+  }
+
+  private static Home createHome(int itemCount) {
+    Home home = new Home();
+    Level level = new Level("Level 0", 0, 12, 250);
+    home.addLevel(level);
+    Random random = new Random(0);
+    CatalogPieceOfFurniture catalogPiece = new CatalogPieceOfFurniture("Box", null, null, 50, 50, 50, true, false);
+    for (int i = 0; i < itemCount; i++) {
+      Wall wall = new Wall(random.nextFloat() * 1000, random.nextFloat() * 1000,
+          random.nextFloat() * 1000, random.nextFloat() * 1000, 10, 250);
+      wall.setLeftSideColor(0xFF0000);
+      if (i % 10 == 0) {
+        wall.setLeftSideBaseboard(Baseboard.getInstance(1, 10, 0xFFFFFF, null));
+      }
+      home.addWall(wall);
+
+      Room room = new Room(new float [][] {{i, 0}, {i + 100, 0}, {i + 100, 100}, {i, 100}});
+      room.setName("Room " + i);
+      room.setProperty("id", String.valueOf(i));
+      home.addRoom(room);
+
+      HomePieceOfFurniture piece = new HomePieceOfFurniture(catalogPiece);
+      piece.setName("Piece " + i);
+      piece.setX(random.nextFloat() * 1000);
+      piece.setY(random.nextFloat() * 1000);
+      piece.setAngle(random.nextFloat());
+      home.addPieceOfFurniture(piece);
+    }
+    return home;
+  }
+
+  private static byte [] exportHome(Home home) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLWriter writer = new XMLWriter(out);
+    HomeXMLExporter exporter = new HomeXMLExporter();
+    exporter.setSavedContentNames(new HashMap<Content, String>());
+    exporter.writeElement(writer, home);
+    writer.flush();
+    return out.toByteArray();
+  }
+
+  private static Home readHomeWithSaxParser(byte [] homeXml) throws Exception {
+    HomeXMLHandler handler = new HomeXMLHandler();
+    SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(homeXml), handler);
+    return handler.getHome();
+  }
+
+  private static Home readHomeWithStreamParser(byte [] homeXml) throws Exception {
+    HomeXMLHandler handler = new HomeXMLHandler();
+    new HomeXMLStreamParser().parse(new ByteArrayInputStream(homeXml), handler);
+    return handler.getHome();
+  }
+
+  /**
+   * Checks a home saved and read by a recorder using the StAX parser is the same as the given home.
+   */
+  private static void checkSameHomeWithRecorder(Home home) throws Exception {
+    File homeFile = File.createTempFile("home", ".sh3d");
+    try {
+      HomeFileRecorder recorder = new HomeFileRecorder(new ContentTypeCompressionPolicy(0),
+          false, null, false, true, false, false, true);
+      recorder.writeHome(home, homeFile.getPath());
+      checkSameHome(home, recorder.readHome(homeFile.getPath()), "recorder");
+    } finally {
+      homeFile.delete();
+    }
+  }
+
+  /**
+   * Checks the given read home exports to the same XML as the original home.
+   */
+  private static void checkSameHome(Home home, Home readHome, String reader) throws IOException {
+    if (!Arrays.equals(exportHome(home), exportHome(readHome))) {
+      throw new AssertionError("Home read by " + reader + " is different");
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.eteks.homeview3d.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.eteks.homeview3d.model.Library;
+
+/**
+ * Measures the time spent by {@link PluginManager} to read synthetic plugin files
+ * with and without a plugin library index. Checks that a newer plugin file with
+ * an invalid class doesn't hide an older valid version of the same plugin,
+ * and that plugins with an invalid class aren't listed.
+ * Run it with <code>java com.eteks.homeview3d.plugin.PluginManagerStartupBenchmark [pluginCount [entryCount]]</code>.
+ */
+public class PluginManagerStartupBenchmark {
+  private static final String PLUGIN_PACKAGE = "com/eteks/homeview3d/plugin/";
+  private static final int    RUN_COUNT      = 5;
+
+  public static void main(String [] args) throws Exception {
+    int pluginCount = args.length > 0
+        ? Integer.parseInt(args [0])
+        : 60;
+    int entryCount = args.length > 1
+        ? Integer.parseInt(args [1])
+        : 400;
+    File pluginFolder = File.createTempFile("plugins", "");
+    pluginFolder.delete();
+    pluginFolder.mkdir();
+    File indexFile = new File(pluginFolder.getParentFile(), pluginFolder.getName() + ".index");
+    try {
+      byte [] pluginClassBytes = readClassBytes(SamplePlugin.class);
+      for (int i = 0; i < pluginCount; i++) {
+        writePluginFile(new File(pluginFolder, "Sample" + i + "-1.0.jar"), "Sample" + i, "1.0",
+            SamplePlugin.class.getName(), pluginClassBytes, entryCount);
+      }
+      // Newer version of the first plugin referencing a missing class
+      writePluginFile(new File(pluginFolder, "Sample0-2.0.jar"), "Sample0", "2.0",
+          "com.eteks.homeview3d.plugin.MissingPlugin", null, entryCount);
+      // Plugin referencing a missing class that mustn't be listed
+      writePluginFile(new File(pluginFolder, "Broken-1.0.jar"), "Broken", "1.0",
+          "com.eteks.homeview3d.plugin.MissingPlugin", null, entryCount);
+
+      File [] pluginFolders = {pluginFolder};
+      checkOlderValidPluginKept(new PluginManager(pluginFolders), pluginCount);
+
+      for (int i = 0; i < 2; i++) {
+        long start = System.nanoTime();
+        for (int j = 0; j < RUN_COUNT; j++) {
+          new PluginManager(pluginFolders);
+        }
+        long noIndexTime = (System.nanoTime() - start) / RUN_COUNT;
+
+        indexFile.delete();
+        start = System.nanoTime();
+        new PluginManager(pluginFolders, indexFile);
+        long indexCreationTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        PluginManager pluginManager = null;
+        for (int j = 0; j < RUN_COUNT; j++) {
+          pluginManager = new PluginManager(pluginFolders, indexFile);
+        }
+        long indexTime = (System.nanoTime() - start) / RUN_COUNT;
+        checkOlderValidPluginKept(pluginManager, pluginCount);
+
+        System.out.println((i == 0 ? "Warm up" : "Run") + " with " + (pluginCount + 2) + " plugin files of "
+            + entryCount + " entries: "
+            + "no index " + noIndexTime / 1000000 + " ms, "
+            + "index creation " + indexCreationTime / 1000000 + " ms, "
+            + "with index " + indexTime / 1000000 + " ms");
+      }
+    } finally {
+      File [] pluginFiles = pluginFolder.listFiles();
+      if (pluginFiles != null) {
+        for (File pluginFile : pluginFiles) {
+          pluginFile.delete();
+        }
+      }
+      pluginFolder.delete();
+      indexFile.delete();
+    }
+  }
+
+  /**
+   * Checks all the valid plugins are listed and that the valid version of the first plugin was kept.
+   */
+  private static void checkOlderValidPluginKept(PluginManager pluginManager, int pluginCount) {
+    List<Library> pluginLibraries = pluginManager.getPluginLibraries();
+    if (pluginLibraries.size() != pluginCount) {
+      throw new AssertionError("Expected " + pluginCount + " plugins, got " + pluginLibraries.size());
+    }
+    for (Library library : pluginLibraries) {
+      if ("Sample0".equals(library.getName())
+          && !"1.0".equals(library.getVersion())) {
+        throw new AssertionError("Invalid plugin version " + library.getVersion() + " kept");
+      }
+    }
+  }
+
+  private static byte [] readClassBytes(Class<?> pluginClass) throws IOException {
+    String classFile = pluginClass.getName().substring(pluginClass.getName().lastIndexOf('.') + 1) + ".class";
+    InputStream in = pluginClass.getResourceAsStream(classFile);
+    try {
+      byte [] bytes = new byte [0];
+      byte [] buffer = new byte [8192];
+      for (int size; (size = in.read(buffer)) != -1; ) {
+        byte [] newBytes = new byte [bytes.length + size];
+        System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+        System.arraycopy(buffer, 0, newBytes, bytes.length, size);
+        bytes = newBytes;
+      }
+      return bytes;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes a plugin file containing <code>entryCount</code> dummy entries,
+   * an <code>ApplicationPlugin.properties</code> file and the given plugin class if not <code>null</code>.
+   */
+  private static void writePluginFile(File pluginFile, String name, String version,
+                                      String pluginClassName, byte [] pluginClassBytes,
+                                      int entryCount) throws IOException {
+    ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(pluginFile));
+    try {
+      String packageFolder = PLUGIN_PACKAGE + name.toLowerCase() + "/";
+      for (int i = 0; i < entryCount; i++) {
+        zipOut.putNextEntry(new ZipEntry(packageFolder + "resources/Resource" + i + ".txt"));
+        zipOut.write(("Resource " + i).getBytes("ISO-8859-1"));
+        zipOut.closeEntry();
+      }
+      zipOut.putNextEntry(new ZipEntry(packageFolder + "ApplicationPlugin.properties"));
+      String properties = "id=" + name + "\n"
+          + "name=" + name + "\n"
+          + "class=" + pluginClassName + "\n"
+          + "description=Synthetic plugin\n"
+          + "version=" + version + "\n"
+          + "license=GNU GPL\n"
+          + "provider=eTeks\n"
+          + "applicationMinimumVersion=1.0\n"
+          + "javaMinimumVersion=1.5\n";
+      zipOut.write(properties.getBytes("ISO-8859-1"));
+      zipOut.closeEntry();
+      if (pluginClassBytes != null) {
+        zipOut.putNextEntry(new ZipEntry(pluginClassName.replace('.', '/') + ".class"));
+        zipOut.write(pluginClassBytes);
+        zipOut.closeEntry();
+      }
+    } finally {
+      zipOut.close();
+    }
+  }
+
+  public static class SamplePlugin extends Plugin {
+    @Override
+    public PluginAction [] getActions() {
+      return new PluginAction [0];
+    }
+  }
+}
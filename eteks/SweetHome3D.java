@@ -72,6 +72,7 @@ import com.eteks.homeview3d.model.UserPreferences;
 import com.eteks.homeview3d.plugin.HomePluginController;
 import com.eteks.homeview3d.plugin.PluginManager;
 import com.eteks.homeview3d.swing.FileContentManager;
+import com.eteks.homeview3d.swing.IconManager;
 import com.eteks.homeview3d.swing.SwingTools;
 import com.eteks.homeview3d.swing.SwingViewFactory;
 import com.eteks.homeview3d.tools.OperatingSystem;
@@ -84,6 +85,8 @@ public class HomeView3D extends HomeApplication {
   private static final String     PREFERENCES_FOLDER             = "com.eteks.homeview3d.preferencesFolder";
   private static final String     APPLICATION_FOLDERS            = "com.eteks.homeview3d.applicationFolders";
   private static final String     APPLICATION_PLUGINS_SUB_FOLDER = "plugins";
+  private static final String     ICON_THUMBNAILS_SUB_FOLDER     = "thumbnails";
+  private static final String     PLUGIN_LIBRARY_INDEX_FILE      = "pluginLibraries.index";
 
   private HomeRecorder            homeRecorder;
   private HomeRecorder            compressedHomeRecorder;
@@ -104,7 +107,7 @@ public class HomeView3D extends HomeApplication {
   public HomeRecorder getHomeRecorder() {
 
     if (this.homeRecorder == null) {
-      this.homeRecorder = new HomeFileRecorder(0, false, getUserPreferences(), false, true);
+      this.homeRecorder = new HomeFileRecorder(0, false, getUserPreferences(), false, true, true, true);
     }
     return this.homeRecorder;
   }
@@ -174,11 +177,23 @@ public class HomeView3D extends HomeApplication {
             }
           }
         };
+      try {
+        // Keep scaled icons of catalogs in later sessions
+        IconManager.getInstance().setThumbnailFolder(new File(getPreferencesFolder(), ICON_THUMBNAILS_SUB_FOLDER));
+      } catch (IOException ex) {
+      }
       this.checkUpdatesNeeded = this.userPreferences.isCheckUpdatesEnabled();
     }
     return this.userPreferences;
   }
 
+  private File getPreferencesFolder() throws IOException {
+    String preferencesFolderProperty = System.getProperty(PREFERENCES_FOLDER, null);
+    return preferencesFolderProperty != null
+        ? new File(preferencesFolderProperty)
+        : OperatingSystem.getDefaultApplicationFolder();
+  }
+
   protected ContentManager getContentManager() {
     if (this.contentManager == null) {
       this.contentManager = new FileContentManagerWithRecordedLastDirectories(getUserPreferences(), getClass());
@@ -200,7 +215,8 @@ public class HomeView3D extends HomeApplication {
         if (userPreferences instanceof FileUserPreferences) {
           File [] applicationPluginsFolders = ((FileUserPreferences) userPreferences)
               .getApplicationSubfolders(APPLICATION_PLUGINS_SUB_FOLDER);
-          this.pluginManager = new PluginManager(applicationPluginsFolders);
+          this.pluginManager = new PluginManager(applicationPluginsFolders, 
+              new File(getPreferencesFolder(), PLUGIN_LIBRARY_INDEX_FILE));
         }
       } catch (IOException ex) {
       }
@@ -0,0 +1,215 @@
+package com.eteks.homeview3d.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.eteks.homeview3d.model.AutoCompletionTrie;
+
+/**
+ * A file recording the uses of auto completion strings, to save them without rewriting
+ * all the strings at each change. The journal lists the uses of strings appended after
+ * the snapshots of auto completion tries, and it's rewritten with new snapshots once it
+ * contains too many uses.
+ */
+class AutoCompletionJournal {
+  private static final int  JOURNAL_VERSION       = 1;
+  private static final byte SNAPSHOT_RECORD       = 'S';
+  private static final byte STRING_RECORD         = 'E';
+  private static final byte USE_RECORD            = 'U';
+  // Count of uses recorded in journal beyond which it's rewritten
+  private static final int  MAXIMUM_USE_COUNT     = 1000;
+  // Maximum length of a string that can always be written with writeUTF
+  private static final int  MAXIMUM_STRING_LENGTH = 65535 / 3;
+
+  private final File         journalFile;
+  private final List<String> pendingUses;
+  private final Set<String>  pendingSnapshots;
+  private int                useCount;
+  private boolean            rewriteNeeded;
+
+  public AutoCompletionJournal(File journalFile) {
+    this.journalFile = journalFile;
+    this.pendingUses = new ArrayList<String>();
+    this.pendingSnapshots = new LinkedHashSet<String>();
+  }
+
+  /**
+   * Returns <code>true</code> if the journal file exists.
+   */
+  public boolean exists() {
+    return this.journalFile.exists();
+  }
+
+  /**
+   * Returns the auto completion tries read from the journal file, mapped to their property.
+   */
+  public Map<String, AutoCompletionTrie> read() throws IOException {
+    Map<String, AutoCompletionTrie> autoCompletionTries = new LinkedHashMap<String, AutoCompletionTrie>();
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journalFile)));
+    } catch (FileNotFoundException ex) {
+      return autoCompletionTries;
+    }
+    try {
+      if (in.readInt() != JOURNAL_VERSION) {
+        this.rewriteNeeded = true;
+        return autoCompletionTries;
+      }
+      while (true) {
+        int record = in.read();
+        if (record == -1) {
+          break;
+        }
+        String property = in.readUTF();
+        if (record == SNAPSHOT_RECORD) {
+          autoCompletionTries.put(property, new AutoCompletionTrie());
+        } else {
+          String string = in.readUTF();
+          AutoCompletionTrie autoCompletionTrie = autoCompletionTries.get(property);
+          if (autoCompletionTrie == null) {
+            autoCompletionTrie = new AutoCompletionTrie();
+            autoCompletionTries.put(property, autoCompletionTrie);
+          }
+          if (record == STRING_RECORD) {
+            float weight = in.readFloat();
+            autoCompletionTrie.add(string, weight, in.readLong());
+          } else if (record == USE_RECORD) {
+            autoCompletionTrie.add(string);
+            this.useCount++;
+          } else {
+            throw new IOException("Unknown record " + record);
+          }
+        }
+      }
+    } catch (IOException ex) {
+      // Ignore the records following a damaged or partially written record
+      this.rewriteNeeded = true;
+    } finally {
+      in.close();
+    }
+    return autoCompletionTries;
+  }
+
+  /**
+   * Records a use of the given string to append it to the journal at next write.
+   */
+  public synchronized void addUse(String property, String string) {
+    if (property.length() <= MAXIMUM_STRING_LENGTH
+        && string.length() <= MAXIMUM_STRING_LENGTH) {
+      this.pendingUses.add(property);
+      this.pendingUses.add(string);
+    }
+  }
+
+  /**
+   * Records that all the strings of the given property should be written at next write.
+   */
+  public synchronized void addSnapshot(String property) {
+    if (property.length() <= MAXIMUM_STRING_LENGTH) {
+      this.pendingSnapshots.add(property);
+    }
+  }
+
+  /**
+   * Appends the pending uses and snapshots to the journal, or rewrites it with the snapshots
+   * of the given tries if it doesn't exist or contains too many uses.
+   */
+  public synchronized void write(Map<String, AutoCompletionTrie> autoCompletionTries) throws IOException {
+    boolean rewrite = this.rewriteNeeded
+        || !this.journalFile.exists()
+        || this.useCount + this.pendingUses.size() / 2 > MAXIMUM_USE_COUNT;
+    if (!rewrite
+        && this.pendingUses.isEmpty()
+        && this.pendingSnapshots.isEmpty()) {
+      return;
+    } else if (rewrite) {
+      File parentFile = this.journalFile.getParentFile();
+      if (parentFile != null
+          && !parentFile.exists()) {
+        parentFile.mkdirs();
+      }
+      File tempFile = File.createTempFile("journal", ".tmp", parentFile);
+      try {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+          out.writeInt(JOURNAL_VERSION);
+          for (Map.Entry<String, AutoCompletionTrie> entry : autoCompletionTries.entrySet()) {
+            if (entry.getKey().length() <= MAXIMUM_STRING_LENGTH) {
+              writeSnapshot(out, entry.getKey(), entry.getValue());
+            }
+          }
+        } finally {
+          out.close();
+        }
+        if (!tempFile.renameTo(this.journalFile)
+            && (!this.journalFile.delete() || !tempFile.renameTo(this.journalFile))) {
+          throw new IOException("Can't replace " + this.journalFile);
+        }
+        this.useCount = 0;
+        this.rewriteNeeded = false;
+      } finally {
+        tempFile.delete();
+      }
+    } else {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalFile, true)));
+      try {
+        // Snapshots already contain the uses of their property
+        for (int i = 0; i < this.pendingUses.size(); i += 2) {
+          String property = this.pendingUses.get(i);
+          if (!this.pendingSnapshots.contains(property)) {
+            out.writeByte(USE_RECORD);
+            out.writeUTF(property);
+            out.writeUTF(this.pendingUses.get(i + 1));
+            this.useCount++;
+          }
+        }
+        for (String property : this.pendingSnapshots) {
+          AutoCompletionTrie autoCompletionTrie = autoCompletionTries.get(property);
+          if (autoCompletionTrie != null) {
+            writeSnapshot(out, property, autoCompletionTrie);
+          }
+        }
+      } catch (IOException ex) {
+        // Ensure the journal won't be appended after a partial record
+        this.rewriteNeeded = true;
+        throw ex;
+      } finally {
+        out.close();
+      }
+    }
+    this.pendingUses.clear();
+    this.pendingSnapshots.clear();
+  }
+
+  private void writeSnapshot(DataOutputStream out, String property,
+                             AutoCompletionTrie autoCompletionTrie) throws IOException {
+    out.writeByte(SNAPSHOT_RECORD);
+    out.writeUTF(property);
+    List<String> strings = autoCompletionTrie.getStrings();
+    // Write strings from the lowest ranked one to restore them in the same order
+    for (int i = strings.size() - 1; i >= 0; i--) {
+      String string = strings.get(i);
+      if (string.length() <= MAXIMUM_STRING_LENGTH) {
+        out.writeByte(STRING_RECORD);
+        out.writeUTF(property);
+        out.writeUTF(string);
+        out.writeFloat(autoCompletionTrie.getWeight(string));
+        out.writeLong(autoCompletionTrie.getLastUse(string));
+      }
+    }
+  }
+}
@@ -38,17 +38,32 @@ public class AutoRecoveryManager {
   private static final String RECOVERY_SUB_FOLDER      = "recovery";
   private static final String RECOVERED_FILE_EXTENSION = ".recovered";
   private static final String UNRECOVERABLE_FILE_EXTENSION = ".unrecoverable";
+  private static final String JOURNAL_FILE_EXTENSION   = ".journal";
 
   private final HomeApplication             application;
   private final List<Home>                  recoveredHomes      = new ArrayList<Home>();
   private final Map<Home, File>             autoSavedFiles      = new HashMap<Home, File>();
   private final Map<File, FileOutputStream> lockedOutputStreams = new HashMap<File, FileOutputStream>();
+  private final Map<Home, RecoveryJournal>  recoveryJournals    = new HashMap<Home, RecoveryJournal>();
   private final ExecutorService             autoSaveForRecoveryExecutor;
+  private final HomeRecorder                recoveryHomeRecorder;
   private Timer                             timer;
   private long                              lastAutoSaveTime;
 
   public AutoRecoveryManager(HomeApplication application) throws RecorderException {
+    this(application, null);
+  }
+
+  /**
+   * Creates a manager which saves recovered homes with entries compressed as chosen 
+   * by <code>compressionPolicy</code>, or with the recorder of the application if it's <code>null</code>.
+   */
+  public AutoRecoveryManager(HomeApplication application,
+                             EntryCompressionPolicy compressionPolicy) throws RecorderException {
     this.application = application;
+    this.recoveryHomeRecorder = compressionPolicy != null
+        ? new HomeFileRecorder(compressionPolicy, false, application.getUserPreferences(), false, false, true)
+        : null;
     this.autoSaveForRecoveryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
         public Thread newThread(Runnable runnable) {
           Thread thread = new Thread(runnable);
@@ -72,15 +87,14 @@ public class AutoRecoveryManager {
         public void collectionChanged(CollectionEvent<Home> ev) {
           if (ev.getType() == CollectionEvent.Type.DELETE) {
             final Home home = ev.getItem();
+            final RecoveryJournal journal = recoveryJournals.remove(home);
+            if (journal != null) {
+              journal.dispose();
+            }
             autoSaveForRecoveryExecutor.submit(new Runnable() {
                 public void run() {
                   try {
-                    final File homeFile = autoSavedFiles.get(home);
-                    if (homeFile != null) {
-                      freeLockedFile(homeFile);
-                      homeFile.delete();
-                      autoSavedFiles.remove(home);
-                    }
+                    deleteAutoSavedFile(home, journal);
                   } catch (RecorderException ex) {
                   }
                 }
@@ -122,6 +136,17 @@ public class AutoRecoveryManager {
         if (!isFileLocked(file)) {
           try {
             final Home home = this.application.getHomeRecorder().readHome(file.getPath());
+            final File journalFile = getJournalFile(file);
+            if (journalFile.exists()) {
+              try {
+                RecoveryJournal.replay(home, journalFile, file);
+              } catch (IOException ex) {
+                // Keep the changes applied before the error
+                ex.printStackTrace();
+              } catch (ClassNotFoundException ex) {
+                ex.printStackTrace();
+              }
+            }
             if (home.getName() == null 
                 || !file.equals(new File(home.getName()))) {
               home.setRecovered(true);
@@ -129,6 +154,7 @@ public class AutoRecoveryManager {
                   public void propertyChange(PropertyChangeEvent evt) {
                     if (!home.isRecovered()) {
                       file.delete();
+                      journalFile.delete();
                     }
                   }
                 });
@@ -139,6 +165,7 @@ public class AutoRecoveryManager {
             //  
             file.renameTo(new File(recoveryFolder, 
                 file.getName().replace(RECOVERED_FILE_EXTENSION, UNRECOVERABLE_FILE_EXTENSION)));
+            getJournalFile(file).delete();
           }
         }
       }
@@ -213,12 +240,54 @@ public class AutoRecoveryManager {
       EventQueue.invokeAndWait(new Runnable() {
           public void run() {
             for (final Home home : application.getHomes()) {
-              final Home autoSavedHome = home.clone();
-              final HomeRecorder homeRecorder = application.getHomeRecorder();
+              RecoveryJournal journal = recoveryJournals.get(home);
+              if (journal == null) {
+                journal = new RecoveryJournal(home);
+                recoveryJournals.put(home, journal);
+              }
+              final RecoveryJournal homeJournal = journal;
+              if (!home.isModified()) {
+                homeJournal.requireCheckpoint();
+                autoSaveForRecoveryExecutor.submit(new Runnable() {
+                    public void run() {
+                      try {
+                        deleteAutoSavedFile(home, homeJournal);
+                      } catch (RecorderException ex) {
+                        ex.printStackTrace();
+                      }
+                    }
+                  });
+                continue;
+              } else if (!homeJournal.isCheckpointNeeded()) {
+                // Append only the changes made since last save to the journal of the last checkpoint
+                try {
+                  final byte [] changes = homeJournal.writeChanges();
+                  if (changes != null) {
+                    autoSaveForRecoveryExecutor.submit(new Runnable() {
+                        public void run() {
+                          try {
+                            homeJournal.appendToJournalFile(changes);
+                          } catch (IOException ex) {
+                            ex.printStackTrace();
+                          }
+                        }
+                      });
+                  }
+                  continue;
+                } catch (IOException ex) {
+                  // Save home in a new checkpoint
+                }
+              }
+              
+              final Home autoSavedHome = home.createSnapshot();
+              homeJournal.reset();
+              final HomeRecorder homeRecorder = recoveryHomeRecorder != null
+                  ? recoveryHomeRecorder
+                  : application.getHomeRecorder();
               autoSaveForRecoveryExecutor.submit(new Runnable() {
                 public void run() {
                   try {
-                    saveHome(home, autoSavedHome, homeRecorder);
+                    saveHome(home, autoSavedHome, homeRecorder, homeJournal);
                   } catch (RecorderException ex) {
                     ex.printStackTrace();
                   }
@@ -233,7 +302,11 @@ public class AutoRecoveryManager {
     }
   }
 
-  private void saveHome(Home home, Home autoSavedHome, HomeRecorder homeRecorder) throws RecorderException {
+  /**
+   * Saves the given home in a checkpoint file and starts its journal. 
+   */
+  private void saveHome(Home home, Home autoSavedHome, HomeRecorder homeRecorder, 
+                        RecoveryJournal journal) throws RecorderException {
     File autoSavedHomeFile = this.autoSavedFiles.get(home);
     if (autoSavedHomeFile == null) {
       File recoveredFilesFolder = getRecoveryFolder();
@@ -255,9 +328,11 @@ public class AutoRecoveryManager {
       }
     }
     freeLockedFile(autoSavedHomeFile);        
-    if (autoSavedHome.isModified()) {
-      this.autoSavedFiles.put(home, autoSavedHomeFile);
-      try {
+    boolean journalStarted = false;
+    try {
+      if (autoSavedHome.isModified()) {
+        this.autoSavedFiles.put(home, autoSavedHomeFile);
+        journal.deleteJournalFile();
         homeRecorder.writeHome(autoSavedHome, autoSavedHomeFile.getPath());
         
         FileOutputStream lockedOutputStream = null;
@@ -275,16 +350,51 @@ public class AutoRecoveryManager {
           }
           throw new RecorderException("Can't lock saved home", ex);            
         }
-      } catch (InterruptedRecorderException ex) {
-        // ͼ 
-      } 
-    } else {
-      autoSavedHomeFile.delete();
-      this.autoSavedFiles.remove(home);
+        
+        try {
+          journal.startJournalFile(getJournalFile(autoSavedHomeFile), autoSavedHomeFile);
+          journalStarted = true;
+        } catch (IOException ex) {
+          throw new RecorderException("Can't create recovery journal", ex);
+        }
+      } else {
+        autoSavedHomeFile.delete();
+        this.autoSavedFiles.remove(home);
+        journal.deleteJournalFile();
+      }
+    } catch (InterruptedRecorderException ex) {
+      // ͼ 
+    } finally {
+      if (!journalStarted) {
+        // Next changes will be saved in a new checkpoint
+        journal.requireCheckpoint();
+      }
     }
     this.lastAutoSaveTime = Math.max(this.lastAutoSaveTime, System.currentTimeMillis());
   }
 
+  /**
+   * Deletes the file and the journal saved for the recovery of the given home. 
+   */
+  private void deleteAutoSavedFile(Home home, RecoveryJournal journal) throws RecorderException {
+    File homeFile = this.autoSavedFiles.get(home);
+    if (homeFile != null) {
+      freeLockedFile(homeFile);
+      homeFile.delete();
+      this.autoSavedFiles.remove(home);
+    }
+    if (journal != null) {
+      journal.deleteJournalFile();
+    }
+  }
+
+  /**
+   * Returns the file of the journal of changes made after the given recovered file was saved.
+   */
+  private File getJournalFile(File recoveredFile) {
+    return new File(recoveredFile.getPath() + JOURNAL_FILE_EXTENSION);
+  }
+
   private void freeLockedFile(File file) throws RecorderException {
     FileOutputStream lockedOutputStream = this.lockedOutputStreams.get(file);
     if (lockedOutputStream != null) {
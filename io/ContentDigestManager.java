@@ -10,17 +10,30 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 import com.eteks.homeview3d.model.Content;
 import com.eteks.homeview3d.tools.ResourceURLContent;
 import com.eteks.homeview3d.tools.SimpleURLContent;
 import com.eteks.homeview3d.tools.URLContent;
+import com.eteks.homeview3d.tools.ZipFilePool;
 
 public class ContentDigestManager {
   private static final String  DIGEST_ALGORITHM = "SHA-1";
@@ -28,15 +41,19 @@ public class ContentDigestManager {
 
   private static ContentDigestManager instance;
   
-  private Map<Content, byte []>  contentDigestsCache;
+  private Map<Content, byte []>                           contentDigestsCache;
+  private ConcurrentMap<Content, FutureTask<byte []>>     pendingContentDigests;
+  private volatile ContentDigestStore                     contentDigestStore;
+  private volatile ContentStore                           contentStore;
   
-  private Map<URLContent, URL>   zipUrlsCache;
-  private Map<URL, List<String>> zipUrlEntriesCache;
+  private ConcurrentMap<String, FutureTask<List<String>>> zipUrlEntriesCache;
 
   private ContentDigestManager() {
-    this.contentDigestsCache = new WeakHashMap<Content, byte[]>();
-    this.zipUrlsCache = new WeakHashMap<URLContent, URL>();
-    this.zipUrlEntriesCache = new WeakHashMap<URL, List<String>>();
+    // Digests are cached with weak keys to let content be garbage collected, 
+    // and are computed out of any lock shared with other content 
+    this.contentDigestsCache = Collections.synchronizedMap(new WeakHashMap<Content, byte[]>());
+    this.pendingContentDigests = new ConcurrentHashMap<Content, FutureTask<byte []>>();
+    this.zipUrlEntriesCache = new ConcurrentHashMap<String, FutureTask<List<String>>>();
   }
   
 
@@ -70,34 +87,207 @@ public class ContentDigestManager {
   }
 
 
-  public synchronized void setContentDigest(Content content, byte [] digest) {
+  public void setContentDigest(Content content, byte [] digest) {
     this.contentDigestsCache.put(content, digest);
   }
+
+  /**
+   * Sets the file where the digests of content files are stored between sessions, 
+   * or disables this storage if <code>storeFile</code> is <code>null</code>.
+   */
+  public void setContentDigestStoreFile(File storeFile) {
+    this.contentDigestStore = storeFile != null
+        ? new ContentDigestStore(storeFile)
+        : null;
+  }
   
-  public synchronized byte [] getContentDigest(Content content) {
-    byte [] digest = this.contentDigestsCache.get(content);
-    if (digest == null) {
+  /**
+   * Sets the folder where the content read from homes is stored once for all homes 
+   * that share it, or disables this storage if <code>storeFolder</code> is <code>null</code>.
+   */
+  public void setContentStoreFolder(File storeFolder) {
+    ContentStore contentStore = this.contentStore;
+    if (storeFolder == null) {
+      this.contentStore = null;
+    } else if (contentStore == null
+               || !storeFolder.equals(contentStore.getFolder())) {
+      // Keep the same store to return the same content instances
+      this.contentStore = new ContentStore(storeFolder);
+    }
+  }
+
+  /**
+   * Returns the store of the content read from homes or <code>null</code> if it's disabled.
+   */
+  ContentStore getContentStore() {
+    return this.contentStore;
+  }
+  
+  public byte [] getContentDigest(final Content content) {
+    byte [] digest = getKnownContentDigest(content);
+    if (digest != null) {
+      return digest;
+    }
+    // Compute the digest of a given content only once, even if it's requested by several threads 
+    FutureTask<byte []> pendingDigest = this.pendingContentDigests.get(content);
+    if (pendingDigest == null) {
+      FutureTask<byte []> digestTask = new FutureTask<byte []>(new Callable<byte []>() {
+          public byte [] call() {
+            byte [] digest = contentDigestsCache.get(content);
+            if (digest == null) {
+              digest = readContentDigest(content);
+              contentDigestsCache.put(content, digest);
+            }
+            return digest;
+          }
+        });
+      pendingDigest = this.pendingContentDigests.putIfAbsent(content, digestTask);
+      if (pendingDigest == null) {
+        pendingDigest = digestTask;
+        try {
+          digestTask.run();
+        } finally {
+          this.pendingContentDigests.remove(content, digestTask);
+        }
+      }
+    }
+    try {
+      return getResult(pendingDigest);
+    } catch (ExecutionException ex) {
+      throw getUncheckedException(ex);
+    }
+  }
+
+  /**
+   * Returns the digests of the given contents, computing in parallel the ones that aren't known yet.
+   * @throws InterruptedException if the current thread was interrupted while waiting for digests
+   */
+  public Map<Content, byte []> getContentDigests(Collection<? extends Content> contents) throws InterruptedException {
+    Map<Content, byte []> contentDigests = new LinkedHashMap<Content, byte []>();
+    final List<Content> unknownContents = new ArrayList<Content>();
+    for (Content content : contents) {
+      if (!contentDigests.containsKey(content)) {
+        byte [] digest = getKnownContentDigest(content);
+        contentDigests.put(content, digest);
+        if (digest == null) {
+          unknownContents.add(content);
+        }
+      }
+    }
+    
+    int threadCount = Math.min(unknownContents.size(), Runtime.getRuntime().availableProcessors());
+    if (threadCount > 1) {
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "contentDigester");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
       try {
-        if (content instanceof ResourceURLContent) {
-          digest = getResourceContentDigest((ResourceURLContent)content);
-        } else if (content instanceof URLContent
-                   && !(content instanceof SimpleURLContent)
-                   && ((URLContent)content).isJAREntry()) {
-          URLContent urlContent = (URLContent)content;
-          if (urlContent instanceof HomeURLContent) {
-            digest = getHomeContentDigest((HomeURLContent)urlContent);            
-          } else {
-            digest = getZipContentDigest(urlContent);
+        List<Future<byte []>> digests = new ArrayList<Future<byte []>>(unknownContents.size());
+        for (final Content content : unknownContents) {
+          digests.add(executor.submit(new Callable<byte []>() {
+              public byte [] call() {
+                return getContentDigest(content);
+              }
+            }));
+        }
+        for (int i = 0; i < unknownContents.size(); i++) {
+          try {
+            contentDigests.put(unknownContents.get(i), digests.get(i).get());
+          } catch (ExecutionException ex) {
+            throw getUncheckedException(ex);
           }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    } else {
+      for (Content content : unknownContents) {
+        contentDigests.put(content, getContentDigest(content));
+      }
+    }
+    return contentDigests;
+  }
+
+  /**
+   * Returns the digest of the given content if it's cached or stored, or <code>null</code>.
+   */
+  private byte [] getKnownContentDigest(Content content) {
+    byte [] digest = this.contentDigestsCache.get(content);
+    ContentDigestStore contentDigestStore = this.contentDigestStore;
+    if (digest == null
+        && contentDigestStore != null) {
+      digest = contentDigestStore.getContentDigest(content);
+      if (digest != null) {
+        this.contentDigestsCache.put(content, digest);
+      }
+    }
+    return digest;
+  }
+
+  /**
+   * Returns the result of the given <code>task</code>, waiting for it even if the current thread 
+   * is interrupted, as the task may be run by an other thread for the current one.
+   */
+  private static <T> T getResult(FutureTask<T> task) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static RuntimeException getUncheckedException(ExecutionException ex) {
+    Throwable cause = ex.getCause();
+    if (cause instanceof Error) {
+      throw (Error)cause;
+    } else if (cause instanceof RuntimeException) {
+      return (RuntimeException)cause;
+    } else {
+      return new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Computes the digest of the given content and stores it if possible.
+   */
+  private byte [] readContentDigest(Content content) {
+    byte [] digest;
+    try {
+      if (content instanceof ResourceURLContent) {
+        digest = getResourceContentDigest((ResourceURLContent)content);
+      } else if (content instanceof URLContent
+                 && !(content instanceof SimpleURLContent)
+                 && ((URLContent)content).isJAREntry()) {
+        URLContent urlContent = (URLContent)content;
+        if (urlContent instanceof HomeURLContent) {
+          digest = getHomeContentDigest((HomeURLContent)urlContent);            
         } else {
-          digest = computeContentDigest(content);
+          digest = getZipContentDigest(urlContent);
         }
-      } catch (NoSuchAlgorithmException ex) {
-        throw new InternalError("No SHA-1 message digest is available");
-      } catch (IOException ex) {
-        digest = INVALID_CONTENT_DIGEST;
+      } else {
+        digest = computeContentDigest(content);
       }
-      this.contentDigestsCache.put(content, digest);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new InternalError("No SHA-1 message digest is available");
+    } catch (IOException ex) {
+      digest = INVALID_CONTENT_DIGEST;
+    }
+    ContentDigestStore contentDigestStore = this.contentDigestStore;
+    if (digest != INVALID_CONTENT_DIGEST
+        && contentDigestStore != null) {
+      contentDigestStore.putContentDigest(content, digest);
     }
     return digest;
   }
@@ -194,36 +384,84 @@ public class ContentDigestManager {
           && !entryNameUpperCase.endsWith("/LICENSE.TXT");
   }
 
-  synchronized List<String> getZipURLEntries(URLContent urlContent) throws IOException {
-    URL zipUrl = this.zipUrlsCache.get(urlContent);
-    if (zipUrl != null) {
-      return this.zipUrlEntriesCache.get(zipUrl); 
-    } else {
-      zipUrl = urlContent.getJAREntryURL(); 
-      for (Map.Entry<URL, List<String>> entry : this.zipUrlEntriesCache.entrySet()) {
-        if (zipUrl.equals(entry.getKey())) {
-          this.zipUrlsCache.put(urlContent, entry.getKey());
-          return entry.getValue();
-        }
+  List<String> getZipURLEntries(URLContent urlContent) throws IOException {
+    final URL zipUrl = urlContent.getJAREntryURL(); 
+    String zipUrlKey = getNormalizedURL(zipUrl);
+    FutureTask<List<String>> zipUrlEntries = this.zipUrlEntriesCache.get(zipUrlKey);
+    if (zipUrlEntries == null) {
+      FutureTask<List<String>> zipUrlEntriesTask = new FutureTask<List<String>>(new Callable<List<String>>() {
+          public List<String> call() throws IOException {
+            return readZipURLEntries(zipUrl);
+          }
+        });
+      zipUrlEntries = this.zipUrlEntriesCache.putIfAbsent(zipUrlKey, zipUrlEntriesTask);
+      if (zipUrlEntries == null) {
+        zipUrlEntries = zipUrlEntriesTask;
+        zipUrlEntriesTask.run();
+      }
+    }
+    try {
+      return getResult(zipUrlEntries);
+    } catch (ExecutionException ex) {
+      // Let a next call try to read entries again
+      this.zipUrlEntriesCache.remove(zipUrlKey, zipUrlEntries);
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException)ex.getCause();
+      } else {
+        throw getUncheckedException(ex);
+      }
+    }
+  }
+
+  /**
+   * Returns a string for the given URL which is equal for all the URLs of a same file.
+   */
+  private String getNormalizedURL(URL url) {
+    if ("file".equals(url.getProtocol())) {
+      try {
+        return new File(url.toURI()).toURI().toString();
+      } catch (URISyntaxException ex) {
+      } catch (IllegalArgumentException ex) {
       }
-      List<String> zipUrlEntries = new ArrayList<String>();
+    }
+    return url.toExternalForm();
+  }
+
+  /**
+   * Returns the sorted names of the entries of the given ZIP file, read from its central directory
+   * if it's a local file or from its stream otherwise.
+   */
+  private List<String> readZipURLEntries(URL zipUrl) throws IOException {
+    List<String> zipUrlEntries = new ArrayList<String>();
+    boolean entriesRead = false;
+    if ("file".equals(zipUrl.getProtocol())) {
+      try {
+        // Share the opened file with the entries read next
+        zipUrlEntries.addAll(ZipFilePool.getInstance().getEntryNames(new File(zipUrl.toURI())));
+        entriesRead = true;
+      } catch (URISyntaxException ex) {
+      } catch (IllegalArgumentException ex) {
+      } catch (ZipException ex) {
+        // Try to read entries from the stream of a damaged file
+        zipUrlEntries.clear();
+      }
+    }
+    
+    if (!entriesRead) {
       ZipInputStream zipIn = null;
       try {
         zipIn = new ZipInputStream(zipUrl.openStream());
         for (ZipEntry entry; (entry = zipIn.getNextEntry()) != null; ) {
           zipUrlEntries.add(entry.getName());
         }
-
-        Collections.sort(zipUrlEntries); 
-        this.zipUrlEntriesCache.put(zipUrl, zipUrlEntries);
-        this.zipUrlsCache.put(urlContent, zipUrl);
-        return zipUrlEntries;
       } finally {
         if (zipIn != null) {
           zipIn.close();
         }
       }
     }
+    Collections.sort(zipUrlEntries); 
+    return Collections.unmodifiableList(zipUrlEntries);
   }
 
   private byte [] computeContentDigest(Content content) throws IOException, NoSuchAlgorithmException {
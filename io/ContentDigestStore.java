@@ -0,0 +1,243 @@
+package com.eteks.homeview3d.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.tools.ResourceURLContent;
+import com.eteks.homeview3d.tools.TemporaryURLContent;
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * A file storing the digests of content read from files, to avoid computing them again
+ * in later sessions. A stored digest is valid as long as the length and the last modification date
+ * of the file of its content don't change.
+ * Digests are appended to the store file, which is compacted when it's read,
+ * and each access is protected by a lock file shared with other processes.
+ */
+class ContentDigestStore {
+  private static final int MINIMUM_COMPACTED_RECORDS = 1000;
+
+  private final File                storeFile;
+  private final File                lockFile;
+  private Map<String, StoredDigest> storedDigests;
+
+  public ContentDigestStore(File storeFile) {
+    this.storeFile = storeFile;
+    this.lockFile = new File(storeFile.getPath() + ".lock");
+  }
+
+  /**
+   * Returns the stored digest of the given <code>content</code>, or <code>null</code> if it's
+   * unknown or if the file of the content changed since it was stored.
+   */
+  public synchronized byte [] getContentDigest(Content content) {
+    File contentFile = getContentFile(content);
+    if (contentFile != null) {
+      StoredDigest storedDigest = getStoredDigests().get(getKey(content));
+      if (storedDigest != null
+          && storedDigest.length == contentFile.length()
+          && storedDigest.lastModified == contentFile.lastModified()) {
+        return storedDigest.digest;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stores the <code>digest</code> of the given <code>content</code> if it's read from a file.
+   */
+  public synchronized void putContentDigest(Content content, byte [] digest) {
+    File contentFile = getContentFile(content);
+    if (contentFile != null) {
+      StoredDigest storedDigest = new StoredDigest(getKey(content),
+          contentFile.length(), contentFile.lastModified(), digest);
+      getStoredDigests().put(storedDigest.key, storedDigest);
+      try {
+        RandomAccessFile lock = lock();
+        try {
+          Writer writer = new OutputStreamWriter(new FileOutputStream(this.storeFile, true), "UTF-8");
+          try {
+            writeRecord(writer, storedDigest);
+          } finally {
+            writer.close();
+          }
+        } finally {
+          lock.close();
+        }
+      } catch (IOException ex) {
+        // Digest will be computed again in a next session
+      }
+    }
+  }
+
+  /**
+   * Returns the file from which the given <code>content</code> is read,
+   * or <code>null</code> if it's not a file that may be used in other sessions.
+   */
+  private File getContentFile(Content content) {
+    if (!(content instanceof URLContent)
+        || content instanceof TemporaryURLContent
+        || content instanceof HomeURLContent
+        || (content instanceof ResourceURLContent
+            && ((ResourceURLContent)content).isMultiPartResource()
+            && !((ResourceURLContent)content).isJAREntry())) {
+      return null;
+    }
+    URLContent urlContent = (URLContent)content;
+    URL url = urlContent.isJAREntry()
+        ? urlContent.getJAREntryURL()
+        : urlContent.getURL();
+    if ("file".equals(url.getProtocol())) {
+      try {
+        File file = new File(url.toURI());
+        if (file.isFile()) {
+          return file;
+        }
+      } catch (URISyntaxException ex) {
+      } catch (IllegalArgumentException ex) {
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the key of the given content. As its digest depends on its class,
+   * the key contains its class name.
+   */
+  private String getKey(Content content) {
+    return content.getClass().getName() + " " + ((URLContent)content).getURL();
+  }
+
+  private Map<String, StoredDigest> getStoredDigests() {
+    if (this.storedDigests == null) {
+      this.storedDigests = new HashMap<String, StoredDigest>();
+      try {
+        RandomAccessFile lock = lock();
+        try {
+          int recordCount = readStoredDigests();
+          if (recordCount > MINIMUM_COMPACTED_RECORDS
+              && recordCount > 2 * this.storedDigests.size()) {
+            compactStoreFile();
+          }
+        } finally {
+          lock.close();
+        }
+      } catch (IOException ex) {
+        // Ignore stored digests
+      }
+    }
+    return this.storedDigests;
+  }
+
+  /**
+   * Reads the records of the store file and returns their count.
+   */
+  private int readStoredDigests() throws IOException {
+    BufferedReader reader;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.storeFile), "UTF-8"));
+    } catch (FileNotFoundException ex) {
+      return 0;
+    }
+    try {
+      int recordCount = 0;
+      for (String line; (line = reader.readLine()) != null; recordCount++) {
+        // Ignore records incompletely written
+        String [] fields = line.split("\t");
+        if (fields.length == 4) {
+          try {
+            StoredDigest storedDigest = new StoredDigest(fields [3], Long.parseLong(fields [0]),
+                Long.parseLong(fields [1]), Base64.decode(fields [2]));
+            this.storedDigests.put(storedDigest.key, storedDigest);
+          } catch (NumberFormatException ex) {
+          } catch (IOException ex) {
+          }
+        }
+      }
+      return recordCount;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Replaces the store file by a file that contains only the last record of each content.
+   */
+  private void compactStoreFile() throws IOException {
+    File compactedFile = File.createTempFile("digests", ".tmp", this.storeFile.getParentFile());
+    try {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(compactedFile), "UTF-8");
+      try {
+        for (StoredDigest storedDigest : this.storedDigests.values()) {
+          writeRecord(writer, storedDigest);
+        }
+      } finally {
+        writer.close();
+      }
+      if (!compactedFile.renameTo(this.storeFile)
+          && (!this.storeFile.delete() || !compactedFile.renameTo(this.storeFile))) {
+        throw new IOException("Can't replace " + this.storeFile);
+      }
+    } finally {
+      compactedFile.delete();
+    }
+  }
+
+  private void writeRecord(Writer writer, StoredDigest storedDigest) throws IOException {
+    writer.write(storedDigest.length + "\t" + storedDigest.lastModified + "\t"
+        + Base64.encodeBytes(storedDigest.digest) + "\t" + storedDigest.key + "\n");
+  }
+
+  /**
+   * Returns the lock file once it's locked. Closing it will release the lock.
+   */
+  private RandomAccessFile lock() throws IOException {
+    File parentFile = this.lockFile.getParentFile();
+    if (parentFile != null
+        && !parentFile.exists()) {
+      parentFile.mkdirs();
+    }
+    RandomAccessFile lock = new RandomAccessFile(this.lockFile, "rw");
+    try {
+      FileLock fileLock = lock.getChannel().lock();
+      if (fileLock == null) {
+        throw new IOException("Can't lock " + this.lockFile);
+      }
+      return lock;
+    } catch (IOException ex) {
+      lock.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * A digest stored with the key of its content and the length and date of its file.
+   */
+  private static class StoredDigest {
+    private final String  key;
+    private final long    length;
+    private final long    lastModified;
+    private final byte [] digest;
+
+    public StoredDigest(String key, long length, long lastModified, byte [] digest) {
+      this.key = key;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.digest = digest;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.eteks.homeview3d.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * A folder storing the content read from homes in files named after their SHA-1 digest,
+ * to share a single copy of each model or texture among all the homes that use it.
+ * Each stored content is a small archive which entries are named as in a home, under the
+ * entry <code>0</code> or the directory <code>0/</code> for multi part content, so that
+ * the content of the store can be saved and digested like any other home content.
+ * Stored files are never modified once written, and the same content instance is returned
+ * for a given digest as long as it's used, letting caches keyed on content share their data.
+ */
+class ContentStore {
+  private static final String STORED_CONTENT_EXTENSION = ".zip";
+  private static final String STORED_ENTRY_DIRECTORY   = "0";
+  private static final long   UNUSED_CONTENT_DELAY     = 30L * 24 * 3600 * 1000;
+
+  private final File                                   folder;
+  private final Map<String, WeakReference<URLContent>> contents;
+  private boolean                                      unusedContentDeleted;
+
+  public ContentStore(File folder) {
+    this.folder = folder;
+    this.contents = new HashMap<String, WeakReference<URLContent>>();
+  }
+
+  /**
+   * Returns the folder of this store.
+   */
+  public File getFolder() {
+    return this.folder;
+  }
+
+  /**
+   * Returns the stored content matching the given <code>digest</code>,
+   * or <code>null</code> if it's not stored yet.
+   * @param digest           the digest of the content
+   * @param contentEntryName the name of the content entry in the home that references it
+   */
+  public URLContent getContent(byte [] digest, String contentEntryName) throws IOException {
+    String key = getKey(digest);
+    File storedFile = new File(this.folder, key + STORED_CONTENT_EXTENSION);
+    synchronized (this) {
+      WeakReference<URLContent> contentReference = this.contents.get(key);
+      URLContent content = contentReference != null
+          ? contentReference.get()
+          : null;
+      if (content != null
+          && content.getJAREntryName().equals(getStoredEntryName(contentEntryName))) {
+        return content;
+      }
+      if (!storedFile.isFile()) {
+        return null;
+      }
+      // Keep the date of used content up to date to avoid its deletion
+      storedFile.setLastModified(System.currentTimeMillis());
+      return createContent(key, storedFile, digest, contentEntryName);
+    }
+  }
+
+  /**
+   * Stores the entries of the given home <code>content</code> which digest was checked,
+   * and returns the matching stored content.
+   */
+  public URLContent storeContent(HomeURLContent content, byte [] digest,
+                                 ZipArchiveIndex homeIndex) throws IOException {
+    String contentEntryName = content.getJAREntryName();
+    URLContent storedContent = getContent(digest, contentEntryName);
+    if (storedContent != null) {
+      return storedContent;
+    }
+
+    // List the entries of the content
+    List<ZipArchiveIndex.Entry> entries = new ArrayList<ZipArchiveIndex.Entry>();
+    int slashIndex = contentEntryName.indexOf('/');
+    if (slashIndex > 0) {
+      String entryDirectory = contentEntryName.substring(0, slashIndex + 1);
+      for (ZipArchiveIndex.Entry entry : homeIndex.getEntries()) {
+        if (entry.getName().startsWith(entryDirectory)) {
+          entries.add(entry);
+        }
+      }
+    } else {
+      ZipArchiveIndex.Entry entry = homeIndex.getEntry(contentEntryName);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    for (ZipArchiveIndex.Entry entry : entries) {
+      if (entry.isEncrypted()) {
+        return null;
+      }
+    }
+    if (entries.isEmpty()) {
+      return null;
+    }
+
+    deleteUnusedContent();
+    this.folder.mkdirs();
+    String key = getKey(digest);
+    File storedFile = new File(this.folder, key + STORED_CONTENT_EXTENSION);
+    File tempFile = File.createTempFile("store", ".tmp", this.folder);
+    try {
+      ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        for (ZipArchiveIndex.Entry entry : entries) {
+          zipOut.copyEntry(getStoredEntryName(entry.getName()), homeIndex, entry);
+        }
+      } finally {
+        zipOut.close();
+      }
+      synchronized (this) {
+        // Content may have been stored meanwhile by an other thread or an other process
+        if (!storedFile.isFile()
+            && !tempFile.renameTo(storedFile)
+            && !storedFile.isFile()) {
+          throw new IOException("Can't store content in " + storedFile);
+        }
+        return createContent(key, storedFile, digest, contentEntryName);
+      }
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  private URLContent createContent(String key, File storedFile, byte [] digest,
+                                   String contentEntryName) throws IOException {
+    URLContent content = new HomeURLContent(new URL("jar:" + storedFile.toURI().toURL() + "!/" 
+        + getStoredEntryName(contentEntryName)));
+    ContentDigestManager.getInstance().setContentDigest(content, digest);
+    this.contents.put(key, new WeakReference<URLContent>(content));
+    return content;
+  }
+
+  /**
+   * Returns the name of the entry in a stored file matching the given home entry name.
+   */
+  private String getStoredEntryName(String contentEntryName) {
+    int slashIndex = contentEntryName.indexOf('/');
+    return slashIndex > 0
+        ? STORED_ENTRY_DIRECTORY + contentEntryName.substring(slashIndex)
+        : STORED_ENTRY_DIRECTORY;
+  }
+
+  /**
+   * Deletes once the stored files that weren't used for a long time.
+   */
+  private synchronized void deleteUnusedContent() {
+    if (!this.unusedContentDeleted) {
+      this.unusedContentDeleted = true;
+      File [] storedFiles = this.folder.listFiles();
+      if (storedFiles != null) {
+        long minimumDate = System.currentTimeMillis() - UNUSED_CONTENT_DELAY;
+        for (File storedFile : storedFiles) {
+          String key = storedFile.getName();
+          if (key.endsWith(STORED_CONTENT_EXTENSION)
+              && storedFile.lastModified() < minimumDate) {
+            key = key.substring(0, key.length() - STORED_CONTENT_EXTENSION.length());
+            WeakReference<URLContent> contentReference = this.contents.get(key);
+            if (contentReference == null
+                || contentReference.get() == null) {
+              storedFile.delete();
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the hexadecimal string of the given digest.
+   */
+  private String getKey(byte [] digest) {
+    StringBuilder key = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+}
@@ -0,0 +1,112 @@
+package com.eteks.homeview3d.io;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * A compression policy that stores without compression the entries which data is already compressed,
+ * like JPEG or PNG images and ZIP files, and deflates the other ones at a given level.
+ * Already compressed data is detected from the extension of the entry name, its magic number
+ * or a trial compression of its first bytes.
+ */
+public class ContentTypeCompressionPolicy implements EntryCompressionPolicy {
+  private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(new String [] {
+      ".jpg", ".jpeg", ".png", ".gif", ".zip", ".jar", ".sh3d", ".sh3f", ".sh3t", ".sh3p", ".sh3l",
+      ".kmz", ".gz", ".mp3", ".mp4", ".mov"}));
+  private static final byte [][]   COMPRESSED_MAGIC_NUMBERS = {
+      {(byte)0xFF, (byte)0xD8, (byte)0xFF},       // JPEG
+      {(byte)0x89, 'P', 'N', 'G'},                // PNG
+      {'G', 'I', 'F', '8'},                       // GIF
+      {'P', 'K', 0x03, 0x04},                     // ZIP
+      {0x1F, (byte)0x8B}};                        // GZIP
+
+  private static final float DEFAULT_MINIMUM_COMPRESSION_GAIN = 0.05f;
+  private static final int   MINIMUM_TRIAL_LENGTH = 1024;
+
+  private final int   compressionLevel;
+  private final float minimumCompressionGain;
+
+  /**
+   * Creates a policy that deflates compressible entries at the given level.
+   */
+  public ContentTypeCompressionPolicy(int compressionLevel) {
+    this(compressionLevel, DEFAULT_MINIMUM_COMPRESSION_GAIN);
+  }
+
+  /**
+   * Creates a policy that deflates compressible entries at the given level,
+   * and stores entries which trial compression doesn't reduce their size
+   * at least by <code>minimumCompressionGain</code> percent.
+   */
+  public ContentTypeCompressionPolicy(int compressionLevel, float minimumCompressionGain) {
+    this.compressionLevel = compressionLevel;
+    this.minimumCompressionGain = minimumCompressionGain;
+  }
+
+  /**
+   * Returns the level used to deflate compressible entries.
+   */
+  public int getCompressionLevel() {
+    return this.compressionLevel;
+  }
+
+  public int getCompressionLevel(String entryName, byte [] sample, int sampleLength) {
+    if (this.compressionLevel == Deflater.NO_COMPRESSION) {
+      return this.compressionLevel;
+    }
+    int dotIndex = entryName.lastIndexOf('.');
+    if (dotIndex > entryName.lastIndexOf('/')
+        && COMPRESSED_EXTENSIONS.contains(entryName.substring(dotIndex).toLowerCase())) {
+      return STORED;
+    }
+    if (sample != null) {
+      for (byte [] magicNumber : COMPRESSED_MAGIC_NUMBERS) {
+        if (startsWith(sample, sampleLength, magicNumber)) {
+          return STORED;
+        }
+      }
+      if (sampleLength >= MINIMUM_TRIAL_LENGTH
+          && !isCompressible(sample, sampleLength)) {
+        return STORED;
+      }
+    }
+    return this.compressionLevel;
+  }
+
+  private boolean startsWith(byte [] sample, int sampleLength, byte [] magicNumber) {
+    if (sampleLength < magicNumber.length) {
+      return false;
+    }
+    for (int i = 0; i < magicNumber.length; i++) {
+      if (sample [i] != magicNumber [i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns <code>true</code> if the fastest compression of the given sample
+   * reduces its size at least by the minimum compression gain of this policy.
+   */
+  private boolean isCompressible(byte [] sample, int sampleLength) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    try {
+      deflater.setInput(sample, 0, sampleLength);
+      deflater.finish();
+      byte [] buffer = new byte [8192];
+      long maximumCompressedLength = (long)(sampleLength * (1 - this.minimumCompressionGain));
+      while (!deflater.finished()) {
+        deflater.deflate(buffer);
+        if (deflater.getBytesWritten() > maximumCompressedLength) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      deflater.end();
+    }
+  }
+}
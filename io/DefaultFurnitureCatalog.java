@@ -19,6 +19,13 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import com.eteks.homeview3d.model.CatalogDoorOrWindow;
 import com.eteks.homeview3d.model.CatalogLight;
@@ -130,6 +137,16 @@ public class DefaultFurnitureCatalog extends FurnitureCatalog {
   
   public DefaultFurnitureCatalog(final UserPreferences preferences, 
                                  File [] furniturePluginFolders) {
+    this(preferences, furniturePluginFolders, null);
+  }
+  
+  /**
+   * Creates a catalog read from resources and plug-in folders, which keeps the properties
+   * of plug-in libraries in <code>furnitureLibraryIndexFile</code> if it's not <code>null</code>.
+   */
+  public DefaultFurnitureCatalog(final UserPreferences preferences, 
+                                 File [] furniturePluginFolders,
+                                 File furnitureLibraryIndexFile) {
     Map<FurnitureCategory, Map<CatalogPieceOfFurniture, Integer>> furnitureHomonymsCounter = 
         new HashMap<FurnitureCategory, Map<CatalogPieceOfFurniture,Integer>>();
     List<String> identifiedFurniture = new ArrayList<String>();
@@ -137,20 +154,20 @@ public class DefaultFurnitureCatalog extends FurnitureCatalog {
     readDefaultFurnitureCatalogs(preferences, furnitureHomonymsCounter, identifiedFurniture);
     
     if (furniturePluginFolders != null) {
+      List<File> pluginFurnitureCatalogFiles = new ArrayList<File>();
       for (File furniturePluginFolder : furniturePluginFolders) {
-        File [] pluginFurnitureCatalogFiles = furniturePluginFolder.listFiles(new FileFilter () {
+        File [] folderFiles = furniturePluginFolder.listFiles(new FileFilter () {
           public boolean accept(File pathname) {
             return pathname.isFile();
           }
         });
         
-        if (pluginFurnitureCatalogFiles != null) {
-          Arrays.sort(pluginFurnitureCatalogFiles, Collections.reverseOrder(OperatingSystem.getFileVersionComparator()));
-          for (File pluginFurnitureCatalogFile : pluginFurnitureCatalogFiles) {
-            readPluginFurnitureCatalog(pluginFurnitureCatalogFile, identifiedFurniture);
-          }
+        if (folderFiles != null) {
+          Arrays.sort(folderFiles, Collections.reverseOrder(OperatingSystem.getFileVersionComparator()));
+          pluginFurnitureCatalogFiles.addAll(Arrays.asList(folderFiles));
         }
       }
+      readPluginFurnitureCatalogs(pluginFurnitureCatalogFiles, furnitureLibraryIndexFile, identifiedFurniture);
     }
   }
 
@@ -190,18 +207,108 @@ public class DefaultFurnitureCatalog extends FurnitureCatalog {
 
   private static final Map<File,URL> pluginFurnitureCatalogUrlUpdates = new HashMap<File, URL>(); 
   
-  private void readPluginFurnitureCatalog(File pluginFurnitureCatalogFile,
-                                          List<String> identifiedFurniture) {
+  /**
+   * Reads the furniture of the given plug-in files. Their resource bundles are read in parallel,
+   * then their furniture is added in the order of the files to keep the first piece of a given ID.
+   */
+  private void readPluginFurnitureCatalogs(List<File> pluginFurnitureCatalogFiles,
+                                           File furnitureLibraryIndexFile,
+                                           List<String> identifiedFurniture) {
+    final FurnitureLibraryIndex libraryIndex = furnitureLibraryIndexFile != null
+        ? new FurnitureLibraryIndex(furnitureLibraryIndexFile)
+        : null;
+    int threadCount = Math.min(pluginFurnitureCatalogFiles.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = null;
+    if (threadCount > 1) {
+      executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "furnitureLibraryReader");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    try {
+      List<Future<PluginFurnitureCatalog>> pluginFurnitureCatalogs = 
+          new ArrayList<Future<PluginFurnitureCatalog>>(pluginFurnitureCatalogFiles.size());
+      for (final File pluginFurnitureCatalogFile : pluginFurnitureCatalogFiles) {
+        Callable<PluginFurnitureCatalog> reader = new Callable<PluginFurnitureCatalog>() {
+            public PluginFurnitureCatalog call() {
+              return readPluginFurnitureCatalog(pluginFurnitureCatalogFile, libraryIndex);
+            }
+          };
+        if (executor != null) {
+          pluginFurnitureCatalogs.add(executor.submit(reader));
+        } else {
+          FutureTask<PluginFurnitureCatalog> readerTask = new FutureTask<PluginFurnitureCatalog>(reader);
+          readerTask.run();
+          pluginFurnitureCatalogs.add(readerTask);
+        }
+      }
+      
+      for (Future<PluginFurnitureCatalog> pluginFurnitureCatalogFuture : pluginFurnitureCatalogs) {
+        PluginFurnitureCatalog pluginFurnitureCatalog;
+        try {
+          pluginFurnitureCatalog = pluginFurnitureCatalogFuture.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof Error) {
+            throw (Error)cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+          } else {
+            throw new RuntimeException(cause);
+          }
+        }
+        if (pluginFurnitureCatalog != null) {
+          try {
+            this.libraries.add(0, new DefaultLibrary(pluginFurnitureCatalog.libraryPath, 
+                UserPreferences.FURNITURE_LIBRARY_TYPE, pluginFurnitureCatalog.resource));
+            readFurniture(pluginFurnitureCatalog.resource, pluginFurnitureCatalog.url, null, identifiedFurniture);
+          } catch (MissingResourceException ex) {
+          } catch (IllegalArgumentException ex) {
+          }
+        }
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+    
+    if (libraryIndex != null) {
+      try {
+        libraryIndex.save();
+      } catch (IOException ex) {
+        // Libraries will be read again from their bundles in a next session
+      }
+    }
+  }
+  
+  /**
+   * Returns the resource bundle of the given plug-in file, or <code>null</code> if it can't be read.
+   * This method may be called by several threads at the same time.
+   */
+  private PluginFurnitureCatalog readPluginFurnitureCatalog(File pluginFurnitureCatalogFile,
+                                                            FurnitureLibraryIndex libraryIndex) {
     try {
       final URL pluginFurnitureCatalogUrl;
       long urlModificationDate = pluginFurnitureCatalogFile.lastModified();
-      URL urlUpdate = pluginFurnitureCatalogUrlUpdates.get(pluginFurnitureCatalogFile);
+      URL urlUpdate;
+      synchronized (pluginFurnitureCatalogUrlUpdates) {
+        urlUpdate = pluginFurnitureCatalogUrlUpdates.get(pluginFurnitureCatalogFile);
+      }
       if (pluginFurnitureCatalogFile.canWrite()
           && (urlUpdate == null 
               || urlUpdate.openConnection().getLastModified() < urlModificationDate)) {
         TemporaryURLContent contentCopy = TemporaryURLContent.copyToTemporaryURLContent(new URLContent(pluginFurnitureCatalogFile.toURI().toURL()));
         URL temporaryFurnitureCatalogUrl = contentCopy.getURL();
-        pluginFurnitureCatalogUrlUpdates.put(pluginFurnitureCatalogFile, temporaryFurnitureCatalogUrl);
+        synchronized (pluginFurnitureCatalogUrlUpdates) {
+          pluginFurnitureCatalogUrlUpdates.put(pluginFurnitureCatalogFile, temporaryFurnitureCatalogUrl);
+        }
         pluginFurnitureCatalogUrl = temporaryFurnitureCatalogUrl;
       } else if (urlUpdate != null) {
         pluginFurnitureCatalogUrl = urlUpdate;
@@ -209,15 +316,48 @@ public class DefaultFurnitureCatalog extends FurnitureCatalog {
         pluginFurnitureCatalogUrl = pluginFurnitureCatalogFile.toURI().toURL();
       }
       
-      final ClassLoader urlLoader = new URLContentClassLoader(pluginFurnitureCatalogUrl);
-      ResourceBundle resourceBundle = ResourceBundle.getBundle(PLUGIN_FURNITURE_CATALOG_FAMILY, Locale.getDefault(), urlLoader);
-      this.libraries.add(0, new DefaultLibrary(pluginFurnitureCatalogFile.getCanonicalPath(), 
-          UserPreferences.FURNITURE_LIBRARY_TYPE, resourceBundle));
-      readFurniture(resourceBundle, pluginFurnitureCatalogUrl, null, identifiedFurniture);
+      Locale locale = Locale.getDefault();
+      ResourceBundle resourceBundle = null;
+      if (libraryIndex != null) {
+        Map<String, String> properties = libraryIndex.getProperties(pluginFurnitureCatalogFile, locale);
+        if (properties != null) {
+          resourceBundle = new IndexedResourceBundle(properties);
+        }
+      }
+      if (resourceBundle == null) {
+        final ClassLoader urlLoader = new URLContentClassLoader(pluginFurnitureCatalogUrl);
+        resourceBundle = ResourceBundle.getBundle(PLUGIN_FURNITURE_CATALOG_FAMILY, locale, urlLoader);
+        if (libraryIndex != null) {
+          Map<String, String> properties = getResourceProperties(resourceBundle);
+          if (properties != null) {
+            libraryIndex.putProperties(pluginFurnitureCatalogFile, locale, properties);
+          }
+        }
+      }
+      return new PluginFurnitureCatalog(pluginFurnitureCatalogFile.getCanonicalPath(), 
+          pluginFurnitureCatalogUrl, resourceBundle);
     } catch (MissingResourceException ex) {
     } catch (IllegalArgumentException ex) {
     } catch (IOException ex) {
     }
+    return null;
+  }
+  
+  /**
+   * Returns the properties of the given <code>resource</code>, 
+   * or <code>null</code> if some of its values aren't strings.
+   */
+  private static Map<String, String> getResourceProperties(ResourceBundle resource) {
+    Map<String, String> properties = new HashMap<String, String>();
+    for (Enumeration<String> keys = resource.getKeys(); keys.hasMoreElements(); ) {
+      String key = keys.nextElement();
+      Object value = resource.getObject(key);
+      if (!(value instanceof String)) {
+        return null;
+      }
+      properties.put(key, (String)value);
+    }
+    return properties;
   }
   
   /**
@@ -589,5 +729,41 @@ public class DefaultFurnitureCatalog extends FurnitureCatalog {
       return defaultValue;
     }
   }
+
+  /**
+   * The resource bundle of a plug-in file with the location of its library.
+   */
+  private static class PluginFurnitureCatalog {
+    private final String         libraryPath;
+    private final URL            url;
+    private final ResourceBundle resource;
+
+    public PluginFurnitureCatalog(String libraryPath, URL url, ResourceBundle resource) {
+      this.libraryPath = libraryPath;
+      this.url = url;
+      this.resource = resource;
+    }
+  }
+
+  /**
+   * A resource bundle built from properties stored in a furniture library index.
+   */
+  private static class IndexedResourceBundle extends ResourceBundle {
+    private final Map<String, String> properties;
+
+    public IndexedResourceBundle(Map<String, String> properties) {
+      this.properties = properties;
+    }
+
+    @Override
+    protected Object handleGetObject(String key) {
+      return this.properties.get(key);
+    }
+
+    @Override
+    public Enumeration<String> getKeys() {
+      return Collections.enumeration(this.properties.keySet());
+    }
+  }
 }
 
@@ -12,10 +12,12 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -24,6 +26,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import com.eteks.homeview3d.model.Home;
@@ -36,8 +39,12 @@ public class DefaultHomeInputStream extends FilterInputStream {
   private final HomeXMLHandler     xmlHandler;
   private final UserPreferences    preferences;
   private final boolean            preferPreferencesContent;
+  private final boolean            lazyContentLoading;
+  private final File               homeFileCopy;
+  private final boolean            streamingXmlParser;
   
-  private File file;
+  private File    file;
+  private boolean readInPlace;
 
   public DefaultHomeInputStream(InputStream in) throws IOException {
     this(in, ContentRecording.INCLUDE_ALL_CONTENT);
@@ -60,11 +67,28 @@ public class DefaultHomeInputStream extends FilterInputStream {
                                 HomeXMLHandler xmlHandler,
                                 UserPreferences preferences,
                                 boolean preferPreferencesContent) {
+    this(in, contentRecording, xmlHandler, preferences, preferPreferencesContent, false);
+  }
+
+  /**
+   * Creates a stream that will read the home stored in the given <code>in</code> stream.
+   * If <code>streamingXmlParser</code> is <code>true</code>, the <code>Home.xml</code> entry 
+   * will be read with a StAX pull parser when it's available, rather than with a SAX parser.
+   */
+  public DefaultHomeInputStream(InputStream in, 
+                                ContentRecording contentRecording,
+                                HomeXMLHandler xmlHandler,
+                                UserPreferences preferences,
+                                boolean preferPreferencesContent,
+                                boolean streamingXmlParser) {
     super(in);
     this.contentRecording = contentRecording;
     this.xmlHandler = xmlHandler;
     this.preferences = preferences;
     this.preferPreferencesContent = preferPreferencesContent;
+    this.lazyContentLoading = false;
+    this.homeFileCopy = null;
+    this.streamingXmlParser = streamingXmlParser;
   }
 
 
@@ -73,12 +97,73 @@ public class DefaultHomeInputStream extends FilterInputStream {
                                 HomeXMLHandler xmlHandler,
                                 UserPreferences preferences,
                                 boolean preferPreferencesContent) throws FileNotFoundException {
+    this(file, contentRecording, xmlHandler, preferences, preferPreferencesContent, false);
+  }
+
+  /**
+   * Creates a stream that will read the home stored in the given <code>file</code>.
+   * If <code>lazyContentLoading</code> is <code>true</code>, only the <code>Home</code> or 
+   * <code>Home.xml</code> entry is read by {@link #readHome() readHome} and the other entries 
+   * are checked once their content is opened. The file must not be modified as long as 
+   * the read home is used.
+   */
+  public DefaultHomeInputStream(File file, 
+                                ContentRecording contentRecording,
+                                HomeXMLHandler xmlHandler,
+                                UserPreferences preferences,
+                                boolean preferPreferencesContent,
+                                boolean lazyContentLoading) throws FileNotFoundException {
+    this(file, contentRecording, xmlHandler, preferences, preferPreferencesContent, lazyContentLoading, null);
+  }
+
+  /**
+   * Creates a stream that will read the home stored in the given <code>file</code>.
+   * If <code>lazyContentLoading</code> is <code>true</code> and <code>homeFileCopy</code> isn't 
+   * <code>null</code>, the content of the read home will refer to the entries of <code>homeFileCopy</code>, 
+   * a file that doesn't exist yet and that the caller renames once it copied <code>file</code> to it. 
+   * Until then, entries are read from <code>file</code> which must not be modified before the copy exists.
+   */
+  public DefaultHomeInputStream(File file, 
+                                ContentRecording contentRecording,
+                                HomeXMLHandler xmlHandler,
+                                UserPreferences preferences,
+                                boolean preferPreferencesContent,
+                                boolean lazyContentLoading,
+                                File homeFileCopy) throws FileNotFoundException {
+    this(file, contentRecording, xmlHandler, preferences, preferPreferencesContent, 
+        lazyContentLoading, homeFileCopy, false);
+  }
+
+  /**
+   * Creates a stream that will read the home stored in the given <code>file</code>, 
+   * with a StAX pull parser for its <code>Home.xml</code> entry if <code>streamingXmlParser</code> 
+   * is <code>true</code>.
+   */
+  public DefaultHomeInputStream(File file, 
+                                ContentRecording contentRecording,
+                                HomeXMLHandler xmlHandler,
+                                UserPreferences preferences,
+                                boolean preferPreferencesContent,
+                                boolean lazyContentLoading,
+                                File homeFileCopy,
+                                boolean streamingXmlParser) throws FileNotFoundException {
     super(new FileInputStream(file));
     this.file = file;
     this.contentRecording = contentRecording;
     this.xmlHandler = xmlHandler;
     this.preferences = preferences;
     this.preferPreferencesContent = preferPreferencesContent;
+    this.lazyContentLoading = lazyContentLoading;
+    this.homeFileCopy = homeFileCopy;
+    this.streamingXmlParser = streamingXmlParser;
+  }
+
+  /**
+   * Returns <code>true</code> if the last read home was read from the entries of its file,
+   * and its content refers to the home file copy given at creation time.
+   */
+  boolean isReadInPlace() {
+    return this.readInPlace;
   }
 
   private static void checkCurrentThreadIsntInterrupted() throws InterruptedIOException {
@@ -88,6 +173,30 @@ public class DefaultHomeInputStream extends FilterInputStream {
   }
   
   public Home readHome() throws IOException, ClassNotFoundException {
+    if (this.lazyContentLoading
+        && this.file != null
+        && this.contentRecording != ContentRecording.INCLUDE_NO_CONTENT) {
+      ZipArchiveIndex homeIndex = null;
+      try {
+        // Copy the central directory in memory to let the file be replaced once read 
+        homeIndex = new ZipArchiveIndex(this.file, false);
+      } catch (ZipException ex) {
+        // Check and repair damaged file entries before reading it
+      }
+      if (homeIndex != null) {
+        try {
+          Home home = readHome(homeIndex);
+          this.readInPlace = true;
+          return home;
+        } finally {
+          homeIndex.close();
+        }
+      } else if (this.homeFileCopy != null) {
+        // Read content from a copy of the stream, since file may be modified 
+        this.file = null;
+      }
+    }
+    
     boolean validZipFile = true;
     HomeContentContext contentContext = null;
     if (this.contentRecording != ContentRecording.INCLUDE_NO_CONTENT) {
@@ -117,6 +226,7 @@ public class DefaultHomeInputStream extends FilterInputStream {
     
     boolean homeEntry = false;
     boolean homeXmlEntry = false;
+    boolean homeBinaryEntry = false;
     ZipInputStream zipIn = new ZipInputStream(this.contentRecording == ContentRecording.INCLUDE_NO_CONTENT
         ? this.in : new FileInputStream(this.file));
     ZipEntry entry = null;
@@ -127,6 +237,10 @@ public class DefaultHomeInputStream extends FilterInputStream {
         } else if (this.xmlHandler != null 
                   && "Home.xml".equals(entry.getName())) {
           homeXmlEntry = true;
+        } else if (this.xmlHandler != null 
+                  && "Home.bin".equals(entry.getName())
+                  && isBinaryHomeEntryReadable(this.xmlHandler)) {
+          homeBinaryEntry = true;
         }
         
         if (this.contentRecording == ContentRecording.INCLUDE_NO_CONTENT) {
@@ -148,46 +262,150 @@ public class DefaultHomeInputStream extends FilterInputStream {
       if (this.contentRecording != ContentRecording.INCLUDE_NO_CONTENT) {
         zipIn.close();
         zipIn = new ZipInputStream(new FileInputStream(this.file));
+        String homeEntryName = homeBinaryEntry 
+            ? "Home.bin"
+            : (homeXmlEntry ? "Home.xml" : "Home");
         do {
           entry = zipIn.getNextEntry();
-        } while (homeXmlEntry && !"Home.xml".equals(entry.getName()) 
-            || !homeXmlEntry && !"Home".equals(entry.getName()));
+        } while (!homeEntryName.equals(entry.getName()));
       }
       
       checkCurrentThreadIsntInterrupted();
-      Home home;
-      if ("Home".equals(entry.getName())) {
-        HomeObjectInputStream objectStream = new HomeObjectInputStream(zipIn, contentContext);
-        home = (Home)objectStream.readObject();
-      } else {
-        try {
-          SAXParserFactory factory = SAXParserFactory.newInstance();
-          SAXParser saxParser = factory.newSAXParser();
-          this.xmlHandler.setContentContext(contentContext);
-          saxParser.parse(zipIn, this.xmlHandler);
-          home = this.xmlHandler.getHome();
-        } catch (ParserConfigurationException ex) {
-          IOException ex2 = new IOException("Can't parse home XML stream");
-          ex2.initCause(ex);
-          throw ex2;
-        } catch (SAXException ex) {
-          IOException ex2 = new IOException("Can't parse home XML stream");
-          ex2.initCause(ex);
-          throw ex2;
-        }
+      Home home = readHomeEntry(zipIn, entry.getName(), contentContext);
+      if (home == null) {
+        // Read Home.xml entry when Home.bin entry was saved in an unknown version
+        zipIn.close();
+        zipIn = new ZipInputStream(new FileInputStream(this.file));
+        do {
+          entry = zipIn.getNextEntry();
+        } while (!"Home.xml".equals(entry.getName()));
+        home = readHomeEntry(zipIn, entry.getName(), contentContext);
       }
-      if (contentContext != null && (!validZipFile || contentContext.containsInvalidContents())) {
-        if (contentContext.containsCheckedContents()) { 
-          home.setRepaired(true);
-        } else {
-          throw new DamagedHomeIOException(home, contentContext.getInvalidContents());
-        }
+      if (contentContext != null) {
+        checkContent(home, contentContext, validZipFile);
       }
       return home;
     } finally {
       if (zipIn != null) {
         zipIn.close();
       }
+      if (contentContext != null) {
+        contentContext.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the home from the entries listed in the given index, without reading its content.
+   */
+  private Home readHome(ZipArchiveIndex homeIndex) throws IOException, ClassNotFoundException {
+    URL homeSource = this.file.toURI().toURL();
+    HomeContentContext contentContext = new HomeContentContext(this.homeFileCopy != null 
+            ? this.homeFileCopy.toURI().toURL()
+            : homeSource, 
+        homeSource, homeIndex, this.preferences, this.preferPreferencesContent);
+    Home home = null;
+    if (this.xmlHandler != null
+        && isBinaryHomeEntryReadable(this.xmlHandler)) {
+      ZipArchiveIndex.Entry entry = homeIndex.getEntry("Home.bin");
+      if (entry != null) {
+        // Returns null if Home.bin entry was saved in an unknown version
+        home = readHomeEntry(homeIndex, entry, contentContext);
+      }
+    }
+    if (home == null) {
+      ZipArchiveIndex.Entry entry = this.xmlHandler != null 
+          ? homeIndex.getEntry("Home.xml")
+          : null;
+      if (entry == null) {
+        entry = homeIndex.getEntry("Home");
+        if (entry == null) {
+          throw new IOException("Missing entry \"Home\" or \"Home.xml\"");
+        }
+      }
+      home = readHomeEntry(homeIndex, entry, contentContext);
+    }
+    checkContent(home, contentContext, true);
+    return home;
+  }
+
+  private Home readHomeEntry(ZipArchiveIndex homeIndex, ZipArchiveIndex.Entry entry, 
+                             HomeContentContext contentContext) throws IOException, ClassNotFoundException {
+    checkCurrentThreadIsntInterrupted();
+    InputStream entryIn = new BufferedInputStream(homeIndex.openStream(entry));
+    try {
+      return readHomeEntry(entryIn, entry.getName(), contentContext);
+    } finally {
+      entryIn.close();
+    }
+  }
+
+  private Home readHomeEntry(InputStream entryIn, String entryName, 
+                             HomeContentContext contentContext) throws IOException, ClassNotFoundException {
+    if ("Home".equals(entryName)) {
+      HomeObjectInputStream objectStream = new HomeObjectInputStream(entryIn, contentContext);
+      return (Home)objectStream.readObject();
+    } else if ("Home.bin".equals(entryName)) {
+      this.xmlHandler.setContentContext(contentContext);
+      return new HomeBinaryReader().read(entryIn, this.xmlHandler);
+    } else {
+      try {
+        this.xmlHandler.setContentContext(contentContext);
+        if (this.streamingXmlParser
+            && isStreamingXmlParserAvailable(this.xmlHandler)) {
+          new HomeXMLStreamParser().parse(entryIn, this.xmlHandler);
+        } else {
+          SAXParserFactory factory = SAXParserFactory.newInstance();
+          SAXParser saxParser = factory.newSAXParser();
+          saxParser.parse(entryIn, this.xmlHandler);
+        }
+        return this.xmlHandler.getHome();
+      } catch (ParserConfigurationException ex) {
+        IOException ex2 = new IOException("Can't parse home XML stream");
+        ex2.initCause(ex);
+        throw ex2;
+      } catch (SAXException ex) {
+        IOException ex2 = new IOException("Can't parse home XML stream");
+        ex2.initCause(ex);
+        throw ex2;
+      }
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the given handler can read <code>Home.bin</code> entries. 
+   * As the items stored in the sections of these entries aren't passed to the 
+   * <code>set...Attributes</code> methods of the handler, subclasses read <code>Home.xml</code>.
+   */
+  private static boolean isBinaryHomeEntryReadable(HomeXMLHandler xmlHandler) {
+    return xmlHandler.getClass() == HomeXMLHandler.class;
+  }
+
+  /**
+   * Returns <code>true</code> if StAX classes are available, as under Java 6 and later versions,
+   * and if the given handler doesn't override the SAX <code>startElement</code> method 
+   * that isn't called by the pull parser.
+   */
+  private static boolean isStreamingXmlParserAvailable(HomeXMLHandler xmlHandler) {
+    try {
+      Class.forName("javax.xml.stream.XMLInputFactory");
+      return xmlHandler.getClass().getMethod("startElement", 
+          String.class, String.class, String.class, Attributes.class).getDeclaringClass() == HomeXMLHandler.class;
+    } catch (ClassNotFoundException ex) {
+      return false;
+    } catch (NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
+  private void checkContent(Home home, HomeContentContext contentContext, 
+                            boolean validZipFile) throws DamagedHomeIOException {
+    if (!validZipFile || contentContext.containsInvalidContents()) {
+      if (contentContext.containsCheckedContents()) { 
+        home.setRepaired(true);
+      } else {
+        throw new DamagedHomeIOException(home, contentContext.getInvalidContents());
+      }
     }
   }
 
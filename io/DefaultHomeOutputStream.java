@@ -1,6 +1,12 @@
 package com.eteks.homeview3d.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,26 +17,46 @@ import java.io.OutputStreamWriter;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import com.eteks.homeview3d.model.Content;
 import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.tools.OperatingSystem;
 import com.eteks.homeview3d.tools.ResourceURLContent;
 import com.eteks.homeview3d.tools.SimpleURLContent;
-import com.eteks.homeview3d.tools.TemporaryURLContent;
 import com.eteks.homeview3d.tools.URLContent;
 
 public class DefaultHomeOutputStream extends FilterOutputStream {
-  private int              compressionLevel;
-  private ContentRecording contentRecording;
-  private boolean          serializedHome;
-  private HomeXMLExporter  homeXmlExporter;
+  private static final String COMPRESSION_THREAD_COUNT  = "com.eteks.homeview3d.io.compressionThreadCount";
+  private static final int    COMPRESSION_SAMPLE_LENGTH = 16384;
+  // Length beyond which the data of an entry compressed in parallel is stored in a temporary file
+  private static final int    MAXIMUM_IN_MEMORY_ENTRY_LENGTH = 1048576;
+
+  private EntryCompressionPolicy compressionPolicy;
+  private ContentRecording       contentRecording;
+  private boolean                serializedHome;
+  private HomeXMLExporter        homeXmlExporter;
+  private boolean                binaryHomeEntry;
+  private File                   reusedHomeFile;
+  private Set<String>            omittedContentDigests;
+  private Map<String, Long>      contentLengths;
   
   public DefaultHomeOutputStream(OutputStream out) throws IOException {
     this(out, 0, false);
@@ -57,14 +83,78 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
                                  ContentRecording contentRecording,
                                  boolean          serializedHome,
                                  HomeXMLExporter  homeXmlExporter) throws IOException {
+    this(out, compressionLevel, contentRecording, serializedHome, homeXmlExporter, null);
+  }
+
+  /**
+   * Creates a stream that will save a home in the given <code>out</code> stream. 
+   * If <code>reusedHomeFile</code> isn't <code>null</code>, the content entries of this previously saved 
+   * home file which digest didn't change will be copied as they were compressed in that file.
+   */
+  public DefaultHomeOutputStream(OutputStream out,
+                                 int          compressionLevel, 
+                                 ContentRecording contentRecording,
+                                 boolean          serializedHome,
+                                 HomeXMLExporter  homeXmlExporter,
+                                 File             reusedHomeFile) throws IOException {
+    this(out, new ContentTypeCompressionPolicy(compressionLevel), contentRecording, 
+        serializedHome, homeXmlExporter, reusedHomeFile);
+  }
+
+  /**
+   * Creates a stream that will save a home in the given <code>out</code> stream, 
+   * compressing each entry as chosen by <code>compressionPolicy</code>.
+   */
+  public DefaultHomeOutputStream(OutputStream out,
+                                 EntryCompressionPolicy compressionPolicy, 
+                                 ContentRecording contentRecording,
+                                 boolean          serializedHome,
+                                 HomeXMLExporter  homeXmlExporter,
+                                 File             reusedHomeFile) throws IOException {
+    this(out, compressionPolicy, contentRecording, serializedHome, homeXmlExporter, reusedHomeFile, null);
+  }
+
+  /**
+   * Creates a stream that will save a home in the given <code>out</code> stream. 
+   * The content which Base64 encoded digest belongs to <code>omittedContentDigests</code> will be
+   * listed in the <code>ContentDigests</code> entry but its entries won't be written, 
+   * letting the receiver of the stream complete it with the content it already owns.
+   */
+  public DefaultHomeOutputStream(OutputStream out,
+                                 EntryCompressionPolicy compressionPolicy, 
+                                 ContentRecording contentRecording,
+                                 boolean          serializedHome,
+                                 HomeXMLExporter  homeXmlExporter,
+                                 File             reusedHomeFile,
+                                 Set<String>      omittedContentDigests) throws IOException {
+    this(out, compressionPolicy, contentRecording, serializedHome, homeXmlExporter, 
+        reusedHomeFile, omittedContentDigests, false);
+  }
+
+  /**
+   * Creates a stream that will save a home in the given <code>out</code> stream. 
+   * If <code>homeXmlExporter</code> isn't <code>null</code> and <code>binaryHomeEntry</code> is <code>true</code>, 
+   * a compact <code>Home.bin</code> entry will be saved along with the <code>Home.xml</code> entry. 
+   */
+  public DefaultHomeOutputStream(OutputStream out,
+                                 EntryCompressionPolicy compressionPolicy, 
+                                 ContentRecording contentRecording,
+                                 boolean          serializedHome,
+                                 HomeXMLExporter  homeXmlExporter,
+                                 File             reusedHomeFile,
+                                 Set<String>      omittedContentDigests,
+                                 boolean          binaryHomeEntry) throws IOException {
     super(out);
     if (!serializedHome && homeXmlExporter == null) {
       throw new IllegalArgumentException("No entry specified for home data");
     }
-    this.compressionLevel = compressionLevel;
+    this.compressionPolicy = compressionPolicy;
     this.contentRecording = contentRecording;
     this.serializedHome = serializedHome;
     this.homeXmlExporter = homeXmlExporter;
+    this.reusedHomeFile = reusedHomeFile;
+    this.omittedContentDigests = omittedContentDigests;
+    this.binaryHomeEntry = binaryHomeEntry;
   }
 
 
@@ -74,28 +164,61 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
     }
   }
 
+  /**
+   * Returns the Base64 encoded digests of the content that will be saved with the given <code>home</code>.
+   */
+  public Set<String> getContentDigests(Home home) throws IOException {
+    HomeContentCollector contentCollector = new HomeContentCollector(this.contentRecording);
+    contentCollector.collectContent(home);
+    Set<Content> savedContents = contentCollector.getSavedContentNames().keySet();
+    Set<String> digests = new HashSet<String>();
+    if (savedContents.size() > 0) {
+      try {
+        for (byte [] digest : ContentDigestManager.getInstance().getContentDigests(savedContents).values()) {
+          digests.add(Base64.encodeBytes(digest));
+        }
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      }
+    }
+    return digests;
+  }
+
+  /**
+   * Returns the count of bytes written for each content during the last call to {@link #writeHome(Home) writeHome}, 
+   * mapped to the Base64 encoded digest of the content, or <code>null</code> if no home was written yet. 
+   * Omitted content isn't listed in the returned map.
+   */
+  public Map<String, Long> getContentLengths() {
+    return this.contentLengths;
+  }
+
   public void writeHome(Home home) throws IOException {
-    ZipOutputStream zipOut = new ZipOutputStream(this.out);
-    zipOut.setLevel(this.compressionLevel);
+    ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(this.out);
     checkCurrentThreadIsntInterrupted();
-    HomeContentObjectsTracker contentTracker = new HomeContentObjectsTracker(new OutputStream() {
-        @Override
-        public void write(int b) throws IOException {
-        }
-      });
-    contentTracker.writeObject(home);
-    Map<Content, String> savedContentNames = contentTracker.getSavedContentNames();
+    HomeContentCollector contentCollector = new HomeContentCollector(this.contentRecording);
+    contentCollector.collectContent(home);
+    Map<Content, String> savedContentNames = contentCollector.getSavedContentNames();
+    Map<String, String> contentEntryDigests = new HashMap<String, String>();    
 
     if (this.serializedHome) {
-      zipOut.putNextEntry(new ZipEntry("Home"));
-      HomeObjectOutputStream objectOut = new HomeObjectOutputStream(zipOut, savedContentNames);
+      zipOut.putNextEntry("Home", getStreamedEntryCompressionLevel("Home"));
+      HomeObjectOutputStream objectOut = new HomeObjectOutputStream(zipOut, contentCollector);
       objectOut.writeObject(home);
       objectOut.flush();
       zipOut.closeEntry();
     }
 
+    if (this.homeXmlExporter != null
+        && this.binaryHomeEntry) {
+      // Write Home.bin before Home.xml to let readers find it first
+      zipOut.putNextEntry("Home.bin", getStreamedEntryCompressionLevel("Home.bin"));
+      new HomeBinaryWriter(savedContentNames).write(zipOut, home);
+      zipOut.closeEntry();
+    }
+
     if (this.homeXmlExporter != null) {
-      zipOut.putNextEntry(new ZipEntry("Home.xml"));
+      zipOut.putNextEntry("Home.xml", getStreamedEntryCompressionLevel("Home.xml"));
       XMLWriter xmlWriter = new XMLWriter(zipOut);
       this.homeXmlExporter.setSavedContentNames(savedContentNames);
       this.homeXmlExporter.writeElement(xmlWriter, home);
@@ -104,53 +227,225 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
     }
     
     if (savedContentNames.size() > 0) {
-      Set<String> contentEntryNames = new HashSet<String>();    
-      zipOut.putNextEntry(new ZipEntry("ContentDigests"));
+      zipOut.putNextEntry("ContentDigests", getStreamedEntryCompressionLevel("ContentDigests"));
       OutputStreamWriter writer = new OutputStreamWriter(zipOut, "UTF-8");
-      ContentDigestManager digestManager = ContentDigestManager.getInstance();
+      Map<Content, byte []> contentDigests;
+      try {
+        contentDigests = ContentDigestManager.getInstance().getContentDigests(savedContentNames.keySet());
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      }
       writer.write("ContentDigests-Version: 1.0\n\n");
       for (Map.Entry<Content, String> savedContent : savedContentNames.entrySet()) {
         String contentEntryName = savedContent.getValue();
-        if (!contentEntryNames.contains(contentEntryName)) {
-          contentEntryNames.add(contentEntryName);
+        if (!contentEntryDigests.containsKey(contentEntryName)) {
+          String contentDigest = Base64.encodeBytes(contentDigests.get(savedContent.getKey()));
+          contentEntryDigests.put(contentEntryName, contentDigest);
           writer.write("Name: " + contentEntryName + "\n");
-          writer.write("SHA-1-Digest: " + Base64.encodeBytes(digestManager.getContentDigest(savedContent.getKey())) + "\n\n");
+          writer.write("SHA-1-Digest: " + contentDigest + "\n\n");
         }
       }
       writer.flush();
       zipOut.closeEntry();
     
-      contentEntryNames.clear(); 
-      for (Map.Entry<Content, String> savedContent : savedContentNames.entrySet()) {
-        String contentEntryName = savedContent.getValue();
-        if (!contentEntryNames.contains(contentEntryName)) {
-          contentEntryNames.add(contentEntryName);
-          Content content = savedContent.getKey();
-          int slashIndex = contentEntryName.indexOf('/');
-          if (slashIndex > 0) {
-            contentEntryName = contentEntryName.substring(0, slashIndex);
-          }
-          if (content instanceof ResourceURLContent) {
-            writeResourceZipEntries(zipOut, contentEntryName, (ResourceURLContent)content);
-          } else if (content instanceof URLContent
-                     && !(content instanceof SimpleURLContent)
-                     && ((URLContent)content).isJAREntry()) {
-            URLContent urlContent = (URLContent)content;
-            if (urlContent instanceof HomeURLContent) {
-              writeHomeZipEntries(zipOut, contentEntryName, (HomeURLContent)urlContent);            
-            } else {
-              writeZipEntries(zipOut, contentEntryName, urlContent);
+      ZipArchiveIndex reusedHomeIndex = openReusedHomeIndex();
+      ContentEntriesWriter entriesWriter = new ContentEntriesWriter(zipOut, 
+          contentEntryDigests.size() > 1 ? getCompressionThreadCount() : 1);
+      try {
+        Map<String, String> reusedContentEntryNames = getReusedContentEntryNames(reusedHomeIndex);
+        Set<String> contentEntryNames = new HashSet<String>();    
+        for (Map.Entry<Content, String> savedContent : savedContentNames.entrySet()) {
+          String contentEntryName = savedContent.getValue();
+          if (!contentEntryNames.contains(contentEntryName)) {
+            contentEntryNames.add(contentEntryName);
+            String contentDigest = contentEntryDigests.get(contentEntryName);
+            if (this.omittedContentDigests != null
+                && this.omittedContentDigests.contains(contentDigest)) {
+              continue;
+            }
+            String reusedContentEntryName = reusedContentEntryNames.get(contentDigest);
+            if (reusedContentEntryName == null
+                || !copyReusedZipEntries(entriesWriter, contentEntryName, reusedHomeIndex, reusedContentEntryName)) {
+              writeContentZipEntries(entriesWriter, contentEntryName, savedContent.getKey());
             }
-          } else {
-            writeZipEntry(zipOut, contentEntryName, content);
           }
         }
-      }  
+        entriesWriter.finish();
+      } finally {
+        entriesWriter.dispose();
+        if (reusedHomeIndex != null) {
+          reusedHomeIndex.close();
+        }
+      }
     }
     zipOut.finish();
+    this.contentLengths = getContentLengths(zipOut.getWrittenEntryLengths(), contentEntryDigests);
+  }
+
+  /**
+   * Returns the count of bytes written for each content, summing the lengths of the entries 
+   * stored in the same directory for multi part content.
+   */
+  private Map<String, Long> getContentLengths(Map<String, Long> entryLengths, 
+                                              Map<String, String> contentEntryDigests) {
+    Map<String, String> entryDirectoryDigests = new HashMap<String, String>();
+    for (Map.Entry<String, String> contentEntryDigest : contentEntryDigests.entrySet()) {
+      String contentEntryName = contentEntryDigest.getKey();
+      int slashIndex = contentEntryName.indexOf('/');
+      entryDirectoryDigests.put(slashIndex > 0 ? contentEntryName.substring(0, slashIndex) : contentEntryName, 
+          contentEntryDigest.getValue());
+    }
+    Map<String, Long> contentLengths = new HashMap<String, Long>();
+    for (Map.Entry<String, Long> entryLength : entryLengths.entrySet()) {
+      String entryName = entryLength.getKey();
+      int slashIndex = entryName.indexOf('/');
+      String digest = entryDirectoryDigests.get(slashIndex > 0 ? entryName.substring(0, slashIndex) : entryName);
+      if (digest != null) {
+        Long contentLength = contentLengths.get(digest);
+        contentLengths.put(digest, (contentLength != null ? contentLength : 0) + entryLength.getValue());
+      }
+    }
+    return contentLengths;
+  }
+
+  /**
+   * Returns the count of threads used to compress content entries.
+   */
+  private int getCompressionThreadCount() {
+    try {
+      String threadCount = System.getProperty(COMPRESSION_THREAD_COUNT);
+      if (threadCount != null) {
+        return Math.max(1, Integer.parseInt(threadCount));
+      }
+    } catch (NumberFormatException ex) {
+    } catch (SecurityException ex) {
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Returns the index of the reused home file or <code>null</code> if it doesn't exist or can't be read.
+   */
+  private ZipArchiveIndex openReusedHomeIndex() {
+    if (this.reusedHomeFile != null
+        && this.reusedHomeFile.isFile()) {
+      try {
+        return new ZipArchiveIndex(this.reusedHomeFile);
+      } catch (IOException ex) {
+        // Ignore a damaged file and compress all the content
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the content entry names of the reused home file mapped to their Base64 encoded digest.
+   */
+  private Map<String, String> getReusedContentEntryNames(ZipArchiveIndex reusedHomeIndex) {
+    Map<String, String> reusedContentEntryNames = new HashMap<String, String>();
+    if (reusedHomeIndex != null) {
+      ZipArchiveIndex.Entry contentDigestsEntry = reusedHomeIndex.getEntry("ContentDigests");
+      if (contentDigestsEntry != null) {
+        try {
+          InputStream contentDigestsIn = reusedHomeIndex.openStream(contentDigestsEntry);
+          try {
+            Map<String, byte []> contentDigests = HomeContentContext.readContentDigests(contentDigestsIn);
+            if (contentDigests != null) {
+              for (Map.Entry<String, byte []> contentDigest : contentDigests.entrySet()) {
+                if (contentDigest.getValue().length > 0) {
+                  reusedContentEntryNames.put(Base64.encodeBytes(contentDigest.getValue()), contentDigest.getKey());
+                }
+              }
+            }
+          } finally {
+            contentDigestsIn.close();
+          }
+        } catch (IOException ex) {
+          reusedContentEntryNames.clear();
+        }
+      }
+    }
+    return reusedContentEntryNames;
+  }
+
+  /**
+   * Copies without recompressing them the entries of the reused home file matching 
+   * <code>reusedContentEntryName</code> under the name <code>contentEntryName</code>.
+   * @return <code>false</code> if the entries of the reused home file can't be copied
+   */
+  private boolean copyReusedZipEntries(ContentEntriesWriter entriesWriter, 
+                                       String contentEntryName,
+                                       ZipArchiveIndex reusedHomeIndex, 
+                                       String reusedContentEntryName) throws IOException {
+    int slashIndex = contentEntryName.indexOf('/');
+    int reusedSlashIndex = reusedContentEntryName.indexOf('/');
+    if (slashIndex > 0 
+        && reusedSlashIndex > 0
+        && contentEntryName.substring(slashIndex).equals(reusedContentEntryName.substring(reusedSlashIndex))) {
+      String reusedEntryDirectory = reusedContentEntryName.substring(0, reusedSlashIndex + 1);
+      List<ZipArchiveIndex.Entry> reusedEntries = new ArrayList<ZipArchiveIndex.Entry>();
+      for (ZipArchiveIndex.Entry entry : reusedHomeIndex.getEntries()) {
+        if (entry.getName().startsWith(reusedEntryDirectory)) {
+          if (!isCopiable(entry)) {
+            return false;
+          }
+          reusedEntries.add(entry);
+        }
+      }
+      if (reusedHomeIndex.getEntry(reusedContentEntryName) == null) {
+        return false;
+      }
+      String entryDirectory = contentEntryName.substring(0, slashIndex + 1);
+      for (ZipArchiveIndex.Entry entry : reusedEntries) {
+        entriesWriter.copyEntry(entryDirectory + entry.getName().substring(reusedEntryDirectory.length()), 
+            reusedHomeIndex, entry);
+      }
+      return true;
+    } else if (slashIndex < 0 
+               && reusedSlashIndex < 0) {
+      ZipArchiveIndex.Entry entry = reusedHomeIndex.getEntry(reusedContentEntryName);
+      if (entry != null 
+          && isCopiable(entry)) {
+        entriesWriter.copyEntry(contentEntryName, reusedHomeIndex, entry);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isCopiable(ZipArchiveIndex.Entry entry) {
+    return !entry.isEncrypted()
+        && (entry.getMethod() == ZipEntry.STORED
+            || entry.getMethod() == ZipEntry.DEFLATED);
   }
 
-  private void writeResourceZipEntries(ZipOutputStream zipOut,
+  /**
+   * Writes the entries of the given <code>content</code>.
+   */
+  private void writeContentZipEntries(ContentEntriesWriter entriesWriter, 
+                                      String contentEntryName, 
+                                      Content content) throws IOException {
+    int slashIndex = contentEntryName.indexOf('/');
+    if (slashIndex > 0) {
+      contentEntryName = contentEntryName.substring(0, slashIndex);
+    }
+    if (content instanceof ResourceURLContent) {
+      writeResourceZipEntries(entriesWriter, contentEntryName, (ResourceURLContent)content);
+    } else if (content instanceof URLContent
+               && !(content instanceof SimpleURLContent)
+               && ((URLContent)content).isJAREntry()) {
+      URLContent urlContent = (URLContent)content;
+      if (urlContent instanceof HomeURLContent) {
+        writeHomeZipEntries(entriesWriter, contentEntryName, (HomeURLContent)urlContent);            
+      } else {
+        writeZipEntries(entriesWriter, contentEntryName, urlContent);
+      }
+    } else {
+      entriesWriter.writeEntry(contentEntryName, content);
+    }
+  }
+
+  private void writeResourceZipEntries(ContentEntriesWriter entriesWriter,
                                        String entryNameOrDirectory,
                                        ResourceURLContent urlContent) throws IOException {
     if (urlContent.isMultiPartResource()) {
@@ -164,11 +459,11 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
             if (zipEntryName.startsWith(entryDirectory)) {
               Content siblingContent = new URLContent(new URL("jar:" + zipUrl + "!/" 
                   + URLEncoder.encode(zipEntryName, "UTF-8").replace("+", "%20")));
-              writeZipEntry(zipOut, entryNameOrDirectory + zipEntryName.substring(lastSlashIndex), siblingContent);
+              entriesWriter.writeEntry(entryNameOrDirectory + zipEntryName.substring(lastSlashIndex), siblingContent);
             }
           }
         } else {
-          writeZipEntry(zipOut, entryNameOrDirectory, urlContent);
+          entriesWriter.writeEntry(entryNameOrDirectory, urlContent);
         }
       } else {
         try {
@@ -177,7 +472,7 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
           File [] siblingFiles = parentFile.listFiles();
           for (File siblingFile : siblingFiles) {
             if (!siblingFile.isDirectory()) {
-              writeZipEntry(zipOut, entryNameOrDirectory + "/" + siblingFile.getName(), 
+              entriesWriter.writeEntry(entryNameOrDirectory + "/" + siblingFile.getName(), 
                   new URLContent(siblingFile.toURI().toURL()));
             }
           }
@@ -188,11 +483,11 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
         }
       }
     } else {
-      writeZipEntry(zipOut, entryNameOrDirectory, urlContent);
+      entriesWriter.writeEntry(entryNameOrDirectory, urlContent);
     }
   }
 
-  private void writeHomeZipEntries(ZipOutputStream zipOut,
+  private void writeHomeZipEntries(ContentEntriesWriter entriesWriter,
                                    String entryNameOrDirectory,
                                    HomeURLContent urlContent) throws IOException {
     String entryName = urlContent.getJAREntryName();
@@ -204,34 +499,63 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
         if (zipEntryName.startsWith(entryDirectory)) {
           Content siblingContent = new URLContent(new URL("jar:" + zipUrl + "!/" 
               + URLEncoder.encode(zipEntryName, "UTF-8").replace("+", "%20")));
-          writeZipEntry(zipOut, entryNameOrDirectory + zipEntryName.substring(slashIndex), siblingContent);
+          entriesWriter.writeEntry(entryNameOrDirectory + zipEntryName.substring(slashIndex), siblingContent);
         }
       }
     } else {
-      writeZipEntry(zipOut, entryNameOrDirectory, urlContent);
+      entriesWriter.writeEntry(entryNameOrDirectory, urlContent);
     }
   }
 
-  private void writeZipEntries(ZipOutputStream zipOut, 
+  private void writeZipEntries(ContentEntriesWriter entriesWriter, 
                                String directory,
                                URLContent urlContent) throws IOException {
     for (String zipEntryName : ContentDigestManager.getInstance().getZipURLEntries(urlContent)) {
       Content siblingContent = new URLContent(new URL("jar:" + urlContent.getJAREntryURL() + "!/" 
           + URLEncoder.encode(zipEntryName, "UTF-8").replace("+", "%20")));
-      writeZipEntry(zipOut, directory + "/" + zipEntryName, siblingContent);
+      entriesWriter.writeEntry(directory + "/" + zipEntryName, siblingContent);
     }
   }
 
-  private void writeZipEntry(ZipOutputStream zipOut, String entryName, Content content) throws IOException {
+  /**
+   * Returns the deflate level of an entry which data is written as it's produced.
+   */
+  private int getStreamedEntryCompressionLevel(String entryName) {
+    int level = this.compressionPolicy.getCompressionLevel(entryName, null, 0);
+    return level == EntryCompressionPolicy.STORED
+        ? Deflater.NO_COMPRESSION
+        : level;
+  }
+
+  private void writeZipEntry(ZipArchiveOutputStream zipOut, String entryName, Content content) throws IOException {
     checkCurrentThreadIsntInterrupted();
-    byte [] buffer = new byte [8192];
+    byte [] buffer = new byte [COMPRESSION_SAMPLE_LENGTH];
     InputStream contentIn = null;
     try {
-      zipOut.putNextEntry(new ZipEntry(entryName));
-      contentIn = content.openStream();          
-      int size; 
-      while ((size = contentIn.read(buffer)) != -1) {
-        zipOut.write(buffer, 0, size);
+      contentIn = content.openStream();
+      int sampleLength = readSample(contentIn, buffer);
+      int level = this.compressionPolicy.getCompressionLevel(entryName, buffer, sampleLength);
+      if (level == EntryCompressionPolicy.STORED) {
+        // Compute size and CRC of stored data before writing it
+        CRC32 crc = new CRC32();
+        crc.update(buffer, 0, sampleLength);
+        long size = sampleLength;
+        if (sampleLength == buffer.length) {
+          for (int length; (length = contentIn.read(buffer)) != -1; ) {
+            crc.update(buffer, 0, length);
+            size += length;
+          }
+          contentIn.close();
+          contentIn = content.openStream();
+          sampleLength = readSample(contentIn, buffer);
+        }
+        zipOut.putNextStoredEntry(entryName, size, crc.getValue());
+      } else {
+        zipOut.putNextEntry(entryName, level);
+      }
+      zipOut.write(buffer, 0, sampleLength);
+      for (int length; (length = contentIn.read(buffer)) != -1; ) {
+        zipOut.write(buffer, 0, length);
       }
       zipOut.closeEntry();  
     } finally {
@@ -241,83 +565,317 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
     }
   }
 
-  private class HomeContentObjectsTracker extends ObjectOutputStream {
-    private Map<Content, String> savedContentNames = new LinkedHashMap<Content, String>();
-    private int savedContentIndex = 0;
+  /**
+   * Reads and compresses in memory the given content, as chosen by the compression policy.
+   */
+  private CompressedEntry compressEntry(String entryName, Content content) throws IOException {
+    checkCurrentThreadIsntInterrupted();
+    byte [] buffer = new byte [COMPRESSION_SAMPLE_LENGTH];
+    InputStream contentIn = content.openStream();
+    try {
+      int sampleLength = readSample(contentIn, buffer);
+      int level = this.compressionPolicy.getCompressionLevel(entryName, buffer, sampleLength);
+      CompressedEntry entry = new CompressedEntry(entryName, 
+          level == EntryCompressionPolicy.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED);
+      Deflater deflater = level == EntryCompressionPolicy.STORED 
+          ? null 
+          : new Deflater(level, true);
+      boolean compressed = false;
+      try {
+        OutputStream dataOut = deflater == null
+            ? entry.data
+            : new DeflaterOutputStream(entry.data, deflater, 8192);
+        CRC32 crc = new CRC32();
+        for (int length = sampleLength; length != -1; length = contentIn.read(buffer)) {
+          checkCurrentThreadIsntInterrupted();
+          crc.update(buffer, 0, length);
+          dataOut.write(buffer, 0, length);
+          entry.size += length;
+        }
+        if (deflater != null) {
+          ((DeflaterOutputStream)dataOut).finish();
+        }
+        entry.data.close();
+        entry.crc = crc.getValue();
+        compressed = true;
+        return entry;
+      } finally {
+        if (deflater != null) {
+          deflater.end();
+        }
+        if (!compressed) {
+          entry.data.dispose();
+        }
+      }
+    } finally {
+      contentIn.close();
+    }
+  }
 
-    public HomeContentObjectsTracker(OutputStream out) throws IOException {
-      super(out);
-      if (contentRecording != ContentRecording.INCLUDE_NO_CONTENT) {
-        enableReplaceObject(true);
+  /**
+   * Reads the first bytes of the given stream until <code>sample</code> is full.
+   * @return the count of bytes read
+   */
+  private int readSample(InputStream in, byte [] sample) throws IOException {
+    int sampleLength = 0;
+    for (int length; sampleLength < sample.length 
+                     && (length = in.read(sample, sampleLength, sample.length - sampleLength)) != -1; ) {
+      sampleLength += length;
+    }
+    return sampleLength;
+  }
+
+  /**
+   * A writer of content entries which compresses them in parallel when more than one thread
+   * is available, and writes them in the order they were requested.
+   */
+  private class ContentEntriesWriter {
+    private final ZipArchiveOutputStream   zipOut;
+    private final ExecutorService          executor;
+    private final int                      maximumPendingEntries;
+    private final LinkedList<PendingEntry> pendingEntries = new LinkedList<PendingEntry>();
+
+    public ContentEntriesWriter(ZipArchiveOutputStream zipOut, int threadCount) {
+      this.zipOut = zipOut;
+      if (threadCount > 1) {
+        this.executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "homeEntriesCompressor");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        // Keep a bounded count of compressed entries in memory
+        this.maximumPendingEntries = threadCount * 2;
+      } else {
+        this.executor = null;
+        this.maximumPendingEntries = 0;
       }
     }
 
-    @Override
-    protected Object replaceObject(Object obj) throws IOException {
-      if (obj instanceof TemporaryURLContent 
-          || obj instanceof HomeURLContent
-          || (contentRecording == ContentRecording.INCLUDE_ALL_CONTENT && obj instanceof Content)) {
-        String subEntryName = "";
-        if (obj instanceof URLContent) {
-          URLContent urlContent = (URLContent)obj;
-          ContentDigestManager contentDigestManager = ContentDigestManager.getInstance();
-          for (Map.Entry<Content, String> contentEntry : this.savedContentNames.entrySet()) {
-            if (contentDigestManager.equals(urlContent, contentEntry.getKey())) {
-              this.savedContentNames.put((Content)obj, contentEntry.getValue());
-              return obj;
+    /**
+     * Writes or schedules the writing of the entry called <code>entryName</code> with the given content.
+     */
+    public void writeEntry(final String entryName, final Content content) throws IOException {
+      if (this.executor == null) {
+        writeZipEntry(this.zipOut, entryName, content);
+      } else {
+        checkCurrentThreadIsntInterrupted();
+        final Future<CompressedEntry> compressedEntry = this.executor.submit(new Callable<CompressedEntry>() {
+            public CompressedEntry call() throws IOException {
+              return compressEntry(entryName, content);
             }
-          }
-          checkCurrentThreadIsntInterrupted();
-          if (urlContent.isJAREntry()) {
-            String entryName = urlContent.getJAREntryName();
-            if (urlContent instanceof HomeURLContent) {
-              int slashIndex = entryName.indexOf('/');
-              if (slashIndex > 0) {
-                subEntryName = entryName.substring(slashIndex);
-              }
-            } else if (urlContent instanceof ResourceURLContent) {
-              ResourceURLContent resourceUrlContent = (ResourceURLContent)urlContent;
-              if (resourceUrlContent.isMultiPartResource()) {
-                int lastSlashIndex = entryName.lastIndexOf('/');
-                if (lastSlashIndex != -1) {
-                  subEntryName = entryName.substring(lastSlashIndex);
+          });
+        addPendingEntry(new PendingEntry() {
+            public void write() throws IOException {
+              CompressedEntry entry = getCompressedEntry(compressedEntry);
+              try {
+                InputStream dataIn = entry.data.getInputStream();
+                try {
+                  zipOut.writeRawEntry(entry.name, entry.method, entry.dosTime, entry.crc, 
+                      entry.data.getLength(), entry.size, dataIn);
+                } finally {
+                  dataIn.close();
                 }
+              } finally {
+                entry.data.dispose();
               }
-            } else if (!(urlContent instanceof SimpleURLContent)) {
-              subEntryName = "/" + entryName;
-            }            
-          } else if (urlContent instanceof ResourceURLContent) {
-            ResourceURLContent resourceUrlContent = (ResourceURLContent)urlContent;
-            if (resourceUrlContent.isMultiPartResource()) {
-              try {
-                subEntryName = "/" + new File(resourceUrlContent.getURL().toURI()).getName();
-              } catch (URISyntaxException ex) {
-                IOException ex2 = new IOException();
-                ex2.initCause(ex);
-                throw ex2;
+            }
+
+            public void cancel() {
+              if (!compressedEntry.cancel(true)
+                  && compressedEntry.isDone()) {
+                try {
+                  compressedEntry.get().data.dispose();
+                } catch (Exception ex) {
+                  // No data to delete
+                }
               }
             }
-          }
-        } 
+          });
+      }
+    }
 
-        String homeContentPath = this.savedContentIndex++ + subEntryName;
-        this.savedContentNames.put((Content)obj, homeContentPath);
-      } 
-      return obj;
+    /**
+     * Writes or schedules the copy of the given <code>entry</code> under the name <code>entryName</code>.
+     */
+    public void copyEntry(final String entryName, 
+                          final ZipArchiveIndex index, 
+                          final ZipArchiveIndex.Entry entry) throws IOException {
+      checkCurrentThreadIsntInterrupted();
+      if (this.executor == null) {
+        this.zipOut.copyEntry(entryName, index, entry);
+      } else {
+        addPendingEntry(new PendingEntry() {
+            public void write() throws IOException {
+              zipOut.copyEntry(entryName, index, entry);
+            }
+
+            public void cancel() {
+            }
+          });
+      }
     }
-    
-    public Map<Content, String> getSavedContentNames() {
-      return this.savedContentNames;
+
+    private void addPendingEntry(PendingEntry entry) throws IOException {
+      this.pendingEntries.add(entry);
+      while (this.pendingEntries.size() > this.maximumPendingEntries) {
+        this.pendingEntries.removeFirst().write();
+      }
     }
+
+    private CompressedEntry getCompressedEntry(Future<CompressedEntry> compressedEntry) throws IOException {
+      try {
+        return compressedEntry.get();
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      } catch (CancellationException ex) {
+        throw new InterruptedIOException();
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+          throw (Error)cause;
+        } else {
+          IOException ex2 = new IOException();
+          ex2.initCause(cause);
+          throw ex2;
+        }
+      }
+    }
+
+    /**
+     * Writes all the pending entries.
+     */
+    public void finish() throws IOException {
+      while (!this.pendingEntries.isEmpty()) {
+        this.pendingEntries.removeFirst().write();
+      }
+    }
+
+    /**
+     * Cancels the pending entries and stops compression threads.
+     */
+    public void dispose() {
+      for (PendingEntry entry : this.pendingEntries) {
+        entry.cancel();
+      }
+      this.pendingEntries.clear();
+      if (this.executor != null) {
+        this.executor.shutdownNow();
+      }
+    }
+  }
+
+  private static interface PendingEntry {
+    public void write() throws IOException;
+
+    public void cancel();
   }
+
+  /**
+   * An entry compressed in memory.
+   */
+  private static class CompressedEntry {
+    private final String    name;
+    private final int       method;
+    private final long      dosTime;
+    private final EntryData data = new EntryData();
+    private long            crc;
+    private long            size;
+
+    public CompressedEntry(String name, int method) {
+      this.name = name;
+      this.method = method;
+      this.dosTime = ZipArchiveOutputStream.toDosTime(System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * The data of a compressed entry, kept in memory while it's small 
+   * and written in a temporary file once it's larger than 1 MB.
+   */
+  private static class EntryData extends OutputStream {
+    private ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+    private File                         dataFile;
+    private OutputStream                 dataFileOut;
+    private long                         length;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte [] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte [] b, int off, int len) throws IOException {
+      if (this.dataFileOut == null
+          && this.length + len > MAXIMUM_IN_MEMORY_ENTRY_LENGTH) {
+        this.dataFile = OperatingSystem.createTemporaryFile("entry", ".tmp");
+        this.dataFileOut = new BufferedOutputStream(new FileOutputStream(this.dataFile));
+        this.buffer.writeTo(this.dataFileOut);
+        this.buffer = null;
+      }
+      if (this.dataFileOut != null) {
+        this.dataFileOut.write(b, off, len);
+      } else {
+        this.buffer.write(b, off, len);
+      }
+      this.length += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.dataFileOut != null) {
+        this.dataFileOut.close();
+      }
+    }
+
+    public long getLength() {
+      return this.length;
+    }
+
+    public InputStream getInputStream() throws IOException {
+      if (this.dataFile != null) {
+        return new BufferedInputStream(new FileInputStream(this.dataFile));
+      } else {
+        return this.buffer.getInputStream();
+      }
+    }
+
+    /**
+     * Deletes the temporary file of this data if it exists.
+     */
+    public void dispose() {
+      if (this.dataFile != null) {
+        try {
+          close();
+        } catch (IOException ex) {
+          // Ignore close failure before deletion
+        }
+        this.dataFile.delete();
+        this.dataFile = null;
+      }
+      this.buffer = null;
+    }
+  }
+
+  private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(this.buf, 0, this.count);
+    }
+  }
+
   private class HomeObjectOutputStream extends ObjectOutputStream {
-    private Map<Content, String>    savedContentNames;
+    private HomeContentCollector    contentCollector;
     private Map<String, URLContent> replacedContents = new HashMap<String, URLContent>();
 
     public HomeObjectOutputStream(OutputStream out,
-                                  Map<Content, String> savedContentNames) throws IOException {
+                                  HomeContentCollector contentCollector) throws IOException {
       super(out);
-      this.savedContentNames = savedContentNames;
+      this.contentCollector = contentCollector;
       if (contentRecording != ContentRecording.INCLUDE_NO_CONTENT) {
         enableReplaceObject(true);
       }
@@ -326,7 +884,8 @@ public class DefaultHomeOutputStream extends FilterOutputStream {
     @Override
     protected Object replaceObject(Object obj) throws IOException {
       if (obj instanceof Content) {
-        String savedContentName = this.savedContentNames.get((Content)obj);
+        // Content not met by the collector, like the one referenced by a home subclass, is added as it comes
+        String savedContentName = this.contentCollector.addContent((Content)obj);
         if (savedContentName != null) {
           checkCurrentThreadIsntInterrupted();
           URLContent replacedContent = this.replacedContents.get(savedContentName);
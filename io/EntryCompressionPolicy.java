@@ -0,0 +1,21 @@
+package com.eteks.homeview3d.io;
+
+/**
+ * A policy choosing how each entry of a saved home is compressed.
+ */
+public interface EntryCompressionPolicy {
+  /**
+   * Value returned by {@link #getCompressionLevel(String, byte[], int) getCompressionLevel}
+   * for entries that should be stored without compression.
+   */
+  public static final int STORED = -2;
+
+  /**
+   * Returns the deflate level between 0 and 9 of the entry called <code>entryName</code>
+   * or {@link #STORED} if it shouldn't be compressed.
+   * @param entryName  the name of the entry in the saved home
+   * @param sample     the first bytes of the entry data or <code>null</code> if they're not available yet
+   * @param sampleLength the count of significant bytes in <code>sample</code>
+   */
+  public int getCompressionLevel(String entryName, byte [] sample, int sampleLength);
+}
@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -29,8 +30,14 @@ import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.AbstractPreferences;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
@@ -38,8 +45,11 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import com.eteks.homeview3d.model.CatalogDoorOrWindow;
+import com.eteks.homeview3d.model.AutoCompletionTrie;
 import com.eteks.homeview3d.model.CatalogPieceOfFurniture;
 import com.eteks.homeview3d.model.CatalogTexture;
+import com.eteks.homeview3d.model.CollectionEvent;
+import com.eteks.homeview3d.model.CollectionListener;
 import com.eteks.homeview3d.model.Content;
 import com.eteks.homeview3d.model.FurnitureCatalog;
 import com.eteks.homeview3d.model.FurnitureCategory;
@@ -114,6 +124,14 @@ public class FileUserPreferences extends UserPreferences {
   private static final String LANGUAGE_LIBRARIES_PLUGIN_SUB_FOLDER      = "languages";
   private static final String FURNITURE_LIBRARIES_PLUGIN_SUB_FOLDER     = "furniture";
   private static final String TEXTURES_LIBRARIES_PLUGIN_SUB_FOLDER      = "textures";
+  private static final String CONTENT_DIGESTS_FILE                      = "contentDigests.cache";
+  private static final String CONTENT_STORE_FOLDER                      = "contentStore";
+  private static final String FURNITURE_LIBRARY_INDEX_FILE              = "furnitureLibraries.index";
+  private static final String AUTO_COMPLETION_JOURNAL_FILE              = "autoCompletion.journal";
+
+  // Delay after the last write request before preferences are written
+  private static final long   WRITE_DELAY                               = 1000;
+  private static final long   MAXIMUM_WRITE_DELAY                       = 5000;
 
   private static final Content DUMMY_CONTENT;
   
@@ -125,6 +143,18 @@ public class FileUserPreferences extends UserPreferences {
   private Executor                   catalogsLoader;
   private Executor                   updater;
   private List<Library>              libraries;
+  private boolean                    writeDeferred;
+  private ScheduledExecutorService   preferencesWriter;
+  private ScheduledFuture<?>         scheduledWrite;
+  private long                       firstWriteRequestTime;
+  private RecorderException          writeException;
+  private boolean                    furnitureCatalogModified;
+  private boolean                    texturesCatalogModified;
+  private List<CatalogPieceOfFurniture> pendingModifiableFurniture;
+  private List<CatalogTexture>       pendingModifiableTextures;
+  private Map<String, AutoCompletionTrie> pendingAutoCompletionTries;
+  private AutoCompletionJournal      autoCompletionJournal;
+  private final Map<URL, URLContent> copiedContents = new HashMap<URL, URLContent>();
   
   public static final String PLUGIN_LANGUAGE_LIBRARY_FAMILY = "PluginLanguageLibrary";
   
@@ -155,6 +185,15 @@ public class FileUserPreferences extends UserPreferences {
     this.libraries = new ArrayList<Library>();
     this.preferencesFolder = preferencesFolder;
     this.applicationFolders = applicationFolders;
+    try {
+      // Keep content digests computed for catalogs and homes in later sessions
+      ContentDigestManager.getInstance().setContentDigestStoreFile(
+          new File(getPreferencesFolder(), CONTENT_DIGESTS_FILE));
+      // Share the content of read homes in a single store
+      ContentDigestManager.getInstance().setContentStoreFolder(
+          new File(getPreferencesFolder(), CONTENT_STORE_FOLDER));
+    } catch (IOException ex) {
+    }
     Executor defaultExecutor = new Executor() {
         public void execute(Runnable command) {
           command.run();
@@ -166,6 +205,7 @@ public class FileUserPreferences extends UserPreferences {
     } else {
       this.catalogsLoader = Executors.newSingleThreadExecutor();
       this.updater = updater;
+      this.writeDeferred = true;
     }
     
     updateSupportedLanguages();
@@ -281,15 +321,35 @@ public class FileUserPreferences extends UserPreferences {
     for (String property : defaultPreferences.getAutoCompletedProperties()) {
       setAutoCompletionStrings(property, defaultPreferences.getAutoCompletionStrings(property));
     }
-    for (int i = 1; ; i++) {
-      String autoCompletionProperty = preferences.get(AUTO_COMPLETION_PROPERTY + i, null);
-      String autoCompletionStrings = preferences.get(AUTO_COMPLETION_STRINGS + i, null);
-      if (autoCompletionProperty != null && autoCompletionStrings != null) {
-        setAutoCompletionStrings(autoCompletionProperty, Arrays.asList(autoCompletionStrings.split(",")));
-      } else {
-        break;
+    AutoCompletionJournal autoCompletionJournal = null;
+    try {
+      autoCompletionJournal = new AutoCompletionJournal(
+          new File(getPreferencesFolder(), AUTO_COMPLETION_JOURNAL_FILE));
+    } catch (IOException ex) {
+    }
+    if (autoCompletionJournal != null
+        && autoCompletionJournal.exists()) {
+      try {
+        for (Map.Entry<String, AutoCompletionTrie> entry : autoCompletionJournal.read().entrySet()) {
+          setAutoCompletionTrie(entry.getKey(), entry.getValue());
+        }
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    } else {
+      // Read auto completion strings stored in preferences by previous versions
+      for (int i = 1; ; i++) {
+        String autoCompletionProperty = preferences.get(AUTO_COMPLETION_PROPERTY + i, null);
+        String autoCompletionStrings = preferences.get(AUTO_COMPLETION_STRINGS + i, null);
+        if (autoCompletionProperty != null && autoCompletionStrings != null) {
+          setAutoCompletionStrings(autoCompletionProperty, Arrays.asList(autoCompletionStrings.split(",")));
+        } else {
+          break;
+        }
       }
     }
+    // Journal auto completion changes from now on
+    this.autoCompletionJournal = autoCompletionJournal;
     
     addPropertyChangeListener(Property.LANGUAGE, new PropertyChangeListener() {
         public void propertyChange(PropertyChangeEvent ev) {
@@ -299,8 +359,27 @@ public class FileUserPreferences extends UserPreferences {
         }
       });
     
+    // Write catalogs only when their modifiable items change
+    getFurnitureCatalog().addFurnitureListener(new CollectionListener<CatalogPieceOfFurniture>() {
+        public void collectionChanged(CollectionEvent<CatalogPieceOfFurniture> ev) {
+          if (ev.getItem().isModifiable()) {
+            furnitureCatalogModified = true;
+          }
+        }
+      });
+    getTexturesCatalog().addTexturesListener(new CollectionListener<CatalogTexture>() {
+        public void collectionChanged(CollectionEvent<CatalogTexture> ev) {
+          if (ev.getItem().isModifiable()) {
+            texturesCatalogModified = true;
+          }
+        }
+      });
+
     if (preferences != portablePreferences) {
       this.preferences = portablePreferences;
+      // Copy catalogs to the new preferences at next write
+      this.furnitureCatalogModified = true;
+      this.texturesCatalogModified = true;
     } else {
       this.preferences = preferences;
     }
@@ -470,7 +549,14 @@ public class FileUserPreferences extends UserPreferences {
   }
 
   protected FurnitureCatalog readFurnitureCatalogFromResource(File [] furniturePluginFolders) {
-    return new DefaultFurnitureCatalog(this, furniturePluginFolders);
+    File furnitureLibraryIndexFile;
+    try {
+      // Keep the properties of furniture libraries to read them faster in later sessions
+      furnitureLibraryIndexFile = new File(getPreferencesFolder(), FURNITURE_LIBRARY_INDEX_FILE);
+    } catch (IOException ex) {
+      furnitureLibraryIndexFile = null;
+    }
+    return new DefaultFurnitureCatalog(this, furniturePluginFolders, furnitureLibraryIndexFile);
   }
 
   private void removeLibraries(String libraryType) {
@@ -529,12 +615,34 @@ public class FileUserPreferences extends UserPreferences {
   private void updateAutoCompletionStrings() {
     DefaultUserPreferences defaultPreferences = new DefaultUserPreferences(false, this);
     for (String property : defaultPreferences.getAutoCompletedProperties()) {
+      List<String> autoCompletionStrings = getAutoCompletionStrings(property);
       for (String autoCompletionString : defaultPreferences.getAutoCompletionStrings(property)) {
-        addAutoCompletionString(property, autoCompletionString);
+        // Add missing strings without counting a use of existing ones
+        if (!autoCompletionStrings.contains(autoCompletionString)) {
+          addAutoCompletionString(property, autoCompletionString);
+        }
       }
     }
   }
 
+  @Override
+  public void addAutoCompletionString(String property, String autoCompletionString) {
+    super.addAutoCompletionString(property, autoCompletionString);
+    if (this.autoCompletionJournal != null
+        && autoCompletionString != null
+        && autoCompletionString.length() > 0) {
+      this.autoCompletionJournal.addUse(property, autoCompletionString);
+    }
+  }
+
+  @Override
+  protected void setAutoCompletionTrie(String property, AutoCompletionTrie autoCompletionTrie) {
+    super.setAutoCompletionTrie(property, autoCompletionTrie);
+    if (this.autoCompletionJournal != null) {
+      this.autoCompletionJournal.addSnapshot(property);
+    }
+  }
+
   private void readModifiableFurnitureCatalog(Preferences preferences) {
     File preferencesFolder;
     try {
@@ -668,11 +776,124 @@ public class FileUserPreferences extends UserPreferences {
   }
 
 
+  /**
+   * Writes user preferences. If this object was created with an updater, the writing of catalogs 
+   * and auto completion strings on disk is deferred until no other write was requested for a second, 
+   * and done in a background thread, or at the latest when the program exits. 
+   * A failure of a deferred writing is reported by the next call to this method.
+   */
   @Override
   public void write() throws RecorderException {
+    writeModifiedPreferences();
+    if (this.writeDeferred) {
+      RecorderException writeException = scheduleWrite();
+      if (writeException != null) {
+        throw writeException;
+      }
+    } else {
+      writePendingPreferences();
+      flushPreferences();
+    }
+  }
+
+  /**
+   * Schedules the writing of preferences in a short delay, postponing the writing
+   * already scheduled, and returns the exception thrown by the previous writing if it failed.
+   */
+  private synchronized RecorderException scheduleWrite() {
+    RecorderException writeException = this.writeException;
+    this.writeException = null;
+    long now = System.currentTimeMillis();
+    if (this.scheduledWrite == null) {
+      this.firstWriteRequestTime = now;
+      if (this.preferencesWriter == null) {
+        this.preferencesWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "preferencesWriter");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+              // Write pending preferences once the write that may be running is done
+              try {
+                preferencesWriter.submit(new Callable<Void>() {
+                    public Void call() throws RecorderException {
+                      cancelScheduledWrite();
+                      writePendingPreferences();
+                      flushPreferences();
+                      return null;
+                    }
+                  }).get();
+              } catch (InterruptedException ex) {
+              } catch (ExecutionException ex) {
+                // Nothing can be reported once the program exits
+              }
+            }
+          });
+      }
+    } else if (now - this.firstWriteRequestTime > MAXIMUM_WRITE_DELAY - WRITE_DELAY
+        || !this.scheduledWrite.cancel(false)) {
+      // Keep the write already scheduled or currently running
+      return writeException;
+    }
+    this.scheduledWrite = this.preferencesWriter.schedule(new Runnable() {
+        public void run() {
+          if (cancelScheduledWrite()) {
+            try {
+              writePendingPreferences();
+              flushPreferences();
+            } catch (RecorderException ex) {
+              setWriteException(ex);
+            }
+          }
+        }
+      }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    return writeException;
+  }
+
+  /**
+   * Cancels the scheduled write and returns <code>true</code> if a write was pending.
+   */
+  private synchronized boolean cancelScheduledWrite() {
+    if (this.scheduledWrite != null) {
+      this.scheduledWrite.cancel(false);
+      this.scheduledWrite = null;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  private synchronized void setWriteException(RecorderException writeException) {
+    this.writeException = writeException;
+  }
+
+  /**
+   * Writes in preferences the properties and keeps the modifiable items of the catalogs 
+   * that were modified and the auto completion strings, to write them with 
+   * {@link #writePendingPreferences()} without reading catalogs in an other thread.
+   */
+  private void writeModifiedPreferences() {
     Preferences preferences = getPreferences();
-    writeModifiableFurnitureCatalog(preferences);
-    writeModifiableTexturesCatalog(preferences);
+    synchronized (this) {
+      if (this.furnitureCatalogModified) {
+        // Pending furniture stays pending until it's written successfully 
+        this.furnitureCatalogModified = false;
+        this.pendingModifiableFurniture = getModifiableFurniture();
+      }
+      if (this.texturesCatalogModified) {
+        this.texturesCatalogModified = false;
+        this.pendingModifiableTextures = getModifiableTextures();
+      }
+      Map<String, AutoCompletionTrie> autoCompletionTries = new LinkedHashMap<String, AutoCompletionTrie>();
+      for (String property : getAutoCompletedProperties()) {
+        autoCompletionTries.put(property, getAutoCompletionTrie(property));
+      }
+      this.pendingAutoCompletionTries = autoCompletionTries;
+    }
 
     preferences.put(LANGUAGE, getLanguage());
     preferences.put(EXTENSIBLE_UNIT, getLengthUnit().name());   
@@ -733,73 +954,137 @@ public class FileUserPreferences extends UserPreferences {
     for ( ; i <= this.ignoredActionTips.size(); i++) {
       preferences.remove(IGNORED_ACTION_TIP + i);
     }
-    i = 1;
-    for (String property : getAutoCompletedProperties()) {
-      StringBuilder autoCompletionStrings = new StringBuilder();
-      Iterator<String> it = getAutoCompletionStrings(property).iterator();
-      for (int j = 0; j < 1000 && it.hasNext(); j++) {
-        String autoCompletionString = it.next();
-        if (autoCompletionString.indexOf(',') < 0
-            && autoCompletionStrings.length() + autoCompletionString.length() + 1 <= Preferences.MAX_VALUE_LENGTH) {
-          if (autoCompletionStrings.length() > 0) {
-            autoCompletionStrings.append(",");
-          } 
-          autoCompletionStrings.append(autoCompletionString);
+  }
+
+  /**
+   * Writes the catalogs and the auto completion strings kept by the last call to 
+   * {@link #writeModifiedPreferences()}. A section is forgotten only once it was written.
+   */
+  private void writePendingPreferences() throws RecorderException {
+    List<CatalogPieceOfFurniture> modifiableFurniture; 
+    List<CatalogTexture> modifiableTextures;
+    Map<String, AutoCompletionTrie> autoCompletionTries;
+    synchronized (this) {
+      modifiableFurniture = this.pendingModifiableFurniture;
+      modifiableTextures = this.pendingModifiableTextures;
+      autoCompletionTries = this.pendingAutoCompletionTries;
+    }
+    Preferences preferences = getPreferences();
+    if (modifiableFurniture != null) {
+      writeModifiableFurnitureCatalog(preferences, modifiableFurniture);
+      synchronized (this) {
+        if (this.pendingModifiableFurniture == modifiableFurniture) {
+          this.pendingModifiableFurniture = null;
         }
       }
-      preferences.put(AUTO_COMPLETION_PROPERTY + i, property);
-      preferences.put(AUTO_COMPLETION_STRINGS + i++, autoCompletionStrings.toString());
+    }
+    if (modifiableTextures != null) {
+      writeModifiableTexturesCatalog(preferences, modifiableTextures);
+      synchronized (this) {
+        if (this.pendingModifiableTextures == modifiableTextures) {
+          this.pendingModifiableTextures = null;
+        }
+      }
+    }
+    if (autoCompletionTries != null) {
+      writeAutoCompletionStrings(preferences, autoCompletionTries);
+      synchronized (this) {
+        if (this.pendingAutoCompletionTries == autoCompletionTries) {
+          this.pendingAutoCompletionTries = null;
+        }
+      }
+    }
+  }
+
+  private void writeAutoCompletionStrings(Preferences preferences, 
+                                          Map<String, AutoCompletionTrie> autoCompletionTries) throws RecorderException {
+    int i = 1;
+    if (this.autoCompletionJournal != null) {
+      // Append only auto completion changes to journal
+      try {
+        this.autoCompletionJournal.write(autoCompletionTries);
+      } catch (IOException ex) {
+        throw new RecorderException("Couldn't write auto completion strings", ex);
+      }
+    } else {
+      for (Map.Entry<String, AutoCompletionTrie> entry : autoCompletionTries.entrySet()) {
+        StringBuilder autoCompletionStrings = new StringBuilder();
+        Iterator<String> it = entry.getValue().getStrings().iterator();
+        for (int j = 0; j < 1000 && it.hasNext(); j++) {
+          String autoCompletionString = it.next();
+          if (autoCompletionString.indexOf(',') < 0
+              && autoCompletionStrings.length() + autoCompletionString.length() + 1 <= Preferences.MAX_VALUE_LENGTH) {
+            if (autoCompletionStrings.length() > 0) {
+              autoCompletionStrings.append(",");
+            } 
+            autoCompletionStrings.append(autoCompletionString);
+          }
+        }
+        preferences.put(AUTO_COMPLETION_PROPERTY + i, entry.getKey());
+        preferences.put(AUTO_COMPLETION_STRINGS + i++, autoCompletionStrings.toString());
+      }
     }
     for ( ; preferences.get(AUTO_COMPLETION_PROPERTY + i, null) != null; i++) {
       preferences.remove(AUTO_COMPLETION_PROPERTY + i);
       preferences.remove(AUTO_COMPLETION_STRINGS + i);
     }
-    
+  }
+
+  private void flushPreferences() throws RecorderException {
     try {
-      preferences.flush();
+      getPreferences().flush();
     } catch (BackingStoreException ex) {
       throw new RecorderException("Couldn't write preferences", ex);
     }
   }
 
-  private void writeModifiableFurnitureCatalog(Preferences preferences) throws RecorderException {
-    final Set<URL> furnitureContentURLs = new HashSet<URL>();
-    int i = 1;
+  private List<CatalogPieceOfFurniture> getModifiableFurniture() {
+    List<CatalogPieceOfFurniture> modifiableFurniture = new ArrayList<CatalogPieceOfFurniture>();
     for (FurnitureCategory category : getFurnitureCatalog().getCategories()) {
       for (CatalogPieceOfFurniture piece : category.getFurniture()) {
         if (piece.isModifiable()) {
-          preferences.put(FURNITURE_NAME + i, piece.getName());
-          preferences.put(FURNITURE_CATEGORY + i, category.getName());
-          putContent(preferences, FURNITURE_ICON + i, piece.getIcon(), 
-              FURNITURE_CONTENT_PREFIX, furnitureContentURLs);
-          putContent(preferences, FURNITURE_MODEL + i, piece.getModel(), 
-              FURNITURE_CONTENT_PREFIX, furnitureContentURLs);
-          preferences.putFloat(FURNITURE_WIDTH + i, piece.getWidth());
-          preferences.putFloat(FURNITURE_DEPTH + i, piece.getDepth());
-          preferences.putFloat(FURNITURE_HEIGHT + i, piece.getHeight());
-          preferences.putBoolean(FURNITURE_MOVABLE + i, piece.isMovable());
-          preferences.putBoolean(FURNITURE_DOOR_OR_WINDOW + i, piece.isDoorOrWindow());
-          preferences.putFloat(FURNITURE_ELEVATION + i, piece.getElevation());
-          if (piece.getColor() == null) {
-            preferences.remove(FURNITURE_COLOR + i);
-          } else {
-            preferences.put(FURNITURE_COLOR + i, String.valueOf(piece.getColor()));
-          }
-          float [][] modelRotation = piece.getModelRotation();
-          preferences.put(FURNITURE_MODEL_ROTATION + i, 
-              floatToString(modelRotation[0][0]) + " " + floatToString(modelRotation[0][1]) + " " + floatToString(modelRotation[0][2]) + " "
-              + floatToString(modelRotation[1][0]) + " " + floatToString(modelRotation[1][1]) + " " + floatToString(modelRotation[1][2]) + " "
-              + floatToString(modelRotation[2][0]) + " " + floatToString(modelRotation[2][1]) + " " + floatToString(modelRotation[2][2]));
-          if (piece.getStaircaseCutOutShape() != null) {
-            preferences.put(FURNITURE_STAIRCASE_CUT_OUT_SHAPE + i, piece.getStaircaseCutOutShape());
-          }
-          preferences.putBoolean(FURNITURE_BACK_FACE_SHOWN + i, piece.isBackFaceShown());
-          preferences.putFloat(FURNITURE_ICON_YAW + i, piece.getIconYaw());
-          preferences.putBoolean(FURNITURE_PROPORTIONAL + i, piece.isProportional());
-          i++;
+          modifiableFurniture.add(piece);
         }
       }
     }
+    return modifiableFurniture;
+  }
+
+  private void writeModifiableFurnitureCatalog(Preferences preferences, 
+                                               List<CatalogPieceOfFurniture> modifiableFurniture) throws RecorderException {
+    final Set<URL> furnitureContentURLs = new HashSet<URL>();
+    int i = 1;
+    for (CatalogPieceOfFurniture piece : modifiableFurniture) {
+      preferences.put(FURNITURE_NAME + i, piece.getName());
+      preferences.put(FURNITURE_CATEGORY + i, piece.getCategory().getName());
+      putContent(preferences, FURNITURE_ICON + i, piece.getIcon(), 
+          FURNITURE_CONTENT_PREFIX, furnitureContentURLs);
+      putContent(preferences, FURNITURE_MODEL + i, piece.getModel(), 
+          FURNITURE_CONTENT_PREFIX, furnitureContentURLs);
+      preferences.putFloat(FURNITURE_WIDTH + i, piece.getWidth());
+      preferences.putFloat(FURNITURE_DEPTH + i, piece.getDepth());
+      preferences.putFloat(FURNITURE_HEIGHT + i, piece.getHeight());
+      preferences.putBoolean(FURNITURE_MOVABLE + i, piece.isMovable());
+      preferences.putBoolean(FURNITURE_DOOR_OR_WINDOW + i, piece.isDoorOrWindow());
+      preferences.putFloat(FURNITURE_ELEVATION + i, piece.getElevation());
+      if (piece.getColor() == null) {
+        preferences.remove(FURNITURE_COLOR + i);
+      } else {
+        preferences.put(FURNITURE_COLOR + i, String.valueOf(piece.getColor()));
+      }
+      float [][] modelRotation = piece.getModelRotation();
+      preferences.put(FURNITURE_MODEL_ROTATION + i, 
+          floatToString(modelRotation[0][0]) + " " + floatToString(modelRotation[0][1]) + " " + floatToString(modelRotation[0][2]) + " "
+          + floatToString(modelRotation[1][0]) + " " + floatToString(modelRotation[1][1]) + " " + floatToString(modelRotation[1][2]) + " "
+          + floatToString(modelRotation[2][0]) + " " + floatToString(modelRotation[2][1]) + " " + floatToString(modelRotation[2][2]));
+      if (piece.getStaircaseCutOutShape() != null) {
+        preferences.put(FURNITURE_STAIRCASE_CUT_OUT_SHAPE + i, piece.getStaircaseCutOutShape());
+      }
+      preferences.putBoolean(FURNITURE_BACK_FACE_SHOWN + i, piece.isBackFaceShown());
+      preferences.putFloat(FURNITURE_ICON_YAW + i, piece.getIconYaw());
+      preferences.putBoolean(FURNITURE_PROPORTIONAL + i, piece.isProportional());
+      i++;
+    }
     for ( ; preferences.get(FURNITURE_NAME + i, null) != null; i++) {
       preferences.remove(FURNITURE_NAME + i);
       preferences.remove(FURNITURE_CATEGORY + i);
@@ -833,22 +1118,31 @@ public class FileUserPreferences extends UserPreferences {
     }
   }
     
-  private void writeModifiableTexturesCatalog(Preferences preferences) throws RecorderException {
-    final Set<URL> texturesContentURLs = new HashSet<URL>();
-    int i = 1;
+  private List<CatalogTexture> getModifiableTextures() {
+    List<CatalogTexture> modifiableTextures = new ArrayList<CatalogTexture>();
     for (TexturesCategory category : getTexturesCatalog().getCategories()) {
       for (CatalogTexture texture : category.getTextures()) {
         if (texture.isModifiable()) {
-          preferences.put(TEXTURE_NAME + i, texture.getName());
-          preferences.put(TEXTURE_CATEGORY + i, category.getName());
-          putContent(preferences, TEXTURE_IMAGE + i, texture.getImage(), 
-              TEXTURE_CONTENT_PREFIX, texturesContentURLs);
-          preferences.putFloat(TEXTURE_WIDTH + i, texture.getWidth());
-          preferences.putFloat(TEXTURE_HEIGHT + i, texture.getHeight());
-          i++;
+          modifiableTextures.add(texture);
         }
       }
     }
+    return modifiableTextures;
+  }
+
+  private void writeModifiableTexturesCatalog(Preferences preferences, 
+                                              List<CatalogTexture> modifiableTextures) throws RecorderException {
+    final Set<URL> texturesContentURLs = new HashSet<URL>();
+    int i = 1;
+    for (CatalogTexture texture : modifiableTextures) {
+      preferences.put(TEXTURE_NAME + i, texture.getName());
+      preferences.put(TEXTURE_CATEGORY + i, texture.getCategory().getName());
+      putContent(preferences, TEXTURE_IMAGE + i, texture.getImage(), 
+          TEXTURE_CONTENT_PREFIX, texturesContentURLs);
+      preferences.putFloat(TEXTURE_WIDTH + i, texture.getWidth());
+      preferences.putFloat(TEXTURE_HEIGHT + i, texture.getHeight());
+      i++;
+    }
     for ( ; preferences.get(TEXTURE_NAME + i, null) != null; i++) {
       preferences.remove(TEXTURE_NAME + i);
       preferences.remove(TEXTURE_CATEGORY + i);
@@ -867,13 +1161,13 @@ public class FileUserPreferences extends UserPreferences {
       URLContent copiedContent;
       if (urlContent.isJAREntry()) {
         try {
-          copiedContent = copyToPreferencesURLContent(new URLContent(urlContent.getJAREntryURL()), contentPrefix);
+          copiedContent = copyToPreferencesURLContent(urlContent.getJAREntryURL(), contentPrefix);
           copiedContent = new URLContent(new URL("jar:" + copiedContent.getURL() + "!/" + urlContent.getJAREntryName()));
         } catch (MalformedURLException ex) {
           throw new RecorderException("Can't build URL", ex);
         }
       } else {
-        copiedContent = copyToPreferencesURLContent(urlContent, contentPrefix);
+        copiedContent = copyToPreferencesURLContent(urlContent.getURL(), contentPrefix);
       }
       putContent(preferences, key, copiedContent, contentPrefix, furnitureContentURLs);
     } else if (content instanceof URLContent) {
@@ -895,6 +1189,22 @@ public class FileUserPreferences extends UserPreferences {
     }
   }
 
+  /**
+   * Returns the copy in preferences folder of the temporary content at the given <code>url</code>,
+   * copying it only the first time it's requested.
+   */
+  private URLContent copyToPreferencesURLContent(URL url,
+                                                 String contentPrefix) throws RecorderException {
+    synchronized (this.copiedContents) {
+      URLContent copiedContent = this.copiedContents.get(url);
+      if (copiedContent == null) {
+        copiedContent = copyToPreferencesURLContent(new URLContent(url), contentPrefix);
+        this.copiedContents.put(url, copiedContent);
+      }
+      return copiedContent;
+    }
+  }
+
   private URLContent copyToPreferencesURLContent(Content content, 
                                                  String contentPrefix) throws RecorderException {
     InputStream tempIn = null;
@@ -1028,6 +1338,21 @@ public class FileUserPreferences extends UserPreferences {
       for (File file : obsoleteContentFiles) {
         file.deleteOnExit();
       }
+      // Don't reuse copies that will be deleted
+      synchronized (this.copiedContents) {
+        for (Iterator<URLContent> it = this.copiedContents.values().iterator(); it.hasNext(); ) {
+          URL copiedContentURL = it.next().getURL();
+          for (File file : obsoleteContentFiles) {
+            try {
+              if (file.toURI().toURL().equals(copiedContentURL)) {
+                it.remove();
+                break;
+              }
+            } catch (MalformedURLException ex) {
+            }
+          }
+        }
+      }
     }
   }
 
@@ -0,0 +1,184 @@
+package com.eteks.homeview3d.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file storing the properties read from the resource bundles of furniture libraries,
+ * to avoid searching and parsing these bundles again in later sessions.
+ * Stored properties are valid as long as the length and the last modification date
+ * of their library file and the default locale don't change.
+ * The index file is rewritten once libraries are read, keeping only the libraries
+ * requested since this index was created.
+ */
+class FurnitureLibraryIndex {
+  private static final int INDEX_VERSION         = 1;
+  // Maximum length of a string that can always be written with writeUTF
+  private static final int MAXIMUM_STRING_LENGTH = 65535 / 3;
+
+  private final File                        indexFile;
+  private final Map<String, IndexedLibrary> usedLibraries;
+  private Map<String, IndexedLibrary>       indexedLibraries;
+  private boolean                           modified;
+
+  public FurnitureLibraryIndex(File indexFile) {
+    this.indexFile = indexFile;
+    this.usedLibraries = new LinkedHashMap<String, IndexedLibrary>();
+  }
+
+  /**
+   * Returns the properties stored for the given library file and <code>locale</code>,
+   * or <code>null</code> if they're unknown or if the file changed since they were stored.
+   */
+  public synchronized Map<String, String> getProperties(File libraryFile, Locale locale) throws IOException {
+    String key = libraryFile.getCanonicalPath();
+    IndexedLibrary indexedLibrary = getIndexedLibraries().get(key);
+    if (indexedLibrary != null
+        && indexedLibrary.length == libraryFile.length()
+        && indexedLibrary.lastModified == libraryFile.lastModified()
+        && indexedLibrary.locale.equals(locale.toString())) {
+      this.usedLibraries.put(key, indexedLibrary);
+      return indexedLibrary.properties;
+    }
+    return null;
+  }
+
+  /**
+   * Stores the <code>properties</code> read from the given library file for <code>locale</code>.
+   */
+  public synchronized void putProperties(File libraryFile, Locale locale,
+                                         Map<String, String> properties) throws IOException {
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      if (entry.getKey().length() > MAXIMUM_STRING_LENGTH
+          || entry.getValue().length() > MAXIMUM_STRING_LENGTH) {
+        return;
+      }
+    }
+    IndexedLibrary indexedLibrary = new IndexedLibrary(libraryFile.getCanonicalPath(),
+        libraryFile.length(), libraryFile.lastModified(), locale.toString(), properties);
+    getIndexedLibraries().put(indexedLibrary.key, indexedLibrary);
+    this.usedLibraries.put(indexedLibrary.key, indexedLibrary);
+    this.modified = true;
+  }
+
+  /**
+   * Writes the libraries used since this index was created, if they changed.
+   */
+  public synchronized void save() throws IOException {
+    if (!this.modified
+        && this.usedLibraries.size() == getIndexedLibraries().size()) {
+      return;
+    }
+    File parentFile = this.indexFile.getParentFile();
+    if (parentFile != null
+        && !parentFile.exists()) {
+      parentFile.mkdirs();
+    }
+    File tempFile = File.createTempFile("index", ".tmp", parentFile);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new GZIPOutputStream(new FileOutputStream(tempFile))));
+      try {
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(this.usedLibraries.size());
+        for (IndexedLibrary indexedLibrary : this.usedLibraries.values()) {
+          out.writeUTF(indexedLibrary.key);
+          out.writeLong(indexedLibrary.length);
+          out.writeLong(indexedLibrary.lastModified);
+          out.writeUTF(indexedLibrary.locale);
+          out.writeInt(indexedLibrary.properties.size());
+          for (Map.Entry<String, String> entry : indexedLibrary.properties.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+          }
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(this.indexFile)
+          && (!this.indexFile.delete() || !tempFile.renameTo(this.indexFile))) {
+        throw new IOException("Can't replace " + this.indexFile);
+      }
+      this.indexedLibraries = new HashMap<String, IndexedLibrary>(this.usedLibraries);
+      this.modified = false;
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  private Map<String, IndexedLibrary> getIndexedLibraries() {
+    if (this.indexedLibraries == null) {
+      this.indexedLibraries = new HashMap<String, IndexedLibrary>();
+      try {
+        readIndexedLibraries();
+      } catch (IOException ex) {
+        // Ignore a damaged index
+        this.indexedLibraries.clear();
+      }
+    }
+    return this.indexedLibraries;
+  }
+
+  private void readIndexedLibraries() throws IOException {
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new GZIPInputStream(new FileInputStream(this.indexFile))));
+    } catch (FileNotFoundException ex) {
+      return;
+    }
+    try {
+      if (in.readInt() != INDEX_VERSION) {
+        return;
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        String key = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        String locale = in.readUTF();
+        int propertyCount = in.readInt();
+        Map<String, String> properties = new HashMap<String, String>(Math.max(16, propertyCount * 4 / 3 + 1));
+        for (int j = 0; j < propertyCount; j++) {
+          String propertyKey = in.readUTF();
+          properties.put(propertyKey, in.readUTF());
+        }
+        this.indexedLibraries.put(key, new IndexedLibrary(key, length, lastModified, locale, properties));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * The properties of a library stored with the path, the length and the date of its file.
+   */
+  private static class IndexedLibrary {
+    private final String              key;
+    private final long                length;
+    private final long                lastModified;
+    private final String              locale;
+    private final Map<String, String> properties;
+
+    public IndexedLibrary(String key, long length, long lastModified, String locale,
+                          Map<String, String> properties) {
+      this.key = key;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.locale = locale;
+      this.properties = properties;
+    }
+  }
+}
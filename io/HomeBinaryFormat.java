@@ -0,0 +1,305 @@
+package com.eteks.homeview3d.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The sections and columns of a <code>Home.bin</code> entry.
+ * A <code>Home.bin</code> entry starts with its version, followed by an XML document
+ * which contains the home data stored in no section, a string table, a content name table
+ * and the sections. Each section stores one kind of items in columns named like
+ * the attributes of <code>Home.xml</code> entries, each column being an array of values
+ * of the same type, one per item, or a flat array for lists like room points.
+ * String and content columns store indices in their table, <code>-1</code> for <code>null</code>.
+ * Float columns store <code>NaN</code> for <code>null</code> values.
+ * Readers ignore unknown columns and use default values for missing ones.
+ */
+class HomeBinaryFormat {
+  static final int    VERSION = 1;
+
+  static final String TEXTURE_SECTION            = "texture";
+  static final String TEXT_STYLE_SECTION         = "textStyle";
+  static final String BASEBOARD_SECTION          = "baseboard";
+  static final String WALL_SECTION               = "wall";
+  static final String ROOM_SECTION               = "room";
+  static final String PIECE_OF_FURNITURE_SECTION = "pieceOfFurniture";
+
+  static final byte FLOAT_COLUMN        = 'F';
+  static final byte INTEGER_COLUMN      = 'I';
+  static final byte BOOLEAN_COLUMN      = 'B';
+  static final byte NULLABLE_INT_COLUMN = 'N';
+  static final byte STRING_COLUMN       = 'S';
+  static final byte CONTENT_COLUMN      = 'C';
+
+  private HomeBinaryFormat() {
+  }
+
+  /**
+   * Items of the same kind stored in columns.
+   */
+  static class Section {
+    private final String              name;
+    private final int                 itemCount;
+    private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+
+    public Section(String name, int itemCount) {
+      this.name = name;
+      this.itemCount = itemCount;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public int getItemCount() {
+      return this.itemCount;
+    }
+
+    public void addColumn(Column column) {
+      this.columns.put(column.getName(), column);
+    }
+
+    /**
+     * Returns the values of the given float column, or an array filled with
+     * <code>defaultValue</code> if this section doesn't contain it.
+     */
+    public float [] getFloats(String name, float defaultValue) {
+      Column column = getColumn(name, FLOAT_COLUMN);
+      if (column != null) {
+        return column.getFloats();
+      } else {
+        float [] floats = new float [this.itemCount];
+        Arrays.fill(floats, defaultValue);
+        return floats;
+      }
+    }
+
+    /**
+     * Returns the values of the given integer, string or content column,
+     * or an array filled with <code>defaultValue</code> if this section doesn't contain it.
+     */
+    public int [] getInts(String name, byte type, int defaultValue) {
+      Column column = getColumn(name, type);
+      if (column != null) {
+        return column.getInts();
+      } else {
+        int [] ints = new int [this.itemCount];
+        Arrays.fill(ints, defaultValue);
+        return ints;
+      }
+    }
+
+    public boolean [] getBooleans(String name, boolean defaultValue) {
+      Column column = getColumn(name, BOOLEAN_COLUMN);
+      if (column != null) {
+        return column.getBooleans();
+      } else {
+        boolean [] booleans = new boolean [this.itemCount];
+        Arrays.fill(booleans, defaultValue);
+        return booleans;
+      }
+    }
+
+    /**
+     * Returns the values of the given nullable integer column, or an array of <code>null</code>.
+     */
+    public Integer [] getNullableInts(String name) {
+      Integer [] values = new Integer [this.itemCount];
+      Column column = getColumn(name, NULLABLE_INT_COLUMN);
+      if (column != null) {
+        boolean [] set = column.getBooleans();
+        int [] ints = column.getInts();
+        for (int i = 0; i < values.length; i++) {
+          if (set [i]) {
+            values [i] = ints [i];
+          }
+        }
+      }
+      return values;
+    }
+
+    private Column getColumn(String name, byte type) {
+      Column column = this.columns.get(name);
+      if (column != null
+          && column.getType() == type) {
+        return column;
+      } else {
+        return null;
+      }
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+      out.writeUTF(this.name);
+      out.writeInt(this.itemCount);
+      out.writeInt(this.columns.size());
+      for (Column column : this.columns.values()) {
+        column.write(out);
+      }
+    }
+
+    public static Section read(DataInputStream in) throws IOException {
+      Section section = new Section(in.readUTF(), in.readInt());
+      for (int i = in.readInt(); i > 0; i--) {
+        section.addColumn(Column.read(in));
+      }
+      return section;
+    }
+  }
+
+  /**
+   * Values of the same type stored in an array.
+   */
+  static class Column {
+    private final String     name;
+    private final byte       type;
+    private final float []   floats;
+    private final int []     ints;
+    private final boolean [] booleans;
+
+    private Column(String name, byte type, float [] floats, int [] ints, boolean [] booleans) {
+      this.name = name;
+      this.type = type;
+      this.floats = floats;
+      this.ints = ints;
+      this.booleans = booleans;
+    }
+
+    public static Column createFloatColumn(String name, float [] floats) {
+      return new Column(name, FLOAT_COLUMN, floats, null, null);
+    }
+
+    /**
+     * Returns a column of integers, or of indices in the string or content table
+     * if <code>type</code> is {@link #STRING_COLUMN} or {@link #CONTENT_COLUMN}.
+     */
+    public static Column createIntColumn(String name, byte type, int [] ints) {
+      return new Column(name, type, null, ints, null);
+    }
+
+    public static Column createBooleanColumn(String name, boolean [] booleans) {
+      return new Column(name, BOOLEAN_COLUMN, null, null, booleans);
+    }
+
+    public static Column createNullableIntColumn(String name, Integer [] values) {
+      int [] ints = new int [values.length];
+      boolean [] set = new boolean [values.length];
+      for (int i = 0; i < values.length; i++) {
+        if (values [i] != null) {
+          ints [i] = values [i];
+          set [i] = true;
+        }
+      }
+      return new Column(name, NULLABLE_INT_COLUMN, null, ints, set);
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public byte getType() {
+      return this.type;
+    }
+
+    public float [] getFloats() {
+      return this.floats;
+    }
+
+    public int [] getInts() {
+      return this.ints;
+    }
+
+    public boolean [] getBooleans() {
+      return this.booleans;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+      out.writeUTF(this.name);
+      out.writeByte(this.type);
+      switch (this.type) {
+        case FLOAT_COLUMN :
+          out.writeInt(this.floats.length);
+          ByteBuffer floatBuffer = ByteBuffer.allocate(this.floats.length * 4);
+          floatBuffer.asFloatBuffer().put(this.floats);
+          out.write(floatBuffer.array());
+          break;
+        case BOOLEAN_COLUMN :
+          out.writeInt(this.booleans.length);
+          out.write(toBytes(this.booleans));
+          break;
+        case NULLABLE_INT_COLUMN :
+          out.writeInt(this.ints.length);
+          out.write(toBytes(this.booleans));
+          writeInts(out, this.ints);
+          break;
+        default :
+          out.writeInt(this.ints.length);
+          writeInts(out, this.ints);
+          break;
+      }
+    }
+
+    private static void writeInts(DataOutputStream out, int [] ints) throws IOException {
+      ByteBuffer intBuffer = ByteBuffer.allocate(ints.length * 4);
+      intBuffer.asIntBuffer().put(ints);
+      out.write(intBuffer.array());
+    }
+
+    private static byte [] toBytes(boolean [] booleans) {
+      byte [] bytes = new byte [booleans.length];
+      for (int i = 0; i < booleans.length; i++) {
+        if (booleans [i]) {
+          bytes [i] = 1;
+        }
+      }
+      return bytes;
+    }
+
+    public static Column read(DataInputStream in) throws IOException {
+      String name = in.readUTF();
+      byte type = in.readByte();
+      int length = in.readInt();
+      switch (type) {
+        case FLOAT_COLUMN :
+          float [] floats = new float [length];
+          ByteBuffer.wrap(readBytes(in, length * 4)).asFloatBuffer().get(floats);
+          return new Column(name, type, floats, null, null);
+        case BOOLEAN_COLUMN :
+          return new Column(name, type, null, null, toBooleans(readBytes(in, length)));
+        case NULLABLE_INT_COLUMN :
+          boolean [] set = toBooleans(readBytes(in, length));
+          return new Column(name, type, null, readInts(in, length), set);
+        case INTEGER_COLUMN :
+        case STRING_COLUMN :
+        case CONTENT_COLUMN :
+          return new Column(name, type, null, readInts(in, length), null);
+        default :
+          throw new IOException("Unknown type of column " + name);
+      }
+    }
+
+    private static int [] readInts(DataInputStream in, int length) throws IOException {
+      int [] ints = new int [length];
+      ByteBuffer.wrap(readBytes(in, length * 4)).asIntBuffer().get(ints);
+      return ints;
+    }
+
+    private static byte [] readBytes(DataInputStream in, int length) throws IOException {
+      byte [] bytes = new byte [length];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    private static boolean [] toBooleans(byte [] bytes) {
+      boolean [] booleans = new boolean [bytes.length];
+      for (int i = 0; i < bytes.length; i++) {
+        booleans [i] = bytes [i] != 0;
+      }
+      return booleans;
+    }
+  }
+}
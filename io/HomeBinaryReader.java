@@ -0,0 +1,438 @@
+package com.eteks.homeview3d.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+
+import com.eteks.homeview3d.io.HomeBinaryFormat.Section;
+import com.eteks.homeview3d.model.Baseboard;
+import com.eteks.homeview3d.model.CatalogPieceOfFurniture;
+import com.eteks.homeview3d.model.CatalogTexture;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomeObject;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.HomeTexture;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.TextStyle;
+import com.eteks.homeview3d.model.TextureImage;
+import com.eteks.homeview3d.model.Wall;
+
+/**
+ * A reader of <code>Home.bin</code> entries, which builds the walls, rooms and furniture
+ * stored in sections directly from their columns. The XML document of the entry is parsed
+ * with a {@link HomeXMLHandler} which also resolves content names, but its
+ * <code>set...Attributes</code> methods aren't called for the items stored in sections.
+ * @see HomeBinaryFormat
+ */
+class HomeBinaryReader {
+  private String []      strings;
+  private Content []     contents;
+  private HomeTexture [] textures;
+  private TextStyle []   textStyles;
+  private Baseboard []   baseboards;
+  private List<Level>    levels;
+
+  /**
+   * Reads a home from the given <code>in</code> stream with <code>handler</code>,
+   * or returns <code>null</code> if the entry was written in a version unknown to this reader.
+   */
+  public Home read(InputStream in, HomeXMLHandler handler) throws IOException {
+    DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+    if (dataIn.readInt() > HomeBinaryFormat.VERSION) {
+      return null;
+    }
+    byte [] xml = new byte [dataIn.readInt()];
+    dataIn.readFully(xml);
+    try {
+      SAXParserFactory.newInstance().newSAXParser().parse(new ByteArrayInputStream(xml), handler);
+      Home home = handler.getHome();
+      this.levels = home.getLevels();
+      this.strings = readStrings(dataIn);
+      String [] contentNames = readStrings(dataIn);
+      this.contents = new Content [contentNames.length];
+      for (int i = 0; i < contentNames.length; i++) {
+        this.contents [i] = handler.parseContent(contentNames [i]);
+      }
+
+      Map<String, Section> sections = new HashMap<String, Section>();
+      for (int i = dataIn.readInt(); i > 0; i--) {
+        Section section = Section.read(dataIn);
+        sections.put(section.getName(), section);
+      }
+      this.textures = readTextures(getSection(sections, HomeBinaryFormat.TEXTURE_SECTION));
+      this.textStyles = readTextStyles(getSection(sections, HomeBinaryFormat.TEXT_STYLE_SECTION));
+      this.baseboards = readBaseboards(getSection(sections, HomeBinaryFormat.BASEBOARD_SECTION));
+      readWalls(home, getSection(sections, HomeBinaryFormat.WALL_SECTION), handler);
+      readRooms(home, getSection(sections, HomeBinaryFormat.ROOM_SECTION));
+      readFurniture(home, getSection(sections, HomeBinaryFormat.PIECE_OF_FURNITURE_SECTION));
+      return home;
+    } catch (ParserConfigurationException ex) {
+      IOException ex2 = new IOException("Can't parse home binary stream");
+      ex2.initCause(ex);
+      throw ex2;
+    } catch (SAXException ex) {
+      IOException ex2 = new IOException("Can't parse home binary stream");
+      ex2.initCause(ex);
+      throw ex2;
+    }
+  }
+
+  private String [] readStrings(DataInputStream in) throws IOException {
+    String [] strings = new String [in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      byte [] bytes = new byte [in.readInt()];
+      in.readFully(bytes);
+      strings [i] = new String(bytes, "UTF-8");
+    }
+    return strings;
+  }
+
+  private Section getSection(Map<String, Section> sections, String name) {
+    Section section = sections.get(name);
+    return section != null
+        ? section
+        : new Section(name, 0);
+  }
+
+  private HomeTexture [] readTextures(Section section) {
+    int [] names = section.getInts("name", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] catalogIds = section.getInts("catalogId", HomeBinaryFormat.STRING_COLUMN, -1);
+    float [] widths = section.getFloats("width", 0);
+    float [] heights = section.getFloats("height", 0);
+    float [] angles = section.getFloats("angle", 0);
+    boolean [] leftToRightOriented = section.getBooleans("leftToRightOriented", true);
+    int [] images = section.getInts("image", HomeBinaryFormat.CONTENT_COLUMN, -1);
+    HomeTexture [] textures = new HomeTexture [section.getItemCount()];
+    for (int i = 0; i < textures.length; i++) {
+      textures [i] = new HomeTexture(new CatalogTexture(getString(catalogIds [i]), getString(names [i]),
+              getContent(images [i]), widths [i], heights [i], null),
+          angles [i], leftToRightOriented [i]);
+    }
+    return textures;
+  }
+
+  private TextStyle [] readTextStyles(Section section) {
+    int [] fontNames = section.getInts("fontName", HomeBinaryFormat.STRING_COLUMN, -1);
+    float [] fontSizes = section.getFloats("fontSize", 0);
+    boolean [] bold = section.getBooleans("bold", false);
+    boolean [] italic = section.getBooleans("italic", false);
+    TextStyle [] textStyles = new TextStyle [section.getItemCount()];
+    for (int i = 0; i < textStyles.length; i++) {
+      textStyles [i] = new TextStyle(getString(fontNames [i]), fontSizes [i], bold [i], italic [i]);
+    }
+    return textStyles;
+  }
+
+  private Baseboard [] readBaseboards(Section section) {
+    float [] thicknesses = section.getFloats("thickness", 0);
+    float [] heights = section.getFloats("height", 0);
+    Integer [] colors = section.getNullableInts("color");
+    int [] textures = section.getInts("texture", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    Baseboard [] baseboards = new Baseboard [section.getItemCount()];
+    for (int i = 0; i < baseboards.length; i++) {
+      baseboards [i] = Baseboard.getInstance(thicknesses [i], heights [i], colors [i], getTexture(textures [i]));
+    }
+    return baseboards;
+  }
+
+  @SuppressWarnings("deprecation")
+  private void readWalls(Home home, Section section, HomeXMLHandler handler) {
+    int [] levels = section.getInts("level", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] wallsAtStart = section.getInts("wallAtStart", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] wallsAtEnd = section.getInts("wallAtEnd", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    float [] xStarts = section.getFloats("xStart", 0);
+    float [] yStarts = section.getFloats("yStart", 0);
+    float [] xEnds = section.getFloats("xEnd", 0);
+    float [] yEnds = section.getFloats("yEnd", 0);
+    float [] heights = section.getFloats("height", Float.NaN);
+    float [] heightsAtEnd = section.getFloats("heightAtEnd", Float.NaN);
+    float [] thicknesses = section.getFloats("thickness", 0);
+    float [] arcExtents = section.getFloats("arcExtent", Float.NaN);
+    int [] patterns = section.getInts("pattern", HomeBinaryFormat.STRING_COLUMN, -1);
+    Integer [] topColors = section.getNullableInts("topColor");
+    Integer [] leftSideColors = section.getNullableInts("leftSideColor");
+    float [] leftSideShininess = section.getFloats("leftSideShininess", 0);
+    int [] leftSideTextures = section.getInts("leftSideTexture", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] leftSideBaseboards = section.getInts("leftSideBaseboard", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    Integer [] rightSideColors = section.getNullableInts("rightSideColor");
+    float [] rightSideShininess = section.getFloats("rightSideShininess", 0);
+    int [] rightSideTextures = section.getInts("rightSideTexture", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] rightSideBaseboards = section.getInts("rightSideBaseboard", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    PropertyReader properties = new PropertyReader(section);
+    Map<String, TextureImage> wallPatterns = new HashMap<String, TextureImage>();
+    Wall [] walls = new Wall [section.getItemCount()];
+    for (int i = 0; i < walls.length; i++) {
+      Wall wall = new Wall(xStarts [i], yStarts [i], xEnds [i], yEnds [i], thicknesses [i]);
+      properties.setProperties(i, wall);
+      wall.setLeftSideBaseboard(getBaseboard(leftSideBaseboards [i]));
+      wall.setRightSideBaseboard(getBaseboard(rightSideBaseboards [i]));
+      if (!Float.isNaN(heights [i])) {
+        wall.setHeight(heights [i]);
+      }
+      wall.setHeightAtEnd(toFloat(heightsAtEnd [i]));
+      wall.setArcExtent(toFloat(arcExtents [i]));
+      wall.setTopColor(topColors [i]);
+      wall.setLeftSideColor(leftSideColors [i]);
+      wall.setLeftSideTexture(getTexture(leftSideTextures [i]));
+      wall.setLeftSideShininess(leftSideShininess [i]);
+      wall.setRightSideColor(rightSideColors [i]);
+      wall.setRightSideTexture(getTexture(rightSideTextures [i]));
+      wall.setRightSideShininess(rightSideShininess [i]);
+      String pattern = getString(patterns [i]);
+      if (pattern != null) {
+        if (!wallPatterns.containsKey(pattern)) {
+          try {
+            wallPatterns.put(pattern, handler.getPreferences().getPatternsCatalog().getPattern(pattern));
+          } catch (IllegalArgumentException ex) {
+            wallPatterns.put(pattern, null);
+          }
+        }
+        TextureImage wallPattern = wallPatterns.get(pattern);
+        if (wallPattern != null) {
+          wall.setPattern(wallPattern);
+        }
+      }
+      walls [i] = wall;
+    }
+    for (int i = 0; i < walls.length; i++) {
+      if (wallsAtStart [i] >= 0) {
+        walls [i].setWallAtStart(walls [wallsAtStart [i]]);
+      }
+      if (wallsAtEnd [i] >= 0) {
+        walls [i].setWallAtEnd(walls [wallsAtEnd [i]]);
+      }
+      home.addWall(walls [i]);
+      if (levels [i] >= 0) {
+        walls [i].setLevel(this.levels.get(levels [i]));
+      }
+    }
+  }
+
+  private void readRooms(Home home, Section section) {
+    int [] levels = section.getInts("level", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] names = section.getInts("name", HomeBinaryFormat.STRING_COLUMN, -1);
+    float [] nameAngles = section.getFloats("nameAngle", 0);
+    float [] nameXOffsets = section.getFloats("nameXOffset", 0);
+    float [] nameYOffsets = section.getFloats("nameYOffset", -40);
+    int [] nameStyles = section.getInts("nameStyle", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    boolean [] areaVisible = section.getBooleans("areaVisible", false);
+    float [] areaAngles = section.getFloats("areaAngle", 0);
+    float [] areaXOffsets = section.getFloats("areaXOffset", 0);
+    float [] areaYOffsets = section.getFloats("areaYOffset", 0);
+    int [] areaStyles = section.getInts("areaStyle", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    boolean [] floorVisible = section.getBooleans("floorVisible", true);
+    Integer [] floorColors = section.getNullableInts("floorColor");
+    float [] floorShininess = section.getFloats("floorShininess", 0);
+    int [] floorTextures = section.getInts("floorTexture", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    boolean [] ceilingVisible = section.getBooleans("ceilingVisible", true);
+    Integer [] ceilingColors = section.getNullableInts("ceilingColor");
+    float [] ceilingShininess = section.getFloats("ceilingShininess", 0);
+    int [] ceilingTextures = section.getInts("ceilingTexture", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] pointCounts = section.getInts("pointCount", HomeBinaryFormat.INTEGER_COLUMN, 0);
+    float [] points = section.getFloats("points", 0);
+    PropertyReader properties = new PropertyReader(section);
+    for (int i = 0, pointIndex = 0; i < section.getItemCount(); i++) {
+      float [][] roomPoints = new float [pointCounts [i]][];
+      for (int j = 0; j < roomPoints.length; j++) {
+        roomPoints [j] = new float [] {points [pointIndex++], points [pointIndex++]};
+      }
+      Room room = new Room(roomPoints);
+      properties.setProperties(i, room);
+      room.setNameStyle(getTextStyle(nameStyles [i]));
+      room.setAreaStyle(getTextStyle(areaStyles [i]));
+      room.setName(getString(names [i]));
+      room.setNameAngle(nameAngles [i]);
+      room.setNameXOffset(nameXOffsets [i]);
+      room.setNameYOffset(nameYOffsets [i]);
+      room.setAreaVisible(areaVisible [i]);
+      room.setAreaAngle(areaAngles [i]);
+      room.setAreaXOffset(areaXOffsets [i]);
+      room.setAreaYOffset(areaYOffsets [i]);
+      room.setFloorVisible(floorVisible [i]);
+      room.setFloorColor(floorColors [i]);
+      room.setFloorTexture(getTexture(floorTextures [i]));
+      room.setFloorShininess(floorShininess [i]);
+      room.setCeilingVisible(ceilingVisible [i]);
+      room.setCeilingColor(ceilingColors [i]);
+      room.setCeilingTexture(getTexture(ceilingTextures [i]));
+      room.setCeilingShininess(ceilingShininess [i]);
+      home.addRoom(room);
+      if (levels [i] >= 0) {
+        room.setLevel(this.levels.get(levels [i]));
+      }
+    }
+  }
+
+  private void readFurniture(Home home, Section section) {
+    int [] indices = section.getInts("index", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] levels = section.getInts("level", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    int [] catalogIds = section.getInts("catalogId", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] names = section.getInts("name", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] creators = section.getInts("creator", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] models = section.getInts("model", HomeBinaryFormat.CONTENT_COLUMN, -1);
+    int [] icons = section.getInts("icon", HomeBinaryFormat.CONTENT_COLUMN, -1);
+    int [] planIcons = section.getInts("planIcon", HomeBinaryFormat.CONTENT_COLUMN, -1);
+    float [] xs = section.getFloats("x", 0);
+    float [] ys = section.getFloats("y", 0);
+    float [] elevations = section.getFloats("elevation", 0);
+    float [] angles = section.getFloats("angle", 0);
+    float [] widths = section.getFloats("width", 0);
+    float [] depths = section.getFloats("depth", 0);
+    float [] heights = section.getFloats("height", 0);
+    boolean [] backFaceShown = section.getBooleans("backFaceShown", false);
+    boolean [] modelMirrored = section.getBooleans("modelMirrored", false);
+    boolean [] visible = section.getBooleans("visible", true);
+    Integer [] colors = section.getNullableInts("color");
+    float [] shininess = section.getFloats("shininess", Float.NaN);
+    int [] textures = section.getInts("texture", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    float [] modelRotations = section.getFloats("modelRotation", 0);
+    int [] descriptions = section.getInts("description", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] informations = section.getInts("information", HomeBinaryFormat.STRING_COLUMN, -1);
+    boolean [] movable = section.getBooleans("movable", true);
+    boolean [] resizable = section.getBooleans("resizable", true);
+    boolean [] deformable = section.getBooleans("deformable", true);
+    boolean [] texturable = section.getBooleans("texturable", true);
+    int [] prices = section.getInts("price", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] valueAddedTaxPercentages = section.getInts("valueAddedTaxPercentage", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] currencies = section.getInts("currency", HomeBinaryFormat.STRING_COLUMN, -1);
+    int [] staircaseCutOutShapes = section.getInts("staircaseCutOutShape", HomeBinaryFormat.STRING_COLUMN, -1);
+    float [] dropOnTopElevations = section.getFloats("dropOnTopElevation", 1);
+    boolean [] nameVisible = section.getBooleans("nameVisible", false);
+    float [] nameAngles = section.getFloats("nameAngle", 0);
+    float [] nameXOffsets = section.getFloats("nameXOffset", 0);
+    float [] nameYOffsets = section.getFloats("nameYOffset", 0);
+    int [] nameStyles = section.getInts("nameStyle", HomeBinaryFormat.INTEGER_COLUMN, -1);
+    boolean modelRotationsStored = modelRotations.length == section.getItemCount() * 9;
+    PropertyReader properties = new PropertyReader(section);
+    for (int i = 0; i < section.getItemCount(); i++) {
+      float [][] modelRotation = null;
+      if (modelRotationsStored) {
+        modelRotation = new float [][] {
+            {modelRotations [i * 9],     modelRotations [i * 9 + 1], modelRotations [i * 9 + 2]},
+            {modelRotations [i * 9 + 3], modelRotations [i * 9 + 4], modelRotations [i * 9 + 5]},
+            {modelRotations [i * 9 + 6], modelRotations [i * 9 + 7], modelRotations [i * 9 + 8]}};
+      }
+      HomePieceOfFurniture piece = new HomePieceOfFurniture(new CatalogPieceOfFurniture(
+          getString(catalogIds [i]),
+          getString(names [i]),
+          getString(descriptions [i]),
+          getString(informations [i]),
+          null, null, null,
+          getContent(icons [i]),
+          getContent(planIcons [i]),
+          getContent(models [i]),
+          widths [i],
+          depths [i],
+          heights [i],
+          elevations [i],
+          dropOnTopElevations [i],
+          movable [i],
+          getString(staircaseCutOutShapes [i]),
+          modelRotation,
+          backFaceShown [i],
+          getString(creators [i]),
+          resizable [i],
+          deformable [i],
+          texturable [i],
+          toBigDecimal(getString(prices [i])),
+          toBigDecimal(getString(valueAddedTaxPercentages [i])),
+          getString(currencies [i])));
+      properties.setProperties(i, piece);
+      piece.setNameStyle(getTextStyle(nameStyles [i]));
+      piece.setNameVisible(nameVisible [i]);
+      piece.setNameAngle(nameAngles [i]);
+      piece.setNameXOffset(nameXOffsets [i]);
+      piece.setNameYOffset(nameYOffsets [i]);
+      piece.setVisible(visible [i]);
+      piece.setX(xs [i]);
+      piece.setY(ys [i]);
+      piece.setAngle(angles [i]);
+      if (piece.isResizable()) {
+        piece.setModelMirrored(modelMirrored [i]);
+      }
+      if (piece.isTexturable()) {
+        if (colors [i] != null) {
+          piece.setColor(colors [i]);
+        }
+        HomeTexture texture = getTexture(textures [i]);
+        if (texture != null) {
+          piece.setTexture(texture);
+        }
+        if (!Float.isNaN(shininess [i])) {
+          piece.setShininess(shininess [i]);
+        }
+      }
+      // Insert pieces at their index among the pieces read from XML
+      home.addPieceOfFurniture(piece, Math.min(Math.max(indices [i], 0), home.getFurniture().size()));
+      if (levels [i] >= 0) {
+        piece.setLevel(this.levels.get(levels [i]));
+      }
+    }
+  }
+
+  private String getString(int index) {
+    return index >= 0 ? this.strings [index] : null;
+  }
+
+  private Content getContent(int index) {
+    return index >= 0 ? this.contents [index] : null;
+  }
+
+  private HomeTexture getTexture(int index) {
+    return index >= 0 ? this.textures [index] : null;
+  }
+
+  private TextStyle getTextStyle(int index) {
+    return index >= 0 ? this.textStyles [index] : null;
+  }
+
+  private Baseboard getBaseboard(int index) {
+    return index >= 0 ? this.baseboards [index] : null;
+  }
+
+  private static Float toFloat(float value) {
+    return Float.isNaN(value) ? null : value;
+  }
+
+  private static BigDecimal toBigDecimal(String value) {
+    return value != null ? new BigDecimal(value) : null;
+  }
+
+  /**
+   * The reader of the property columns of a section.
+   */
+  private class PropertyReader {
+    private final int [] counts;
+    private final int [] names;
+    private final int [] values;
+    private int          propertyIndex;
+
+    public PropertyReader(Section section) {
+      this.counts = section.getInts("propertyCount", HomeBinaryFormat.INTEGER_COLUMN, 0);
+      this.names = section.getInts("propertyName", HomeBinaryFormat.STRING_COLUMN, -1);
+      this.values = section.getInts("propertyValue", HomeBinaryFormat.STRING_COLUMN, -1);
+    }
+
+    /**
+     * Sets the properties of the item at the given index, which must be called in the order of items.
+     */
+    public void setProperties(int itemIndex, HomeObject object) {
+      for (int i = 0; i < this.counts [itemIndex]; i++, this.propertyIndex++) {
+        object.setProperty(getString(this.names [this.propertyIndex]), getString(this.values [this.propertyIndex]));
+      }
+    }
+  }
+}
@@ -0,0 +1,588 @@
+package com.eteks.homeview3d.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eteks.homeview3d.io.HomeBinaryFormat.Column;
+import com.eteks.homeview3d.io.HomeBinaryFormat.Section;
+import com.eteks.homeview3d.model.Baseboard;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomeObject;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.HomeTexture;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.TextStyle;
+import com.eteks.homeview3d.model.Wall;
+
+/**
+ * A writer of <code>Home.bin</code> entries. Walls, rooms and the pieces of furniture
+ * of the <code>HomePieceOfFurniture</code> class without materials are stored in sections,
+ * with the textures, text styles and baseboards they use. The other home data is stored
+ * in the XML document of the entry, as in a <code>Home.xml</code> entry.
+ * @see HomeBinaryFormat
+ */
+class HomeBinaryWriter {
+  private final Map<HomePieceOfFurniture, Integer> sectionFurniture =
+      new IdentityHashMap<HomePieceOfFurniture, Integer>();
+  private final Map<Level, Integer>       levelIndices = new IdentityHashMap<Level, Integer>();
+  private final Map<String, Integer>      stringIndices = new HashMap<String, Integer>();
+  private final List<String>              strings = new ArrayList<String>();
+  private final Map<String, Integer>      contentNameIndices = new HashMap<String, Integer>();
+  private final List<String>              contentNames = new ArrayList<String>();
+  private final Map<HomeTexture, Integer> textureIndices = new IdentityHashMap<HomeTexture, Integer>();
+  private final List<HomeTexture>         textures = new ArrayList<HomeTexture>();
+  private final Map<TextStyle, Integer>   textStyleIndices = new IdentityHashMap<TextStyle, Integer>();
+  private final List<TextStyle>           textStyles = new ArrayList<TextStyle>();
+  private final Map<Baseboard, Integer>   baseboardIndices = new IdentityHashMap<Baseboard, Integer>();
+  private final List<Baseboard>           baseboards = new ArrayList<Baseboard>();
+  private final HomeXMLExporter           exporter;
+
+  /**
+   * Creates a writer which stores the content of homes under the given names.
+   */
+  public HomeBinaryWriter(Map<Content, String> savedContentNames) {
+    this.exporter = new HomeXMLExporter() {
+        @Override
+        protected void writePieceOfFurniture(XMLWriter writer, HomePieceOfFurniture piece) throws IOException {
+          if (!sectionFurniture.containsKey(piece)) {
+            super.writePieceOfFurniture(writer, piece);
+          }
+        }
+
+        @Override
+        protected void writeWall(XMLWriter writer, Wall wall) throws IOException {
+        }
+
+        @Override
+        protected void writeRoom(XMLWriter writer, Room room) throws IOException {
+        }
+      };
+    this.exporter.setSavedContentNames(savedContentNames);
+  }
+
+  /**
+   * Writes the given <code>home</code> in <code>out</code> stream which isn't closed.
+   */
+  public void write(OutputStream out, Home home) throws IOException {
+    List<Level> levels = home.getLevels();
+    for (int i = 0; i < levels.size(); i++) {
+      this.levelIndices.put(levels.get(i), i);
+    }
+    List<HomePieceOfFurniture> furniture = home.getFurniture();
+    for (int i = 0; i < furniture.size(); i++) {
+      HomePieceOfFurniture piece = furniture.get(i);
+      // Keep pieces which need other elements than the ones stored in sections in XML
+      if (piece.getClass() == HomePieceOfFurniture.class
+          && !piece.isDoorOrWindow()
+          && piece.getModelMaterials() == null) {
+        this.sectionFurniture.put(piece, i);
+      }
+    }
+
+    ByteArrayOutputStream xmlOut = new ByteArrayOutputStream();
+    XMLWriter xmlWriter = new XMLWriter(xmlOut);
+    this.exporter.writeElement(xmlWriter, home);
+    xmlWriter.flush();
+
+    Section wallSection = createWallSection(home.getWalls());
+    Section roomSection = createRoomSection(home.getRooms());
+    Section furnitureSection = createFurnitureSection(furniture);
+    Section baseboardSection = createBaseboardSection();
+    Section textStyleSection = createTextStyleSection();
+    Section textureSection = createTextureSection();
+
+    DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+    dataOut.writeInt(HomeBinaryFormat.VERSION);
+    dataOut.writeInt(xmlOut.size());
+    xmlOut.writeTo(dataOut);
+    writeStrings(dataOut, this.strings);
+    writeStrings(dataOut, this.contentNames);
+    Section [] sections = {textureSection, textStyleSection, baseboardSection,
+                           wallSection, roomSection, furnitureSection};
+    dataOut.writeInt(sections.length);
+    for (Section section : sections) {
+      section.write(dataOut);
+    }
+    dataOut.flush();
+  }
+
+  private void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String s : strings) {
+      byte [] bytes = s.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private Section createWallSection(Collection<Wall> walls) {
+    Map<Wall, Integer> wallIndices = new IdentityHashMap<Wall, Integer>();
+    for (Wall wall : walls) {
+      wallIndices.put(wall, wallIndices.size());
+    }
+    int count = walls.size();
+    int [] levels = new int [count];
+    int [] wallsAtStart = new int [count];
+    int [] wallsAtEnd = new int [count];
+    float [] xStarts = new float [count];
+    float [] yStarts = new float [count];
+    float [] xEnds = new float [count];
+    float [] yEnds = new float [count];
+    float [] heights = new float [count];
+    float [] heightsAtEnd = new float [count];
+    float [] thicknesses = new float [count];
+    float [] arcExtents = new float [count];
+    int [] patterns = new int [count];
+    Integer [] topColors = new Integer [count];
+    Integer [] leftSideColors = new Integer [count];
+    float [] leftSideShininess = new float [count];
+    int [] leftSideTextures = new int [count];
+    int [] leftSideBaseboards = new int [count];
+    Integer [] rightSideColors = new Integer [count];
+    float [] rightSideShininess = new float [count];
+    int [] rightSideTextures = new int [count];
+    int [] rightSideBaseboards = new int [count];
+    PropertyColumns properties = new PropertyColumns(count);
+    int i = 0;
+    for (Wall wall : walls) {
+      levels [i] = getLevelIndex(wall.getLevel());
+      wallsAtStart [i] = getIndex(wallIndices, wall.getWallAtStart());
+      wallsAtEnd [i] = getIndex(wallIndices, wall.getWallAtEnd());
+      xStarts [i] = wall.getXStart();
+      yStarts [i] = wall.getYStart();
+      xEnds [i] = wall.getXEnd();
+      yEnds [i] = wall.getYEnd();
+      heights [i] = toFloat(wall.getHeight());
+      heightsAtEnd [i] = toFloat(wall.getHeightAtEnd());
+      thicknesses [i] = wall.getThickness();
+      arcExtents [i] = toFloat(wall.getArcExtent());
+      patterns [i] = getStringIndex(wall.getPattern() != null ? wall.getPattern().getName() : null);
+      topColors [i] = wall.getTopColor();
+      leftSideColors [i] = wall.getLeftSideColor();
+      leftSideShininess [i] = wall.getLeftSideShininess();
+      leftSideTextures [i] = getTextureIndex(wall.getLeftSideTexture());
+      leftSideBaseboards [i] = getBaseboardIndex(wall.getLeftSideBaseboard());
+      rightSideColors [i] = wall.getRightSideColor();
+      rightSideShininess [i] = wall.getRightSideShininess();
+      rightSideTextures [i] = getTextureIndex(wall.getRightSideTexture());
+      rightSideBaseboards [i] = getBaseboardIndex(wall.getRightSideBaseboard());
+      properties.add(i++, wall);
+    }
+    Section section = new Section(HomeBinaryFormat.WALL_SECTION, count);
+    section.addColumn(Column.createIntColumn("level", HomeBinaryFormat.INTEGER_COLUMN, levels));
+    section.addColumn(Column.createIntColumn("wallAtStart", HomeBinaryFormat.INTEGER_COLUMN, wallsAtStart));
+    section.addColumn(Column.createIntColumn("wallAtEnd", HomeBinaryFormat.INTEGER_COLUMN, wallsAtEnd));
+    section.addColumn(Column.createFloatColumn("xStart", xStarts));
+    section.addColumn(Column.createFloatColumn("yStart", yStarts));
+    section.addColumn(Column.createFloatColumn("xEnd", xEnds));
+    section.addColumn(Column.createFloatColumn("yEnd", yEnds));
+    section.addColumn(Column.createFloatColumn("height", heights));
+    section.addColumn(Column.createFloatColumn("heightAtEnd", heightsAtEnd));
+    section.addColumn(Column.createFloatColumn("thickness", thicknesses));
+    section.addColumn(Column.createFloatColumn("arcExtent", arcExtents));
+    section.addColumn(Column.createIntColumn("pattern", HomeBinaryFormat.STRING_COLUMN, patterns));
+    section.addColumn(Column.createNullableIntColumn("topColor", topColors));
+    section.addColumn(Column.createNullableIntColumn("leftSideColor", leftSideColors));
+    section.addColumn(Column.createFloatColumn("leftSideShininess", leftSideShininess));
+    section.addColumn(Column.createIntColumn("leftSideTexture", HomeBinaryFormat.INTEGER_COLUMN, leftSideTextures));
+    section.addColumn(Column.createIntColumn("leftSideBaseboard", HomeBinaryFormat.INTEGER_COLUMN, leftSideBaseboards));
+    section.addColumn(Column.createNullableIntColumn("rightSideColor", rightSideColors));
+    section.addColumn(Column.createFloatColumn("rightSideShininess", rightSideShininess));
+    section.addColumn(Column.createIntColumn("rightSideTexture", HomeBinaryFormat.INTEGER_COLUMN, rightSideTextures));
+    section.addColumn(Column.createIntColumn("rightSideBaseboard", HomeBinaryFormat.INTEGER_COLUMN, rightSideBaseboards));
+    properties.addTo(section);
+    return section;
+  }
+
+  private Section createRoomSection(List<Room> rooms) {
+    int count = rooms.size();
+    int [] levels = new int [count];
+    int [] names = new int [count];
+    float [] nameAngles = new float [count];
+    float [] nameXOffsets = new float [count];
+    float [] nameYOffsets = new float [count];
+    int [] nameStyles = new int [count];
+    boolean [] areaVisible = new boolean [count];
+    float [] areaAngles = new float [count];
+    float [] areaXOffsets = new float [count];
+    float [] areaYOffsets = new float [count];
+    int [] areaStyles = new int [count];
+    boolean [] floorVisible = new boolean [count];
+    Integer [] floorColors = new Integer [count];
+    float [] floorShininess = new float [count];
+    int [] floorTextures = new int [count];
+    boolean [] ceilingVisible = new boolean [count];
+    Integer [] ceilingColors = new Integer [count];
+    float [] ceilingShininess = new float [count];
+    int [] ceilingTextures = new int [count];
+    int [] pointCounts = new int [count];
+    int pointsLength = 0;
+    for (int i = 0; i < count; i++) {
+      pointCounts [i] = rooms.get(i).getPointCount();
+      pointsLength += pointCounts [i] * 2;
+    }
+    float [] points = new float [pointsLength];
+    PropertyColumns properties = new PropertyColumns(count);
+    for (int i = 0, pointIndex = 0; i < count; i++) {
+      Room room = rooms.get(i);
+      levels [i] = getLevelIndex(room.getLevel());
+      names [i] = getStringIndex(room.getName());
+      nameAngles [i] = room.getNameAngle();
+      nameXOffsets [i] = room.getNameXOffset();
+      nameYOffsets [i] = room.getNameYOffset();
+      nameStyles [i] = getTextStyleIndex(room.getNameStyle());
+      areaVisible [i] = room.isAreaVisible();
+      areaAngles [i] = room.getAreaAngle();
+      areaXOffsets [i] = room.getAreaXOffset();
+      areaYOffsets [i] = room.getAreaYOffset();
+      areaStyles [i] = getTextStyleIndex(room.getAreaStyle());
+      floorVisible [i] = room.isFloorVisible();
+      floorColors [i] = room.getFloorColor();
+      floorShininess [i] = room.getFloorShininess();
+      floorTextures [i] = getTextureIndex(room.getFloorTexture());
+      ceilingVisible [i] = room.isCeilingVisible();
+      ceilingColors [i] = room.getCeilingColor();
+      ceilingShininess [i] = room.getCeilingShininess();
+      ceilingTextures [i] = getTextureIndex(room.getCeilingTexture());
+      for (float [] point : room.getPoints()) {
+        points [pointIndex++] = point [0];
+        points [pointIndex++] = point [1];
+      }
+      properties.add(i, room);
+    }
+    Section section = new Section(HomeBinaryFormat.ROOM_SECTION, count);
+    section.addColumn(Column.createIntColumn("level", HomeBinaryFormat.INTEGER_COLUMN, levels));
+    section.addColumn(Column.createIntColumn("name", HomeBinaryFormat.STRING_COLUMN, names));
+    section.addColumn(Column.createFloatColumn("nameAngle", nameAngles));
+    section.addColumn(Column.createFloatColumn("nameXOffset", nameXOffsets));
+    section.addColumn(Column.createFloatColumn("nameYOffset", nameYOffsets));
+    section.addColumn(Column.createIntColumn("nameStyle", HomeBinaryFormat.INTEGER_COLUMN, nameStyles));
+    section.addColumn(Column.createBooleanColumn("areaVisible", areaVisible));
+    section.addColumn(Column.createFloatColumn("areaAngle", areaAngles));
+    section.addColumn(Column.createFloatColumn("areaXOffset", areaXOffsets));
+    section.addColumn(Column.createFloatColumn("areaYOffset", areaYOffsets));
+    section.addColumn(Column.createIntColumn("areaStyle", HomeBinaryFormat.INTEGER_COLUMN, areaStyles));
+    section.addColumn(Column.createBooleanColumn("floorVisible", floorVisible));
+    section.addColumn(Column.createNullableIntColumn("floorColor", floorColors));
+    section.addColumn(Column.createFloatColumn("floorShininess", floorShininess));
+    section.addColumn(Column.createIntColumn("floorTexture", HomeBinaryFormat.INTEGER_COLUMN, floorTextures));
+    section.addColumn(Column.createBooleanColumn("ceilingVisible", ceilingVisible));
+    section.addColumn(Column.createNullableIntColumn("ceilingColor", ceilingColors));
+    section.addColumn(Column.createFloatColumn("ceilingShininess", ceilingShininess));
+    section.addColumn(Column.createIntColumn("ceilingTexture", HomeBinaryFormat.INTEGER_COLUMN, ceilingTextures));
+    section.addColumn(Column.createIntColumn("pointCount", HomeBinaryFormat.INTEGER_COLUMN, pointCounts));
+    section.addColumn(Column.createFloatColumn("points", points));
+    properties.addTo(section);
+    return section;
+  }
+
+  private Section createFurnitureSection(List<HomePieceOfFurniture> furniture) {
+    int count = this.sectionFurniture.size();
+    int [] indices = new int [count];
+    int [] levels = new int [count];
+    int [] catalogIds = new int [count];
+    int [] names = new int [count];
+    int [] creators = new int [count];
+    int [] models = new int [count];
+    int [] icons = new int [count];
+    int [] planIcons = new int [count];
+    float [] xs = new float [count];
+    float [] ys = new float [count];
+    float [] elevations = new float [count];
+    float [] angles = new float [count];
+    float [] widths = new float [count];
+    float [] depths = new float [count];
+    float [] heights = new float [count];
+    boolean [] backFaceShown = new boolean [count];
+    boolean [] modelMirrored = new boolean [count];
+    boolean [] visible = new boolean [count];
+    Integer [] colors = new Integer [count];
+    float [] shininess = new float [count];
+    int [] textures = new int [count];
+    float [] modelRotations = new float [count * 9];
+    int [] descriptions = new int [count];
+    int [] informations = new int [count];
+    boolean [] movable = new boolean [count];
+    boolean [] resizable = new boolean [count];
+    boolean [] deformable = new boolean [count];
+    boolean [] texturable = new boolean [count];
+    int [] prices = new int [count];
+    int [] valueAddedTaxPercentages = new int [count];
+    int [] currencies = new int [count];
+    int [] staircaseCutOutShapes = new int [count];
+    float [] dropOnTopElevations = new float [count];
+    boolean [] nameVisible = new boolean [count];
+    float [] nameAngles = new float [count];
+    float [] nameXOffsets = new float [count];
+    float [] nameYOffsets = new float [count];
+    int [] nameStyles = new int [count];
+    PropertyColumns properties = new PropertyColumns(count);
+    int i = 0;
+    for (int index = 0; index < furniture.size(); index++) {
+      HomePieceOfFurniture piece = furniture.get(index);
+      if (this.sectionFurniture.containsKey(piece)) {
+        indices [i] = index;
+        levels [i] = getLevelIndex(piece.getLevel());
+        catalogIds [i] = getStringIndex(piece.getCatalogId());
+        names [i] = getStringIndex(piece.getName());
+        creators [i] = getStringIndex(piece.getCreator());
+        models [i] = getContentIndex(piece, piece.getModel());
+        icons [i] = getContentIndex(piece, piece.getIcon());
+        planIcons [i] = getContentIndex(piece, piece.getPlanIcon());
+        xs [i] = piece.getX();
+        ys [i] = piece.getY();
+        elevations [i] = piece.getElevation();
+        angles [i] = piece.getAngle();
+        widths [i] = piece.getWidth();
+        depths [i] = piece.getDepth();
+        heights [i] = piece.getHeight();
+        backFaceShown [i] = piece.isBackFaceShown();
+        modelMirrored [i] = piece.isModelMirrored();
+        visible [i] = piece.isVisible();
+        colors [i] = piece.getColor();
+        shininess [i] = toFloat(piece.getShininess());
+        textures [i] = getTextureIndex(piece.getTexture());
+        float [][] modelRotation = piece.getModelRotation();
+        for (int j = 0; j < 9; j++) {
+          modelRotations [i * 9 + j] = modelRotation [j / 3][j % 3];
+        }
+        descriptions [i] = getStringIndex(piece.getDescription());
+        informations [i] = getStringIndex(piece.getInformation());
+        movable [i] = piece.isMovable();
+        resizable [i] = piece.isResizable();
+        deformable [i] = piece.isDeformable();
+        texturable [i] = piece.isTexturable();
+        prices [i] = getStringIndex(toString(piece.getPrice()));
+        valueAddedTaxPercentages [i] = getStringIndex(toString(piece.getValueAddedTaxPercentage()));
+        currencies [i] = getStringIndex(piece.getCurrency());
+        staircaseCutOutShapes [i] = getStringIndex(piece.getStaircaseCutOutShape());
+        dropOnTopElevations [i] = piece.getDropOnTopElevation();
+        nameVisible [i] = piece.isNameVisible();
+        nameAngles [i] = piece.getNameAngle();
+        nameXOffsets [i] = piece.getNameXOffset();
+        nameYOffsets [i] = piece.getNameYOffset();
+        nameStyles [i] = getTextStyleIndex(piece.getNameStyle());
+        properties.add(i++, piece);
+      }
+    }
+    Section section = new Section(HomeBinaryFormat.PIECE_OF_FURNITURE_SECTION, count);
+    section.addColumn(Column.createIntColumn("index", HomeBinaryFormat.INTEGER_COLUMN, indices));
+    section.addColumn(Column.createIntColumn("level", HomeBinaryFormat.INTEGER_COLUMN, levels));
+    section.addColumn(Column.createIntColumn("catalogId", HomeBinaryFormat.STRING_COLUMN, catalogIds));
+    section.addColumn(Column.createIntColumn("name", HomeBinaryFormat.STRING_COLUMN, names));
+    section.addColumn(Column.createIntColumn("creator", HomeBinaryFormat.STRING_COLUMN, creators));
+    section.addColumn(Column.createIntColumn("model", HomeBinaryFormat.CONTENT_COLUMN, models));
+    section.addColumn(Column.createIntColumn("icon", HomeBinaryFormat.CONTENT_COLUMN, icons));
+    section.addColumn(Column.createIntColumn("planIcon", HomeBinaryFormat.CONTENT_COLUMN, planIcons));
+    section.addColumn(Column.createFloatColumn("x", xs));
+    section.addColumn(Column.createFloatColumn("y", ys));
+    section.addColumn(Column.createFloatColumn("elevation", elevations));
+    section.addColumn(Column.createFloatColumn("angle", angles));
+    section.addColumn(Column.createFloatColumn("width", widths));
+    section.addColumn(Column.createFloatColumn("depth", depths));
+    section.addColumn(Column.createFloatColumn("height", heights));
+    section.addColumn(Column.createBooleanColumn("backFaceShown", backFaceShown));
+    section.addColumn(Column.createBooleanColumn("modelMirrored", modelMirrored));
+    section.addColumn(Column.createBooleanColumn("visible", visible));
+    section.addColumn(Column.createNullableIntColumn("color", colors));
+    section.addColumn(Column.createFloatColumn("shininess", shininess));
+    section.addColumn(Column.createIntColumn("texture", HomeBinaryFormat.INTEGER_COLUMN, textures));
+    section.addColumn(Column.createFloatColumn("modelRotation", modelRotations));
+    section.addColumn(Column.createIntColumn("description", HomeBinaryFormat.STRING_COLUMN, descriptions));
+    section.addColumn(Column.createIntColumn("information", HomeBinaryFormat.STRING_COLUMN, informations));
+    section.addColumn(Column.createBooleanColumn("movable", movable));
+    section.addColumn(Column.createBooleanColumn("resizable", resizable));
+    section.addColumn(Column.createBooleanColumn("deformable", deformable));
+    section.addColumn(Column.createBooleanColumn("texturable", texturable));
+    section.addColumn(Column.createIntColumn("price", HomeBinaryFormat.STRING_COLUMN, prices));
+    section.addColumn(Column.createIntColumn("valueAddedTaxPercentage", HomeBinaryFormat.STRING_COLUMN,
+        valueAddedTaxPercentages));
+    section.addColumn(Column.createIntColumn("currency", HomeBinaryFormat.STRING_COLUMN, currencies));
+    section.addColumn(Column.createIntColumn("staircaseCutOutShape", HomeBinaryFormat.STRING_COLUMN,
+        staircaseCutOutShapes));
+    section.addColumn(Column.createFloatColumn("dropOnTopElevation", dropOnTopElevations));
+    section.addColumn(Column.createBooleanColumn("nameVisible", nameVisible));
+    section.addColumn(Column.createFloatColumn("nameAngle", nameAngles));
+    section.addColumn(Column.createFloatColumn("nameXOffset", nameXOffsets));
+    section.addColumn(Column.createFloatColumn("nameYOffset", nameYOffsets));
+    section.addColumn(Column.createIntColumn("nameStyle", HomeBinaryFormat.INTEGER_COLUMN, nameStyles));
+    properties.addTo(section);
+    return section;
+  }
+
+  private Section createBaseboardSection() {
+    int count = this.baseboards.size();
+    float [] thicknesses = new float [count];
+    float [] heights = new float [count];
+    Integer [] colors = new Integer [count];
+    int [] textures = new int [count];
+    for (int i = 0; i < count; i++) {
+      Baseboard baseboard = this.baseboards.get(i);
+      thicknesses [i] = baseboard.getThickness();
+      heights [i] = baseboard.getHeight();
+      colors [i] = baseboard.getColor();
+      textures [i] = getTextureIndex(baseboard.getTexture());
+    }
+    Section section = new Section(HomeBinaryFormat.BASEBOARD_SECTION, count);
+    section.addColumn(Column.createFloatColumn("thickness", thicknesses));
+    section.addColumn(Column.createFloatColumn("height", heights));
+    section.addColumn(Column.createNullableIntColumn("color", colors));
+    section.addColumn(Column.createIntColumn("texture", HomeBinaryFormat.INTEGER_COLUMN, textures));
+    return section;
+  }
+
+  private Section createTextStyleSection() {
+    int count = this.textStyles.size();
+    int [] fontNames = new int [count];
+    float [] fontSizes = new float [count];
+    boolean [] bold = new boolean [count];
+    boolean [] italic = new boolean [count];
+    for (int i = 0; i < count; i++) {
+      TextStyle textStyle = this.textStyles.get(i);
+      fontNames [i] = getStringIndex(textStyle.getFontName());
+      fontSizes [i] = textStyle.getFontSize();
+      bold [i] = textStyle.isBold();
+      italic [i] = textStyle.isItalic();
+    }
+    Section section = new Section(HomeBinaryFormat.TEXT_STYLE_SECTION, count);
+    section.addColumn(Column.createIntColumn("fontName", HomeBinaryFormat.STRING_COLUMN, fontNames));
+    section.addColumn(Column.createFloatColumn("fontSize", fontSizes));
+    section.addColumn(Column.createBooleanColumn("bold", bold));
+    section.addColumn(Column.createBooleanColumn("italic", italic));
+    return section;
+  }
+
+  private Section createTextureSection() {
+    int count = this.textures.size();
+    int [] names = new int [count];
+    int [] catalogIds = new int [count];
+    float [] widths = new float [count];
+    float [] heights = new float [count];
+    float [] angles = new float [count];
+    boolean [] leftToRightOriented = new boolean [count];
+    int [] images = new int [count];
+    for (int i = 0; i < count; i++) {
+      HomeTexture texture = this.textures.get(i);
+      names [i] = getStringIndex(texture.getName());
+      catalogIds [i] = getStringIndex(texture.getCatalogId());
+      widths [i] = texture.getWidth();
+      heights [i] = texture.getHeight();
+      angles [i] = texture.getAngle();
+      leftToRightOriented [i] = texture.isLeftToRightOriented();
+      images [i] = getContentIndex(texture, texture.getImage());
+    }
+    Section section = new Section(HomeBinaryFormat.TEXTURE_SECTION, count);
+    section.addColumn(Column.createIntColumn("name", HomeBinaryFormat.STRING_COLUMN, names));
+    section.addColumn(Column.createIntColumn("catalogId", HomeBinaryFormat.STRING_COLUMN, catalogIds));
+    section.addColumn(Column.createFloatColumn("width", widths));
+    section.addColumn(Column.createFloatColumn("height", heights));
+    section.addColumn(Column.createFloatColumn("angle", angles));
+    section.addColumn(Column.createBooleanColumn("leftToRightOriented", leftToRightOriented));
+    section.addColumn(Column.createIntColumn("image", HomeBinaryFormat.CONTENT_COLUMN, images));
+    return section;
+  }
+
+  private int getLevelIndex(Level level) {
+    return getIndex(this.levelIndices, level);
+  }
+
+  private int getStringIndex(String s) {
+    return getIndex(this.stringIndices, this.strings, s);
+  }
+
+  private int getContentIndex(Object owner, Content content) {
+    return getIndex(this.contentNameIndices, this.contentNames,
+        this.exporter.getExportedContentName(owner, content));
+  }
+
+  private int getTextureIndex(HomeTexture texture) {
+    return getIndex(this.textureIndices, this.textures, texture);
+  }
+
+  private int getTextStyleIndex(TextStyle textStyle) {
+    return getIndex(this.textStyleIndices, this.textStyles, textStyle);
+  }
+
+  private int getBaseboardIndex(Baseboard baseboard) {
+    return getIndex(this.baseboardIndices, this.baseboards, baseboard);
+  }
+
+  private static <T> int getIndex(Map<T, Integer> indices, T object) {
+    Integer index = indices.get(object);
+    return index != null ? index : -1;
+  }
+
+  /**
+   * Returns the index of the given <code>object</code> in <code>table</code>,
+   * after adding it to <code>table</code> if it's not listed yet.
+   */
+  private static <T> int getIndex(Map<T, Integer> indices, List<T> table, T object) {
+    if (object == null) {
+      return -1;
+    } else {
+      Integer index = indices.get(object);
+      if (index == null) {
+        index = table.size();
+        indices.put(object, index);
+        table.add(object);
+      }
+      return index;
+    }
+  }
+
+  private static float toFloat(Float value) {
+    return value != null ? value : Float.NaN;
+  }
+
+  private static String toString(BigDecimal value) {
+    return value != null ? String.valueOf(value) : null;
+  }
+
+  /**
+   * The columns storing the properties of the items of a section.
+   */
+  private class PropertyColumns {
+    private final int []       counts;
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> values = new ArrayList<String>();
+
+    public PropertyColumns(int itemCount) {
+      this.counts = new int [itemCount];
+    }
+
+    public void add(int itemIndex, HomeObject object) {
+      for (String name : object.getPropertyNames()) {
+        String value = object.getProperty(name);
+        if (value != null) {
+          this.names.add(name);
+          this.values.add(value);
+          this.counts [itemIndex]++;
+        }
+      }
+    }
+
+    public void addTo(Section section) {
+      int [] names = new int [this.names.size()];
+      int [] values = new int [this.values.size()];
+      for (int i = 0; i < names.length; i++) {
+        names [i] = getStringIndex(this.names.get(i));
+        values [i] = getStringIndex(this.values.get(i));
+      }
+      section.addColumn(Column.createIntColumn("propertyCount", HomeBinaryFormat.INTEGER_COLUMN, this.counts));
+      section.addColumn(Column.createIntColumn("propertyName", HomeBinaryFormat.STRING_COLUMN, names));
+      section.addColumn(Column.createIntColumn("propertyValue", HomeBinaryFormat.STRING_COLUMN, values));
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package com.eteks.homeview3d.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.eteks.homeview3d.model.BackgroundImage;
+import com.eteks.homeview3d.model.Baseboard;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomeEnvironment;
+import com.eteks.homeview3d.model.HomeFurnitureGroup;
+import com.eteks.homeview3d.model.HomeMaterial;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.HomeTexture;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.Wall;
+import com.eteks.homeview3d.tools.ResourceURLContent;
+import com.eteks.homeview3d.tools.SimpleURLContent;
+import com.eteks.homeview3d.tools.TemporaryURLContent;
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * A visitor of the items of a home which collects the content that should be saved with it
+ * and gives each one the name of its entry in the saved home.
+ */
+class HomeContentCollector {
+  private final ContentRecording     contentRecording;
+  private final Map<Content, String> savedContentNames = new LinkedHashMap<Content, String>();
+  private final Map<String, String>  savedContentDigestNames = new HashMap<String, String>();
+  private int                        savedContentIndex = 0;
+
+  public HomeContentCollector(ContentRecording contentRecording) {
+    this.contentRecording = contentRecording;
+  }
+
+  /**
+   * Collects the content referenced by the furniture, textures, materials,
+   * background images and levels of the given <code>home</code>.
+   */
+  public void collectContent(Home home) throws IOException {
+    if (this.contentRecording != ContentRecording.INCLUDE_NO_CONTENT) {
+      List<Content> homeContents = getHomeContents(home);
+
+      // Compute in parallel the digests used to share entries, before naming entries in order
+      List<Content> recordedContents = new ArrayList<Content>();
+      for (Content content : homeContents) {
+        if (content instanceof URLContent
+            && isRecorded(content)) {
+          recordedContents.add(content);
+        }
+      }
+      try {
+        ContentDigestManager.getInstance().getContentDigests(recordedContents);
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException();
+      }
+      for (Content content : homeContents) {
+        addContent(content);
+      }
+    }
+  }
+
+  /**
+   * Returns the content referenced by the items of the given <code>home</code>, 
+   * in the order they're met and without computing their digest.
+   */
+  public static List<Content> getHomeContents(Home home) {
+    List<Content> homeContents = new ArrayList<Content>();
+    collectContent(home.getBackgroundImage(), homeContents);
+    HomeEnvironment environment = home.getEnvironment();
+    collectContent(environment.getGroundTexture(), homeContents);
+    collectContent(environment.getSkyTexture(), homeContents);
+    for (Level level : home.getLevels()) {
+      collectContent(level.getBackgroundImage(), homeContents);
+    }
+    collectContent(home.getFurniture(), homeContents);
+    for (Wall wall : home.getWalls()) {
+      collectContent(wall.getLeftSideTexture(), homeContents);
+      collectContent(wall.getRightSideTexture(), homeContents);
+      collectContent(wall.getLeftSideBaseboard(), homeContents);
+      collectContent(wall.getRightSideBaseboard(), homeContents);
+    }
+    for (Room room : home.getRooms()) {
+      collectContent(room.getFloorTexture(), homeContents);
+      collectContent(room.getCeilingTexture(), homeContents);
+    }
+    return homeContents;
+  }
+
+  private static void collectContent(List<HomePieceOfFurniture> furniture, List<Content> homeContents) {
+    for (HomePieceOfFurniture piece : furniture) {
+      if (piece instanceof HomeFurnitureGroup) {
+        collectContent(((HomeFurnitureGroup)piece).getFurniture(), homeContents);
+      } else {
+        collectContent(piece.getIcon(), homeContents);
+        collectContent(piece.getPlanIcon(), homeContents);
+        collectContent(piece.getModel(), homeContents);
+        collectContent(piece.getTexture(), homeContents);
+        HomeMaterial [] modelMaterials = piece.getModelMaterials();
+        if (modelMaterials != null) {
+          for (HomeMaterial material : modelMaterials) {
+            if (material != null) {
+              collectContent(material.getTexture(), homeContents);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void collectContent(BackgroundImage backgroundImage, List<Content> homeContents) {
+    if (backgroundImage != null) {
+      collectContent(backgroundImage.getImage(), homeContents);
+    }
+  }
+
+  private static void collectContent(Baseboard baseboard, List<Content> homeContents) {
+    if (baseboard != null) {
+      collectContent(baseboard.getTexture(), homeContents);
+    }
+  }
+
+  private static void collectContent(HomeTexture texture, List<Content> homeContents) {
+    if (texture != null) {
+      collectContent(texture.getImage(), homeContents);
+    }
+  }
+
+  private static void collectContent(Content content, List<Content> homeContents) {
+    if (content != null) {
+      homeContents.add(content);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the given <code>content</code> should be saved.
+   */
+  private boolean isRecorded(Content content) {
+    return content instanceof TemporaryURLContent
+        || content instanceof HomeURLContent
+        || this.contentRecording == ContentRecording.INCLUDE_ALL_CONTENT;
+  }
+
+  /**
+   * Adds the given <code>content</code> to the saved content if it should be recorded,
+   * and returns the name of its entry or <code>null</code> if it isn't recorded.
+   */
+  public String addContent(Content content) throws IOException {
+    if (content == null
+        || this.contentRecording == ContentRecording.INCLUDE_NO_CONTENT) {
+      return null;
+    }
+    String savedContentName = this.savedContentNames.get(content);
+    if (savedContentName != null) {
+      return savedContentName;
+    } else if (isRecorded(content)) {
+      String subEntryName = "";
+      String contentDigest = null;
+      if (content instanceof URLContent) {
+        URLContent urlContent = (URLContent)content;
+        byte [] digest = ContentDigestManager.getInstance().getContentDigest(urlContent);
+        if (digest.length > 0) {
+          // Share the entry of an other content with the same digest
+          contentDigest = Base64.encodeBytes(digest);
+          savedContentName = this.savedContentDigestNames.get(contentDigest);
+          if (savedContentName != null) {
+            this.savedContentNames.put(content, savedContentName);
+            return savedContentName;
+          }
+        }
+        if (Thread.interrupted()) {
+          throw new InterruptedIOException();
+        }
+        subEntryName = getSubEntryName(urlContent);
+      }
+
+      savedContentName = this.savedContentIndex++ + subEntryName;
+      this.savedContentNames.put(content, savedContentName);
+      if (contentDigest != null) {
+        this.savedContentDigestNames.put(contentDigest, savedContentName);
+      }
+      return savedContentName;
+    } else {
+      return null;
+    }
+  }
+
+  private String getSubEntryName(URLContent urlContent) throws IOException {
+    if (urlContent.isJAREntry()) {
+      String entryName = urlContent.getJAREntryName();
+      if (urlContent instanceof HomeURLContent) {
+        int slashIndex = entryName.indexOf('/');
+        if (slashIndex > 0) {
+          return entryName.substring(slashIndex);
+        }
+      } else if (urlContent instanceof ResourceURLContent) {
+        ResourceURLContent resourceUrlContent = (ResourceURLContent)urlContent;
+        if (resourceUrlContent.isMultiPartResource()) {
+          int lastSlashIndex = entryName.lastIndexOf('/');
+          if (lastSlashIndex != -1) {
+            return entryName.substring(lastSlashIndex);
+          }
+        }
+      } else if (!(urlContent instanceof SimpleURLContent)) {
+        return "/" + entryName;
+      }
+    } else if (urlContent instanceof ResourceURLContent) {
+      ResourceURLContent resourceUrlContent = (ResourceURLContent)urlContent;
+      if (resourceUrlContent.isMultiPartResource()) {
+        try {
+          return "/" + new File(resourceUrlContent.getURL().toURI()).getName();
+        } catch (URISyntaxException ex) {
+          IOException ex2 = new IOException();
+          ex2.initCause(ex);
+          throw ex2;
+        }
+      }
+    }
+    return "";
+  }
+
+  /**
+   * Returns the saved content mapped to the name of their entry.
+   */
+  public Map<Content, String> getSavedContentNames() {
+    return Collections.unmodifiableMap(this.savedContentNames);
+  }
+}
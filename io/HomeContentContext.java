@@ -1,15 +1,18 @@
 package com.eteks.homeview3d.io;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -25,19 +28,23 @@ import com.eteks.homeview3d.model.UserPreferences;
 import com.eteks.homeview3d.tools.URLContent;
 
 class HomeContentContext {
-  private URL                      homeUrl;
-  private boolean                  containsInvalidContents;
-  private List<Content>            invalidContents;
-  private List<URLContent>         validContentsNotInPreferences;
-
-  private Map<URLContent, byte []> contentDigests;
-  private Set<URLContent>          preferencesContentsCache;
-  private boolean                  preferPreferencesContent;
+  private URL                       homeUrl;
+  private HomeEntryURLStreamHandler entryURLStreamHandler;
+  private boolean                   containsInvalidContents;
+  private List<Content>             invalidContents;
+  private List<URLContent>          validContentsNotInPreferences;
+
+  private Map<URLContent, byte []>  contentDigests;
+  private Set<URLContent>           preferencesContentsCache;
+  private boolean                   preferPreferencesContent;
+  private ContentStore              contentStore;
+  private ZipArchiveIndex           storedHomeIndex;
   
   public HomeContentContext(URL homeSource,
                             UserPreferences preferences,
                             boolean preferPreferencesContent) {
     this.homeUrl = homeSource;
+    this.contentStore = ContentDigestManager.getInstance().getContentStore();
     this.preferPreferencesContent = preferPreferencesContent;
     this.contentDigests = readContentDigests(homeSource);
     this.invalidContents = new ArrayList<Content>();
@@ -47,7 +54,65 @@ class HomeContentContext {
       this.preferencesContentsCache = getUserPreferencesContent(preferences);
     }
   }
+
+  /**
+   * Creates a context which looks up content in the entries listed by <code>homeIndex</code>
+   * without reading them. Their data is checked only once opened, 
+   * and if <code>preferPreferencesContent</code> is <code>true</code>, 
+   * preferences content replaces only missing content.
+   */
+  public HomeContentContext(URL homeSource,
+                            ZipArchiveIndex homeIndex,
+                            UserPreferences preferences,
+                            boolean preferPreferencesContent) {
+    this(homeSource, homeSource, homeIndex, preferences, preferPreferencesContent);
+  }
+
+  /**
+   * Creates a context which looks up content in the entries listed by <code>homeIndex</code>, 
+   * with URLs referring to <code>homeUrl</code>, a copy of <code>homeSource</code> in progress
+   * from which entries are read until the copy exists.
+   */
+  public HomeContentContext(URL homeUrl,
+                            URL homeSource,
+                            ZipArchiveIndex homeIndex,
+                            UserPreferences preferences,
+                            boolean preferPreferencesContent) {
+    this.homeUrl = homeUrl;
+    this.entryURLStreamHandler = new HomeEntryURLStreamHandler(homeUrl, homeSource, homeIndex.getEntries());
+    this.contentStore = ContentDigestManager.getInstance().getContentStore();
+    this.preferPreferencesContent = preferPreferencesContent;
+    this.contentDigests = readContentDigests(homeUrl, homeIndex);
+    this.invalidContents = new ArrayList<Content>();
+    this.validContentsNotInPreferences = new ArrayList<URLContent>();
+    if (preferences != null) {
+      this.preferencesContentsCache = getUserPreferencesContent(preferences);
+    }
+  }
   
+  private Map<URLContent, byte []> readContentDigests(URL homeUrl, ZipArchiveIndex homeIndex) {
+    ZipArchiveIndex.Entry entry = homeIndex.getEntry("ContentDigests");
+    if (entry != null) {
+      InputStream in = null;
+      try {
+        in = homeIndex.openStream(entry);
+        Map<String, byte []> entryDigests = readContentDigests(in);
+        if (entryDigests != null) {
+          return getContentDigests(homeUrl, entryDigests);
+        }
+      } catch (IOException ex) {
+      } finally {
+        if (in != null) {
+          try {
+            in.close();
+          } catch (IOException ex) {
+          }
+        }
+      }
+    }
+    return null;
+  }
+
   private Map<URLContent, byte []> readContentDigests(URL homeUrl) {
     ZipInputStream zipIn = null;
     try {
@@ -55,27 +120,9 @@ class HomeContentContext {
       ZipEntry entry = null;
       while ((entry = zipIn.getNextEntry()) != null) {
         if ("ContentDigests".equals(entry.getName())) {
-          BufferedReader reader = new BufferedReader(new InputStreamReader(zipIn, "UTF-8"));
-          String line = reader.readLine();
-          if (line != null
-              && line.trim().startsWith("ContentDigests-Version: 1")) {
-            Map<URLContent, byte []> contentDigests = new HashMap<URLContent, byte[]>();
-            String entryName = null;
-            while ((line = reader.readLine()) != null) {
-              if (line.startsWith("Name:")) {
-                entryName = line.substring("Name:".length()).trim();
-              } else if (line.startsWith("SHA-1-Digest:")) {
-                byte [] digest = Base64.decode(line.substring("SHA-1-Digest:".length()).trim());
-                if (entryName == null) {
-                  throw new IOException("Missing entry name");
-                } else {
-                  URL url = new URL("jar:" + homeUrl + "!/" + entryName);
-                  contentDigests.put(new HomeURLContent(url), digest);
-                  entryName = null;
-                }
-              }
-            }
-            return contentDigests;
+          Map<String, byte []> entryDigests = readContentDigests(zipIn);
+          if (entryDigests != null) {
+            return getContentDigests(homeUrl, entryDigests);
           }
         }
       }
@@ -91,9 +138,54 @@ class HomeContentContext {
     return null;
   }
 
+  private Map<URLContent, byte []> getContentDigests(URL homeUrl, Map<String, byte []> entryDigests) throws IOException {
+    Map<URLContent, byte []> contentDigests = new HashMap<URLContent, byte[]>();
+    for (Map.Entry<String, byte []> entryDigest : entryDigests.entrySet()) {
+      URL url = new URL("jar:" + homeUrl + "!/" + entryDigest.getKey());
+      contentDigests.put(new HomeURLContent(url), entryDigest.getValue());
+    }
+    return contentDigests;
+  }
+
+  /**
+   * Returns the digests of each content entry name listed in the given <code>ContentDigests</code> entry stream,
+   * or <code>null</code> if its version isn't supported.
+   */
+  static Map<String, byte []> readContentDigests(InputStream contentDigestsIn) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(contentDigestsIn, "UTF-8"));
+    String line = reader.readLine();
+    if (line != null
+        && line.trim().startsWith("ContentDigests-Version: 1")) {
+      Map<String, byte []> contentDigests = new LinkedHashMap<String, byte[]>();
+      String entryName = null;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("Name:")) {
+          entryName = line.substring("Name:".length()).trim();
+        } else if (line.startsWith("SHA-1-Digest:")) {
+          byte [] digest = Base64.decode(line.substring("SHA-1-Digest:".length()).trim());
+          if (entryName == null) {
+            throw new IOException("Missing entry name");
+          } else {
+            contentDigests.put(entryName, digest);
+            entryName = null;
+          }
+        }
+      }
+      return contentDigests;
+    }
+    return null;
+  }
+
   public Content lookupContent(String contentEntryName) throws IOException {
     URL fileURL = new URL("jar:" + this.homeUrl + "!/" + contentEntryName);
     HomeURLContent urlContent = new HomeURLContent(fileURL);
+    URLContent storedContent = getStoredContent(urlContent);
+    if (storedContent != null) {
+      return storedContent;
+    }
+    if (this.entryURLStreamHandler != null) {
+      return lookupUncheckedContent(contentEntryName, urlContent);
+    }
     ContentDigestManager contentDigestManager = ContentDigestManager.getInstance();
     if (!isValid(urlContent)) {
       this.containsInvalidContents = true;
@@ -132,12 +224,91 @@ class HomeContentContext {
             }
           }
         }
+        storedContent = storeContent(urlContent);
+        if (storedContent != null) {
+          return storedContent;
+        }
         this.validContentsNotInPreferences.add(urlContent);
       }
     }
     return urlContent;
   }
 
+  /**
+   * Returns the content of the store matching the digest of the given content,
+   * or <code>null</code> if the store doesn't contain it yet.
+   */
+  private URLContent getStoredContent(HomeURLContent urlContent) throws IOException {
+    byte [] contentDigest;
+    if (this.contentStore != null
+        && this.contentDigests != null
+        && (contentDigest = this.contentDigests.get(urlContent)) != null
+        && contentDigest.length > 0) {
+      if (this.preferPreferencesContent
+          && this.entryURLStreamHandler == null) {
+        URLContent preferencesContent = findUserPreferencesContent(urlContent);
+        if (preferencesContent != null) {
+          return preferencesContent;
+        }
+      }
+      return this.contentStore.getContent(contentDigest, urlContent.getJAREntryName());
+    }
+    return null;
+  }
+
+  /**
+   * Copies the given checked content in the store and returns the stored content,
+   * or <code>null</code> if it couldn't be stored.
+   */
+  private URLContent storeContent(HomeURLContent urlContent) {
+    byte [] contentDigest;
+    if (this.contentStore != null
+        && this.contentDigests != null
+        && (contentDigest = this.contentDigests.get(urlContent)) != null
+        && contentDigest.length > 0) {
+      try {
+        if (this.storedHomeIndex == null) {
+          this.storedHomeIndex = new ZipArchiveIndex(new File(urlContent.getJAREntryURL().toURI()));
+        }
+        return this.contentStore.storeContent(urlContent, contentDigest, this.storedHomeIndex);
+      } catch (IOException ex) {
+      } catch (URISyntaxException ex) {
+      } catch (IllegalArgumentException ex) {
+      }
+      // Keep content in home
+    }
+    return null;
+  }
+
+  /**
+   * Releases the resources used to store content.
+   */
+  public void close() throws IOException {
+    if (this.storedHomeIndex != null) {
+      this.storedHomeIndex.close();
+      this.storedHomeIndex = null;
+    }
+  }
+
+  /**
+   * Returns the content of the given entry with an URL that checks its data once opened,
+   * or a replacing content if the entry is missing.
+   */
+  private Content lookupUncheckedContent(String contentEntryName, HomeURLContent urlContent) throws IOException {
+    if (this.entryURLStreamHandler.containsEntry(contentEntryName)) {
+      return new HomeURLContent(this.entryURLStreamHandler.getEntryURL(contentEntryName));
+    } else {
+      this.containsInvalidContents = true;
+      URLContent preferencesContent = findUserPreferencesContent(urlContent);
+      if (preferencesContent != null) {
+        return preferencesContent;
+      } else {
+        this.invalidContents.add(urlContent);
+        return urlContent;
+      }
+    }
+  }
+
   private boolean isValid(Content content) {
     try {
       InputStream in = content.openStream();
@@ -0,0 +1,207 @@
+package com.eteks.homeview3d.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLStreamHandler;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+import com.eteks.homeview3d.tools.URLContent;
+
+/**
+ * URL stream handler of the entries of a home opened without reading its content.
+ * The CRC of each entry is checked the first time it's opened with an URL created
+ * by this handler or an URL relative to it, like the textures of a model.
+ * Entries may be read from the source of a home file while this file is being copied.
+ */
+class HomeEntryURLStreamHandler extends URLStreamHandler {
+  private final URL                                homeUrl;
+  private final String                             entryUrlPrefix;
+  private final String                             sourceEntryUrlPrefix;
+  private final File                               homeFile;
+  private volatile boolean                         homeFileCopied;
+  private final Map<String, ZipArchiveIndex.Entry> entries;
+  private final Map<String, Boolean>               checkedEntries;
+
+  public HomeEntryURLStreamHandler(URL homeUrl, List<ZipArchiveIndex.Entry> entries) {
+    this(homeUrl, homeUrl, entries);
+  }
+
+  /**
+   * Creates a handler of the entries of the home file at <code>homeUrl</code>, 
+   * that reads them from <code>homeSourceUrl</code> as long as this file, 
+   * copied from the source, doesn't exist.
+   */
+  public HomeEntryURLStreamHandler(URL homeUrl, URL homeSourceUrl, List<ZipArchiveIndex.Entry> entries) {
+    this.homeUrl = homeUrl;
+    this.entryUrlPrefix = "jar:" + homeUrl + "!/";
+    this.sourceEntryUrlPrefix = "jar:" + homeSourceUrl + "!/";
+    if (homeUrl.toExternalForm().equals(homeSourceUrl.toExternalForm())) {
+      this.homeFile = null;
+      this.homeFileCopied = true;
+    } else {
+      try {
+        this.homeFile = new File(homeUrl.toURI());
+      } catch (URISyntaxException ex) {
+        throw new IllegalArgumentException("Invalid home file URL " + homeUrl);
+      }
+    }
+    this.entries = new HashMap<String, ZipArchiveIndex.Entry>();
+    for (ZipArchiveIndex.Entry entry : entries) {
+      this.entries.put(entry.getName(), entry);
+    }
+    this.checkedEntries = new HashMap<String, Boolean>();
+  }
+
+  /**
+   * Returns <code>true</code> if the home contains the given entry.
+   */
+  public boolean containsEntry(String entryName) {
+    return this.entries.containsKey(entryName);
+  }
+
+  /**
+   * Returns the URL of the given entry, bound to this handler.
+   */
+  public URL getEntryURL(String entryName) throws MalformedURLException {
+    return new URL("jar", "", -1, this.homeUrl + "!/" + entryName, this);
+  }
+
+  @Override
+  protected URLConnection openConnection(URL url) throws IOException {
+    String externalForm = url.toExternalForm();
+    if (externalForm.startsWith(this.entryUrlPrefix)) {
+      String entryName = externalForm.substring(this.entryUrlPrefix.length());
+      checkEntry(entryName);
+      return openEntryConnection(entryName);
+    }
+    return new URL(externalForm).openConnection();
+  }
+
+  /**
+   * Returns a connection to the given entry, opened in the source of the home file 
+   * if this file isn't completely copied yet.
+   */
+  private URLConnection openEntryConnection(String entryName) throws IOException {
+    if (isHomeFileCopied()) {
+      return new URL(this.entryUrlPrefix + entryName).openConnection();
+    } else {
+      URLConnection connection = new URL(this.sourceEntryUrlPrefix + entryName).openConnection();
+      // Don't keep the source file open once it's copied
+      connection.setUseCaches(false);
+      return connection;
+    }
+  }
+
+  private boolean isHomeFileCopied() {
+    if (!this.homeFileCopied
+        && this.homeFile.exists()) {
+      this.homeFileCopied = true;
+    }
+    return this.homeFileCopied;
+  }
+
+  /**
+   * Checks the CRC of the given entry if it wasn't done yet.
+   */
+  private void checkEntry(String entryName) throws IOException {
+    ZipArchiveIndex.Entry entry = this.entries.get(entryName);
+    if (entry == null) {
+      try {
+        entry = this.entries.get(URLDecoder.decode(entryName, "UTF-8"));
+      } catch (UnsupportedEncodingException ex) {
+      } catch (IllegalArgumentException ex) {
+      }
+      if (entry == null) {
+        // Let the default handler report a missing entry
+        return;
+      }
+    }
+    Boolean validEntry;
+    synchronized (this.checkedEntries) {
+      validEntry = this.checkedEntries.get(entry.getName());
+    }
+    if (validEntry == null) {
+      validEntry = isValid(entry);
+      synchronized (this.checkedEntries) {
+        this.checkedEntries.put(entry.getName(), validEntry);
+      }
+    }
+    if (!validEntry) {
+      throw new ZipException("Invalid CRC for entry " + entry.getName() + " in " + this.homeUrl);
+    }
+  }
+
+  private boolean isValid(ZipArchiveIndex.Entry entry) throws IOException {
+    InputStream in = null;
+    try {
+      in = isHomeFileCopied()
+          ? new URLContent(new URL(this.entryUrlPrefix + entry.getName())).openStream()
+          : openEntryConnection(entry.getName()).getInputStream();
+      CRC32 crc = new CRC32();
+      long size = 0;
+      byte [] buffer = new byte [8192];
+      for (int length; (length = in.read(buffer)) != -1; ) {
+        crc.update(buffer, 0, length);
+        size += length;
+      }
+      return crc.getValue() == entry.getCrc()
+          && size == entry.getSize();
+    } catch (ZipException ex) {
+      return false;
+    } finally {
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  @Override
+  protected void parseURL(URL url, String spec, int start, int limit) {
+    // Resolve relative URLs like the default JAR handler, while keeping this handler
+    try {
+      URL parsedUrl = new URL(getDefaultURL(url), spec);
+      setURL(url, parsedUrl.getProtocol(), parsedUrl.getHost(), parsedUrl.getPort(),
+          parsedUrl.getAuthority(), parsedUrl.getUserInfo(), parsedUrl.getPath(),
+          parsedUrl.getQuery(), parsedUrl.getRef());
+    } catch (MalformedURLException ex) {
+      throw new IllegalArgumentException(ex.getMessage());
+    }
+  }
+
+  @Override
+  protected boolean equals(URL url1, URL url2) {
+    return getDefaultURL(url1).equals(getDefaultURL(url2));
+  }
+
+  @Override
+  protected int hashCode(URL url) {
+    return getDefaultURL(url).hashCode();
+  }
+
+  @Override
+  protected boolean sameFile(URL url1, URL url2) {
+    return getDefaultURL(url1).sameFile(getDefaultURL(url2));
+  }
+
+  /**
+   * Returns a copy of the given <code>url</code> bound to the default JAR handler.
+   */
+  private URL getDefaultURL(URL url) {
+    try {
+      return new URL(url.toExternalForm());
+    } catch (MalformedURLException ex) {
+      throw new IllegalStateException("Invalid URL " + url, ex);
+    }
+  }
+}
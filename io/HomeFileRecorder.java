@@ -2,12 +2,20 @@ package com.eteks.homeview3d.io;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.eteks.homeview3d.model.DamagedHomeRecorderException;
 import com.eteks.homeview3d.model.Home;
@@ -19,11 +27,19 @@ import com.eteks.homeview3d.model.UserPreferences;
 import com.eteks.homeview3d.tools.OperatingSystem;
 
 public class HomeFileRecorder implements HomeRecorder {
-  private final int             compressionLevel;
-  private final boolean         includeOnlyTemporaryContent;
-  private final UserPreferences preferences;
-  private final boolean         preferPreferencesContent;
-  private final boolean         preferXmlEntry;
+  private static final long MINIMUM_USABLE_SPACE = 1048576;
+
+  private final EntryCompressionPolicy compressionPolicy;
+  private final boolean                includeOnlyTemporaryContent;
+  private final UserPreferences        preferences;
+  private final boolean                preferPreferencesContent;
+  private final boolean                preferXmlEntry;
+  private final boolean                incrementalSave;
+  private final boolean                lazyContentLoading;
+  private final boolean                streamingXmlParser;
+  private final boolean                binaryHomeEntry;
+  private final Map<Future<Void>, HomeFileCopy> homeFileCopies = new LinkedHashMap<Future<Void>, HomeFileCopy>();
+  private ExecutorService              homeFileCopyExecutor;
 
   public HomeFileRecorder() {
     this(0);
@@ -53,11 +69,107 @@ public class HomeFileRecorder implements HomeRecorder {
                           UserPreferences preferences,
                           boolean         preferPreferencesContent,
                           boolean         preferXmlEntry) {
-    this.compressionLevel = compressionLevel;
+    this(compressionLevel, includeOnlyTemporaryContent, preferences, preferPreferencesContent, preferXmlEntry, false);
+  }
+
+  /**
+   * Creates a home recorder able to write and read homes in files. 
+   * If <code>incrementalSave</code> is <code>true</code>, the content entries of an existing file  
+   * which didn't change will be copied without being compressed again when a home is saved over it.
+   */
+  public HomeFileRecorder(int             compressionLevel, 
+                          boolean         includeOnlyTemporaryContent,
+                          UserPreferences preferences,
+                          boolean         preferPreferencesContent,
+                          boolean         preferXmlEntry,
+                          boolean         incrementalSave) {
+    this(compressionLevel, includeOnlyTemporaryContent, preferences, preferPreferencesContent, 
+        preferXmlEntry, incrementalSave, false);
+  }
+
+  /**
+   * Creates a home recorder able to write and read homes in files. 
+   * If <code>lazyContentLoading</code> is <code>true</code>, a read home will reference 
+   * its content entries without checking them, each entry being checked only once opened.
+   */
+  public HomeFileRecorder(int             compressionLevel, 
+                          boolean         includeOnlyTemporaryContent,
+                          UserPreferences preferences,
+                          boolean         preferPreferencesContent,
+                          boolean         preferXmlEntry,
+                          boolean         incrementalSave,
+                          boolean         lazyContentLoading) {
+    this(new ContentTypeCompressionPolicy(compressionLevel), includeOnlyTemporaryContent, 
+        preferences, preferPreferencesContent, preferXmlEntry, incrementalSave, lazyContentLoading);
+  }
+
+  /**
+   * Creates a home recorder which compresses each entry of saved files as chosen by <code>compressionPolicy</code>.
+   */
+  public HomeFileRecorder(EntryCompressionPolicy compressionPolicy, 
+                          boolean         includeOnlyTemporaryContent,
+                          UserPreferences preferences,
+                          boolean         preferPreferencesContent,
+                          boolean         preferXmlEntry,
+                          boolean         incrementalSave) {
+    this(compressionPolicy, includeOnlyTemporaryContent, preferences, preferPreferencesContent, 
+        preferXmlEntry, incrementalSave, false);
+  }
+
+  public HomeFileRecorder(EntryCompressionPolicy compressionPolicy, 
+                          boolean         includeOnlyTemporaryContent,
+                          UserPreferences preferences,
+                          boolean         preferPreferencesContent,
+                          boolean         preferXmlEntry,
+                          boolean         incrementalSave,
+                          boolean         lazyContentLoading) {
+    this(compressionPolicy, includeOnlyTemporaryContent, preferences, preferPreferencesContent, 
+        preferXmlEntry, incrementalSave, lazyContentLoading, false);
+  }
+
+  /**
+   * Creates a home recorder able to write and read homes in files. 
+   * If <code>preferXmlEntry</code> and <code>streamingXmlParser</code> are <code>true</code>, 
+   * the <code>Home.xml</code> entry of a read home will be parsed with a StAX pull parser 
+   * when it's available.
+   */
+  public HomeFileRecorder(EntryCompressionPolicy compressionPolicy, 
+                          boolean         includeOnlyTemporaryContent,
+                          UserPreferences preferences,
+                          boolean         preferPreferencesContent,
+                          boolean         preferXmlEntry,
+                          boolean         incrementalSave,
+                          boolean         lazyContentLoading,
+                          boolean         streamingXmlParser) {
+    this(compressionPolicy, includeOnlyTemporaryContent, preferences, preferPreferencesContent, 
+        preferXmlEntry, incrementalSave, lazyContentLoading, streamingXmlParser, false);
+  }
+
+  /**
+   * Creates a home recorder able to write and read homes in files. 
+   * If <code>preferXmlEntry</code> and <code>binaryHomeEntry</code> are <code>true</code>, 
+   * saved files will contain a compact <code>Home.bin</code> entry along with the <code>Home.xml</code> entry. 
+   * <code>Home.bin</code> entries are read in priority when <code>preferXmlEntry</code> is <code>true</code>, 
+   * whatever the value of <code>binaryHomeEntry</code>.
+   */
+  public HomeFileRecorder(EntryCompressionPolicy compressionPolicy, 
+                          boolean         includeOnlyTemporaryContent,
+                          UserPreferences preferences,
+                          boolean         preferPreferencesContent,
+                          boolean         preferXmlEntry,
+                          boolean         incrementalSave,
+                          boolean         lazyContentLoading,
+                          boolean         streamingXmlParser,
+                          boolean         binaryHomeEntry) {
+    this.compressionPolicy = compressionPolicy;
     this.includeOnlyTemporaryContent = includeOnlyTemporaryContent;
     this.preferences = preferences;
     this.preferPreferencesContent = preferPreferencesContent;
     this.preferXmlEntry = preferXmlEntry;
+    this.incrementalSave = incrementalSave;
+    this.lazyContentLoading = lazyContentLoading;
+    this.streamingXmlParser = streamingXmlParser;
+    this.binaryHomeEntry = binaryHomeEntry;
   }
 
 
@@ -68,23 +180,44 @@ public class HomeFileRecorder implements HomeRecorder {
       throw new RecorderException("Can't write over file " + name);
     }
     
+    // Opened homes may read their content from this file until their copy is complete
+    waitForHomeFileCopies(homeFile);
+    
     DefaultHomeOutputStream homeOut = null;
     File tempFile = null;
+    boolean saved = false;
+    // Expect the saved home to be about as large as its previous version
+    long previousLength = homeFile.exists() 
+        ? homeFile.length() 
+        : 0;
     try {
-      tempFile = OperatingSystem.createTemporaryFile("save", ".homeview3d");
-      homeOut = new DefaultHomeOutputStream(new FileOutputStream(tempFile), 
-          this.compressionLevel, 
+      tempFile = createTemporaryFile(homeFile);
+      // Check space before writing the temporary file that will exist along with the previous file
+      checkUsableSpace(name, tempFile.getParentFile(), previousLength);
+      FileOutputStream tempOut = new FileOutputStream(tempFile);
+      homeOut = new DefaultHomeOutputStream(tempOut, 
+          this.compressionPolicy, 
           this.includeOnlyTemporaryContent  
               ? ContentRecording.INCLUDE_TEMPORARY_CONTENT
               : ContentRecording.INCLUDE_ALL_CONTENT,
           true,
           this.preferXmlEntry 
               ? getHomeXMLExporter() 
-              : null);
+              : null,
+          this.incrementalSave
+              ? homeFile
+              : null,
+          null,
+          this.binaryHomeEntry);
       homeOut.writeHome(home);
+      homeOut.flush();
+      // Ensure saved data is on disk before it replaces the previous file
+      tempOut.getFD().sync();
+      saved = true;
     } catch (InterruptedIOException ex) {
       throw new InterruptedRecorderException("Save " + name + " interrupted");
     } catch (IOException ex) {
+      checkWriteFailure(name, tempFile, previousLength);
       throw new RecorderException("Can't save home " + name, ex);
     } finally {
       try {
@@ -92,68 +225,255 @@ public class HomeFileRecorder implements HomeRecorder {
           homeOut.close();
         }
       } catch (IOException ex) {
+        saved = false;
+        checkWriteFailure(name, tempFile, previousLength);
         throw new RecorderException("Can't close temporary file " + name, ex);
+      } finally {
+        if (!saved 
+            && tempFile != null) {
+          tempFile.delete();
+        }
       }
     }
 
     try {
-      long usableSpace = (Long)File.class.getMethod("getUsableSpace").invoke(homeFile);
-      long requiredSpace = tempFile.length();
-      if (homeFile.exists()) {
-        requiredSpace -= homeFile.length();
+      // Replace the previous file at once if the temporary file is in the same directory
+      if (tempFile.getParentFile().equals(homeFile.getAbsoluteFile().getParentFile())
+          && renameTemporaryFile(tempFile, homeFile)) {
+        return;
       }
-      if (usableSpace != 0
-          && usableSpace < requiredSpace) {
-        throw new NotEnoughSpaceRecorderException("Not enough disk space to save file " + name, requiredSpace - usableSpace);
+      // The previous file is kept as a backup during the copy
+      checkUsableSpace(name, homeFile.getAbsoluteFile().getParentFile(), tempFile.length());
+      copyTemporaryFile(tempFile, homeFile);
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  /**
+   * Returns a new temporary file in the directory of the given home file if it's writable,
+   * otherwise in the default temporary folder.
+   */
+  private File createTemporaryFile(File homeFile) throws IOException {
+    File homeDirectory = homeFile.getAbsoluteFile().getParentFile();
+    if (homeDirectory != null
+        && homeDirectory.canWrite()) {
+      try {
+        return File.createTempFile("save", ".homeview3d.tmp", homeDirectory);
+      } catch (IOException ex) {
+        // Try in default temporary folder
       }
-    } catch (NoSuchMethodException ex) {
-    } catch (NotEnoughSpaceRecorderException ex) {
-      if (tempFile != null) {
-        tempFile.delete();
+    }
+    return OperatingSystem.createTemporaryFile("save", ".homeview3d");
+  }
+
+  /**
+   * Renames the temporary file to the home file, and returns <code>true</code> if it succeeded.
+   * Renaming replaces the previous home file at once on most systems, and on the other ones, 
+   * the previous file is moved to a backup file that is restored if renaming fails.
+   */
+  private boolean renameTemporaryFile(File tempFile, File homeFile) {
+    if (tempFile.renameTo(homeFile)) {
+      return true;
+    } else if (homeFile.exists()) {
+      File backupFile = createBackupFile(homeFile);
+      if (backupFile != null
+          && homeFile.renameTo(backupFile)) {
+        if (tempFile.renameTo(homeFile)) {
+          backupFile.delete();
+          return true;
+        } else {
+          backupFile.renameTo(homeFile);
+        }
       }
-      throw ex;
+    }
+    return false;
+  }
+
+  /**
+   * Returns an unused file name in the directory of the given home file, 
+   * to store its previous version while it's replaced.
+   */
+  private File createBackupFile(File homeFile) {
+    try {
+      File backupFile = File.createTempFile(homeFile.getName() + "-", ".bak", 
+          homeFile.getAbsoluteFile().getParentFile());
+      backupFile.delete();
+      return backupFile;
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Throws a <code>NotEnoughSpaceRecorderException</code> if the given <code>directory</code>
+   * doesn't have enough space to write a file of <code>requiredSpace</code> bytes.
+   */
+  private void checkUsableSpace(String name, File directory, long requiredSpace) throws RecorderException {
+    long usableSpace = getUsableSpace(directory);
+    if (usableSpace != -1
+        && usableSpace < requiredSpace) {
+      throw new NotEnoughSpaceRecorderException("Not enough disk space to save file " + name, requiredSpace - usableSpace);
+    }
+  }
+
+  /**
+   * Throws a <code>NotEnoughSpaceRecorderException</code> if writing the given temporary file 
+   * failed because its disk is full.
+   */
+  private void checkWriteFailure(String name, File tempFile, long previousLength) throws RecorderException {
+    if (tempFile != null) {
+      long usableSpace = getUsableSpace(tempFile.getParentFile());
+      if (usableSpace != -1
+          && usableSpace < MINIMUM_USABLE_SPACE) {
+        long writtenLength = tempFile.length();
+        long requiredSpace = Math.max(previousLength, writtenLength + MINIMUM_USABLE_SPACE);
+        throw new NotEnoughSpaceRecorderException("Not enough disk space to save file " + name, 
+            requiredSpace - writtenLength - usableSpace);
+      }
+    }
+  }
+
+  /**
+   * Returns the usable space in the given <code>directory</code> 
+   * or -1 if it can't be computed.
+   */
+  private long getUsableSpace(File directory) {
+    try {
+      long usableSpace = (Long)File.class.getMethod("getUsableSpace").invoke(directory);
+      return usableSpace != 0
+          ? usableSpace
+          : -1;
+    } catch (NoSuchMethodException ex) {
+      return -1;
     } catch (Exception ex) {
       ex.printStackTrace();
-    }    
+      return -1;
+    }
+  }
+
+  /**
+   * Copies the temporary file to the home file stored on an other file system. 
+   * The previous home file is kept in a backup file until the copy is on disk.
+   */
+  private void copyTemporaryFile(File tempFile, File homeFile) throws RecorderException {
+    File backupFile = null;
+    if (homeFile.exists()) {
+      backupFile = createBackupFile(homeFile);
+      if (backupFile == null
+          || !homeFile.renameTo(backupFile)) {
+        try {
+          backupFile = File.createTempFile("backup", ".homeview3d.bak", 
+              homeFile.getAbsoluteFile().getParentFile());
+          copyFile(homeFile, backupFile, true);
+        } catch (IOException ex) {
+          if (backupFile != null) {
+            backupFile.delete();
+          }
+          throw new RecorderException("Can't back up file " + homeFile, ex);
+        }
+      }
+    }
     
-    OutputStream out;
     try {
-      out = new FileOutputStream(homeFile);
-    } catch (FileNotFoundException ex) {
-      if (tempFile != null) {
-        tempFile.delete();
+      copyFile(tempFile, homeFile, true);
+    } catch (IOException ex) {
+      if (backupFile != null) {
+        // Restore previous version
+        homeFile.delete();
+        if (!backupFile.renameTo(homeFile)) {
+          throw new RecorderException("Can't copy file " + tempFile + " to " + homeFile 
+              + ", previous version kept in " + backupFile, ex);
+        }
       }
-      throw new RecorderException("Can't save file " + name, ex);
+      throw new RecorderException("Can't copy file " + tempFile + " to " + homeFile, ex);
     }
-    
-    byte [] buffer = new byte [8192];
-    InputStream in = null;
+    if (backupFile != null) {
+      backupFile.delete();
+    }
+  }
+
+  /**
+   * Copies <code>sourceFile</code> to <code>destinationFile</code> without intermediate buffer, 
+   * and forces the copied data on disk if <code>sync</code> is <code>true</code>.
+   */
+  private void copyFile(File sourceFile, File destinationFile, boolean sync) throws IOException {
+    FileInputStream in = null;
+    FileOutputStream out = null;
     try {
-      in = new FileInputStream(tempFile);          
-      int size; 
-      while ((size = in.read(buffer)) != -1) {
-        out.write(buffer, 0, size);
+      in = new FileInputStream(sourceFile);
+      out = new FileOutputStream(destinationFile);
+      FileChannel inChannel = in.getChannel();
+      FileChannel outChannel = out.getChannel();
+      long size = inChannel.size();
+      for (long position = 0; position < size; ) {
+        position += inChannel.transferTo(position, size - position, outChannel);
+      }
+      if (sync) {
+        outChannel.force(true);
       }
-    } catch (IOException ex) { 
-      throw new RecorderException("Can't copy file " + tempFile + " to " + name);
     } finally {
-      try {
-        if (out != null) {          
-          out.close();
-        }
-      } catch (IOException ex) {
-        throw new RecorderException("Can't close file " + name, ex);
+      if (in != null) {
+        in.close();
+      }
+      if (out != null) {
+        out.close();
       }
+    }
+  }
+
+  /**
+   * Copies in background the given home file to <code>homeFileCopy</code>. 
+   */
+  private void copyHomeFile(File homeFile, File homeFileCopy) {
+    HomeFileCopy copy = new HomeFileCopy(homeFile, homeFileCopy);
+    synchronized (this.homeFileCopies) {
+      if (this.homeFileCopyExecutor == null) {
+        this.homeFileCopyExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "homeFileCopy");
+              thread.setPriority(Thread.MIN_PRIORITY);
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      }
+      this.homeFileCopies.put(this.homeFileCopyExecutor.submit(copy), copy);
+    }
+  }
+
+  /**
+   * Waits until the opened home files are copied, and copies again the given 
+   * <code>homeFile</code> if its copy failed.
+   */
+  private void waitForHomeFileCopies(File homeFile) throws RecorderException {
+    List<Map.Entry<Future<Void>, HomeFileCopy>> copies;
+    synchronized (this.homeFileCopies) {
+      copies = new ArrayList<Map.Entry<Future<Void>, HomeFileCopy>>(this.homeFileCopies.entrySet());
+    }
+    for (Map.Entry<Future<Void>, HomeFileCopy> copy : copies) {
       try {
-        if (in != null) {          
-          in.close();
-          tempFile.delete();
+        copy.getKey().get();
+      } catch (InterruptedException ex) {
+        throw new InterruptedRecorderException("Save " + homeFile + " interrupted");
+      } catch (ExecutionException ex) {
+        if (!copy.getValue().getHomeFile().equals(homeFile.getAbsoluteFile())) {
+          // Copy again later when its source will be replaced
+          continue;
+        }
+        try {
+          copy.getValue().call();
+        } catch (IOException ex2) {
+          throw new RecorderException("Can't copy opened home " + homeFile, ex2);
         }
-      } catch (IOException ex) {
+      }
+      synchronized (this.homeFileCopies) {
+        this.homeFileCopies.remove(copy.getKey());
       }
     }
   }
 
+
   protected HomeXMLExporter getHomeXMLExporter() {
     return new HomeXMLExporter();
   }
@@ -161,10 +481,29 @@ public class HomeFileRecorder implements HomeRecorder {
   public Home readHome(String name) throws RecorderException {
     DefaultHomeInputStream in = null;
     try {
-      in = new DefaultHomeInputStream(new FileInputStream(name), ContentRecording.INCLUDE_ALL_CONTENT,
-          this.preferXmlEntry ? getHomeXMLHandler() : null, 
-          this.preferences, this.preferPreferencesContent);
+      File homeFile = null;
+      File homeFileCopy = null;
+      if (this.lazyContentLoading) {
+        // Read the file in place, and let the content of the home refer to a copy made in background
+        // which won't change while the home content is in use 
+        homeFile = new File(name);
+        homeFileCopy = OperatingSystem.createTemporaryFile("open", ".homeview3d");
+        // Keep only the name of the copy which must exist once complete
+        homeFileCopy.delete();
+        in = new DefaultHomeInputStream(homeFile, ContentRecording.INCLUDE_ALL_CONTENT,
+            this.preferXmlEntry ? getHomeXMLHandler() : null, 
+            this.preferences, this.preferPreferencesContent, true, homeFileCopy, this.streamingXmlParser);
+      } else {
+        in = new DefaultHomeInputStream(new FileInputStream(name), ContentRecording.INCLUDE_ALL_CONTENT,
+            this.preferXmlEntry ? getHomeXMLHandler() : null, 
+            this.preferences, this.preferPreferencesContent, this.streamingXmlParser);
+      }
       Home home = in.readHome();
+      if (homeFileCopy != null
+          && in.isReadInPlace()) {
+        // Copy the file only once it's sure the read home refers to its copy
+        copyHomeFile(homeFile, homeFileCopy);
+      }
       return home;
     } catch (InterruptedIOException ex) {
       throw new InterruptedRecorderException("Read " + name + " interrupted");
@@ -195,4 +534,35 @@ public class HomeFileRecorder implements HomeRecorder {
   public boolean exists(String name) throws RecorderException {
     return new File(name).exists();
   }
+
+  /**
+   * A task copying a home file under a temporary name, then renamed once complete.
+   */
+  private class HomeFileCopy implements Callable<Void> {
+    private final File homeFile;
+    private final File homeFileCopy;
+
+    public HomeFileCopy(File homeFile, File homeFileCopy) {
+      this.homeFile = homeFile.getAbsoluteFile();
+      this.homeFileCopy = homeFileCopy;
+    }
+
+    public File getHomeFile() {
+      return this.homeFile;
+    }
+
+    public Void call() throws IOException {
+      File partialCopy = new File(this.homeFileCopy.getPath() + ".part");
+      partialCopy.deleteOnExit();
+      try {
+        copyFile(this.homeFile, partialCopy, false);
+        if (!partialCopy.renameTo(this.homeFileCopy)) {
+          throw new IOException("Can't rename " + partialCopy + " to " + this.homeFileCopy);
+        }
+        return null;
+      } finally {
+        partialCopy.delete();
+      }
+    }
+  }
 }
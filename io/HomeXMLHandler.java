@@ -88,6 +88,10 @@ public class HomeXMLHandler extends DefaultHandler {
   void setContentContext(HomeContentContext contentContext) {
     this.contentContext = contentContext;
   }
+
+  UserPreferences getPreferences() {
+    return this.preferences;
+  }
   
   @Override
   public void startDocument() throws SAXException {
@@ -101,12 +105,20 @@ public class HomeXMLHandler extends DefaultHandler {
 
   @Override
   public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
-    this.buffer.setLength(0);
-    this.elements.push(name);
     Map<String, String> attributesMap = new HashMap<String, String>();
     for (int i = 0; i < attributes.getLength(); i++) {
       attributesMap.put(attributes.getQName(i), attributes.getValue(i));
     }
+    startElement(name, attributesMap);
+  }
+
+  /**
+   * Notifies the start of the element <code>name</code> with attributes that this handler 
+   * keeps as is until the end of the element.
+   */
+  void startElement(String name, Map<String, String> attributesMap) throws SAXException {
+    this.buffer.setLength(0);
+    this.elements.push(name);
     this.attributes.push(attributesMap);
     
     if ("home".equals(name)) {
@@ -1130,7 +1142,7 @@ public class HomeXMLHandler extends DefaultHandler {
     }
   }
 
-  private Content parseContent(String content) throws SAXException {
+  Content parseContent(String content) throws SAXException {
     if (content != null) {
       try {
         return new ResourceURLContent(new URL(content), content.startsWith("jar:"));
@@ -0,0 +1,170 @@
+package com.eteks.homeview3d.io;
+
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A parser of <code>Home.xml</code> entries based on a StAX pull parser, which notifies
+ * a {@link HomeXMLHandler} without copying attributes in a hash map for each element.
+ * Elements without child elements, like <code>point</code> or <code>property</code>,
+ * are handled as soon as they start, with attributes read directly from the parser.
+ * The attributes of other elements are kept in arrays until their end.
+ * This class requires Java 6 or a StAX implementation in the classpath.
+ */
+class HomeXMLStreamParser {
+  private static final Set<String> EMPTY_ELEMENTS = new HashSet<String>(Arrays.asList(new String [] {
+      "point", "property", "textStyle", "texture", "sash", "lightSource", "furnitureVisibleProperty"}));
+
+  private static XMLInputFactory factory;
+
+  /**
+   * Parses the given input stream and notifies <code>handler</code> of its content.
+   */
+  public void parse(InputStream in, HomeXMLHandler handler) throws SAXException {
+    try {
+      XMLStreamReader reader = getXMLInputFactory().createXMLStreamReader(in);
+      try {
+        Map<String, String> readerAttributes = new StreamReaderAttributes(reader);
+        handler.startDocument();
+        while (reader.hasNext()) {
+          switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT :
+              String name = reader.getLocalName();
+              if (EMPTY_ELEMENTS.contains(name)) {
+                handler.startElement(name, readerAttributes);
+                handler.endElement("", name, name);
+                skipElementContent(reader);
+              } else {
+                handler.startElement(name, new ElementAttributes(reader));
+              }
+              break;
+            case XMLStreamConstants.END_ELEMENT :
+              String endedElement = reader.getLocalName();
+              handler.endElement("", endedElement, endedElement);
+              break;
+            case XMLStreamConstants.CHARACTERS :
+            case XMLStreamConstants.CDATA :
+            case XMLStreamConstants.SPACE :
+              handler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+              break;
+          }
+        }
+        handler.endDocument();
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException ex) {
+      throw new SAXException(ex);
+    }
+  }
+
+  /**
+   * Moves the given reader to the end of its current element, ignoring its content.
+   */
+  private void skipElementContent(XMLStreamReader reader) throws XMLStreamException {
+    for (int depth = 1; depth > 0; ) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT :
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT :
+          depth--;
+          break;
+      }
+    }
+  }
+
+  private static synchronized XMLInputFactory getXMLInputFactory() {
+    if (factory == null) {
+      factory = XMLInputFactory.newInstance();
+      // Home.xml doesn't use namespaces
+      factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    }
+    return factory;
+  }
+
+  /**
+   * Attributes of the element on which a stream reader is positioned.
+   */
+  private static class StreamReaderAttributes extends AbstractMap<String, String> {
+    private final XMLStreamReader reader;
+
+    public StreamReaderAttributes(XMLStreamReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public String get(Object name) {
+      for (int i = 0, n = this.reader.getAttributeCount(); i < n; i++) {
+        if (this.reader.getAttributeLocalName(i).equals(name)) {
+          return this.reader.getAttributeValue(i);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+      return get(name) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+      return new ElementAttributes(this.reader).entrySet();
+    }
+  }
+
+  /**
+   * Attributes of an element copied from a stream reader in arrays.
+   */
+  private static class ElementAttributes extends AbstractMap<String, String> {
+    private final String [] names;
+    private final String [] values;
+
+    public ElementAttributes(XMLStreamReader reader) {
+      int count = reader.getAttributeCount();
+      this.names = new String [count];
+      this.values = new String [count];
+      for (int i = 0; i < count; i++) {
+        this.names [i] = reader.getAttributeLocalName(i);
+        this.values [i] = reader.getAttributeValue(i);
+      }
+    }
+
+    @Override
+    public String get(Object name) {
+      for (int i = 0; i < this.names.length; i++) {
+        if (this.names [i].equals(name)) {
+          return this.values [i];
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+      return get(name) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+      Map<String, String> attributes = new LinkedHashMap<String, String>();
+      for (int i = 0; i < this.names.length; i++) {
+        attributes.put(this.names [i], this.values [i]);
+      }
+      return attributes.entrySet();
+    }
+  }
+}
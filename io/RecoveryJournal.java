@@ -0,0 +1,845 @@
+package com.eteks.homeview3d.io;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.eteks.homeview3d.model.Camera;
+import com.eteks.homeview3d.model.CollectionEvent;
+import com.eteks.homeview3d.model.CollectionListener;
+import com.eteks.homeview3d.model.Content;
+import com.eteks.homeview3d.model.DimensionLine;
+import com.eteks.homeview3d.model.Home;
+import com.eteks.homeview3d.model.HomeEnvironment;
+import com.eteks.homeview3d.model.HomeFurnitureGroup;
+import com.eteks.homeview3d.model.HomePieceOfFurniture;
+import com.eteks.homeview3d.model.Label;
+import com.eteks.homeview3d.model.Level;
+import com.eteks.homeview3d.model.ObserverCamera;
+import com.eteks.homeview3d.model.Polyline;
+import com.eteks.homeview3d.model.Room;
+import com.eteks.homeview3d.model.Wall;
+import com.eteks.homeview3d.tools.TemporaryURLContent;
+
+/**
+ * A journal of the changes made to a home since its last checkpoint saved for recovery.
+ * Added, deleted and modified items are collected by listeners, written as records
+ * proportional to the changes, and appended to a journal file which is replayed
+ * on the checkpoint when a home is recovered.
+ * Changes that can't be written as records, like the ones of the home environment,
+ * require a new checkpoint. The methods that collect changes must be called in
+ * Event Dispatch Thread, and the methods that manage the journal file in a single other thread.
+ */
+class RecoveryJournal {
+  private static final int  MAGIC_NUMBER = 0x484A524E;
+  private static final int  VERSION      = 1;
+
+  private static final byte ADD_RECORD             = 1;
+  private static final byte DELETE_RECORD          = 2;
+  private static final byte UPDATE_RECORD          = 3;
+  private static final byte WALL_JOINS_RECORD      = 4;
+  private static final byte TOP_CAMERA_RECORD      = 5;
+  private static final byte OBSERVER_CAMERA_RECORD = 6;
+  private static final byte CAMERA_RECORD          = 7;
+  private static final byte SELECTED_LEVEL_RECORD  = 8;
+
+  private static final int  ADDED   = 1;
+  private static final int  DELETED = 2;
+  private static final int  UPDATED = 4;
+
+  private final Home                    home;
+  private final Map<Object, Integer>    itemIds      = new IdentityHashMap<Object, Integer>();
+  private final Map<Object, Object>     itemOwners   = new IdentityHashMap<Object, Object>();
+  private final Map<Object, Integer>    itemChanges  = new IdentityHashMap<Object, Integer>();
+  private final Map<Content, Boolean>   checkpointContents = new IdentityHashMap<Content, Boolean>();
+  private int                           nextItemId;
+  private boolean                       topCameraChanged;
+  private boolean                       observerCameraChanged;
+  private boolean                       cameraChanged;
+  private boolean                       selectedLevelChanged;
+  private volatile boolean              checkpointNeeded = true;
+
+  private final PropertyChangeListener  itemListener;
+  private final PropertyChangeListener  homeListener;
+  private final PropertyChangeListener  cameraListener;
+  private final PropertyChangeListener  environmentListener;
+  private final CollectionListener<?> [] collectionListeners;
+
+  private File                          journalFile;
+  private volatile long                 journalLength;
+  private volatile long                 checkpointLength;
+
+  public RecoveryJournal(Home home) {
+    this.home = home;
+    this.itemListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent ev) {
+          Object item = itemOwners.get(ev.getSource());
+          if (item != null) {
+            itemUpdated(item);
+          }
+        }
+      };
+    this.homeListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent ev) {
+          switch (Home.Property.valueOf(ev.getPropertyName())) {
+            case CAMERA :
+              cameraChanged = true;
+              break;
+            case SELECTED_LEVEL :
+              selectedLevelChanged = true;
+              break;
+            case MODIFIED :
+            case RECOVERED :
+            case REPAIRED :
+            case ALL_LEVELS_SELECTION :
+              break;
+            default :
+              checkpointNeeded = true;
+          }
+        }
+      };
+    this.cameraListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent ev) {
+          if (ev.getSource() == RecoveryJournal.this.home.getTopCamera()) {
+            topCameraChanged = true;
+          } else {
+            observerCameraChanged = true;
+          }
+        }
+      };
+    this.environmentListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent ev) {
+          checkpointNeeded = true;
+        }
+      };
+    this.collectionListeners = new CollectionListener<?> [] {
+        new ItemsListener<Level>(),
+        new ItemsListener<HomePieceOfFurniture>() {
+          @Override
+          public void collectionChanged(CollectionEvent<HomePieceOfFurniture> ev) {
+            if (ev.getIndex() == -1) {
+              // Pieces added to or deleted from groups aren't followed
+              checkpointNeeded = true;
+            } else {
+              super.collectionChanged(ev);
+            }
+          }
+        },
+        new ItemsListener<Wall>(),
+        new ItemsListener<Room>(),
+        new ItemsListener<Polyline>(),
+        new ItemsListener<DimensionLine>(),
+        new ItemsListener<Label>()};
+    addListeners();
+    reset();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void addListeners() {
+    this.home.addLevelsListener((CollectionListener<Level>)this.collectionListeners [0]);
+    this.home.addFurnitureListener((CollectionListener<HomePieceOfFurniture>)this.collectionListeners [1]);
+    this.home.addWallsListener((CollectionListener<Wall>)this.collectionListeners [2]);
+    this.home.addRoomsListener((CollectionListener<Room>)this.collectionListeners [3]);
+    this.home.addPolylinesListener((CollectionListener<Polyline>)this.collectionListeners [4]);
+    this.home.addDimensionLinesListener((CollectionListener<DimensionLine>)this.collectionListeners [5]);
+    this.home.addLabelsListener((CollectionListener<Label>)this.collectionListeners [6]);
+    for (Home.Property property : Home.Property.values()) {
+      this.home.addPropertyChangeListener(property, this.homeListener);
+    }
+    this.home.getTopCamera().addPropertyChangeListener(this.cameraListener);
+    this.home.getObserverCamera().addPropertyChangeListener(this.cameraListener);
+    for (HomeEnvironment.Property property : HomeEnvironment.Property.values()) {
+      this.home.getEnvironment().addPropertyChangeListener(property, this.environmentListener);
+    }
+    this.home.getCompass().addPropertyChangeListener(this.environmentListener);
+  }
+
+  /**
+   * Removes the listeners added by this journal to its home.
+   */
+  @SuppressWarnings("unchecked")
+  public void dispose() {
+    this.home.removeLevelsListener((CollectionListener<Level>)this.collectionListeners [0]);
+    this.home.removeFurnitureListener((CollectionListener<HomePieceOfFurniture>)this.collectionListeners [1]);
+    this.home.removeWallsListener((CollectionListener<Wall>)this.collectionListeners [2]);
+    this.home.removeRoomsListener((CollectionListener<Room>)this.collectionListeners [3]);
+    this.home.removePolylinesListener((CollectionListener<Polyline>)this.collectionListeners [4]);
+    this.home.removeDimensionLinesListener((CollectionListener<DimensionLine>)this.collectionListeners [5]);
+    this.home.removeLabelsListener((CollectionListener<Label>)this.collectionListeners [6]);
+    for (Home.Property property : Home.Property.values()) {
+      this.home.removePropertyChangeListener(property, this.homeListener);
+    }
+    this.home.getTopCamera().removePropertyChangeListener(this.cameraListener);
+    this.home.getObserverCamera().removePropertyChangeListener(this.cameraListener);
+    for (HomeEnvironment.Property property : HomeEnvironment.Property.values()) {
+      this.home.getEnvironment().removePropertyChangeListener(property, this.environmentListener);
+    }
+    this.home.getCompass().removePropertyChangeListener(this.environmentListener);
+    for (Object item : new ArrayList<Object>(this.itemOwners.keySet())) {
+      removeItemListener(item);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the home should be saved in a new checkpoint
+   * rather than in the journal.
+   */
+  public boolean isCheckpointNeeded() {
+    return this.checkpointNeeded
+        || this.journalLength > this.checkpointLength / 2;
+  }
+
+  /**
+   * Requires a new checkpoint at next save.
+   */
+  public void requireCheckpoint() {
+    this.checkpointNeeded = true;
+  }
+
+  /**
+   * Forgets pending changes and identifies the items of the home in their current order,
+   * once the home was cloned to be saved in a checkpoint.
+   */
+  public void reset() {
+    for (Object item : new ArrayList<Object>(this.itemOwners.keySet())) {
+      removeItemListener(item);
+    }
+    this.itemIds.clear();
+    this.itemChanges.clear();
+    this.nextItemId = 0;
+    for (Object item : getItems(this.home)) {
+      this.itemIds.put(item, this.nextItemId++);
+      addItemListener(item, item);
+    }
+    this.checkpointContents.clear();
+    for (Content content : HomeContentCollector.getHomeContents(this.home)) {
+      this.checkpointContents.put(content, Boolean.TRUE);
+    }
+    this.topCameraChanged = false;
+    this.observerCameraChanged = false;
+    this.cameraChanged = false;
+    this.selectedLevelChanged = false;
+    this.checkpointNeeded = false;
+  }
+
+  /**
+   * Returns the items of the given <code>home</code> identified in journal records, in the order
+   * used to identify them in a checkpoint.
+   */
+  private static List<Object> getItems(Home home) {
+    List<Object> items = new ArrayList<Object>();
+    items.addAll(home.getLevels());
+    items.addAll(home.getFurniture());
+    items.addAll(home.getWalls());
+    items.addAll(home.getRooms());
+    items.addAll(home.getPolylines());
+    items.addAll(home.getDimensionLines());
+    items.addAll(home.getLabels());
+    return items;
+  }
+
+  private void addItemListener(Object listenedObject, Object item) {
+    this.itemOwners.put(listenedObject, item);
+    if (listenedObject instanceof HomePieceOfFurniture) {
+      ((HomePieceOfFurniture)listenedObject).addPropertyChangeListener(this.itemListener);
+      if (listenedObject instanceof HomeFurnitureGroup) {
+        // Follow the changes of the pieces of a group as changes of the group
+        for (HomePieceOfFurniture piece : ((HomeFurnitureGroup)listenedObject).getFurniture()) {
+          addItemListener(piece, item);
+        }
+      }
+    } else if (listenedObject instanceof Wall) {
+      ((Wall)listenedObject).addPropertyChangeListener(this.itemListener);
+    } else if (listenedObject instanceof Room) {
+      ((Room)listenedObject).addPropertyChangeListener(this.itemListener);
+    } else if (listenedObject instanceof Polyline) {
+      ((Polyline)listenedObject).addPropertyChangeListener(this.itemListener);
+    } else if (listenedObject instanceof DimensionLine) {
+      ((DimensionLine)listenedObject).addPropertyChangeListener(this.itemListener);
+    } else if (listenedObject instanceof Label) {
+      ((Label)listenedObject).addPropertyChangeListener(this.itemListener);
+    } else if (listenedObject instanceof Level) {
+      ((Level)listenedObject).addPropertyChangeListener(this.itemListener);
+    }
+  }
+
+  private void removeItemListener(Object listenedObject) {
+    if (this.itemOwners.remove(listenedObject) != null) {
+      if (listenedObject instanceof HomePieceOfFurniture) {
+        ((HomePieceOfFurniture)listenedObject).removePropertyChangeListener(this.itemListener);
+        if (listenedObject instanceof HomeFurnitureGroup) {
+          for (HomePieceOfFurniture piece : ((HomeFurnitureGroup)listenedObject).getFurniture()) {
+            removeItemListener(piece);
+          }
+        }
+      } else if (listenedObject instanceof Wall) {
+        ((Wall)listenedObject).removePropertyChangeListener(this.itemListener);
+      } else if (listenedObject instanceof Room) {
+        ((Room)listenedObject).removePropertyChangeListener(this.itemListener);
+      } else if (listenedObject instanceof Polyline) {
+        ((Polyline)listenedObject).removePropertyChangeListener(this.itemListener);
+      } else if (listenedObject instanceof DimensionLine) {
+        ((DimensionLine)listenedObject).removePropertyChangeListener(this.itemListener);
+      } else if (listenedObject instanceof Label) {
+        ((Label)listenedObject).removePropertyChangeListener(this.itemListener);
+      } else if (listenedObject instanceof Level) {
+        ((Level)listenedObject).removePropertyChangeListener(this.itemListener);
+      }
+    }
+  }
+
+  private void itemAdded(Object item) {
+    Integer change = this.itemChanges.get(item);
+    if (change != null && (change & DELETED) != 0) {
+      // Item deleted then added again, like with an undo
+      this.itemChanges.put(item, DELETED | ADDED);
+    } else {
+      if (!this.itemIds.containsKey(item)) {
+        this.itemIds.put(item, this.nextItemId++);
+      }
+      this.itemChanges.put(item, ADDED);
+    }
+    addItemListener(item, item);
+  }
+
+  private void itemDeleted(Object item) {
+    removeItemListener(item);
+    Integer change = this.itemChanges.get(item);
+    if (change != null && change == ADDED) {
+      this.itemChanges.remove(item);
+      this.itemIds.remove(item);
+    } else {
+      this.itemChanges.put(item, DELETED);
+    }
+  }
+
+  private void itemUpdated(Object item) {
+    if (!this.itemChanges.containsKey(item)) {
+      this.itemChanges.put(item, UPDATED);
+    }
+  }
+
+  /**
+   * Returns the records of the changes made since last call or last reset,
+   * or <code>null</code> if there's no change.
+   * @throws IOException if a change can't be written in the journal and requires a checkpoint.
+   */
+  public byte [] writeChanges() throws IOException {
+    if (this.checkpointNeeded) {
+      throw new IOException("Checkpoint required");
+    }
+    if (this.itemChanges.isEmpty()
+        && !this.topCameraChanged
+        && !this.observerCameraChanged
+        && !this.cameraChanged
+        && !this.selectedLevelChanged) {
+      return null;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dataOut = new DataOutputStream(out);
+    List<Object> deletedItems = new ArrayList<Object>();
+    List<Object> updatedItems = new ArrayList<Object>();
+    boolean itemsAdded = false;
+    for (Map.Entry<Object, Integer> entry : this.itemChanges.entrySet()) {
+      itemsAdded |= (entry.getValue() & ADDED) != 0;
+      if ((entry.getValue() & DELETED) != 0) {
+        deletedItems.add(entry.getKey());
+      } else if (entry.getValue() == UPDATED) {
+        updatedItems.add(entry.getKey());
+      }
+    }
+    // Delete levels after their items and update them before their items
+    for (Object item : deletedItems) {
+      if (!(item instanceof Level)) {
+        writeRecord(dataOut, DELETE_RECORD, item, -1, null);
+      }
+    }
+    for (Object item : deletedItems) {
+      if (item instanceof Level) {
+        writeRecord(dataOut, DELETE_RECORD, item, -1, null);
+      }
+    }
+    if (itemsAdded) {
+      // Add items in the order of their index
+      List<Wall> addedWalls = new ArrayList<Wall>();
+      for (List<?> items : Arrays.asList(this.home.getLevels(), this.home.getFurniture(),
+             new ArrayList<Wall>(this.home.getWalls()), this.home.getRooms(), this.home.getPolylines(),
+             new ArrayList<DimensionLine>(this.home.getDimensionLines()), new ArrayList<Label>(this.home.getLabels()))) {
+        for (int i = 0; i < items.size(); i++) {
+          Object item = items.get(i);
+          Integer change = this.itemChanges.get(item);
+          if (change != null && (change & ADDED) != 0) {
+            writeRecord(dataOut, ADD_RECORD, item, i, item);
+            if (item instanceof Wall) {
+              addedWalls.add((Wall)item);
+            }
+          }
+        }
+      }
+      // Join added walls once they all exist
+      for (Wall wall : addedWalls) {
+        writeRecord(dataOut, WALL_JOINS_RECORD, wall, -1,
+            new int [] {getItemId(wall.getWallAtStart()), getItemId(wall.getWallAtEnd())});
+      }
+    }
+    for (Object item : updatedItems) {
+      if (item instanceof Level) {
+        writeRecord(dataOut, UPDATE_RECORD, item, -1, item);
+      }
+    }
+    for (Object item : updatedItems) {
+      if (!(item instanceof Level)) {
+        writeRecord(dataOut, UPDATE_RECORD, item, -1, item);
+      }
+    }
+    if (this.topCameraChanged) {
+      writeRecord(dataOut, TOP_CAMERA_RECORD, null, -1, this.home.getTopCamera());
+    }
+    if (this.observerCameraChanged) {
+      writeRecord(dataOut, OBSERVER_CAMERA_RECORD, null, -1, this.home.getObserverCamera());
+    }
+    if (this.cameraChanged) {
+      writeRecord(dataOut, CAMERA_RECORD, null, -1,
+          this.home.getCamera() == this.home.getObserverCamera());
+    }
+    if (this.selectedLevelChanged) {
+      writeRecord(dataOut, SELECTED_LEVEL_RECORD, null, getItemId(this.home.getSelectedLevel()), null);
+    }
+    dataOut.flush();
+
+    for (Object item : deletedItems) {
+      if (this.itemChanges.get(item) == DELETED) {
+        this.itemIds.remove(item);
+      }
+    }
+    this.itemChanges.clear();
+    this.topCameraChanged = false;
+    this.observerCameraChanged = false;
+    this.cameraChanged = false;
+    this.selectedLevelChanged = false;
+    return out.toByteArray();
+  }
+
+  private int getItemId(Object item) {
+    Integer id = this.itemIds.get(item);
+    return id != null ? id : -1;
+  }
+
+  /**
+   * Writes a record with its length, the object of the record being written
+   * with references to other items and to the content saved in the checkpoint.
+   */
+  private void writeRecord(DataOutputStream out, byte type, Object item,
+                           int index, Object object) throws IOException {
+    ByteArrayOutputStream recordOut = new ByteArrayOutputStream();
+    ObjectOutputStream objectOut = new RecordOutputStream(recordOut, item);
+    objectOut.writeByte(type);
+    objectOut.writeInt(getItemId(item));
+    objectOut.writeInt(index);
+    objectOut.writeObject(object);
+    objectOut.close();
+    out.writeInt(recordOut.size());
+    recordOut.writeTo(out);
+  }
+
+  /**
+   * Starts a new journal file for the given checkpoint.
+   */
+  public void startJournalFile(File journalFile, File checkpointFile) throws IOException {
+    this.journalFile = null;
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile));
+    try {
+      out.writeInt(MAGIC_NUMBER);
+      out.writeInt(VERSION);
+      out.writeLong(checkpointFile.length());
+      out.writeLong(checkpointFile.lastModified());
+    } finally {
+      out.close();
+    }
+    this.journalFile = journalFile;
+    this.journalLength = journalFile.length();
+    this.checkpointLength = checkpointFile.length();
+  }
+
+  /**
+   * Appends the given <code>changes</code> to the journal file.
+   */
+  public void appendToJournalFile(byte [] changes) throws IOException {
+    if (this.journalFile == null) {
+      requireCheckpoint();
+      throw new IOException("No journal file");
+    }
+    CRC32 crc = new CRC32();
+    crc.update(changes);
+    FileOutputStream out = new FileOutputStream(this.journalFile, true);
+    try {
+      DataOutputStream dataOut = new DataOutputStream(out);
+      dataOut.writeInt(changes.length);
+      dataOut.writeLong(crc.getValue());
+      dataOut.write(changes);
+      dataOut.flush();
+      out.getFD().sync();
+      this.journalLength += 12 + changes.length;
+    } catch (IOException ex) {
+      this.journalFile = null;
+      requireCheckpoint();
+      throw ex;
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Deletes the current journal file.
+   */
+  public void deleteJournalFile() {
+    if (this.journalFile != null) {
+      this.journalFile.delete();
+      this.journalFile = null;
+    }
+  }
+
+  /**
+   * Applies to the given <code>home</code> read from <code>checkpointFile</code> the changes
+   * stored in <code>journalFile</code>. The journal is ignored if it was written for an other checkpoint,
+   * and changes are applied until the first incomplete one.
+   */
+  public static void replay(Home home, File journalFile, File checkpointFile) throws IOException, ClassNotFoundException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+    try {
+      if (in.readInt() != MAGIC_NUMBER
+          || in.readInt() != VERSION
+          || in.readLong() != checkpointFile.length()
+          || in.readLong() != checkpointFile.lastModified()) {
+        return;
+      }
+      Replay replay = new Replay(home);
+      while (true) {
+        byte [] changes;
+        try {
+          changes = new byte [in.readInt()];
+          long crc = in.readLong();
+          in.readFully(changes);
+          CRC32 changesCrc = new CRC32();
+          changesCrc.update(changes);
+          if (changesCrc.getValue() != crc) {
+            return;
+          }
+        } catch (EOFException ex) {
+          // Ignore changes not completely written
+          return;
+        }
+        replay.applyChanges(changes);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Listener of the items of a home collection.
+   */
+  private class ItemsListener<T> implements CollectionListener<T> {
+    public void collectionChanged(CollectionEvent<T> ev) {
+      if (ev.getType() == CollectionEvent.Type.ADD) {
+        itemAdded(ev.getItem());
+      } else {
+        itemDeleted(ev.getItem());
+      }
+    }
+  }
+
+  /**
+   * An output stream which replaces the items of the home other than the written item
+   * by references, and the content saved in the checkpoint by the reference of its digest.
+   */
+  private class RecordOutputStream extends ObjectOutputStream {
+    private final Object item;
+
+    public RecordOutputStream(OutputStream out, Object item) throws IOException {
+      super(out);
+      this.item = item;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+      if (obj != this.item) {
+        Integer id = itemIds.get(obj);
+        if (id != null) {
+          return new ItemReference(id);
+        } else if (obj instanceof TemporaryURLContent
+            || obj instanceof HomeURLContent) {
+          // Content stored only in a home file can be referenced only if it's saved in the checkpoint
+          if (checkpointContents.containsKey(obj)) {
+            return new ContentReference(ContentDigestManager.getInstance().getContentDigest((Content)obj));
+          } else {
+            throw new IOException("Content not saved in checkpoint");
+          }
+        }
+      }
+      return obj;
+    }
+  }
+
+  private static class ItemReference implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+
+    public ItemReference(int id) {
+      this.id = id;
+    }
+  }
+
+  private static class ContentReference implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte [] digest;
+
+    public ContentReference(byte [] digest) {
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * The state of a home on which journal records are applied.
+   */
+  private static class Replay {
+    private final Home                 home;
+    private final Map<Integer, Object> items = new HashMap<Integer, Object>();
+    private Map<String, Content>       contents;
+
+    public Replay(Home home) {
+      this.home = home;
+      int id = 0;
+      for (Object item : getItems(home)) {
+        this.items.put(id++, item);
+      }
+    }
+
+    public void applyChanges(byte [] changes) throws IOException, ClassNotFoundException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(changes));
+      while (in.available() > 0) {
+        byte [] record = new byte [in.readInt()];
+        in.readFully(record);
+        ObjectInputStream recordIn = new RecordInputStream(new ByteArrayInputStream(record));
+        byte type = recordIn.readByte();
+        int id = recordIn.readInt();
+        int index = recordIn.readInt();
+        Object object = recordIn.readObject();
+        switch (type) {
+          case ADD_RECORD :
+            addItem(object, index);
+            this.items.put(id, object);
+            break;
+          case DELETE_RECORD :
+            deleteItem(this.items.remove(id));
+            break;
+          case UPDATE_RECORD :
+            Object item = this.items.get(id);
+            if (item != null) {
+              this.items.put(id, updateItem(item, object));
+            }
+            break;
+          case WALL_JOINS_RECORD :
+            int [] joinedWallIds = (int [])object;
+            Wall wall = (Wall)this.items.get(id);
+            if (wall != null) {
+              wall.setWallAtStart((Wall)this.items.get(joinedWallIds [0]));
+              wall.setWallAtEnd((Wall)this.items.get(joinedWallIds [1]));
+            }
+            break;
+          case TOP_CAMERA_RECORD :
+            setCamera(this.home.getTopCamera(), (Camera)object);
+            break;
+          case OBSERVER_CAMERA_RECORD :
+            setCamera(this.home.getObserverCamera(), (Camera)object);
+            this.home.getObserverCamera().setFixedSize(((ObserverCamera)object).isFixedSize());
+            break;
+          case CAMERA_RECORD :
+            this.home.setCamera(Boolean.TRUE.equals(object)
+                ? this.home.getObserverCamera()
+                : this.home.getTopCamera());
+            break;
+          case SELECTED_LEVEL_RECORD :
+            this.home.setSelectedLevel((Level)this.items.get(index));
+            break;
+          default :
+            throw new IOException("Unknown record " + type);
+        }
+      }
+    }
+
+    private void setCamera(Camera camera, Camera journalCamera) {
+      camera.setCamera(journalCamera);
+      camera.setTime(journalCamera.getTime());
+      camera.setLens(journalCamera.getLens());
+    }
+
+    private void addItem(Object item, int index) {
+      if (item instanceof Level) {
+        this.home.addLevel((Level)item);
+      } else if (item instanceof HomePieceOfFurniture) {
+        HomePieceOfFurniture piece = (HomePieceOfFurniture)item;
+        Level level = piece.getLevel();
+        this.home.addPieceOfFurniture(piece, Math.min(index, this.home.getFurniture().size()));
+        piece.setLevel(level);
+      } else if (item instanceof Wall) {
+        Wall wall = (Wall)item;
+        Level level = wall.getLevel();
+        this.home.addWall(wall);
+        wall.setLevel(level);
+      } else if (item instanceof Room) {
+        Room room = (Room)item;
+        Level level = room.getLevel();
+        this.home.addRoom(room, Math.min(index, this.home.getRooms().size()));
+        room.setLevel(level);
+      } else if (item instanceof Polyline) {
+        Polyline polyline = (Polyline)item;
+        Level level = polyline.getLevel();
+        this.home.addPolyline(polyline, Math.min(index, this.home.getPolylines().size()));
+        polyline.setLevel(level);
+      } else if (item instanceof DimensionLine) {
+        DimensionLine dimensionLine = (DimensionLine)item;
+        Level level = dimensionLine.getLevel();
+        this.home.addDimensionLine(dimensionLine);
+        dimensionLine.setLevel(level);
+      } else if (item instanceof Label) {
+        Label label = (Label)item;
+        Level level = label.getLevel();
+        this.home.addLabel(label);
+        label.setLevel(level);
+      }
+    }
+
+    private void deleteItem(Object item) {
+      if (item instanceof Level) {
+        this.home.deleteLevel((Level)item);
+      } else if (item instanceof HomePieceOfFurniture) {
+        this.home.deletePieceOfFurniture((HomePieceOfFurniture)item);
+      } else if (item instanceof Wall) {
+        this.home.deleteWall((Wall)item);
+      } else if (item instanceof Room) {
+        this.home.deleteRoom((Room)item);
+      } else if (item instanceof Polyline) {
+        this.home.deletePolyline((Polyline)item);
+      } else if (item instanceof DimensionLine) {
+        this.home.deleteDimensionLine((DimensionLine)item);
+      } else if (item instanceof Label) {
+        this.home.deleteLabel((Label)item);
+      }
+    }
+
+    /**
+     * Replaces the given item by its updated version and returns the item now in home.
+     */
+    private Object updateItem(Object item, Object updatedItem) {
+      if (item instanceof Level) {
+        // Levels are updated rather than replaced to keep the items at their level
+        Level level = (Level)item;
+        Level updatedLevel = (Level)updatedItem;
+        level.setName(updatedLevel.getName());
+        level.setElevation(updatedLevel.getElevation());
+        level.setFloorThickness(updatedLevel.getFloorThickness());
+        level.setHeight(updatedLevel.getHeight());
+        level.setBackgroundImage(updatedLevel.getBackgroundImage());
+        level.setVisible(updatedLevel.isVisible());
+        level.setViewable(updatedLevel.isViewable());
+        level.setElevationIndex(updatedLevel.getElevationIndex());
+        return level;
+      } else if (item instanceof HomePieceOfFurniture) {
+        int index = this.home.getFurniture().indexOf(item);
+        deleteItem(item);
+        addItem(updatedItem, index);
+      } else if (item instanceof Wall) {
+        // Join the walls joined to the replaced wall to the updated one
+        List<Wall> wallsJoinedAtStart = new ArrayList<Wall>();
+        List<Wall> wallsJoinedAtEnd = new ArrayList<Wall>();
+        for (Wall wall : this.home.getWalls()) {
+          if (wall.getWallAtStart() == item) {
+            wallsJoinedAtStart.add(wall);
+          } else if (wall.getWallAtEnd() == item) {
+            wallsJoinedAtEnd.add(wall);
+          }
+        }
+        deleteItem(item);
+        addItem(updatedItem, -1);
+        for (Wall wall : wallsJoinedAtStart) {
+          wall.setWallAtStart((Wall)updatedItem);
+        }
+        for (Wall wall : wallsJoinedAtEnd) {
+          wall.setWallAtEnd((Wall)updatedItem);
+        }
+      } else if (item instanceof Room) {
+        int index = this.home.getRooms().indexOf(item);
+        deleteItem(item);
+        addItem(updatedItem, index);
+      } else if (item instanceof Polyline) {
+        int index = this.home.getPolylines().indexOf(item);
+        deleteItem(item);
+        addItem(updatedItem, index);
+      } else {
+        deleteItem(item);
+        addItem(updatedItem, -1);
+      }
+      return updatedItem;
+    }
+
+    private Content getContent(byte [] digest) throws IOException {
+      if (this.contents == null) {
+        this.contents = new HashMap<String, Content>();
+        for (Content content : HomeContentCollector.getHomeContents(this.home)) {
+          this.contents.put(Base64.encodeBytes(ContentDigestManager.getInstance().getContentDigest(content)), content);
+        }
+      }
+      Content content = this.contents.get(Base64.encodeBytes(digest));
+      if (content == null) {
+        throw new IOException("Missing content in checkpoint");
+      }
+      return content;
+    }
+
+    /**
+     * An input stream which resolves the references written by <code>RecordOutputStream</code>.
+     */
+    private class RecordInputStream extends ObjectInputStream {
+      public RecordInputStream(InputStream in) throws IOException {
+        super(in);
+        enableResolveObject(true);
+      }
+
+      @Override
+      protected Object resolveObject(Object obj) throws IOException {
+        if (obj instanceof ItemReference) {
+          return items.get(((ItemReference)obj).id);
+        } else if (obj instanceof ContentReference) {
+          return getContent(((ContentReference)obj).digest);
+        } else {
+          return obj;
+        }
+      }
+    }
+  }
+}
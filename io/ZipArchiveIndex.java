@@ -0,0 +1,346 @@
+package com.eteks.homeview3d.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random access index of the entries listed in the central directory of a ZIP file.
+ * Entries data may be read raw, as stored in the file, or uncompressed.
+ */
+class ZipArchiveIndex implements Closeable {
+  private static final int  LOCAL_HEADER_SIGNATURE       = 0x04034b50;
+  private static final int  CENTRAL_HEADER_SIGNATURE     = 0x02014b50;
+  private static final int  END_SIGNATURE                = 0x06054b50;
+  private static final int  ZIP64_END_SIGNATURE          = 0x06064b50;
+  private static final int  ZIP64_END_LOCATOR_SIGNATURE  = 0x07064b50;
+  private static final int  END_LENGTH                   = 22;
+  private static final int  ZIP64_END_LOCATOR_LENGTH     = 20;
+  private static final int  ZIP64_EXTRA_FIELD_ID         = 0x0001;
+  private static final long ZIP64_MAGIC_VALUE            = 0xFFFFFFFFL;
+
+  private final File               file;
+  private final RandomAccessFile   randomAccessFile;
+  private final FileChannel        channel;
+  private final boolean            mappedDirectory;
+  private final Map<String, Entry> entries;
+
+  public ZipArchiveIndex(File file) throws IOException {
+    this(file, false);
+  }
+
+  /**
+   * Creates the index of the given <code>file</code>. If <code>mappedDirectory</code> is <code>true</code>,
+   * its central directory is read from memory mapped data rather than copied in memory, which is faster 
+   * for large archives but may prevent the file from being renamed until the map is garbage collected
+   * under Windows.
+   */
+  public ZipArchiveIndex(File file, boolean mappedDirectory) throws IOException {
+    this.file = file;
+    this.mappedDirectory = mappedDirectory;
+    this.randomAccessFile = new RandomAccessFile(file, "r");
+    this.channel = this.randomAccessFile.getChannel();
+    try {
+      this.entries = readCentralDirectory();
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  private Map<String, Entry> readCentralDirectory() throws IOException {
+    long fileLength = this.channel.size();
+    if (fileLength < END_LENGTH) {
+      throw new ZipException("Not a ZIP file " + this.file);
+    }
+    // Search end of central directory record among the last bytes of the file
+    int tailLength = (int)Math.min(fileLength, END_LENGTH + 0xFFFF);
+    ByteBuffer tail = readBuffer(fileLength - tailLength, tailLength);
+    int endOffset = -1;
+    for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+      if (tail.getInt(i) == END_SIGNATURE) {
+        endOffset = i;
+        break;
+      }
+    }
+    if (endOffset == -1) {
+      throw new ZipException("Missing end of central directory in " + this.file);
+    }
+    long entryCount = tail.getShort(endOffset + 10) & 0xFFFF;
+    long directoryLength = tail.getInt(endOffset + 12) & 0xFFFFFFFFL;
+    long directoryOffset = tail.getInt(endOffset + 16) & 0xFFFFFFFFL;
+    long locatorOffset = fileLength - tailLength + endOffset - ZIP64_END_LOCATOR_LENGTH;
+    if (locatorOffset >= 0
+        && readBuffer(locatorOffset, 4).getInt(0) == ZIP64_END_LOCATOR_SIGNATURE) {
+      long zip64EndOffset = readBuffer(locatorOffset + 8, 8).getLong(0);
+      ByteBuffer zip64End = readBuffer(zip64EndOffset, 56);
+      if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+        throw new ZipException("Invalid ZIP64 end of central directory in " + this.file);
+      }
+      entryCount = zip64End.getLong(32);
+      directoryLength = zip64End.getLong(40);
+      directoryOffset = zip64End.getLong(48);
+    }
+    if (directoryOffset + directoryLength > fileLength
+        || directoryLength > Integer.MAX_VALUE) {
+      throw new ZipException("Invalid central directory in " + this.file);
+    }
+
+    ByteBuffer directory = this.mappedDirectory
+        ? this.channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directoryLength).order(ByteOrder.LITTLE_ENDIAN)
+        : readBuffer(directoryOffset, (int)directoryLength);
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    int position = 0;
+    for (long i = 0; i < entryCount; i++) {
+      if (position + 46 > directory.limit()
+          || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid central directory entry in " + this.file);
+      }
+      int flags = directory.getShort(position + 8) & 0xFFFF;
+      int method = directory.getShort(position + 10) & 0xFFFF;
+      long dosTime = directory.getInt(position + 12) & 0xFFFFFFFFL;
+      long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+      long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+      long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+      int nameLength = directory.getShort(position + 28) & 0xFFFF;
+      int extraLength = directory.getShort(position + 30) & 0xFFFF;
+      int commentLength = directory.getShort(position + 32) & 0xFFFF;
+      long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+      byte [] nameBytes = new byte [nameLength];
+      directory.position(position + 46);
+      directory.get(nameBytes);
+      String name = (flags & 0x800) != 0
+          ? new String(nameBytes, "UTF-8")
+          : new String(nameBytes, "ISO-8859-1");
+      // Read ZIP64 extended information if some fields are out of 32 bit range
+      int extraPosition = position + 46 + nameLength;
+      int extraEnd = extraPosition + extraLength;
+      while (extraPosition + 4 <= extraEnd) {
+        int headerId = directory.getShort(extraPosition) & 0xFFFF;
+        int dataSize = directory.getShort(extraPosition + 2) & 0xFFFF;
+        if (headerId == ZIP64_EXTRA_FIELD_ID) {
+          int valuePosition = extraPosition + 4;
+          if (size == ZIP64_MAGIC_VALUE) {
+            size = directory.getLong(valuePosition);
+            valuePosition += 8;
+          }
+          if (compressedSize == ZIP64_MAGIC_VALUE) {
+            compressedSize = directory.getLong(valuePosition);
+            valuePosition += 8;
+          }
+          if (localHeaderOffset == ZIP64_MAGIC_VALUE) {
+            localHeaderOffset = directory.getLong(valuePosition);
+          }
+        }
+        extraPosition += 4 + dataSize;
+      }
+      entries.put(name, new Entry(name, flags, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+      position += 46 + nameLength + extraLength + commentLength;
+    }
+    return Collections.unmodifiableMap(entries);
+  }
+
+  private ByteBuffer readBuffer(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (this.channel.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException("Unexpected end of file " + this.file);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Returns the file of this index.
+   */
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Returns the entries of the indexed file, in the order of the central directory.
+   */
+  public List<Entry> getEntries() {
+    return new ArrayList<Entry>(this.entries.values());
+  }
+
+  /**
+   * Returns the entry called <code>name</code> or <code>null</code> if it doesn't exist.
+   */
+  public Entry getEntry(String name) {
+    return this.entries.get(name);
+  }
+
+  /**
+   * Returns a stream able to read the data of the given <code>entry</code>
+   * as it's stored in the file, i.e. compressed if its method is deflated.
+   */
+  public InputStream openRawStream(Entry entry) throws IOException {
+    ByteBuffer localHeader = readBuffer(entry.getLocalHeaderOffset(), 30);
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Invalid local header for entry " + entry.getName() + " in " + this.file);
+    }
+    long dataOffset = entry.getLocalHeaderOffset() + 30
+        + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+    if (dataOffset + entry.getCompressedSize() > this.channel.size()) {
+      throw new ZipException("Truncated entry " + entry.getName() + " in " + this.file);
+    }
+    return new ChannelRegionInputStream(this.channel, dataOffset, entry.getCompressedSize());
+  }
+
+  /**
+   * Returns a stream able to read the uncompressed data of the given <code>entry</code>.
+   */
+  public InputStream openStream(Entry entry) throws IOException {
+    InputStream rawIn = openRawStream(entry);
+    switch (entry.getMethod()) {
+      case ZipEntry.STORED :
+        return rawIn;
+      case ZipEntry.DEFLATED :
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(rawIn, inflater, 8192) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+              if (!this.closed) {
+                this.closed = true;
+                super.close();
+                inflater.end();
+              }
+            }
+          };
+      default :
+        rawIn.close();
+        throw new ZipException("Unsupported compression method " + entry.getMethod()
+            + " for entry " + entry.getName());
+    }
+  }
+
+  public void close() throws IOException {
+    this.randomAccessFile.close();
+  }
+
+  /**
+   * An entry described in the central directory of a ZIP file.
+   */
+  public static class Entry {
+    private final String name;
+    private final int    flags;
+    private final int    method;
+    private final long   dosTime;
+    private final long   crc;
+    private final long   compressedSize;
+    private final long   size;
+    private final long   localHeaderOffset;
+
+    private Entry(String name, int flags, int method, long dosTime, long crc,
+                  long compressedSize, long size, long localHeaderOffset) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public boolean isEncrypted() {
+      return (this.flags & 1) != 0;
+    }
+
+    public int getMethod() {
+      return this.method;
+    }
+
+    public long getDosTime() {
+      return this.dosTime;
+    }
+
+    public long getCrc() {
+      return this.crc;
+    }
+
+    public long getCompressedSize() {
+      return this.compressedSize;
+    }
+
+    public long getSize() {
+      return this.size;
+    }
+
+    public long getLocalHeaderOffset() {
+      return this.localHeaderOffset;
+    }
+  }
+
+  /**
+   * A stream reading a region of a file channel with positional reads,
+   * so that several streams may read the same channel at the same time.
+   */
+  private static class ChannelRegionInputStream extends InputStream {
+    private final FileChannel channel;
+    private long              position;
+    private final long        end;
+
+    public ChannelRegionInputStream(FileChannel channel, long position, long length) {
+      this.channel = channel;
+      this.position = position;
+      this.end = position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte [] b = new byte [1];
+      return read(b, 0, 1) == -1
+          ? -1
+          : b [0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte [] b, int off, int len) throws IOException {
+      if (this.position >= this.end) {
+        return -1;
+      }
+      len = (int)Math.min(len, this.end - this.position);
+      int size = this.channel.read(ByteBuffer.wrap(b, off, len), this.position);
+      if (size < 0) {
+        throw new ZipException("Unexpected end of file");
+      }
+      this.position += size;
+      return size;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = Math.max(0, Math.min(n, this.end - this.position));
+      this.position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int)Math.min(Integer.MAX_VALUE, this.end - this.position);
+    }
+  }
+}
@@ -0,0 +1,444 @@
+package com.eteks.homeview3d.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A ZIP output stream able to write deflated or stored entries like <code>ZipOutputStream</code>,
+ * and also to copy entries which data is already compressed, without inflating it again.
+ */
+class ZipArchiveOutputStream extends OutputStream {
+  private static final int  LOCAL_HEADER_SIGNATURE       = 0x04034b50;
+  private static final int  DATA_DESCRIPTOR_SIGNATURE    = 0x08074b50;
+  private static final int  CENTRAL_HEADER_SIGNATURE     = 0x02014b50;
+  private static final int  END_SIGNATURE                = 0x06054b50;
+  private static final int  ZIP64_END_SIGNATURE          = 0x06064b50;
+  private static final int  ZIP64_END_LOCATOR_SIGNATURE  = 0x07064b50;
+  private static final int  ZIP64_EXTRA_FIELD_ID         = 0x0001;
+  private static final long ZIP64_MAGIC_VALUE            = 0xFFFFFFFFL;
+  private static final int  DATA_DESCRIPTOR_FLAG         = 0x08;
+  private static final int  UTF8_FLAG                    = 0x800;
+
+  private final OutputStream    out;
+  private final List<EntryInfo> writtenEntries = new ArrayList<EntryInfo>();
+  private final Set<String>     writtenNames = new HashSet<String>();
+  private final byte []         singleByte = new byte [1];
+  private final byte []         deflaterBuffer = new byte [8192];
+  private long                  written;
+  private EntryInfo             currentEntry;
+  private CRC32                 currentCrc;
+  private long                  currentSize;
+  private Deflater              currentDeflater;
+  private boolean               finished;
+  private long                  directoryOffset;
+
+  public ZipArchiveOutputStream(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Starts a new entry which data will be deflated at the given <code>level</code>.
+   */
+  public void putNextEntry(String name, int level) throws IOException {
+    ensureOpen();
+    if (this.currentEntry != null) {
+      closeEntry();
+    }
+    EntryInfo entry = new EntryInfo(name, System.currentTimeMillis());
+    entry.method = ZipEntry.DEFLATED;
+    entry.flags |= DATA_DESCRIPTOR_FLAG;
+    this.currentDeflater = new Deflater(level, true);
+    startEntry(entry);
+  }
+
+  /**
+   * Starts a new entry which data will be stored without compression.
+   * The <code>size</code> and <code>crc</code> of the data that will be written must be known.
+   */
+  public void putNextStoredEntry(String name, long size, long crc) throws IOException {
+    ensureOpen();
+    if (this.currentEntry != null) {
+      closeEntry();
+    }
+    EntryInfo entry = new EntryInfo(name, System.currentTimeMillis());
+    entry.method = ZipEntry.STORED;
+    entry.size = size;
+    entry.compressedSize = size;
+    entry.crc = crc;
+    startEntry(entry);
+  }
+
+  private void startEntry(EntryInfo entry) throws IOException {
+    this.currentCrc = new CRC32();
+    this.currentSize = 0;
+    writeLocalHeader(entry);
+    this.currentEntry = entry;
+  }
+
+  /**
+   * Writes an entry which data is read from <code>rawIn</code> as is,
+   * with the given compression <code>method</code>, CRC and sizes.
+   */
+  public void writeRawEntry(String name, int method, long dosTime, long crc,
+                            long compressedSize, long size, InputStream rawIn) throws IOException {
+    ensureOpen();
+    if (this.currentEntry != null) {
+      closeEntry();
+    }
+    if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+      throw new ZipException("Unsupported compression method " + method);
+    }
+    EntryInfo entry = new EntryInfo(name, 0);
+    entry.dosTime = dosTime;
+    entry.method = method;
+    entry.crc = crc;
+    entry.compressedSize = compressedSize;
+    entry.size = size;
+    writeLocalHeader(entry);
+    byte [] buffer = new byte [8192];
+    long copied = 0;
+    for (int length; copied < compressedSize
+                     && (length = rawIn.read(buffer, 0, (int)Math.min(buffer.length, compressedSize - copied))) != -1; ) {
+      this.out.write(buffer, 0, length);
+      copied += length;
+    }
+    this.written += copied;
+    if (copied != compressedSize) {
+      throw new ZipException("Unexpected end of raw data for entry " + name);
+    }
+    this.writtenEntries.add(entry);
+  }
+
+  /**
+   * Writes the given entry of a ZIP file index without uncompressing it.
+   */
+  public void copyEntry(String name, ZipArchiveIndex index, ZipArchiveIndex.Entry entry) throws IOException {
+    if (entry.isEncrypted()) {
+      throw new ZipException("Can't copy encrypted entry " + entry.getName());
+    }
+    InputStream rawIn = index.openRawStream(entry);
+    try {
+      writeRawEntry(name, entry.getMethod(), entry.getDosTime(), entry.getCrc(),
+          entry.getCompressedSize(), entry.getSize(), rawIn);
+    } finally {
+      rawIn.close();
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    this.singleByte [0] = (byte)b;
+    write(this.singleByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte [] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (this.currentEntry == null) {
+      throw new ZipException("No current ZIP entry");
+    }
+    if (len == 0) {
+      return;
+    }
+    this.currentCrc.update(b, off, len);
+    this.currentSize += len;
+    if (this.currentDeflater != null) {
+      this.currentDeflater.setInput(b, off, len);
+      while (!this.currentDeflater.needsInput()) {
+        deflate();
+      }
+    } else {
+      this.out.write(b, off, len);
+      this.written += len;
+    }
+  }
+
+  private void deflate() throws IOException {
+    int length = this.currentDeflater.deflate(this.deflaterBuffer, 0, this.deflaterBuffer.length);
+    if (length > 0) {
+      this.out.write(this.deflaterBuffer, 0, length);
+      this.written += length;
+    }
+  }
+
+  /**
+   * Closes the current entry.
+   */
+  public void closeEntry() throws IOException {
+    ensureOpen();
+    EntryInfo entry = this.currentEntry;
+    if (entry != null) {
+      this.currentEntry = null;
+      if (this.currentDeflater != null) {
+        this.currentDeflater.finish();
+        while (!this.currentDeflater.finished()) {
+          deflate();
+        }
+        entry.size = this.currentSize;
+        entry.compressedSize = this.currentDeflater.getBytesWritten();
+        this.currentDeflater.end();
+        this.currentDeflater = null;
+        entry.crc = this.currentCrc.getValue();
+        writeDataDescriptor(entry);
+      } else if (entry.size != this.currentSize
+                 || entry.crc != this.currentCrc.getValue()) {
+        throw new ZipException("Invalid size or CRC for stored entry " + entry.name);
+      }
+      this.writtenEntries.add(entry);
+    }
+  }
+
+  /**
+   * Writes the central directory once all entries were written.
+   */
+  public void finish() throws IOException {
+    ensureOpen();
+    if (this.currentEntry != null) {
+      closeEntry();
+    }
+    long directoryOffset = this.written;
+    for (EntryInfo entry : this.writtenEntries) {
+      long centralHeaderOffset = this.written;
+      writeCentralHeader(entry);
+      entry.centralHeaderLength = this.written - centralHeaderOffset;
+    }
+    this.directoryOffset = directoryOffset;
+    long directoryLength = this.written - directoryOffset;
+    int entryCount = this.writtenEntries.size();
+    if (entryCount >= 0xFFFF
+        || directoryOffset >= ZIP64_MAGIC_VALUE
+        || directoryLength >= ZIP64_MAGIC_VALUE) {
+      long zip64EndOffset = this.written;
+      writeInt(ZIP64_END_SIGNATURE);
+      writeLong(44);
+      writeShort(45);
+      writeShort(45);
+      writeInt(0);
+      writeInt(0);
+      writeLong(entryCount);
+      writeLong(entryCount);
+      writeLong(directoryLength);
+      writeLong(directoryOffset);
+      writeInt(ZIP64_END_LOCATOR_SIGNATURE);
+      writeInt(0);
+      writeLong(zip64EndOffset);
+      writeInt(1);
+    }
+    writeInt(END_SIGNATURE);
+    writeShort(0);
+    writeShort(0);
+    writeShort(Math.min(entryCount, 0xFFFF));
+    writeShort(Math.min(entryCount, 0xFFFF));
+    writeInt(Math.min(directoryLength, ZIP64_MAGIC_VALUE));
+    writeInt(Math.min(directoryOffset, ZIP64_MAGIC_VALUE));
+    writeShort(0);
+    this.out.flush();
+    this.finished = true;
+  }
+
+  /**
+   * Returns the count of bytes used by each entry in the written archive, its local
+   * and central headers included, once this stream is finished.
+   */
+  public Map<String, Long> getWrittenEntryLengths() {
+    if (!this.finished) {
+      throw new IllegalStateException("ZIP stream not finished");
+    }
+    Map<String, Long> entryLengths = new LinkedHashMap<String, Long>();
+    for (int i = 0, n = this.writtenEntries.size(); i < n; i++) {
+      EntryInfo entry = this.writtenEntries.get(i);
+      long entryEnd = i < n - 1
+          ? this.writtenEntries.get(i + 1).localHeaderOffset
+          : this.directoryOffset;
+      entryLengths.put(entry.name, entryEnd - entry.localHeaderOffset + entry.centralHeaderLength);
+    }
+    return entryLengths;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!this.finished) {
+      finish();
+    }
+    this.out.close();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (this.finished) {
+      throw new ZipException("ZIP stream already finished");
+    }
+  }
+
+  private void writeLocalHeader(EntryInfo entry) throws IOException {
+    if (!this.writtenNames.add(entry.name)) {
+      throw new ZipException("Duplicate entry " + entry.name);
+    }
+    entry.localHeaderOffset = this.written;
+    boolean knownSizes = (entry.flags & DATA_DESCRIPTOR_FLAG) == 0;
+    boolean zip64 = knownSizes
+        && (entry.size >= ZIP64_MAGIC_VALUE || entry.compressedSize >= ZIP64_MAGIC_VALUE);
+    writeInt(LOCAL_HEADER_SIGNATURE);
+    writeShort(zip64 ? 45 : (entry.method == ZipEntry.STORED ? 10 : 20));
+    writeShort(entry.flags);
+    writeShort(entry.method);
+    writeInt(entry.dosTime);
+    if (knownSizes) {
+      writeInt(entry.crc);
+      writeInt(zip64 ? ZIP64_MAGIC_VALUE : entry.compressedSize);
+      writeInt(zip64 ? ZIP64_MAGIC_VALUE : entry.size);
+    } else {
+      writeInt(0);
+      writeInt(0);
+      writeInt(0);
+    }
+    writeShort(entry.nameBytes.length);
+    writeShort(zip64 ? 20 : 0);
+    writeBytes(entry.nameBytes);
+    if (zip64) {
+      writeShort(ZIP64_EXTRA_FIELD_ID);
+      writeShort(16);
+      writeLong(entry.size);
+      writeLong(entry.compressedSize);
+    }
+  }
+
+  private void writeDataDescriptor(EntryInfo entry) throws IOException {
+    writeInt(DATA_DESCRIPTOR_SIGNATURE);
+    writeInt(entry.crc);
+    if (entry.size >= ZIP64_MAGIC_VALUE || entry.compressedSize >= ZIP64_MAGIC_VALUE) {
+      writeLong(entry.compressedSize);
+      writeLong(entry.size);
+    } else {
+      writeInt(entry.compressedSize);
+      writeInt(entry.size);
+    }
+  }
+
+  private void writeCentralHeader(EntryInfo entry) throws IOException {
+    ByteArrayOutputStream zip64Extra = new ByteArrayOutputStream();
+    if (entry.size >= ZIP64_MAGIC_VALUE) {
+      writeLong(zip64Extra, entry.size);
+    }
+    if (entry.compressedSize >= ZIP64_MAGIC_VALUE) {
+      writeLong(zip64Extra, entry.compressedSize);
+    }
+    if (entry.localHeaderOffset >= ZIP64_MAGIC_VALUE) {
+      writeLong(zip64Extra, entry.localHeaderOffset);
+    }
+    boolean zip64 = zip64Extra.size() > 0;
+    int version = zip64 ? 45 : (entry.method == ZipEntry.STORED ? 10 : 20);
+    writeInt(CENTRAL_HEADER_SIGNATURE);
+    writeShort(version);
+    writeShort(version);
+    writeShort(entry.flags);
+    writeShort(entry.method);
+    writeInt(entry.dosTime);
+    writeInt(entry.crc);
+    writeInt(Math.min(entry.compressedSize, ZIP64_MAGIC_VALUE));
+    writeInt(Math.min(entry.size, ZIP64_MAGIC_VALUE));
+    writeShort(entry.nameBytes.length);
+    writeShort(zip64 ? zip64Extra.size() + 4 : 0);
+    writeShort(0);
+    writeShort(0);
+    writeShort(0);
+    writeInt(0);
+    writeInt(Math.min(entry.localHeaderOffset, ZIP64_MAGIC_VALUE));
+    writeBytes(entry.nameBytes);
+    if (zip64) {
+      writeShort(ZIP64_EXTRA_FIELD_ID);
+      writeShort(zip64Extra.size());
+      writeBytes(zip64Extra.toByteArray());
+    }
+  }
+
+  private void writeShort(int value) throws IOException {
+    this.out.write(value & 0xFF);
+    this.out.write((value >>> 8) & 0xFF);
+    this.written += 2;
+  }
+
+  private void writeInt(long value) throws IOException {
+    writeShort((int)(value & 0xFFFF));
+    writeShort((int)((value >>> 16) & 0xFFFF));
+  }
+
+  private void writeLong(long value) throws IOException {
+    writeInt(value & 0xFFFFFFFFL);
+    writeInt(value >>> 32);
+  }
+
+  private void writeBytes(byte [] bytes) throws IOException {
+    this.out.write(bytes);
+    this.written += bytes.length;
+  }
+
+  private static void writeLong(OutputStream out, long value) throws IOException {
+    for (int i = 0; i < 8; i++) {
+      out.write((int)(value >>> (i * 8)) & 0xFF);
+    }
+  }
+
+  /**
+   * Returns the MS-DOS date and time matching the given <code>time</code>.
+   */
+  static long toDosTime(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return ((year - 1980) << 25
+        | (calendar.get(Calendar.MONTH) + 1) << 21
+        | calendar.get(Calendar.DAY_OF_MONTH) << 16
+        | calendar.get(Calendar.HOUR_OF_DAY) << 11
+        | calendar.get(Calendar.MINUTE) << 5
+        | calendar.get(Calendar.SECOND) >> 1) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Information stored for each written entry and reused in the central directory.
+   */
+  private static class EntryInfo {
+    private final String name;
+    private final byte[] nameBytes;
+    private int          flags;
+    private int          method;
+    private long         dosTime;
+    private long         crc;
+    private long         compressedSize;
+    private long         size;
+    private long         localHeaderOffset;
+    private long         centralHeaderLength;
+
+    public EntryInfo(String name, long time) throws IOException {
+      this.name = name;
+      this.nameBytes = name.getBytes("UTF-8");
+      for (byte b : this.nameBytes) {
+        if (b < 0) {
+          this.flags |= UTF8_FLAG;
+          break;
+        }
+      }
+      this.dosTime = toDosTime(time);
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package com.eteks.homeview3d.model;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prefix tree of auto completion strings able to find quickly the best completion of a text.
+ * Strings are stored under their characters folded to lower case without accents, and ranked
+ * by a weight incremented at each use and halved every 20 uses of other strings. Each node keeps
+ * the best ranked string stored under it, and once the maximum size is reached, the lowest ranked
+ * string is removed to give room to a new string.
+ */
+public class AutoCompletionTrie {
+  public static final int     DEFAULT_MAXIMUM_SIZE = 1000;
+  // Count of uses after which the weight of a string is halved
+  private static final float  USE_HALF_LIFE        = 20;
+
+  private final int                maximumSize;
+  private final Collator           collator;
+  private final Node               root;
+  private final Map<String, Entry> entries;
+  private long                     useCount;
+
+  public AutoCompletionTrie() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  public AutoCompletionTrie(int maximumSize) {
+    this.maximumSize = maximumSize;
+    this.collator = Collator.getInstance();
+    this.collator.setStrength(Collator.TERTIARY);
+    this.root = new Node(null);
+    this.entries = new HashMap<String, Entry>();
+  }
+
+  /**
+   * Creates a trie containing the given strings, the first ones being ranked first.
+   */
+  public AutoCompletionTrie(List<String> strings) {
+    this();
+    for (int i = strings.size() - 1; i >= 0; i--) {
+      add(strings.get(i));
+    }
+  }
+
+  /**
+   * Records a use of the given <code>string</code>, adding it to this trie if necessary.
+   */
+  public synchronized void add(String string) {
+    this.useCount++;
+    Entry entry = this.entries.get(string);
+    if (entry == null) {
+      add(string, 1, this.useCount);
+    } else {
+      entry.weight = getCurrentWeight(entry) + 1;
+      entry.lastUse = this.useCount;
+      entry.updateRank();
+      updateBestEntry(entry);
+    }
+  }
+
+  /**
+   * Adds the given <code>string</code> to this trie with the weight it had at its last use.
+   * This method is used to restore a trie with the values returned by
+   * {@link #getWeight(String) getWeight} and {@link #getLastUse(String) getLastUse}.
+   */
+  public synchronized void add(String string, float weight, long lastUse) {
+    Entry entry = this.entries.get(string);
+    if (entry != null) {
+      remove(entry);
+    }
+    this.useCount = Math.max(this.useCount, lastUse);
+    Node node = this.root;
+    for (int i = 0; i < string.length(); i++) {
+      char c = fold(string.charAt(i));
+      Node child = node.children != null
+          ? node.children.get(c)
+          : null;
+      if (child == null) {
+        if (node.children == null) {
+          node.children = new HashMap<Character, Node>(4);
+        }
+        child = new Node(node);
+        node.children.put(c, child);
+      }
+      node = child;
+    }
+    entry = new Entry(string, weight, lastUse, node);
+    if (node.entries == null) {
+      node.entries = new ArrayList<Entry>(1);
+    }
+    node.entries.add(entry);
+    this.entries.put(string, entry);
+    updateBestEntry(entry);
+
+    if (this.entries.size() > this.maximumSize) {
+      Entry lowestEntry = null;
+      for (Entry otherEntry : this.entries.values()) {
+        if (otherEntry != entry
+            && (lowestEntry == null || compare(otherEntry, lowestEntry) > 0)) {
+          lowestEntry = otherEntry;
+        }
+      }
+      remove(lowestEntry);
+    }
+  }
+
+  /**
+   * Updates the best entry of the nodes from the node of the given <code>entry</code>
+   * to the root, once its rank increased.
+   */
+  private void updateBestEntry(Entry entry) {
+    for (Node node = entry.node; node != null; node = node.parent) {
+      if (node.bestEntry == entry
+          || node.bestEntry == null
+          || compare(entry, node.bestEntry) < 0) {
+        node.bestEntry = entry;
+      } else {
+        // Parent nodes contain a better entry too
+        break;
+      }
+    }
+  }
+
+  private void remove(Entry entry) {
+    this.entries.remove(entry.string);
+    Node node = entry.node;
+    node.entries.remove(entry);
+    for ( ; node != null; node = node.parent) {
+      node.bestEntry = null;
+      if (node.entries != null) {
+        for (Entry nodeEntry : node.entries) {
+          if (node.bestEntry == null
+              || compare(nodeEntry, node.bestEntry) < 0) {
+            node.bestEntry = nodeEntry;
+          }
+        }
+      }
+      if (node.children != null) {
+        for (Iterator<Node> it = node.children.values().iterator(); it.hasNext(); ) {
+          Node child = it.next();
+          if (child.bestEntry == null) {
+            // Remove empty nodes
+            it.remove();
+          } else if (node.bestEntry == null
+                     || compare(child.bestEntry, node.bestEntry) < 0) {
+            node.bestEntry = child.bestEntry;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the best ranked string starting with the given <code>prefix</code>,
+   * ignoring case and accents, or <code>null</code> if no string matches.
+   */
+  public synchronized String getCompletion(String prefix) {
+    Node node = this.root;
+    for (int i = 0; i < prefix.length() && node != null; i++) {
+      node = node.children != null
+          ? node.children.get(fold(prefix.charAt(i)))
+          : null;
+    }
+    return node != null && node.bestEntry != null
+        ? node.bestEntry.string
+        : null;
+  }
+
+  /**
+   * Returns the strings of this trie sorted from the best ranked one.
+   */
+  public synchronized List<String> getStrings() {
+    List<Entry> sortedEntries = new ArrayList<Entry>(this.entries.values());
+    Collections.sort(sortedEntries, new Comparator<Entry>() {
+        public int compare(Entry entry1, Entry entry2) {
+          return AutoCompletionTrie.this.compare(entry1, entry2);
+        }
+      });
+    List<String> strings = new ArrayList<String>(sortedEntries.size());
+    for (Entry entry : sortedEntries) {
+      strings.add(entry.string);
+    }
+    return strings;
+  }
+
+  /**
+   * Returns the weight of the given <code>string</code> at its last use, or 0 if it doesn't exist.
+   */
+  public synchronized float getWeight(String string) {
+    Entry entry = this.entries.get(string);
+    return entry != null ? entry.weight : 0;
+  }
+
+  /**
+   * Returns the use count of this trie at the last use of the given <code>string</code>,
+   * or 0 if it doesn't exist.
+   */
+  public synchronized long getLastUse(String string) {
+    Entry entry = this.entries.get(string);
+    return entry != null ? entry.lastUse : 0;
+  }
+
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Returns the current weight of an entry.
+   */
+  private float getCurrentWeight(Entry entry) {
+    return entry.weight * (float)Math.pow(2, (entry.lastUse - this.useCount) / USE_HALF_LIFE);
+  }
+
+  /**
+   * Compares the rank of two entries, best entries first. As the weights of all entries decrease
+   * at the same pace, their order is given by their logarithmic weight at their last use
+   * shifted by that use, which doesn't depend on the current use count.
+   */
+  private int compare(Entry entry1, Entry entry2) {
+    int rankComparison = Double.compare(entry2.rank, entry1.rank);
+    if (rankComparison != 0) {
+      return rankComparison;
+    } else {
+      return this.collator.compare(entry1.string, entry2.string);
+    }
+  }
+
+  /**
+   * Returns the given character in lower case and without accent.
+   */
+  private static char fold(char c) {
+    if (c >= 0x80) {
+      String decomposition = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+      if (decomposition.length() > 1) {
+        // Keep only base character of accented letters
+        boolean diacriticalMarks = true;
+        for (int i = 1; i < decomposition.length(); i++) {
+          diacriticalMarks &= Character.UnicodeBlock.of(decomposition.charAt(i)) == Character.UnicodeBlock.COMBINING_DIACRITICAL_MARKS;
+        }
+        if (diacriticalMarks) {
+          c = decomposition.charAt(0);
+        }
+      }
+    }
+    return Character.toLowerCase(c);
+  }
+
+  /**
+   * A node of the trie with the strings ending at this node and the best string stored under it.
+   */
+  private static class Node {
+    private final Node           parent;
+    private Map<Character, Node> children;
+    private List<Entry>          entries;
+    private Entry                bestEntry;
+
+    public Node(Node parent) {
+      this.parent = parent;
+    }
+  }
+
+  /**
+   * A string of the trie with its weight at its last use.
+   */
+  private static class Entry {
+    private final String string;
+    private final Node   node;
+    private float        weight;
+    private long         lastUse;
+    private double       rank;
+
+    public Entry(String string, float weight, long lastUse, Node node) {
+      this.string = string;
+      this.node = node;
+      this.weight = weight;
+      this.lastUse = lastUse;
+      updateRank();
+    }
+
+    private void updateRank() {
+      this.rank = Math.log(this.weight) / Math.log(2) + this.lastUse / USE_HALF_LIFE;
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package com.eteks.homeview3d.model;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * An index of catalog items able to find quickly the ones that match a filter.
+ * Each item is listed in the posting lists of the collation elements and of the pairs of
+ * consecutive collation elements of its filter collation key. The items matching a filter
+ * are found by intersecting the posting lists of its criteria, then checking the remaining items
+ * for criteria longer than two elements. Matching items are returned in the order of the comparator
+ * of this index.
+ */
+class CatalogItemFilterIndex<T> {
+  private static final byte [][]              EMPTY_CRITERIA = new byte [0][];
+  // Count of bytes ending a collation key
+  private static final int                    KEY_END_LENGTH = 4;
+
+  private static final Collator               COMPARATOR;
+  private static final Map<String, byte [][]> recentFilters;
+
+  static {
+    COMPARATOR = Collator.getInstance();
+    COMPARATOR.setStrength(Collator.PRIMARY);
+    recentFilters = new WeakHashMap<String, byte[][]>();
+  }
+
+  private final Comparator<IndexedItem<T>>        itemComparator;
+  private final Map<T, IndexedItem<T>>            indexedItems;
+  private final List<IndexedItem<T>>              sortedItems;
+  private final Map<Long, List<IndexedItem<T>>>   postingLists;
+  private int                                     nextItemId;
+  private boolean                                 ranksValid;
+
+  public CatalogItemFilterIndex(final Comparator<? super T> comparator) {
+    this.itemComparator = new Comparator<IndexedItem<T>>() {
+        public int compare(IndexedItem<T> item1, IndexedItem<T> item2) {
+          return comparator.compare(item1.item, item2.item);
+        }
+      };
+    this.indexedItems = new IdentityHashMap<T, IndexedItem<T>>();
+    this.sortedItems = new ArrayList<IndexedItem<T>>();
+    this.postingLists = new HashMap<Long, List<IndexedItem<T>>>();
+  }
+
+  /**
+   * Adds the given <code>item</code> to this index with its filter collation key.
+   */
+  public synchronized void add(T item, byte [] filterCollationKey) {
+    if (this.indexedItems.containsKey(item)) {
+      delete(item);
+    }
+    IndexedItem<T> indexedItem = new IndexedItem<T>(item, filterCollationKey, this.nextItemId++);
+    this.indexedItems.put(item, indexedItem);
+    int index = Collections.binarySearch(this.sortedItems, indexedItem, this.itemComparator);
+    this.sortedItems.add(index < 0 ? -index - 1 : index, indexedItem);
+    this.ranksValid = false;
+    // As item ids are increasing, posting lists stay sorted by id
+    for (Long gram : getItemGrams(filterCollationKey)) {
+      List<IndexedItem<T>> postingList = this.postingLists.get(gram);
+      if (postingList == null) {
+        postingList = new ArrayList<IndexedItem<T>>(4);
+        this.postingLists.put(gram, postingList);
+      }
+      postingList.add(indexedItem);
+    }
+  }
+
+  /**
+   * Removes the given <code>item</code> from this index.
+   */
+  public synchronized void delete(T item) {
+    IndexedItem<T> indexedItem = this.indexedItems.remove(item);
+    if (indexedItem != null) {
+      this.sortedItems.remove(indexedItem);
+      this.ranksValid = false;
+      for (Long gram : getItemGrams(indexedItem.filterCollationKey)) {
+        List<IndexedItem<T>> postingList = this.postingLists.get(gram);
+        int index = indexOf(postingList, indexedItem.id);
+        if (index >= 0) {
+          postingList.remove(index);
+          if (postingList.isEmpty()) {
+            this.postingLists.remove(gram);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the items of this index matching the given <code>filter</code>, sorted in the order
+   * of the comparator of this index.
+   */
+  public synchronized List<T> getItems(String filter) {
+    byte [][] filterCriteriaCollationKeys = getFilterCollationKeys(filter);
+    List<IndexedItem<T>> candidates;
+    if (filterCriteriaCollationKeys.length == 0) {
+      candidates = this.sortedItems;
+    } else {
+      List<List<IndexedItem<T>>> criteriaPostingLists = new ArrayList<List<IndexedItem<T>>>();
+      for (byte [] criterionCollationKey : filterCriteriaCollationKeys) {
+        for (Long gram : getCriterionGrams(criterionCollationKey)) {
+          List<IndexedItem<T>> postingList = this.postingLists.get(gram);
+          if (postingList == null) {
+            return new ArrayList<T>();
+          }
+          criteriaPostingLists.add(postingList);
+        }
+      }
+      if (criteriaPostingLists.isEmpty()) {
+        candidates = this.sortedItems;
+      } else {
+        // Intersect posting lists from the smallest one
+        Collections.sort(criteriaPostingLists, new Comparator<List<IndexedItem<T>>>() {
+            public int compare(List<IndexedItem<T>> list1, List<IndexedItem<T>> list2) {
+              return list1.size() - list2.size();
+            }
+          });
+        candidates = criteriaPostingLists.get(0);
+        for (int i = 1; i < criteriaPostingLists.size() && !candidates.isEmpty(); i++) {
+          candidates = intersect(candidates, criteriaPostingLists.get(i));
+        }
+        // Sort candidates along their rank
+        updateRanks();
+        candidates = new ArrayList<IndexedItem<T>>(candidates);
+        Collections.sort(candidates, new Comparator<IndexedItem<T>>() {
+            public int compare(IndexedItem<T> item1, IndexedItem<T> item2) {
+              return item1.rank - item2.rank;
+            }
+          });
+      }
+    }
+
+    List<T> items = new ArrayList<T>(candidates.size());
+    for (IndexedItem<T> candidate : candidates) {
+      if (matchesFilter(candidate.filterCollationKey, filterCriteriaCollationKeys)) {
+        items.add(candidate.item);
+      }
+    }
+    return items;
+  }
+
+  private void updateRanks() {
+    if (!this.ranksValid) {
+      for (int i = 0; i < this.sortedItems.size(); i++) {
+        this.sortedItems.get(i).rank = i;
+      }
+      this.ranksValid = true;
+    }
+  }
+
+  /**
+   * Returns the items listed in both posting lists sorted by id.
+   */
+  private List<IndexedItem<T>> intersect(List<IndexedItem<T>> list1, List<IndexedItem<T>> list2) {
+    List<IndexedItem<T>> intersection = new ArrayList<IndexedItem<T>>(Math.min(list1.size(), list2.size()));
+    for (int i = 0, j = 0, n = list1.size(), m = list2.size(); i < n && j < m; ) {
+      int id1 = list1.get(i).id;
+      int id2 = list2.get(j).id;
+      if (id1 == id2) {
+        intersection.add(list1.get(i));
+        i++;
+        j++;
+      } else if (id1 < id2) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return intersection;
+  }
+
+  /**
+   * Returns the index of the item with the given <code>id</code> in a posting list sorted by id.
+   */
+  private int indexOf(List<IndexedItem<T>> postingList, int id) {
+    if (postingList != null) {
+      int low = 0;
+      int high = postingList.size() - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int middleId = postingList.get(middle).id;
+        if (middleId < id) {
+          low = middle + 1;
+        } else if (middleId > id) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the grams under which an item with the given collation key is listed,
+   * i.e. its single collation elements and the pairs of its consecutive elements.
+   */
+  private static Set<Long> getItemGrams(byte [] collationKey) {
+    Set<Long> grams = new HashSet<Long>();
+    for (int i = 0, n = getElementCount(collationKey); i < n; i++) {
+      grams.add(getGram(collationKey, i));
+      if (i > 0) {
+        grams.add(getGram(collationKey, i - 1, i));
+      }
+    }
+    return grams;
+  }
+
+  /**
+   * Returns the grams of the posting lists to intersect to find a criterion, i.e. its single
+   * collation element or the pairs of its consecutive elements.
+   */
+  private static Set<Long> getCriterionGrams(byte [] collationKey) {
+    Set<Long> grams = new HashSet<Long>();
+    int elementCount = getElementCount(collationKey);
+    if (elementCount == 1) {
+      grams.add(getGram(collationKey, 0));
+    } else {
+      for (int i = 1; i < elementCount; i++) {
+        grams.add(getGram(collationKey, i - 1, i));
+      }
+    }
+    return grams;
+  }
+
+  private static int getElementCount(byte [] collationKey) {
+    return (collationKey.length - KEY_END_LENGTH) / 2;
+  }
+
+  private static int getElement(byte [] collationKey, int index) {
+    return ((collationKey [2 * index] & 0xFF) << 8) | (collationKey [2 * index + 1] & 0xFF);
+  }
+
+  private static long getGram(byte [] collationKey, int index) {
+    return 0x100000000L | getElement(collationKey, index);
+  }
+
+  private static long getGram(byte [] collationKey, int index1, int index2) {
+    return ((long)getElement(collationKey, index1) << 16) | getElement(collationKey, index2);
+  }
+
+  /**
+   * Returns the collation keys of the criteria of the given <code>filter</code>.
+   */
+  static byte [][] getFilterCollationKeys(String filter) {
+    if (filter.length() == 0) {
+      return EMPTY_CRITERIA;
+    }
+    synchronized (recentFilters) {
+      byte [][] filterCollationKeys = recentFilters.get(filter);
+      if (filterCollationKeys == null) {
+        String [] filterCriteria = filter.split("\\s|\\p{Punct}|\\|");
+        List<byte []> filterCriteriaCollationKeys = new ArrayList<byte []>(filterCriteria.length);
+        for (String criterion : filterCriteria) {
+          if (criterion.length() > 0) {
+            filterCriteriaCollationKeys.add(COMPARATOR.getCollationKey(criterion).toByteArray());
+          }
+        }
+        if (filterCriteriaCollationKeys.size() == 0) {
+          filterCollationKeys = EMPTY_CRITERIA;
+        } else {
+          filterCollationKeys = filterCriteriaCollationKeys.toArray(new byte [filterCriteriaCollationKeys.size()][]);
+        }
+        recentFilters.put(filter, filterCollationKeys);
+      }
+      return filterCollationKeys;
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the given collation key contains the collation keys of all the criteria of a filter.
+   */
+  static boolean matchesFilter(byte [] collationKey, byte [][] filterCriteriaCollationKeys) {
+    for (byte [] criterionCollationKey : filterCriteriaCollationKeys) {
+      if (!isSubCollationKey(collationKey, criterionCollationKey)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns <code>true</code> if the collation elements of <code>filterCollationKey</code>
+   * are found in the elements of <code>collationKey</code>.
+   */
+  private static boolean isSubCollationKey(byte [] collationKey, byte [] filterCollationKey) {
+    int n = collationKey.length - KEY_END_LENGTH;
+    int m = filterCollationKey.length - KEY_END_LENGTH;
+    for (int i = 0; i <= n - m; i += 2) {
+      int j = 0;
+      while (j < m && collationKey [i + j] == filterCollationKey [j]) {
+        j++;
+      }
+      if (j == m) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * An item stored in this index with its key, its unique id and its rank in sorted items.
+   */
+  private static class IndexedItem<T> {
+    private final T       item;
+    private final byte [] filterCollationKey;
+    private final int     id;
+    private int           rank;
+
+    public IndexedItem(T item, byte [] filterCollationKey, int id) {
+      this.item = item;
+      this.filterCollationKey = filterCollationKey;
+      this.id = id;
+    }
+  }
+}
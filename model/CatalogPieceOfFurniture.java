@@ -2,17 +2,12 @@ package com.eteks.homeview3d.model;
 
 import java.math.BigDecimal;
 import java.text.Collator;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 /**
  *  īŻα
  */
 public class CatalogPieceOfFurniture implements Comparable<CatalogPieceOfFurniture>, PieceOfFurniture, CatalogItem {
   private static final float [][] INDENTITY_ROTATION = new float [][] {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
-  private static final byte [][]  EMPTY_CRITERIA     = new byte [0][];
 
   private final String            id;
   private final String            name;
@@ -49,13 +44,11 @@ public class CatalogPieceOfFurniture implements Comparable<CatalogPieceOfFurnitu
   private FurnitureCategory       category;
   private byte []                 filterCollationKey;
 
-  private static final Collator               COMPARATOR;
-  private static final Map<String, byte [][]> recentFilters;
+  private static final Collator   COMPARATOR;
   
   static {
     COMPARATOR = Collator.getInstance();
     COMPARATOR.setStrength(Collator.PRIMARY); 
-    recentFilters = new WeakHashMap<String, byte[][]>();
   }
 
   /**
@@ -391,45 +384,14 @@ public class CatalogPieceOfFurniture implements Comparable<CatalogPieceOfFurnitu
   }
   
   public boolean matchesFilter(String filter) {
-    byte [][] filterCriteriaCollationKeys = getFilterCollationKeys(filter);
-    int checkedCriteria = 0;
-    if (filterCriteriaCollationKeys.length > 0) {
-      byte [] furnitureCollationKey = getPieceOfFurnitureCollationKey();
-      for (int i = 0; i < filterCriteriaCollationKeys.length; i++) {
-        if (isSubCollationKey(furnitureCollationKey, filterCriteriaCollationKeys [i], 0)) {
-          checkedCriteria++;
-        } else {
-          break;
-        }
-      }
-    }
-    return checkedCriteria == filterCriteriaCollationKeys.length;
-  }
-
-  private byte [][] getFilterCollationKeys(String filter) {
-    if (filter.length() == 0) {
-      return EMPTY_CRITERIA;
-    }
-    byte [][] filterCollationKeys = recentFilters.get(filter);
-    if (filterCollationKeys == null) { 
-      String [] filterCriteria = filter.split("\\s|\\p{Punct}|\\|");
-      List<byte []> filterCriteriaCollationKeys = new ArrayList<byte []>(filterCriteria.length);
-      for (String criterion : filterCriteria) {
-        if (criterion.length() > 0) {
-          filterCriteriaCollationKeys.add(COMPARATOR.getCollationKey(criterion).toByteArray());
-        }
-      }
-      if (filterCriteriaCollationKeys.size() == 0) {
-        filterCollationKeys = EMPTY_CRITERIA;
-      } else {
-        filterCollationKeys = filterCriteriaCollationKeys.toArray(new byte [filterCriteriaCollationKeys.size()][]);
-      }
-      recentFilters.put(filter, filterCollationKeys);
-    }
-    return filterCollationKeys;
+    return CatalogItemFilterIndex.matchesFilter(getFilterCollationKey(), 
+        CatalogItemFilterIndex.getFilterCollationKeys(filter));
   }
 
-  private byte [] getPieceOfFurnitureCollationKey() {
+  /**
+   * Returns the collation key of the texts searched by filters.
+   */
+  byte [] getFilterCollationKey() {
     if (this.filterCollationKey == null) {
       StringBuilder search = new StringBuilder();
       search.append(getName());
@@ -455,18 +417,4 @@ public class CatalogPieceOfFurniture implements Comparable<CatalogPieceOfFurnitu
     }
     return this.filterCollationKey;
   }
-
-  private boolean isSubCollationKey(byte [] collationKey, byte [] filterCollationKey, int start) {
-    for (int i = start, n = collationKey.length - 4, m = filterCollationKey.length - 4; i < n && i < n - m + 1; i++) {
-      if (collationKey [i] == filterCollationKey [0]) {
-        for (int j = 1; j < m; j++) {
-          if (collationKey [i + j] != filterCollationKey [j]) {
-            return isSubCollationKey(collationKey, filterCollationKey, i + 1);
-          }
-        }
-        return true;
-      }
-    }
-    return false;
-  }
 }
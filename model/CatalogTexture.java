@@ -1,14 +1,9 @@
 package com.eteks.homeview3d.model;
 
 import java.text.Collator;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
 
 public class CatalogTexture implements TextureImage, CatalogItem, Comparable<CatalogTexture> {
   private static final long serialVersionUID = 1L;
-  private static final byte [][]  EMPTY_CRITERIA     = new byte [0][];
  
   private final String          id;
   private final String          name;
@@ -22,12 +17,10 @@ public class CatalogTexture implements TextureImage, CatalogItem, Comparable<Cat
   private byte []               filterCollationKey;
   
   private static final Collator COMPARATOR;
-  private static final Map<String, byte [][]> recentFilters;
   
   static {
     COMPARATOR = Collator.getInstance();
     COMPARATOR.setStrength(Collator.PRIMARY); 
-    recentFilters = new WeakHashMap<String, byte[][]>();
   }
 
   public CatalogTexture(String name, Content image, float width, float height) {
@@ -121,45 +114,14 @@ public class CatalogTexture implements TextureImage, CatalogItem, Comparable<Cat
   }
 
   public boolean matchesFilter(String filter) {
-    byte [][] filterCriteriaCollationKeys = getFilterCollationKeys(filter);
-    int checkedCriteria = 0;
-    if (filterCriteriaCollationKeys.length > 0) {
-      byte [] furnitureCollationKey = getTextureCollationKey();
-      for (int i = 0; i < filterCriteriaCollationKeys.length; i++) {
-        if (isSubCollationKey(furnitureCollationKey, filterCriteriaCollationKeys [i], 0)) {
-          checkedCriteria++;
-        } else {
-          break;
-        }
-      }
-    }
-    return checkedCriteria == filterCriteriaCollationKeys.length;
-  }
-
-  private byte [][] getFilterCollationKeys(String filter) {
-    if (filter.length() == 0) {
-      return EMPTY_CRITERIA;
-    }
-    byte [][] filterCollationKeys = recentFilters.get(filter);
-    if (filterCollationKeys == null) {
-      String [] filterCriteria = filter.split("\\s|\\p{Punct}|\\|");
-      List<byte []> filterCriteriaCollationKeys = new ArrayList<byte []>(filterCriteria.length);
-      for (String criterion : filterCriteria) {
-        if (criterion.length() > 0) {
-          filterCriteriaCollationKeys.add(COMPARATOR.getCollationKey(criterion).toByteArray());
-        }
-      }
-      if (filterCriteriaCollationKeys.size() == 0) {
-        filterCollationKeys = EMPTY_CRITERIA;
-      } else {
-        filterCollationKeys = filterCriteriaCollationKeys.toArray(new byte [filterCriteriaCollationKeys.size()][]);
-      }
-      recentFilters.put(filter, filterCollationKeys);
-    }
-    return filterCollationKeys;
+    return CatalogItemFilterIndex.matchesFilter(getFilterCollationKey(), 
+        CatalogItemFilterIndex.getFilterCollationKeys(filter));
   }
 
-  private byte [] getTextureCollationKey() {
+  /**
+   * Returns the collation key of the texts searched by filters.
+   */
+  byte [] getFilterCollationKey() {
     if (this.filterCollationKey == null) {
       StringBuilder search = new StringBuilder();
       search.append(getName());
@@ -176,18 +138,4 @@ public class CatalogTexture implements TextureImage, CatalogItem, Comparable<Cat
     }
     return this.filterCollationKey;
   }
-
-  private boolean isSubCollationKey(byte [] collationKey, byte [] filterCollationKey, int start) {
-    for (int i = start, n = collationKey.length - 4, m = filterCollationKey.length - 4; i < n && i < n - m + 1; i++) {
-      if (collationKey [i] == filterCollationKey [0]) {
-        for (int j = 1; j < m; j++) {
-          if (collationKey [i + j] != filterCollationKey [j]) {
-            return isSubCollationKey(collationKey, filterCollationKey, i + 1);
-          }
-        }
-        return true;
-      }
-    }
-    return false;
-  }
 }
@@ -53,6 +53,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setXStart(float xStart) {
     if (xStart != this.xStart) {
+      beforeChange();
       float oldXStart = this.xStart;
       this.xStart = xStart;
       this.shapeCache = null;
@@ -66,6 +67,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setYStart(float yStart) {
     if (yStart != this.yStart) {
+      beforeChange();
       float oldYStart = this.yStart;
       this.yStart = yStart;
       this.shapeCache = null;
@@ -79,6 +81,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setXEnd(float xEnd) {
     if (xEnd != this.xEnd) {
+      beforeChange();
       float oldXEnd = this.xEnd;
       this.xEnd = xEnd;
       this.shapeCache = null;
@@ -92,6 +95,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setYEnd(float yEnd) {
     if (yEnd != this.yEnd) {
+      beforeChange();
       float oldYEnd = this.yEnd;
       this.yEnd = yEnd;
       this.shapeCache = null;
@@ -105,6 +109,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setOffset(float offset) {
     if (offset != this.offset) {
+      beforeChange();
       float oldOffset = this.offset;
       this.offset = offset;
       this.shapeCache = null;
@@ -122,6 +127,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setLengthStyle(TextStyle lengthStyle) {
     if (lengthStyle != this.lengthStyle) {
+      beforeChange();
       TextStyle oldLengthStyle = this.lengthStyle;
       this.lengthStyle = lengthStyle;
       this.propertyChangeSupport.firePropertyChange(Property.LENGTH_STYLE.name(), oldLengthStyle, lengthStyle);
@@ -134,6 +140,7 @@ public class DimensionLine extends HomeObject implements Selectable, Elevatable
 
   public void setLevel(Level level) {
     if (level != this.level) {
+      beforeChange();
       Level oldLevel = this.level;
       this.level = level;
       this.propertyChangeSupport.firePropertyChange(Property.LEVEL.name(), oldLevel, level);
@@ -2,12 +2,14 @@ package com.eteks.homeview3d.model;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class FurnitureCatalog {
   private List<FurnitureCategory>       categories = new ArrayList<FurnitureCategory>();
   private final CollectionChangeSupport<CatalogPieceOfFurniture> furnitureChangeSupport = 
                              new CollectionChangeSupport<CatalogPieceOfFurniture>(this);
+  private CatalogItemFilterIndex<CatalogPieceOfFurniture> furnitureIndex;
 
   public List<FurnitureCategory> getCategories() {
     return Collections.unmodifiableList(this.categories);
@@ -29,6 +31,46 @@ public class FurnitureCatalog {
     this.furnitureChangeSupport.removeCollectionListener(listener);
   }
 
+  /**
+   * Returns the furniture of this catalog matching the given <code>filter</code>,
+   * sorted in their natural order.
+   */
+  public List<CatalogPieceOfFurniture> getFilteredFurniture(String filter) {
+    return getFurnitureIndex().getItems(filter);
+  }
+
+  /**
+   * Returns the index used to filter furniture, built at first call and then
+   * updated along the changes of this catalog.
+   */
+  private synchronized CatalogItemFilterIndex<CatalogPieceOfFurniture> getFurnitureIndex() {
+    if (this.furnitureIndex == null) {
+      final CatalogItemFilterIndex<CatalogPieceOfFurniture> furnitureIndex = 
+          new CatalogItemFilterIndex<CatalogPieceOfFurniture>(new Comparator<CatalogPieceOfFurniture>() {
+              public int compare(CatalogPieceOfFurniture piece1, CatalogPieceOfFurniture piece2) {
+                return piece1.compareTo(piece2);
+              }
+            });
+      for (FurnitureCategory category : this.categories) {
+        for (CatalogPieceOfFurniture piece : category.getFurniture()) {
+          furnitureIndex.add(piece, piece.getFilterCollationKey());
+        }
+      }
+      addFurnitureListener(new CollectionListener<CatalogPieceOfFurniture>() {
+          public void collectionChanged(CollectionEvent<CatalogPieceOfFurniture> ev) {
+            CatalogPieceOfFurniture piece = ev.getItem();
+            if (ev.getType() == CollectionEvent.Type.ADD) {
+              furnitureIndex.add(piece, piece.getFilterCollationKey());
+            } else {
+              furnitureIndex.delete(piece);
+            }
+          }
+        });
+      this.furnitureIndex = furnitureIndex;
+    }
+    return this.furnitureIndex;
+  }
+
   public void add(FurnitureCategory category, CatalogPieceOfFurniture piece) {
     int index = Collections.binarySearch(this.categories, category);
     // īװ    īװ ߰
@@ -6,12 +6,16 @@ import java.beans.PropertyChangeSupport;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -86,6 +90,10 @@ public class Home implements Serializable, Cloneable {
   private List<HomePieceOfFurniture.SortableProperty> furnitureVisibleProperties;
   private List<HomePieceOfFurniture>                  furnitureWithDoorsAndWindows;
   private List<HomePieceOfFurniture>                  furnitureWithGroups;
+  private transient List<WeakReference<Home>>         snapshots;
+  private transient Map<HomeObject, HomeObject>       sharedItems;
+  private transient Map<HomeObject, HomeObject>       sharedItemCopies;
+  private transient HomeItemIndex                     itemIndex;
 
   public Home() {
     this(250);
@@ -281,6 +289,10 @@ public class Home implements Serializable, Cloneable {
     home.dimensionLinesChangeSupport = new CollectionChangeSupport<DimensionLine>(home);
     home.labelsChangeSupport = new CollectionChangeSupport<Label>(home);
     home.propertyChangeSupport = new PropertyChangeSupport(home);
+    home.snapshots = null;
+    home.sharedItems = null;
+    home.sharedItemCopies = null;
+    home.itemIndex = null;
   }
 
   private void addModelListeners() {
@@ -308,6 +320,42 @@ public class Home implements Serializable, Cloneable {
           }
         }
       });
+
+    // Let items notify this home before they're modified
+    addLevelsListener(new ItemsHomeUpdater<Level>(this.levels));
+    addFurnitureListener(new ItemsHomeUpdater<HomePieceOfFurniture>(this.furniture));
+    addWallsListener(new ItemsHomeUpdater<Wall>(this.walls));
+    addRoomsListener(new ItemsHomeUpdater<Room>(this.rooms));
+    addPolylinesListener(new ItemsHomeUpdater<Polyline>(this.polylines));
+    addDimensionLinesListener(new ItemsHomeUpdater<DimensionLine>(this.dimensionLines));
+    addLabelsListener(new ItemsHomeUpdater<Label>(this.labels));
+  }
+
+  /**
+   * A listener which sets this home to the items added to it. Deleted items keep this home 
+   * because snapshots may still share them.
+   */
+  private class ItemsHomeUpdater<T extends HomeObject> implements CollectionListener<T> {
+    public ItemsHomeUpdater(List<T> items) {
+      for (T item : items) {
+        setItemHome(item);
+      }
+    }
+
+    public void collectionChanged(CollectionEvent<T> ev) {
+      if (ev.getType() == CollectionEvent.Type.ADD) {
+        setItemHome(ev.getItem());
+      }
+    }
+
+    private void setItemHome(HomeObject item) {
+      item.setHome(Home.this);
+      if (item instanceof HomeFurnitureGroup) {
+        for (HomePieceOfFurniture piece : ((HomeFurnitureGroup)item).getFurniture()) {
+          setItemHome(piece);
+        }
+      }
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws IOException {
@@ -803,6 +851,29 @@ public class Home implements Serializable, Cloneable {
     return homeItems;
   }
 
+  /**
+   * Returns the items of the given class which may be viewed at the given <code>level</code>
+   * and whose bounds intersect the rectangle (<code>x0</code>, <code>y0</code>, <code>x1</code>, <code>y1</code>),
+   * in the order of their list in this home. Items are searched in a spatial index updated
+   * as this home changes, and returned items should be tested with their <code>isAtLevel</code>
+   * and <code>containsPoint</code> or <code>intersectsRectangle</code> methods, because their bounds
+   * are larger than their shape and the items of lower levels are returned too.
+   * Only the furniture of this home list is returned, without the pieces of its groups.
+   * @param itemClass the class of the searched items, among <code>HomePieceOfFurniture</code> 
+   *          or one of its subclasses, <code>Wall</code>, <code>Room</code>, <code>Polyline</code>,
+   *          <code>DimensionLine</code> and <code>Label</code> 
+   * @param includeItemsWithText if <code>true</code>, the items displaying a text are returned too 
+   *          whatever their location, since the bounds of their text depend on the fonts of the view
+   */
+  public <T extends Selectable> List<T> getItemsIntersectingRectangle(Class<T> itemClass, Level level, 
+                                                                      float x0, float y0, float x1, float y1, 
+                                                                      boolean includeItemsWithText) {
+    if (this.itemIndex == null) {
+      this.itemIndex = new HomeItemIndex(this);
+    }
+    return this.itemIndex.getItems(itemClass, level, x0, y0, x1, y1, includeItemsWithText);
+  }
+
   private <T extends Selectable> void addViewableItems(Collection<T> items, 
                                                        List<Selectable> selectableViewableItems) {
     for (T item : items) {
@@ -1082,6 +1153,244 @@ public class Home implements Serializable, Cloneable {
     }
   }
 
+  /**
+   * Returns a copy of this home which shares its items with this home. A shared item is copied
+   * for the snapshot either the first time it's read from the lists of the snapshot or before 
+   * it's modified in this home, whichever comes first. Both copies are made under a lock of 
+   * the snapshot, so a thread reading the snapshot never gets an item this home may modify. 
+   * This method gives background tasks a copy of this home without cloning all its items 
+   * in the thread that modifies this home, where it should be called.
+   * Items of a snapshot mustn't be modified.
+   */
+  public Home createSnapshot() {
+    try {
+      Home snapshot = (Home)super.clone();
+      initListenersSupport(snapshot);
+      snapshot.selectedItems = new ArrayList<Selectable>(this.selectedItems);
+      snapshot.selectedItems.remove(this.observerCamera);
+      copyHomeSettings(this, snapshot);
+      int compassIndex = snapshot.selectedItems.indexOf(this.compass);
+      if (compassIndex != -1) {
+        snapshot.selectedItems.set(compassIndex, snapshot.compass);
+      }
+      snapshot.sharedItemCopies = new IdentityHashMap<HomeObject, HomeObject>();
+      // Copy levels at once to let item copies refer to level copies
+      for (Level level : this.levels) {
+        snapshot.sharedItemCopies.put(level, level.clone());
+      }
+      snapshot.selectedLevel = snapshot.getSharedItemCopy(this.selectedLevel);
+      snapshot.selectedItems = new SharedItemList<Selectable>(snapshot, snapshot.selectedItems);
+      snapshot.levels = new SharedItemList<Level>(snapshot, this.levels);
+      snapshot.furniture = new SharedItemList<HomePieceOfFurniture>(snapshot, this.furniture);
+      snapshot.walls = new SharedItemList<Wall>(snapshot, this.walls);
+      snapshot.rooms = new SharedItemList<Room>(snapshot, this.rooms);
+      snapshot.polylines = new SharedItemList<Polyline>(snapshot, this.polylines);
+      snapshot.dimensionLines = new SharedItemList<DimensionLine>(snapshot, this.dimensionLines);
+      snapshot.labels = new SharedItemList<Label>(snapshot, this.labels);
+      if (this.snapshots == null) {
+        this.snapshots = new ArrayList<WeakReference<Home>>();
+      }
+      this.snapshots.add(new WeakReference<Home>(snapshot));
+      return snapshot;
+    } catch (CloneNotSupportedException ex) {
+      throw new IllegalStateException("Super class isn't cloneable"); 
+    }
+  }
+
+  /**
+   * Copies the given <code>item</code> in the snapshots of this home which share it.
+   * Called by items before they're modified.
+   */
+  void copyItemInSnapshots(HomeObject item) {
+    if (this.snapshots != null) {
+      for (Iterator<WeakReference<Home>> it = this.snapshots.iterator(); it.hasNext(); ) {
+        Home snapshot = it.next().get();
+        if (snapshot != null) {
+          snapshot.copySharedItem(item);
+        } else {
+          it.remove();
+        }
+      }
+      if (this.snapshots.isEmpty()) {
+        this.snapshots = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the copy of the given <code>item</code> read from the lists of this snapshot,
+   * copying it first if needed.
+   */
+  private Object getSnapshotItem(Object item) {
+    if (item instanceof HomeObject) {
+      synchronized (this.sharedItemCopies) {
+        copySharedItem((HomeObject)item);
+        return getSharedItemCopy((HomeObject)item);
+      }
+    } else {
+      return item;
+    }
+  }
+
+  /**
+   * Copies in this snapshot the shared item which is or contains the given <code>item</code>,
+   * if it wasn't copied yet.
+   */
+  private void copySharedItem(HomeObject item) {
+    synchronized (this.sharedItemCopies) {
+      HomeObject sharedItem = getSharedItems().get(item);
+      if (sharedItem != null
+          && !this.sharedItemCopies.containsKey(sharedItem)) {
+        if (sharedItem instanceof Wall) {
+          copySharedWalls((Wall)sharedItem);
+        } else {
+          addSharedItemCopy(sharedItem, copyItem(sharedItem));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the items shared by this snapshot mapped to the item of its lists 
+   * they belong to. Built once the first shared item is copied.
+   */
+  private Map<HomeObject, HomeObject> getSharedItems() {
+    if (this.sharedItems == null) {
+      this.sharedItems = new IdentityHashMap<HomeObject, HomeObject>();
+      addSharedItems(this.levels);
+      addSharedItems(this.furniture);
+      for (HomePieceOfFurniture piece : ((SharedItemList<HomePieceOfFurniture>)this.furniture).getItems()) {
+        if (piece instanceof HomeFurnitureGroup) {
+          for (HomePieceOfFurniture groupPiece : ((HomeFurnitureGroup)piece).getAllFurniture()) {
+            this.sharedItems.put(groupPiece, piece);
+          }
+        }
+      }
+      addSharedItems(this.walls);
+      addSharedItems(this.rooms);
+      addSharedItems(this.polylines);
+      addSharedItems(this.dimensionLines);
+      addSharedItems(this.labels);
+    }
+    return this.sharedItems;
+  }
+
+  private void addSharedItems(List<? extends HomeObject> items) {
+    for (HomeObject item : ((SharedItemList<? extends HomeObject>)items).getItems()) {
+      this.sharedItems.put(item, item);
+    }
+  }
+
+  /**
+   * Returns the copy of the given shared <code>item</code> or the item itself if it wasn't copied.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends HomeObject> T getSharedItemCopy(T item) {
+    if (item != null) {
+      HomeObject copy = this.sharedItemCopies.get(item);
+      if (copy != null) {
+        return (T)copy;
+      }
+    }
+    return item;
+  }
+
+  private HomeObject copyItem(HomeObject item) {
+    HomeObject copy = item.clone();
+    if (item instanceof HomeDoorOrWindow
+        && ((HomeDoorOrWindow)item).isBoundToWall()) {
+      ((HomeDoorOrWindow)copy).setBoundToWall(true);
+    }
+    setItemLevel(copy, getSharedItemCopy(((Elevatable)item).getLevel()));
+    return copy;
+  }
+
+  private void addSharedItemCopy(HomeObject sharedItem, HomeObject copy) {
+    if (sharedItem instanceof HomeFurnitureGroup) {
+      List<HomePieceOfFurniture> groupFurniture = ((HomeFurnitureGroup)sharedItem).getAllFurniture();
+      List<HomePieceOfFurniture> groupFurnitureCopy = ((HomeFurnitureGroup)copy).getAllFurniture();
+      for (int i = 0; i < groupFurniture.size(); i++) {
+        this.sharedItemCopies.put(groupFurniture.get(i), groupFurnitureCopy.get(i));
+      }
+    }
+    this.sharedItemCopies.put(sharedItem, copy);
+  }
+
+  /**
+   * Copies the given shared <code>wall</code> with the walls joined to it, 
+   * to keep the joins of copied walls.
+   */
+  private void copySharedWalls(Wall wall) {
+    List<Wall> joinedWalls = new ArrayList<Wall>();
+    joinedWalls.add(wall);
+    for (int i = 0; i < joinedWalls.size(); i++) {
+      Wall joinedWall = joinedWalls.get(i);
+      for (Wall otherWall : new Wall [] {joinedWall.getWallAtStart(), joinedWall.getWallAtEnd()}) {
+        if (otherWall != null
+            && !joinedWalls.contains(otherWall)
+            && !this.sharedItemCopies.containsKey(otherWall)) {
+          joinedWalls.add(otherWall);
+        }
+      }
+    }
+    List<Wall> wallsCopy = Wall.clone(joinedWalls);
+    for (int i = 0; i < joinedWalls.size(); i++) {
+      Wall wallCopy = wallsCopy.get(i);
+      wallCopy.setLevel(getSharedItemCopy(joinedWalls.get(i).getLevel()));
+      this.sharedItemCopies.put(joinedWalls.get(i), wallCopy);
+    }
+  }
+
+  private static void setItemLevel(HomeObject item, Level level) {
+    if (item instanceof HomePieceOfFurniture) {
+      ((HomePieceOfFurniture)item).setLevel(level);
+    } else if (item instanceof Wall) {
+      ((Wall)item).setLevel(level);
+    } else if (item instanceof Room) {
+      ((Room)item).setLevel(level);
+    } else if (item instanceof Polyline) {
+      ((Polyline)item).setLevel(level);
+    } else if (item instanceof DimensionLine) {
+      ((DimensionLine)item).setLevel(level);
+    } else if (item instanceof Label) {
+      ((Label)item).setLevel(level);
+    }
+  }
+
+  /**
+   * A list of the items shared by a snapshot, which returns the copy of each item, 
+   * made when it's read for the first time if this home didn't copy it yet.
+   */
+  private static class SharedItemList<T> extends AbstractList<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Home    snapshot;
+    private final List<T> items;
+
+    public SharedItemList(Home snapshot, List<T> items) {
+      this.snapshot = snapshot;
+      this.items = items;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      return (T)this.snapshot.getSnapshotItem(this.items.get(index));
+    }
+
+    public int size() {
+      return this.items.size();
+    }
+
+    public List<T> getItems() {
+      return this.items;
+    }
+
+    private Object writeReplace() {
+      // Save a list independent of this class
+      return new ArrayList<T>(this);
+    }
+  }
+
   private static void copyHomeData(Home source, Home destination) {
     destination.allLevelsSelection = source.allLevelsSelection;
     destination.name = source.name;
@@ -1168,6 +1477,10 @@ public class Home implements Serializable, Cloneable {
         destination.selectedLevel = destination.levels.get(source.levels.indexOf(source.selectedLevel));
       }
     }
+    copyHomeSettings(source, destination);
+  }
+
+  private static void copyHomeSettings(Home source, Home destination) {
     destination.observerCamera = source.observerCamera.clone();
     destination.topCamera = source.topCamera.clone();
     if (source.camera == source.observerCamera) {
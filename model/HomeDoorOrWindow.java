@@ -50,11 +50,13 @@ public class HomeDoorOrWindow extends HomePieceOfFurniture implements DoorOrWind
   }
 
   public void setBoundToWall(boolean boundToWall) {
+    beforeChange();
     this.boundToWall = boundToWall;
   }
 
   public void setX(float x) {
     if (getX() != x) {
+      beforeChange();
       this.boundToWall = false;
     }
     super.setX(x);
@@ -62,6 +64,7 @@ public class HomeDoorOrWindow extends HomePieceOfFurniture implements DoorOrWind
 
   public void setY(float y) {
     if (getY() != y) {
+      beforeChange();
       this.boundToWall = false;
     }
     super.setY(y);
@@ -69,6 +72,7 @@ public class HomeDoorOrWindow extends HomePieceOfFurniture implements DoorOrWind
 
   public void setAngle(float angle) {
     if (getAngle() != angle) {
+      beforeChange();
       this.boundToWall = false;
     }
     super.setAngle(angle);
@@ -76,6 +80,7 @@ public class HomeDoorOrWindow extends HomePieceOfFurniture implements DoorOrWind
 
   public void setDepth(float depth) {
     if (getDepth() != depth) {
+      beforeChange();
       this.boundToWall = false;
     }
     super.setDepth(depth);
@@ -231,6 +231,7 @@ public class HomeFurnitureGroup extends HomePieceOfFurniture {
   }
 
   void addPieceOfFurniture(HomePieceOfFurniture piece, int index) {
+    beforeChange();
     this.furniture = new ArrayList<HomePieceOfFurniture>(this.furniture);
     piece.setLevel(getLevel());
     this.furniture.add(index, piece);
@@ -242,6 +243,7 @@ public class HomeFurnitureGroup extends HomePieceOfFurniture {
     int index = this.furniture.indexOf(piece);
     if (index != -1) {
       if (this.furniture.size() > 1) {
+        beforeChange();
         piece.setLevel(null);
         piece.removePropertyChangeListener(this.furnitureListener);
         this.furniture = new ArrayList<HomePieceOfFurniture>(this.furniture);
@@ -0,0 +1,547 @@
+package com.eteks.homeview3d.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spatial index of the items of a home, which stores the bounds of each item
+ * in the cells of a uniform grid built for each level. The index listens to the items
+ * of the home to mark the modified ones, and updates their cells only when it's queried.
+ */
+class HomeItemIndex {
+  // Size of grid cells in cm
+  private static final float CELL_SIZE          = 100;
+  // Count of cells beyond which an item is stored in the list of large items of its level
+  private static final int   MAXIMUM_CELL_COUNT = 64;
+
+  private final ItemGrid<HomePieceOfFurniture> furnitureGrid;
+  private final ItemGrid<Wall>                 wallsGrid;
+  private final ItemGrid<Room>                 roomsGrid;
+  private final ItemGrid<Polyline>             polylinesGrid;
+  private final ItemGrid<DimensionLine>        dimensionLinesGrid;
+  private final ItemGrid<Label>                labelsGrid;
+
+  public HomeItemIndex(final Home home) {
+    this.furnitureGrid = new ItemGrid<HomePieceOfFurniture>() {
+        @Override
+        protected Collection<HomePieceOfFurniture> getHomeItems() {
+          return home.getFurniture();
+        }
+      };
+    home.addFurnitureListener(this.furnitureGrid);
+    this.wallsGrid = new ItemGrid<Wall>() {
+        @Override
+        protected Collection<Wall> getHomeItems() {
+          return home.getWalls();
+        }
+      };
+    home.addWallsListener(this.wallsGrid);
+    this.roomsGrid = new ItemGrid<Room>() {
+        @Override
+        protected Collection<Room> getHomeItems() {
+          return home.getRooms();
+        }
+      };
+    home.addRoomsListener(this.roomsGrid);
+    this.polylinesGrid = new ItemGrid<Polyline>() {
+        @Override
+        protected Collection<Polyline> getHomeItems() {
+          return home.getPolylines();
+        }
+      };
+    home.addPolylinesListener(this.polylinesGrid);
+    this.dimensionLinesGrid = new ItemGrid<DimensionLine>() {
+        @Override
+        protected Collection<DimensionLine> getHomeItems() {
+          return home.getDimensionLines();
+        }
+      };
+    home.addDimensionLinesListener(this.dimensionLinesGrid);
+    this.labelsGrid = new ItemGrid<Label>() {
+        @Override
+        protected Collection<Label> getHomeItems() {
+          return home.getLabels();
+        }
+      };
+    home.addLabelsListener(this.labelsGrid);
+  }
+
+  /**
+   * Returns the items of the given class which may be viewed at the given <code>level</code>
+   * and whose bounds intersect the given rectangle, in the order of their list in home.
+   * @see Home#getItemsIntersectingRectangle(Class, Level, float, float, float, float, boolean)
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Selectable> List<T> getItems(Class<T> itemClass, Level level,
+                                                 float x0, float y0, float x1, float y1,
+                                                 boolean includeItemsWithText) {
+    ItemGrid<?> grid;
+    if (HomePieceOfFurniture.class.isAssignableFrom(itemClass)) {
+      grid = this.furnitureGrid;
+    } else if (itemClass == Wall.class) {
+      grid = this.wallsGrid;
+    } else if (itemClass == Room.class) {
+      grid = this.roomsGrid;
+    } else if (itemClass == Polyline.class) {
+      grid = this.polylinesGrid;
+    } else if (itemClass == DimensionLine.class) {
+      grid = this.dimensionLinesGrid;
+    } else if (itemClass == Label.class) {
+      grid = this.labelsGrid;
+    } else {
+      throw new IllegalArgumentException("Items of " + itemClass + " aren't indexed");
+    }
+    List<T> items = (List<T>)grid.getItems(level,
+        Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), includeItemsWithText);
+    if (grid == this.furnitureGrid
+        && itemClass != HomePieceOfFurniture.class) {
+      for (Iterator<T> it = items.iterator(); it.hasNext(); ) {
+        if (!itemClass.isInstance(it.next())) {
+          it.remove();
+        }
+      }
+    }
+    return items;
+  }
+
+  private static void addPropertyChangeListener(Object item, PropertyChangeListener listener) {
+    if (item instanceof HomePieceOfFurniture) {
+      ((HomePieceOfFurniture)item).addPropertyChangeListener(listener);
+    } else if (item instanceof Wall) {
+      ((Wall)item).addPropertyChangeListener(listener);
+    } else if (item instanceof Room) {
+      ((Room)item).addPropertyChangeListener(listener);
+    } else if (item instanceof Polyline) {
+      ((Polyline)item).addPropertyChangeListener(listener);
+    } else if (item instanceof DimensionLine) {
+      ((DimensionLine)item).addPropertyChangeListener(listener);
+    } else if (item instanceof Label) {
+      ((Label)item).addPropertyChangeListener(listener);
+    }
+  }
+
+  private static void removePropertyChangeListener(Object item, PropertyChangeListener listener) {
+    if (item instanceof HomePieceOfFurniture) {
+      ((HomePieceOfFurniture)item).removePropertyChangeListener(listener);
+    } else if (item instanceof Wall) {
+      ((Wall)item).removePropertyChangeListener(listener);
+    } else if (item instanceof Room) {
+      ((Room)item).removePropertyChangeListener(listener);
+    } else if (item instanceof Polyline) {
+      ((Polyline)item).removePropertyChangeListener(listener);
+    } else if (item instanceof DimensionLine) {
+      ((DimensionLine)item).removePropertyChangeListener(listener);
+    } else if (item instanceof Label) {
+      ((Label)item).removePropertyChangeListener(listener);
+    }
+  }
+
+  /**
+   * The grids of the items of a given type, one for each level.
+   * Pieces of furniture belonging to groups aren't indexed.
+   */
+  private static abstract class ItemGrid<T extends Selectable>
+      implements CollectionListener<T>, PropertyChangeListener {
+    private Map<T, IndexedItem<T>>    indexedItems;
+    private Map<T, Boolean>           modifiedItems;
+    private Map<Level, LevelCells<T>> levelCells;
+    // Walls joined to a wall, which shape depends on the one of that wall
+    private Map<Wall, List<Wall>>     joinedWalls;
+    private boolean                   orderValid;
+    private int                       queryCount;
+
+    protected abstract Collection<T> getHomeItems();
+
+    public List<T> getItems(Level level, float xMin, float yMin, float xMax, float yMax,
+                            boolean includeItemsWithText) {
+      update();
+      int query = ++this.queryCount;
+      List<IndexedItem<T>> foundItems = new ArrayList<IndexedItem<T>>();
+      for (Map.Entry<Level, LevelCells<T>> entry : this.levelCells.entrySet()) {
+        Level itemsLevel = entry.getKey();
+        // Items at a lower level may be viewed at the given level too
+        if (itemsLevel == level
+            || itemsLevel != null && level != null
+               && itemsLevel.getElevation() <= level.getElevation()) {
+          entry.getValue().collectItems(xMin, yMin, xMax, yMax, includeItemsWithText, query, foundItems);
+        }
+      }
+      Collections.sort(foundItems, new Comparator<IndexedItem<T>>() {
+          public int compare(IndexedItem<T> item1, IndexedItem<T> item2) {
+            return item1.order - item2.order;
+          }
+        });
+      List<T> items = new ArrayList<T>(foundItems.size());
+      for (IndexedItem<T> indexedItem : foundItems) {
+        items.add(indexedItem.item);
+      }
+      return items;
+    }
+
+    public void collectionChanged(CollectionEvent<T> ev) {
+      T item = ev.getItem();
+      if (this.indexedItems == null
+          || ev.getIndex() == -1 && item instanceof HomePieceOfFurniture) {
+        // Ignore changes before the first query and pieces of groups indexed with their group
+        return;
+      }
+      switch (ev.getType()) {
+        case ADD :
+          addPropertyChangeListener(item, this);
+          this.modifiedItems.put(item, Boolean.TRUE);
+          this.orderValid = false;
+          break;
+        case DELETE :
+          removePropertyChangeListener(item, this);
+          this.modifiedItems.remove(item);
+          IndexedItem<T> indexedItem = this.indexedItems.remove(item);
+          if (indexedItem != null) {
+            removeFromCells(indexedItem);
+          }
+          this.orderValid = false;
+          break;
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void propertyChange(PropertyChangeEvent ev) {
+      T item = (T)ev.getSource();
+      this.modifiedItems.put(item, Boolean.TRUE);
+      if (item instanceof Wall) {
+        List<Wall> walls = this.joinedWalls.get(item);
+        if (walls != null) {
+          for (Wall wall : walls) {
+            this.modifiedItems.put((T)wall, Boolean.TRUE);
+          }
+        }
+      }
+    }
+
+    /**
+     * Indexes the items added or modified since last update.
+     */
+    private void update() {
+      if (this.indexedItems == null) {
+        this.indexedItems = new IdentityHashMap<T, IndexedItem<T>>();
+        this.modifiedItems = new IdentityHashMap<T, Boolean>();
+        this.levelCells = new IdentityHashMap<Level, LevelCells<T>>();
+        this.joinedWalls = new IdentityHashMap<Wall, List<Wall>>();
+        for (T item : getHomeItems()) {
+          addPropertyChangeListener(item, this);
+          this.modifiedItems.put(item, Boolean.TRUE);
+        }
+      }
+      if (!this.modifiedItems.isEmpty()) {
+        for (T item : this.modifiedItems.keySet()) {
+          IndexedItem<T> indexedItem = this.indexedItems.get(item);
+          if (indexedItem == null) {
+            indexedItem = new IndexedItem<T>(item);
+            this.indexedItems.put(item, indexedItem);
+          } else {
+            removeFromCells(indexedItem);
+          }
+          addToCells(indexedItem);
+        }
+        this.modifiedItems.clear();
+      }
+      if (!this.orderValid) {
+        int order = 0;
+        for (T item : getHomeItems()) {
+          IndexedItem<T> indexedItem = this.indexedItems.get(item);
+          if (indexedItem != null) {
+            indexedItem.order = order++;
+          }
+        }
+        this.orderValid = true;
+      }
+    }
+
+    private void addToCells(IndexedItem<T> indexedItem) {
+      T item = indexedItem.item;
+      float [][] points;
+      float margin = 0;
+      if (item instanceof Wall) {
+        Wall wall = (Wall)item;
+        points = wall.getPoints(true);
+        indexedItem.joinedWalls = new Wall [] {wall.getWallAtStart(), wall.getWallAtEnd()};
+        for (Wall joinedWall : indexedItem.joinedWalls) {
+          if (joinedWall != null) {
+            List<Wall> walls = this.joinedWalls.get(joinedWall);
+            if (walls == null) {
+              walls = new ArrayList<Wall>(2);
+              this.joinedWalls.put(joinedWall, walls);
+            }
+            walls.add(wall);
+          }
+        }
+      } else {
+        points = item.getPoints();
+        if (item instanceof Polyline) {
+          // Add the half width of the stroke with its miter,
+          // and the distance of curve control points to polyline points
+          Polyline polyline = (Polyline)item;
+          margin = 5 * polyline.getThickness();
+          if (polyline.getJoinStyle() == Polyline.JoinStyle.CURVED) {
+            margin += getMaximumDistance(points) / 3.625f;
+          }
+        }
+      }
+      float xMin = Float.POSITIVE_INFINITY;
+      float yMin = Float.POSITIVE_INFINITY;
+      float xMax = Float.NEGATIVE_INFINITY;
+      float yMax = Float.NEGATIVE_INFINITY;
+      for (float [] point : points) {
+        xMin = Math.min(xMin, point [0]);
+        yMin = Math.min(yMin, point [1]);
+        xMax = Math.max(xMax, point [0]);
+        yMax = Math.max(yMax, point [1]);
+      }
+      indexedItem.xMin = xMin - margin;
+      indexedItem.yMin = yMin - margin;
+      indexedItem.xMax = xMax + margin;
+      indexedItem.yMax = yMax + margin;
+      indexedItem.level = ((Elevatable)item).getLevel();
+      indexedItem.withText = isItemWithText(item);
+
+      LevelCells<T> cells = this.levelCells.get(indexedItem.level);
+      if (cells == null) {
+        cells = new LevelCells<T>();
+        this.levelCells.put(indexedItem.level, cells);
+      }
+      cells.add(indexedItem);
+    }
+
+    private void removeFromCells(IndexedItem<T> indexedItem) {
+      LevelCells<T> cells = this.levelCells.get(indexedItem.level);
+      if (cells != null) {
+        cells.remove(indexedItem);
+        if (cells.isEmpty()) {
+          this.levelCells.remove(indexedItem.level);
+        }
+      }
+      if (indexedItem.joinedWalls != null) {
+        for (Wall joinedWall : indexedItem.joinedWalls) {
+          if (joinedWall != null) {
+            List<Wall> walls = this.joinedWalls.get(joinedWall);
+            if (walls != null) {
+              walls.remove(indexedItem.item);
+              if (walls.isEmpty()) {
+                this.joinedWalls.remove(joinedWall);
+              }
+            }
+          }
+        }
+        indexedItem.joinedWalls = null;
+      }
+    }
+
+    /**
+     * Returns <code>true</code> if the given item displays a text, which bounds can't
+     * be computed without the fonts of the view.
+     */
+    private boolean isItemWithText(T item) {
+      if (item instanceof Label) {
+        return true;
+      } else if (item instanceof HomePieceOfFurniture) {
+        HomePieceOfFurniture piece = (HomePieceOfFurniture)item;
+        return piece.getName() != null
+            && piece.isNameVisible();
+      } else if (item instanceof Room) {
+        Room room = (Room)item;
+        return room.getName() != null
+            || room.isAreaVisible();
+      } else {
+        return false;
+      }
+    }
+
+    private float getMaximumDistance(float [][] points) {
+      float xMin = Float.POSITIVE_INFINITY;
+      float yMin = Float.POSITIVE_INFINITY;
+      float xMax = Float.NEGATIVE_INFINITY;
+      float yMax = Float.NEGATIVE_INFINITY;
+      for (float [] point : points) {
+        xMin = Math.min(xMin, point [0]);
+        yMin = Math.min(yMin, point [1]);
+        xMax = Math.max(xMax, point [0]);
+        yMax = Math.max(yMax, point [1]);
+      }
+      return Math.max(xMax - xMin, yMax - yMin);
+    }
+  }
+
+  /**
+   * The cells of the items at a given level.
+   */
+  private static class LevelCells<T> {
+    private final Map<Long, List<IndexedItem<T>>> cells;
+    private final List<IndexedItem<T>>            largeItems;
+    private final List<IndexedItem<T>>            itemsWithText;
+
+    public LevelCells() {
+      this.cells = new HashMap<Long, List<IndexedItem<T>>>();
+      this.largeItems = new ArrayList<IndexedItem<T>>();
+      this.itemsWithText = new ArrayList<IndexedItem<T>>();
+    }
+
+    public boolean isEmpty() {
+      return this.cells.isEmpty()
+          && this.largeItems.isEmpty()
+          && this.itemsWithText.isEmpty();
+    }
+
+    public void add(IndexedItem<T> indexedItem) {
+      int xCellMin = getCellIndex(indexedItem.xMin);
+      int yCellMin = getCellIndex(indexedItem.yMin);
+      int xCellMax = getCellIndex(indexedItem.xMax);
+      int yCellMax = getCellIndex(indexedItem.yMax);
+      if (getCellCount(xCellMin, yCellMin, xCellMax, yCellMax) > MAXIMUM_CELL_COUNT) {
+        this.largeItems.add(indexedItem);
+      } else {
+        for (int i = xCellMin; i <= xCellMax; i++) {
+          for (int j = yCellMin; j <= yCellMax; j++) {
+            Long key = getCellKey(i, j);
+            List<IndexedItem<T>> cellItems = this.cells.get(key);
+            if (cellItems == null) {
+              cellItems = new ArrayList<IndexedItem<T>>(4);
+              this.cells.put(key, cellItems);
+            }
+            cellItems.add(indexedItem);
+          }
+        }
+      }
+      if (indexedItem.withText) {
+        this.itemsWithText.add(indexedItem);
+      }
+    }
+
+    public void remove(IndexedItem<T> indexedItem) {
+      int xCellMin = getCellIndex(indexedItem.xMin);
+      int yCellMin = getCellIndex(indexedItem.yMin);
+      int xCellMax = getCellIndex(indexedItem.xMax);
+      int yCellMax = getCellIndex(indexedItem.yMax);
+      if (getCellCount(xCellMin, yCellMin, xCellMax, yCellMax) > MAXIMUM_CELL_COUNT) {
+        this.largeItems.remove(indexedItem);
+      } else {
+        for (int i = xCellMin; i <= xCellMax; i++) {
+          for (int j = yCellMin; j <= yCellMax; j++) {
+            Long key = getCellKey(i, j);
+            List<IndexedItem<T>> cellItems = this.cells.get(key);
+            if (cellItems != null) {
+              cellItems.remove(indexedItem);
+              if (cellItems.isEmpty()) {
+                this.cells.remove(key);
+              }
+            }
+          }
+        }
+      }
+      if (indexedItem.withText) {
+        this.itemsWithText.remove(indexedItem);
+      }
+    }
+
+    /**
+     * Adds to <code>foundItems</code> the items which bounds intersect the given rectangle
+     * and weren't found yet during the given <code>query</code>.
+     */
+    public void collectItems(float xMin, float yMin, float xMax, float yMax,
+                             boolean includeItemsWithText, int query,
+                             List<IndexedItem<T>> foundItems) {
+      int xCellMin = getCellIndex(xMin);
+      int yCellMin = getCellIndex(yMin);
+      int xCellMax = getCellIndex(xMax);
+      int yCellMax = getCellIndex(yMax);
+      if (getCellCount(xCellMin, yCellMin, xCellMax, yCellMax) > this.cells.size()) {
+        // Browse existing cells rather than the ones of a large rectangle
+        for (List<IndexedItem<T>> cellItems : this.cells.values()) {
+          collectItems(cellItems, xMin, yMin, xMax, yMax, query, foundItems);
+        }
+      } else {
+        for (int i = xCellMin; i <= xCellMax; i++) {
+          for (int j = yCellMin; j <= yCellMax; j++) {
+            List<IndexedItem<T>> cellItems = this.cells.get(getCellKey(i, j));
+            if (cellItems != null) {
+              collectItems(cellItems, xMin, yMin, xMax, yMax, query, foundItems);
+            }
+          }
+        }
+      }
+      collectItems(this.largeItems, xMin, yMin, xMax, yMax, query, foundItems);
+      if (includeItemsWithText) {
+        for (IndexedItem<T> indexedItem : this.itemsWithText) {
+          if (indexedItem.query != query) {
+            indexedItem.query = query;
+            foundItems.add(indexedItem);
+          }
+        }
+      }
+    }
+
+    private void collectItems(List<IndexedItem<T>> items,
+                              float xMin, float yMin, float xMax, float yMax, int query,
+                              List<IndexedItem<T>> foundItems) {
+      for (IndexedItem<T> indexedItem : items) {
+        if (indexedItem.query != query
+            && indexedItem.xMin <= xMax
+            && indexedItem.xMax >= xMin
+            && indexedItem.yMin <= yMax
+            && indexedItem.yMax >= yMin) {
+          indexedItem.query = query;
+          foundItems.add(indexedItem);
+        }
+      }
+    }
+
+    /**
+     * Returns the count of cells between the given cell indices, or an infinite count
+     * if the cells are too many or if the bounds are empty.
+     */
+    private static double getCellCount(int xCellMin, int yCellMin, int xCellMax, int yCellMax) {
+      long columnCount = (long)xCellMax - xCellMin + 1;
+      long rowCount = (long)yCellMax - yCellMin + 1;
+      if (columnCount <= 0 || rowCount <= 0) {
+        return Double.POSITIVE_INFINITY;
+      } else {
+        return (double)columnCount * rowCount;
+      }
+    }
+
+    private static int getCellIndex(float coordinate) {
+      return (int)Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static Long getCellKey(int i, int j) {
+      return ((long)i << 32) | (j & 0xFFFFFFFFL);
+    }
+  }
+
+  /**
+   * An item stored in the grid with its bounds at the time it was indexed.
+   */
+  private static class IndexedItem<T> {
+    private final T item;
+    private Level   level;
+    private float   xMin;
+    private float   yMin;
+    private float   xMax;
+    private float   yMax;
+    private boolean withText;
+    private Wall [] joinedWalls;
+    private int     order;
+    private int     query;
+
+    public IndexedItem(T item) {
+      this.item = item;
+    }
+  }
+}
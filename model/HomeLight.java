@@ -50,6 +50,7 @@ public class HomeLight extends HomePieceOfFurniture implements Light {
 
   public void setPower(float power) {
     if (power != this.power) {
+      beforeChange();
       float oldPower = this.power;
       this.power = power;
       this.propertyChangeSupport.firePropertyChange(Property.POWER.name(), oldPower, power);
@@ -10,6 +10,8 @@ public abstract class HomeObject implements Serializable, Cloneable {
   private static final long serialVersionUID = 1L;
   
   private Map<String, String> properties;
+  
+  private transient Home      home;
 
   public String getProperty(String name) {
     if (this.properties != null) {
@@ -20,6 +22,7 @@ public abstract class HomeObject implements Serializable, Cloneable {
   }
 
   public void setProperty(String name, String value) {
+    beforeChange();
     if (value == null) {
       if (this.properties != null && this.properties.containsKey(name)) {
         this.properties.remove(name);
@@ -48,9 +51,28 @@ public abstract class HomeObject implements Serializable, Cloneable {
     }
   }
 
+  /**
+   * Sets the home notified before this object is modified.
+   */
+  void setHome(Home home) {
+    this.home = home;
+  }
+
+  /**
+   * Notifies the home of this object that it's going to be modified, 
+   * to let it copy this object for its snapshots. 
+   * Subclasses must call this method before any change of their state.
+   */
+  protected void beforeChange() {
+    if (this.home != null) {
+      this.home.copyItemInSnapshots(this);
+    }
+  }
+
   public HomeObject clone() {
     try {
       HomeObject clone = (HomeObject)super.clone();
+      clone.home = null;
       if (this.properties != null) {
         clone.properties = clone.properties.size() == 1 
             ? Collections.singletonMap(this.properties.keySet().iterator().next(), this.properties.values().iterator().next())
@@ -325,6 +325,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setName(String name) {
     if (name != this.name
         && (name == null || !name.equals(this.name))) {
+      beforeChange();
       String oldName = this.name;
       this.name = name;
       this.propertyChangeSupport.firePropertyChange(Property.NAME.name(), oldName, name);
@@ -337,6 +338,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   
   public void setNameVisible(boolean nameVisible) {
     if (nameVisible != this.nameVisible) {
+      beforeChange();
       this.nameVisible = nameVisible;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_VISIBLE.name(), !nameVisible, nameVisible);
     }
@@ -348,6 +350,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setNameXOffset(float nameXOffset) {
     if (nameXOffset != this.nameXOffset) {
+      beforeChange();
       float oldNameXOffset = this.nameXOffset;
       this.nameXOffset = nameXOffset;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_X_OFFSET.name(), oldNameXOffset, nameXOffset);
@@ -360,6 +363,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setNameYOffset(float nameYOffset) {
     if (nameYOffset != this.nameYOffset) {
+      beforeChange();
       float oldNameYOffset = this.nameYOffset;
       this.nameYOffset = nameYOffset;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_Y_OFFSET.name(), oldNameYOffset, nameYOffset);
@@ -372,6 +376,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setNameStyle(TextStyle nameStyle) {
     if (nameStyle != this.nameStyle) {
+      beforeChange();
       TextStyle oldNameStyle = this.nameStyle;
       this.nameStyle = nameStyle;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_STYLE.name(), oldNameStyle, nameStyle);
@@ -385,6 +390,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setNameAngle(float nameAngle) {
     nameAngle = (float)((nameAngle % TWICE_PI + TWICE_PI) % TWICE_PI);
     if (nameAngle != this.nameAngle) {
+      beforeChange();
       float oldNameAngle = this.nameAngle;
       this.nameAngle = nameAngle;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_ANGLE.name(), oldNameAngle, nameAngle);
@@ -398,6 +404,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setDescription(String description) {
     if (description != this.description
         && (description == null || !description.equals(this.description))) {
+      beforeChange();
       String oldDescription = this.description;
       this.description = description;
       this.propertyChangeSupport.firePropertyChange(Property.DESCRIPTION.name(), oldDescription, description);
@@ -415,6 +422,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setDepth(float depth) {
     if (isResizable()) {
       if (depth != this.depth) {
+        beforeChange();
         float oldDepth = this.depth;
         this.depth = depth;
         this.shapeCache = null;
@@ -432,6 +440,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setHeight(float height) {
     if (isResizable()) {
       if (height != this.height) {
+        beforeChange();
         float oldHeight = this.height;
         this.height = height;
         this.propertyChangeSupport.firePropertyChange(Property.HEIGHT.name(), oldHeight, height);
@@ -448,6 +457,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setWidth(float width) {
     if (isResizable()) {
       if (width != this.width) {
+        beforeChange();
         float oldWidth = this.width;
         this.width = width;
         this.shapeCache = null;
@@ -476,6 +486,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setElevation(float elevation) {
     if (elevation != this.elevation) {
+      beforeChange();
       float oldElevation = this.elevation;
       this.elevation = elevation;
       this.propertyChangeSupport.firePropertyChange(Property.ELEVATION.name(), oldElevation, elevation);
@@ -488,6 +499,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setMovable(boolean movable) {
     if (movable != this.movable) {
+      beforeChange();
       this.movable = movable;
       this.propertyChangeSupport.firePropertyChange(Property.MOVABLE.name(), !movable, movable);
     }
@@ -512,6 +524,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setModelMaterials(HomeMaterial [] modelMaterials) {
     if (isTexturable()) {
       if (!Arrays.equals(modelMaterials, this.modelMaterials)) {
+        beforeChange();
         HomeMaterial [] oldModelMaterials = this.modelMaterials;
         this.modelMaterials = modelMaterials != null 
             ? modelMaterials.clone()
@@ -539,6 +552,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
     if (isTexturable()) {
       if (color != this.color
           && (color == null || !color.equals(this.color))) {
+        beforeChange();
         Integer oldColor = this.color;
         this.color = color;
         this.propertyChangeSupport.firePropertyChange(Property.COLOR.name(), oldColor, color);
@@ -556,6 +570,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
     if (isTexturable()) {
       if (texture != this.texture
           && (texture == null || !texture.equals(this.texture))) {
+        beforeChange();
         HomeTexture oldTexture = this.texture;
         this.texture = texture;
         this.propertyChangeSupport.firePropertyChange(Property.TEXTURE.name(), oldTexture, texture);
@@ -573,6 +588,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
     if (isTexturable()) {
       if (shininess != this.shininess
           && (shininess == null || !shininess.equals(this.shininess))) {
+        beforeChange();
         Float oldShininess = this.shininess;
         this.shininess = shininess;
         this.propertyChangeSupport.firePropertyChange(Property.SHININESS.name(), oldShininess, shininess);
@@ -601,6 +617,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setPrice(BigDecimal price) {
     if (price != this.price
         && (price == null || !price.equals(this.price))) {
+      beforeChange();
       BigDecimal oldPrice = this.price;
       this.price = price;
       this.propertyChangeSupport.firePropertyChange(Property.PRICE.name(), oldPrice, price);
@@ -638,6 +655,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   
   public void setVisible(boolean visible) {
     if (visible != this.visible) {
+      beforeChange();
       this.visible = visible;
       this.propertyChangeSupport.firePropertyChange(Property.VISIBLE.name(), !visible, visible);
     }
@@ -649,6 +667,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setX(float x) {
     if (x != this.x) {
+      beforeChange();
       float oldX = this.x;
       this.x = x;
       this.shapeCache = null;
@@ -662,6 +681,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setY(float y) {
     if (y != this.y) {
+      beforeChange();
       float oldY = this.y;
       this.y = y;
       this.shapeCache = null;
@@ -676,6 +696,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setAngle(float angle) {
     angle = (float)((angle % TWICE_PI + TWICE_PI) % TWICE_PI);
     if (angle != this.angle) {
+      beforeChange();
       float oldAngle = this.angle;
       this.angle = angle;
       this.shapeCache = null;
@@ -690,6 +711,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
   public void setModelMirrored(boolean modelMirrored) {
     if (isResizable()) {
       if (modelMirrored != this.modelMirrored) {
+        beforeChange();
         this.modelMirrored = modelMirrored;
         this.propertyChangeSupport.firePropertyChange(Property.MODEL_MIRRORED.name(), 
             !modelMirrored, modelMirrored);
@@ -723,6 +745,7 @@ public class HomePieceOfFurniture extends HomeObject implements PieceOfFurniture
 
   public void setLevel(Level level) {
     if (level != this.level) {
+      beforeChange();
       Level oldLevel = this.level;
       this.level = level;
       this.propertyChangeSupport.firePropertyChange(Property.LEVEL.name(), oldLevel, level);
@@ -52,6 +52,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
   public void setText(String text) {
     if (text != this.text
         && (text == null || !text.equals(this.text))) {
+      beforeChange();
       String oldText = this.text;
       this.text = text;
       this.propertyChangeSupport.firePropertyChange(Property.TEXT.name(), oldText, text);
@@ -64,6 +65,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setX(float x) {
     if (x != this.x) {
+      beforeChange();
       float oldX = this.x;
       this.x = x;
       this.propertyChangeSupport.firePropertyChange(Property.X.name(), oldX, x);
@@ -76,6 +78,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setY(float y) {
     if (y != this.y) {
+      beforeChange();
       float oldY = this.y;
       this.y = y;
       this.propertyChangeSupport.firePropertyChange(Property.Y.name(), oldY, y);
@@ -96,6 +99,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setElevation(float elevation) {
     if (elevation != this.elevation) {
+      beforeChange();
       float oldElevation = this.elevation;
       this.elevation = elevation;
       this.propertyChangeSupport.firePropertyChange(Property.ELEVATION.name(), oldElevation, elevation);
@@ -108,6 +112,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setStyle(TextStyle style) {
     if (style != this.style) {
+      beforeChange();
       TextStyle oldStyle = this.style;
       this.style = style;
       this.propertyChangeSupport.firePropertyChange(Property.STYLE.name(), oldStyle, style);
@@ -120,6 +125,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setColor(Integer color) {
     if (color != this.color) {
+      beforeChange();
       Integer oldColor = this.color;
       this.color = color;
       this.propertyChangeSupport.firePropertyChange(Property.COLOR.name(), oldColor, color);
@@ -132,6 +138,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setOutlineColor(Integer outlineColor) {
     if (outlineColor != this.outlineColor) {
+      beforeChange();
       Integer oldOutlineColor = this.outlineColor;
       this.outlineColor = outlineColor;
       this.propertyChangeSupport.firePropertyChange(Property.OUTLINE_COLOR.name(), oldOutlineColor, outlineColor);
@@ -145,6 +152,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
   public void setAngle(float angle) {
     angle = (float)((angle % TWICE_PI + TWICE_PI) % TWICE_PI);
     if (angle != this.angle) {
+      beforeChange();
       float oldAngle = this.angle;
       this.angle = angle;
       this.propertyChangeSupport.firePropertyChange(Property.ANGLE.name(), oldAngle, angle);
@@ -161,6 +169,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
     }
     if (pitch != this.pitch
         && (pitch == null || !pitch.equals(this.pitch))) {
+      beforeChange();
       Float oldPitch = this.pitch;
       this.pitch = pitch;
       this.propertyChangeSupport.firePropertyChange(Property.PITCH.name(), oldPitch, pitch);
@@ -173,6 +182,7 @@ public class Label extends HomeObject implements Selectable, Elevatable {
 
   public void setLevel(Level level) {
     if (level != this.level) {
+      beforeChange();
       Level oldLevel = this.level;
       this.level = level;
       this.propertyChangeSupport.firePropertyChange(Property.LEVEL.name(), oldLevel, level);
@@ -54,6 +54,7 @@ public class Level extends HomeObject {
   public void setName(String name) {
     if (name != this.name
         && (name == null || !name.equals(this.name))) {
+      beforeChange();
       String oldName = this.name;
       this.name = name;
       this.propertyChangeSupport.firePropertyChange(Property.NAME.name(), oldName, name);
@@ -66,6 +67,7 @@ public class Level extends HomeObject {
 
   public void setElevation(float elevation) {
     if (elevation != this.elevation) {
+      beforeChange();
       float oldElevation = this.elevation;
       this.elevation = elevation;
       this.propertyChangeSupport.firePropertyChange(Property.ELEVATION.name(), oldElevation, elevation);
@@ -78,6 +80,7 @@ public class Level extends HomeObject {
 
   public void setFloorThickness(float floorThickness) {
     if (floorThickness != this.floorThickness) {
+      beforeChange();
       float oldFloorThickness = this.floorThickness;
       this.floorThickness = floorThickness;
       this.propertyChangeSupport.firePropertyChange(Property.FLOOR_THICKNESS.name(), oldFloorThickness, floorThickness);
@@ -90,6 +93,7 @@ public class Level extends HomeObject {
 
   public void setHeight(float height) {
     if (height != this.height) {
+      beforeChange();
       float oldHeight = this.height;
       this.height = height;
       this.propertyChangeSupport.firePropertyChange(Property.HEIGHT.name(), oldHeight, height);
@@ -102,6 +106,7 @@ public class Level extends HomeObject {
 
   public void setBackgroundImage(BackgroundImage backgroundImage) {
     if (backgroundImage != this.backgroundImage) {
+      beforeChange();
       BackgroundImage oldBackgroundImage = this.backgroundImage;
       this.backgroundImage = backgroundImage;
       this.propertyChangeSupport.firePropertyChange(Property.BACKGROUND_IMAGE.name(), oldBackgroundImage, backgroundImage);
@@ -114,6 +119,7 @@ public class Level extends HomeObject {
   
   public void setVisible(boolean visible) {
     if (visible != this.visible) {
+      beforeChange();
       this.visible = visible;
       this.propertyChangeSupport.firePropertyChange(Property.VISIBLE.name(), !visible, visible);
     }
@@ -125,6 +131,7 @@ public class Level extends HomeObject {
 
   public void setViewable(boolean viewable) {
     if (viewable != this.viewable) {
+      beforeChange();
       this.viewable = viewable;
       this.propertyChangeSupport.firePropertyChange(Property.VIEWABLE.name(), !viewable, viewable);
     }
@@ -140,6 +147,7 @@ public class Level extends HomeObject {
 
   public void setElevationIndex(int elevationIndex) {
     if (elevationIndex != this.elevationIndex) {
+      beforeChange();
       int oldElevationIndex = this.elevationIndex;
       this.elevationIndex = elevationIndex;
       this.propertyChangeSupport.firePropertyChange(Property.ELEVATION_INDEX.name(), oldElevationIndex, elevationIndex);
@@ -145,6 +145,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
   }
 
   private void updatePoints(float [][] points) {
+    beforeChange();
     float [][] oldPoints = this.points;
     this.points = deepCopy(points);
     this.polylinePathCache = null;
@@ -166,6 +167,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
     newPoints [index] = new float [] {x, y};
     System.arraycopy(this.points, index, newPoints, index + 1, this.points.length - index);
     
+    beforeChange();
     float [][] oldPoints = this.points;
     this.points = newPoints;
     this.polylinePathCache = null;
@@ -179,6 +181,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
     }
     if (this.points [index][0] != x 
         || this.points [index][1] != y) {
+      beforeChange();
       float [][] oldPoints = this.points;
       this.points = deepCopy(this.points);
       this.points [index][0] = x;
@@ -198,6 +201,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
     System.arraycopy(this.points, 0, newPoints, 0, index);
     System.arraycopy(this.points, index + 1, newPoints, index, this.points.length - index - 1);
     
+    beforeChange();
     float [][] oldPoints = this.points;
     this.points = newPoints;
     this.polylinePathCache = null;
@@ -211,6 +215,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setThickness(float thickness) {
     if (thickness != this.thickness) {
+      beforeChange();
       float oldThickness = this.thickness;
       this.thickness = thickness;
       this.propertyChangeSupport.firePropertyChange(Property.THICKNESS.name(), oldThickness, thickness);
@@ -223,6 +228,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setCapStyle(CapStyle capStyle) {
     if (capStyle != this.capStyle) {
+      beforeChange();
       CapStyle oldStyle = this.capStyle;
       this.capStyle = capStyle;
       this.propertyChangeSupport.firePropertyChange(Property.CAP_STYLE.name(), oldStyle, capStyle);
@@ -235,6 +241,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setJoinStyle(JoinStyle joinStyle) {
     if (joinStyle != this.joinStyle) {
+      beforeChange();
       JoinStyle oldJoinStyle = this.joinStyle;
       this.joinStyle = joinStyle;
       this.polylinePathCache = null;
@@ -249,6 +256,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setDashStyle(DashStyle dashStyle) {
     if (dashStyle != this.dashStyle) {
+      beforeChange();
       DashStyle oldDashStyle = this.dashStyle;
       this.dashStyle = dashStyle;
       this.propertyChangeSupport.firePropertyChange(Property.DASH_STYLE.name(), oldDashStyle, dashStyle);
@@ -261,6 +269,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setStartArrowStyle(ArrowStyle startArrowStyle) {
     if (startArrowStyle != this.startArrowStyle) {
+      beforeChange();
       ArrowStyle oldStartArrowStyle = this.startArrowStyle;
       this.startArrowStyle = startArrowStyle;
       this.propertyChangeSupport.firePropertyChange(Property.START_ARROW_STYLE.name(), oldStartArrowStyle, startArrowStyle);
@@ -273,6 +282,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setEndArrowStyle(ArrowStyle endArrowStyle) {
     if (endArrowStyle != this.endArrowStyle) {
+      beforeChange();
       ArrowStyle oldEndArrowStyle = this.endArrowStyle;
       this.endArrowStyle = endArrowStyle;
       this.propertyChangeSupport.firePropertyChange(Property.END_ARROW_STYLE.name(), oldEndArrowStyle, endArrowStyle);
@@ -285,6 +295,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setClosedPath(boolean closedPath) {
     if (closedPath != this.closedPath) {
+      beforeChange();
       this.closedPath = closedPath;
       this.propertyChangeSupport.firePropertyChange(Property.CLOSED_PATH.name(), !closedPath, closedPath);
     }
@@ -296,6 +307,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setColor(int color) {
     if (color != this.color) {
+      beforeChange();
       int oldColor = this.color;
       this.color = color;
       this.propertyChangeSupport.firePropertyChange(Property.COLOR.name(), oldColor, color);
@@ -308,6 +320,7 @@ public class Polyline extends HomeObject implements Selectable, Elevatable {
 
   public void setLevel(Level level) {
     if (level != this.level) {
+      beforeChange();
       Level oldLevel = this.level;
       this.level = level;
       this.propertyChangeSupport.firePropertyChange(Property.LEVEL.name(), oldLevel, level);
@@ -82,6 +82,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setName(String name) {
     if (name != this.name
         && (name == null || !name.equals(this.name))) {
+      beforeChange();
       String oldName = this.name;
       this.name = name;
       this.propertyChangeSupport.firePropertyChange(Property.NAME.name(), oldName, name);
@@ -94,6 +95,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setNameXOffset(float nameXOffset) {
     if (nameXOffset != this.nameXOffset) {
+      beforeChange();
       float oldNameXOffset = this.nameXOffset;
       this.nameXOffset = nameXOffset;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_X_OFFSET.name(), oldNameXOffset, nameXOffset);
@@ -106,6 +108,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setNameYOffset(float nameYOffset) {
     if (nameYOffset != this.nameYOffset) {
+      beforeChange();
       float oldNameYOffset = this.nameYOffset;
       this.nameYOffset = nameYOffset;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_Y_OFFSET.name(), oldNameYOffset, nameYOffset);
@@ -118,6 +121,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setNameStyle(TextStyle nameStyle) {
     if (nameStyle != this.nameStyle) {
+      beforeChange();
       TextStyle oldNameStyle = this.nameStyle;
       this.nameStyle = nameStyle;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_STYLE.name(), oldNameStyle, nameStyle);
@@ -131,6 +135,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setNameAngle(float nameAngle) {
     nameAngle = (float)((nameAngle % TWICE_PI + TWICE_PI) % TWICE_PI);
     if (nameAngle != this.nameAngle) {
+      beforeChange();
       float oldNameAngle = this.nameAngle;
       this.nameAngle = nameAngle;
       this.propertyChangeSupport.firePropertyChange(Property.NAME_ANGLE.name(), oldNameAngle, nameAngle);
@@ -160,6 +165,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   }
 
   private void updatePoints(float [][] points) {
+    beforeChange();
     float [][] oldPoints = this.points;
     this.points = deepCopy(points);
     this.shapeCache = null;
@@ -181,6 +187,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
     newPoints [index] = new float [] {x, y};
     System.arraycopy(this.points, index, newPoints, index + 1, this.points.length - index);
     
+    beforeChange();
     float [][] oldPoints = this.points;
     this.points = newPoints;
     this.shapeCache = null;
@@ -194,6 +201,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
     }
     if (this.points [index][0] != x 
         || this.points [index][1] != y) {
+      beforeChange();
       float [][] oldPoints = this.points;
       this.points = deepCopy(this.points);
       this.points [index][0] = x;
@@ -215,6 +223,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
     System.arraycopy(this.points, 0, newPoints, 0, index);
     System.arraycopy(this.points, index + 1, newPoints, index, this.points.length - index - 1);
     
+    beforeChange();
     float [][] oldPoints = this.points;
     this.points = newPoints;
     this.shapeCache = null;
@@ -228,6 +237,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setAreaVisible(boolean areaVisible) {
     if (areaVisible != this.areaVisible) {
+      beforeChange();
       this.areaVisible = areaVisible;
       this.propertyChangeSupport.firePropertyChange(Property.AREA_VISIBLE.name(), !areaVisible, areaVisible);
     }
@@ -239,6 +249,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setAreaXOffset(float areaXOffset) {
     if (areaXOffset != this.areaXOffset) {
+      beforeChange();
       float oldAreaXOffset = this.areaXOffset;
       this.areaXOffset = areaXOffset;
       this.propertyChangeSupport.firePropertyChange(Property.AREA_X_OFFSET.name(), oldAreaXOffset, areaXOffset);
@@ -251,6 +262,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setAreaYOffset(float areaYOffset) {
     if (areaYOffset != this.areaYOffset) {
+      beforeChange();
       float oldAreaYOffset = this.areaYOffset;
       this.areaYOffset = areaYOffset;
       this.propertyChangeSupport.firePropertyChange(Property.AREA_Y_OFFSET.name(), oldAreaYOffset, areaYOffset);
@@ -263,6 +275,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setAreaStyle(TextStyle areaStyle) {
     if (areaStyle != this.areaStyle) {
+      beforeChange();
       TextStyle oldAreaStyle = this.areaStyle;
       this.areaStyle = areaStyle;
       this.propertyChangeSupport.firePropertyChange(Property.AREA_STYLE.name(), oldAreaStyle, areaStyle);
@@ -276,6 +289,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setAreaAngle(float areaAngle) {
     areaAngle = (float)((areaAngle % TWICE_PI + TWICE_PI) % TWICE_PI);
     if (areaAngle != this.areaAngle) {
+      beforeChange();
       float oldAreaAngle = this.areaAngle;
       this.areaAngle = areaAngle;
       this.propertyChangeSupport.firePropertyChange(Property.AREA_ANGLE.name(), oldAreaAngle, areaAngle);
@@ -309,6 +323,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setFloorColor(Integer floorColor) {
     if (floorColor != this.floorColor
         && (floorColor == null || !floorColor.equals(this.floorColor))) {
+      beforeChange();
       Integer oldFloorColor = this.floorColor;
       this.floorColor = floorColor;
       this.propertyChangeSupport.firePropertyChange(Property.FLOOR_COLOR.name(), 
@@ -323,6 +338,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setFloorTexture(HomeTexture floorTexture) {
     if (floorTexture != this.floorTexture
         && (floorTexture == null || !floorTexture.equals(this.floorTexture))) {
+      beforeChange();
       HomeTexture oldFloorTexture = this.floorTexture;
       this.floorTexture = floorTexture;
       this.propertyChangeSupport.firePropertyChange(Property.FLOOR_TEXTURE.name(), 
@@ -336,6 +352,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setFloorVisible(boolean floorVisible) {
     if (floorVisible != this.floorVisible) {
+      beforeChange();
       this.floorVisible = floorVisible;
       this.propertyChangeSupport.firePropertyChange(Property.FLOOR_VISIBLE.name(), !floorVisible, floorVisible);
     }
@@ -347,6 +364,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setFloorShininess(float floorShininess) {
     if (floorShininess != this.floorShininess) {
+      beforeChange();
       float oldFloorShininess = this.floorShininess;
       this.floorShininess = floorShininess;
       this.propertyChangeSupport.firePropertyChange(Property.FLOOR_SHININESS.name(), 
@@ -361,6 +379,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setCeilingColor(Integer ceilingColor) {
     if (ceilingColor != this.ceilingColor
         && (ceilingColor == null || !ceilingColor.equals(this.ceilingColor))) {
+      beforeChange();
       Integer oldCeilingColor = this.ceilingColor;
       this.ceilingColor = ceilingColor;
       this.propertyChangeSupport.firePropertyChange(Property.CEILING_COLOR.name(), 
@@ -375,6 +394,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
   public void setCeilingTexture(HomeTexture ceilingTexture) {
     if (ceilingTexture != this.ceilingTexture
         && (ceilingTexture == null || !ceilingTexture.equals(this.ceilingTexture))) {
+      beforeChange();
       HomeTexture oldCeilingTexture = this.ceilingTexture;
       this.ceilingTexture = ceilingTexture;
       this.propertyChangeSupport.firePropertyChange(Property.CEILING_TEXTURE.name(), 
@@ -388,6 +408,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setCeilingVisible(boolean ceilingVisible) {
     if (ceilingVisible != this.ceilingVisible) {
+      beforeChange();
       this.ceilingVisible = ceilingVisible;
       this.propertyChangeSupport.firePropertyChange(Property.CEILING_VISIBLE.name(), !ceilingVisible, ceilingVisible);
     }
@@ -399,6 +420,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setCeilingShininess(float ceilingShininess) {
     if (ceilingShininess != this.ceilingShininess) {
+      beforeChange();
       float oldCeilingShininess = this.ceilingShininess;
       this.ceilingShininess = ceilingShininess;
       this.propertyChangeSupport.firePropertyChange(Property.CEILING_SHININESS.name(), 
@@ -412,6 +434,7 @@ public class Room extends HomeObject implements Selectable, Elevatable {
 
   public void setLevel(Level level) {
     if (level != this.level) {
+      beforeChange();
       Level oldLevel = this.level;
       this.level = level;
       this.propertyChangeSupport.firePropertyChange(Property.LEVEL.name(), oldLevel, level);
@@ -2,12 +2,14 @@ package com.eteks.homeview3d.model;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class TexturesCatalog {
   private List<TexturesCategory>  categories = new ArrayList<TexturesCategory>();
   private final CollectionChangeSupport<CatalogTexture> texturesChangeSupport = 
                                       new CollectionChangeSupport<CatalogTexture>(this);
+  private CatalogItemFilterIndex<CatalogTexture> texturesIndex;
 
   public List<TexturesCategory> getCategories() {
     return Collections.unmodifiableList(this.categories);
@@ -29,6 +31,51 @@ public class TexturesCatalog {
     this.texturesChangeSupport.removeCollectionListener(listener);
   }
 
+  /**
+   * Returns the textures of this catalog matching the given <code>filter</code>,
+   * sorted in the order of their category then in their natural order.
+   */
+  public List<CatalogTexture> getFilteredTextures(String filter) {
+    return getTexturesIndex().getItems(filter);
+  }
+
+  /**
+   * Returns the index used to filter textures, built at first call and then
+   * updated along the changes of this catalog.
+   */
+  private synchronized CatalogItemFilterIndex<CatalogTexture> getTexturesIndex() {
+    if (this.texturesIndex == null) {
+      final CatalogItemFilterIndex<CatalogTexture> texturesIndex = 
+          new CatalogItemFilterIndex<CatalogTexture>(new Comparator<CatalogTexture>() {
+              public int compare(CatalogTexture texture1, CatalogTexture texture2) {
+                int categoryComparison = texture1.getCategory().compareTo(texture2.getCategory());
+                if (categoryComparison != 0) {
+                  return categoryComparison;
+                } else {
+                  return texture1.compareTo(texture2);
+                }
+              }
+            });
+      for (TexturesCategory category : this.categories) {
+        for (CatalogTexture texture : category.getTextures()) {
+          texturesIndex.add(texture, texture.getFilterCollationKey());
+        }
+      }
+      addTexturesListener(new CollectionListener<CatalogTexture>() {
+          public void collectionChanged(CollectionEvent<CatalogTexture> ev) {
+            CatalogTexture texture = ev.getItem();
+            if (ev.getType() == CollectionEvent.Type.ADD) {
+              texturesIndex.add(texture, texture.getFilterCollationKey());
+            } else {
+              texturesIndex.delete(texture);
+            }
+          }
+        });
+      this.texturesIndex = texturesIndex;
+    }
+    return this.texturesIndex;
+  }
+
   public void add(TexturesCategory category, CatalogTexture texture) {
     int index = Collections.binarySearch(this.categories, category);
     if (index < 0) {
@@ -86,7 +86,7 @@ public abstract class UserPreferences {
   private boolean          checkUpdatesEnabled;
   private Long             updatesMinimumDate;
   private int              autoSaveDelayForRecovery;
-  private Map<String, List<String>>  autoCompletionStrings;
+  private Map<String, AutoCompletionTrie> autoCompletionTries;
   private List<Integer>      recentColors;
   private List<TextureImage> recentTextures;
 
@@ -94,7 +94,7 @@ public abstract class UserPreferences {
     this.propertyChangeSupport = new PropertyChangeSupport(this);
     this.classResourceBundles = new HashMap<Class<?>, ResourceBundle>();
     this.resourceBundles = new HashMap<String, ResourceBundle>();
-    this.autoCompletionStrings = new LinkedHashMap<String, List<String>>();
+    this.autoCompletionTries = new LinkedHashMap<String, AutoCompletionTrie>();
     this.recentHomes = Collections.emptyList();
     this.recentColors = Collections.emptyList();
     this.recentTextures = Collections.emptyList();
@@ -614,42 +614,62 @@ public abstract class UserPreferences {
   }
 
   public List<String> getAutoCompletionStrings(String property) {
-    List<String> propertyAutoCompletionStrings = this.autoCompletionStrings.get(property);
-    if (propertyAutoCompletionStrings != null) {
-      return Collections.unmodifiableList(propertyAutoCompletionStrings);
+    AutoCompletionTrie autoCompletionTrie = this.autoCompletionTries.get(property);
+    if (autoCompletionTrie != null) {
+      return Collections.unmodifiableList(autoCompletionTrie.getStrings());
     } else {
       return Collections.emptyList();
     }
   }
 
+  /**
+   * Returns the best ranked auto completion string of <code>property</code> starting with <code>prefix</code>.
+   */
+  public String getAutoCompletionString(String property, String prefix) {
+    AutoCompletionTrie autoCompletionTrie = this.autoCompletionTries.get(property);
+    if (autoCompletionTrie != null) {
+      return autoCompletionTrie.getCompletion(prefix);
+    } else {
+      return null;
+    }
+  }
+
   public void addAutoCompletionString(String property, String autoCompletionString) {
     if (autoCompletionString != null 
         && autoCompletionString.length() > 0) {
-      List<String> propertyAutoCompletionStrings = this.autoCompletionStrings.get(property);
-      if (propertyAutoCompletionStrings == null) {
-        propertyAutoCompletionStrings = new ArrayList<String>();
-      } else if (!propertyAutoCompletionStrings.contains(autoCompletionString)) {
-        propertyAutoCompletionStrings = new ArrayList<String>(propertyAutoCompletionStrings);
-      } else {
-        return;
+      AutoCompletionTrie autoCompletionTrie = this.autoCompletionTries.get(property);
+      if (autoCompletionTrie == null) {
+        autoCompletionTrie = new AutoCompletionTrie();
+        this.autoCompletionTries.put(property, autoCompletionTrie);
       }
-      propertyAutoCompletionStrings.add(0, autoCompletionString);
-      setAutoCompletionStrings(property, propertyAutoCompletionStrings);
+      autoCompletionTrie.add(autoCompletionString);
+      this.propertyChangeSupport.firePropertyChange(Property.AUTO_COMPLETION_STRINGS.name(), 
+          null, property);
     }
   }
  
   public void setAutoCompletionStrings(String property, List<String> autoCompletionStrings) {
-    List<String> propertyAutoCompletionStrings = this.autoCompletionStrings.get(property);
-    if (!autoCompletionStrings.equals(propertyAutoCompletionStrings)) {
-      this.autoCompletionStrings.put(property, new ArrayList<String>(autoCompletionStrings));
-      this.propertyChangeSupport.firePropertyChange(Property.AUTO_COMPLETION_STRINGS.name(), 
-          null, property);
+    if (!autoCompletionStrings.equals(getAutoCompletionStrings(property))) {
+      setAutoCompletionTrie(property, new AutoCompletionTrie(autoCompletionStrings));
     }
   }
 
+  /**
+   * Returns the trie of the auto completion strings of <code>property</code>, which shouldn't be modified.
+   */
+  protected AutoCompletionTrie getAutoCompletionTrie(String property) {
+    return this.autoCompletionTries.get(property);
+  }
+
+  protected void setAutoCompletionTrie(String property, AutoCompletionTrie autoCompletionTrie) {
+    this.autoCompletionTries.put(property, autoCompletionTrie);
+    this.propertyChangeSupport.firePropertyChange(Property.AUTO_COMPLETION_STRINGS.name(), 
+        null, property);
+  }
+
   public List<String> getAutoCompletedProperties() {
-    if (this.autoCompletionStrings != null) {
-      return Arrays.asList(this.autoCompletionStrings.keySet().toArray(new String [this.autoCompletionStrings.size()]));
+    if (this.autoCompletionTries != null) {
+      return Arrays.asList(this.autoCompletionTries.keySet().toArray(new String [this.autoCompletionTries.size()]));
     } else {
       return Collections.emptyList();
     }
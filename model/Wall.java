@@ -86,6 +86,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setXStart(float xStart) {
     if (xStart != this.xStart) {
+      beforeChange();
       float oldXStart = this.xStart;
       this.xStart = xStart;
       clearPointsCache();
@@ -99,6 +100,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setYStart(float yStart) {
     if (yStart != this.yStart) {
+      beforeChange();
       float oldYStart = this.yStart;
       this.yStart = yStart;
       clearPointsCache();
@@ -112,6 +114,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setXEnd(float xEnd) {
     if (xEnd != this.xEnd) {
+      beforeChange();
       float oldXEnd = this.xEnd;
       this.xEnd = xEnd;
       clearPointsCache();
@@ -125,6 +128,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setYEnd(float yEnd) {
     if (yEnd != this.yEnd) {
+      beforeChange();
       float oldYEnd = this.yEnd;
       this.yEnd = yEnd;
       clearPointsCache();
@@ -151,6 +155,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setArcExtent(Float arcExtent) {
     if (arcExtent != this.arcExtent
         || (arcExtent != null && !arcExtent.equals(this.arcExtent))) {
+      beforeChange();
       Float oldArcExtent = this.arcExtent;
       this.arcExtent = arcExtent;
       clearPointsCache();
@@ -202,6 +207,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   private void setWallAtStart(Wall wallAtStart, boolean detachJoinedWallAtStart) {
     if (wallAtStart != this.wallAtStart) {
+      beforeChange();
       Wall oldWallAtStart = this.wallAtStart;
       this.wallAtStart = wallAtStart;
       clearPointsCache();
@@ -224,6 +230,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   private void setWallAtEnd(Wall wallAtEnd, boolean detachJoinedWallAtEnd) {
     if (wallAtEnd != this.wallAtEnd) {
+      beforeChange();
       Wall oldWallAtEnd = this.wallAtEnd;
       this.wallAtEnd = wallAtEnd;
       clearPointsCache();
@@ -252,6 +259,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setThickness(float thickness) {
     if (thickness != this.thickness) {
+      beforeChange();
       float oldThickness = this.thickness;
       this.thickness = thickness;
       clearPointsCache();
@@ -267,6 +275,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setHeight(Float height) {
     if (height != this.height
         || (height != null && !height.equals(this.height))) {
+      beforeChange();
       Float oldHeight = this.height;
       this.height = height;
       this.propertyChangeSupport.firePropertyChange(Property.HEIGHT.name(), 
@@ -281,6 +290,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setHeightAtEnd(Float heightAtEnd) {
     if (heightAtEnd != this.heightAtEnd
         && (heightAtEnd == null || !heightAtEnd.equals(this.heightAtEnd))) {
+      beforeChange();
       Float oldHeightAtEnd = this.heightAtEnd;
       this.heightAtEnd = heightAtEnd;
       this.propertyChangeSupport.firePropertyChange(Property.HEIGHT_AT_END.name(), 
@@ -301,6 +311,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setLeftSideColor(Integer leftSideColor) {
     if (leftSideColor != this.leftSideColor
         && (leftSideColor == null || !leftSideColor.equals(this.leftSideColor))) {
+      beforeChange();
       Integer oldLeftSideColor = this.leftSideColor;
       this.leftSideColor = leftSideColor;
       this.propertyChangeSupport.firePropertyChange(Property.LEFT_SIDE_COLOR.name(), 
@@ -315,6 +326,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setRightSideColor(Integer rightSideColor) {
     if (rightSideColor != this.rightSideColor
         && (rightSideColor == null || !rightSideColor.equals(this.rightSideColor))) {
+      beforeChange();
       Integer oldLeftSideColor = this.rightSideColor;
       this.rightSideColor = rightSideColor;
       this.propertyChangeSupport.firePropertyChange(Property.RIGHT_SIDE_COLOR.name(), 
@@ -329,6 +341,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setLeftSideTexture(HomeTexture leftSideTexture) {
     if (leftSideTexture != this.leftSideTexture
         && (leftSideTexture == null || !leftSideTexture.equals(this.leftSideTexture))) {
+      beforeChange();
       HomeTexture oldLeftSideTexture = this.leftSideTexture;
       this.leftSideTexture = leftSideTexture;
       this.propertyChangeSupport.firePropertyChange(Property.LEFT_SIDE_TEXTURE.name(), 
@@ -343,6 +356,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setRightSideTexture(HomeTexture rightSideTexture) {
     if (rightSideTexture != this.rightSideTexture
         && (rightSideTexture == null || !rightSideTexture.equals(this.rightSideTexture))) {
+      beforeChange();
       HomeTexture oldLeftSideTexture = this.rightSideTexture;
       this.rightSideTexture = rightSideTexture;
       this.propertyChangeSupport.firePropertyChange(Property.RIGHT_SIDE_TEXTURE.name(), 
@@ -356,6 +370,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setLeftSideShininess(float leftSideShininess) {
     if (leftSideShininess != this.leftSideShininess) {
+      beforeChange();
       float oldLeftSideShininess = this.leftSideShininess;
       this.leftSideShininess = leftSideShininess;
       this.propertyChangeSupport.firePropertyChange(Property.LEFT_SIDE_SHININESS.name(), oldLeftSideShininess, leftSideShininess);
@@ -368,6 +383,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setRightSideShininess(float rightSideShininess) {
     if (rightSideShininess != this.rightSideShininess) {
+      beforeChange();
       float oldRightSideShininess = this.rightSideShininess;
       this.rightSideShininess = rightSideShininess;
       this.propertyChangeSupport.firePropertyChange(Property.RIGHT_SIDE_SHININESS.name(), oldRightSideShininess, rightSideShininess);
@@ -381,6 +397,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setLeftSideBaseboard(Baseboard leftSideBaseboard) {
     if (leftSideBaseboard != this.leftSideBaseboard
         && (leftSideBaseboard == null || !leftSideBaseboard.equals(this.leftSideBaseboard))) {
+      beforeChange();
       Baseboard oldLeftSideBaseboard = this.leftSideBaseboard;
       this.leftSideBaseboard = leftSideBaseboard;
       clearPointsCache();
@@ -395,6 +412,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setRightSideBaseboard(Baseboard rightSideBaseboard) {
     if (rightSideBaseboard != this.rightSideBaseboard
         && (rightSideBaseboard == null || !rightSideBaseboard.equals(this.rightSideBaseboard))) {
+      beforeChange();
       Baseboard oldRightSideBaseboard = this.rightSideBaseboard;
       this.rightSideBaseboard = rightSideBaseboard;
       clearPointsCache();
@@ -408,6 +426,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setPattern(TextureImage pattern) {
     if (this.pattern != pattern) {
+      beforeChange();
       TextureImage oldPattern = this.pattern;
       this.pattern = pattern;
       this.propertyChangeSupport.firePropertyChange(Property.PATTERN.name(), 
@@ -422,6 +441,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
   public void setTopColor(Integer topColor) {
     if (this.topColor != topColor
         && (topColor == null || !topColor.equals(this.topColor))) {
+      beforeChange();
       Integer oldTopColor = this.topColor;
       this.topColor = topColor;
       this.propertyChangeSupport.firePropertyChange(Property.TOP_COLOR.name(), 
@@ -435,6 +455,7 @@ public class Wall extends HomeObject implements Selectable, Elevatable {
 
   public void setLevel(Level level) {
     if (level != this.level) {
+      beforeChange();
       Level oldLevel = this.level;
       this.level = level;
       this.propertyChangeSupport.firePropertyChange(Property.LEVEL.name(), oldLevel, level);
@@ -0,0 +1,197 @@
+package com.eteks.homeview3d.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file storing the descriptors found in plugin files, i.e. the entries of their
+ * <code>ApplicationPlugin.properties</code> bundles and the properties read from them,
+ * to avoid opening and scanning these files again in later sessions.
+ * Stored descriptors are valid as long as the length and the last modification date
+ * of their plugin file and the default locale don't change.
+ */
+class PluginLibraryIndex {
+  private static final int INDEX_VERSION         = 1;
+  // Maximum length of a string that can always be written with writeUTF
+  private static final int MAXIMUM_STRING_LENGTH = 65535 / 3;
+
+  private final File                       indexFile;
+  private final Map<String, IndexedPlugin> usedPlugins;
+  private Map<String, IndexedPlugin>       indexedPlugins;
+  private boolean                          modified;
+
+  public PluginLibraryIndex(File indexFile) {
+    this.indexFile = indexFile;
+    this.usedPlugins = new LinkedHashMap<String, IndexedPlugin>();
+  }
+
+  /**
+   * Returns the descriptors stored for the given plugin file and <code>locale</code>,
+   * or <code>null</code> if they're unknown or if the file changed since they were stored.
+   * Each descriptor maps the name of a properties entry to the properties it contains.
+   */
+  public synchronized Map<String, Map<String, String>> getDescriptors(File pluginFile, Locale locale) throws IOException {
+    String key = pluginFile.getCanonicalPath();
+    IndexedPlugin indexedPlugin = getIndexedPlugins().get(key);
+    if (indexedPlugin != null
+        && indexedPlugin.length == pluginFile.length()
+        && indexedPlugin.lastModified == pluginFile.lastModified()
+        && indexedPlugin.locale.equals(locale.toString())) {
+      this.usedPlugins.put(key, indexedPlugin);
+      return indexedPlugin.descriptors;
+    }
+    return null;
+  }
+
+  /**
+   * Stores the <code>descriptors</code> read from the given plugin file for <code>locale</code>.
+   */
+  public synchronized void putDescriptors(File pluginFile, Locale locale,
+                                          Map<String, Map<String, String>> descriptors) throws IOException {
+    for (Map.Entry<String, Map<String, String>> descriptor : descriptors.entrySet()) {
+      if (descriptor.getKey().length() > MAXIMUM_STRING_LENGTH) {
+        return;
+      }
+      for (Map.Entry<String, String> entry : descriptor.getValue().entrySet()) {
+        if (entry.getKey().length() > MAXIMUM_STRING_LENGTH
+            || entry.getValue().length() > MAXIMUM_STRING_LENGTH) {
+          return;
+        }
+      }
+    }
+    IndexedPlugin indexedPlugin = new IndexedPlugin(pluginFile.getCanonicalPath(),
+        pluginFile.length(), pluginFile.lastModified(), locale.toString(), descriptors);
+    getIndexedPlugins().put(indexedPlugin.key, indexedPlugin);
+    this.usedPlugins.put(indexedPlugin.key, indexedPlugin);
+    this.modified = true;
+  }
+
+  /**
+   * Writes the plugins used since this index was created, if they changed.
+   */
+  public synchronized void save() throws IOException {
+    if (!this.modified
+        && this.usedPlugins.size() == getIndexedPlugins().size()) {
+      return;
+    }
+    File parentFile = this.indexFile.getParentFile();
+    if (parentFile != null
+        && !parentFile.exists()) {
+      parentFile.mkdirs();
+    }
+    File tempFile = File.createTempFile("index", ".tmp", parentFile);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new GZIPOutputStream(new FileOutputStream(tempFile))));
+      try {
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(this.usedPlugins.size());
+        for (IndexedPlugin indexedPlugin : this.usedPlugins.values()) {
+          out.writeUTF(indexedPlugin.key);
+          out.writeLong(indexedPlugin.length);
+          out.writeLong(indexedPlugin.lastModified);
+          out.writeUTF(indexedPlugin.locale);
+          out.writeInt(indexedPlugin.descriptors.size());
+          for (Map.Entry<String, Map<String, String>> descriptor : indexedPlugin.descriptors.entrySet()) {
+            out.writeUTF(descriptor.getKey());
+            out.writeInt(descriptor.getValue().size());
+            for (Map.Entry<String, String> entry : descriptor.getValue().entrySet()) {
+              out.writeUTF(entry.getKey());
+              out.writeUTF(entry.getValue());
+            }
+          }
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(this.indexFile)
+          && (!this.indexFile.delete() || !tempFile.renameTo(this.indexFile))) {
+        throw new IOException("Can't replace " + this.indexFile);
+      }
+      this.indexedPlugins = new HashMap<String, IndexedPlugin>(this.usedPlugins);
+      this.modified = false;
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  private Map<String, IndexedPlugin> getIndexedPlugins() {
+    if (this.indexedPlugins == null) {
+      this.indexedPlugins = new HashMap<String, IndexedPlugin>();
+      try {
+        readIndexedPlugins();
+      } catch (IOException ex) {
+        // Ignore a damaged index
+        this.indexedPlugins.clear();
+      }
+    }
+    return this.indexedPlugins;
+  }
+
+  private void readIndexedPlugins() throws IOException {
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new GZIPInputStream(new FileInputStream(this.indexFile))));
+    } catch (FileNotFoundException ex) {
+      return;
+    }
+    try {
+      if (in.readInt() != INDEX_VERSION) {
+        return;
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        String key = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        String locale = in.readUTF();
+        Map<String, Map<String, String>> descriptors = new LinkedHashMap<String, Map<String, String>>();
+        for (int j = in.readInt(); j > 0; j--) {
+          String entryName = in.readUTF();
+          Map<String, String> properties = new HashMap<String, String>();
+          for (int k = in.readInt(); k > 0; k--) {
+            String propertyKey = in.readUTF();
+            properties.put(propertyKey, in.readUTF());
+          }
+          descriptors.put(entryName, properties);
+        }
+        this.indexedPlugins.put(key, new IndexedPlugin(key, length, lastModified, locale, descriptors));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * The descriptors of a plugin file stored with the path, the length and the date of this file.
+   */
+  private static class IndexedPlugin {
+    private final String                           key;
+    private final long                             length;
+    private final long                             lastModified;
+    private final String                           locale;
+    private final Map<String, Map<String, String>> descriptors;
+
+    public IndexedPlugin(String key, long length, long lastModified, String locale,
+                         Map<String, Map<String, String>> descriptors) {
+      this.key = key;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.locale = locale;
+      this.descriptors = descriptors;
+    }
+  }
+}
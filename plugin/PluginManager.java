@@ -17,6 +17,7 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -25,6 +26,13 @@ import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -38,6 +46,7 @@ import com.eteks.homeview3d.model.Library;
 import com.eteks.homeview3d.model.RecorderException;
 import com.eteks.homeview3d.model.UserPreferences;
 import com.eteks.homeview3d.tools.OperatingSystem;
+import com.eteks.homeview3d.tools.ZipFilePool;
 import com.eteks.homeview3d.viewcontroller.HomeController;
 
 
@@ -54,6 +63,9 @@ public class PluginManager {
   private static final String APPLICATION_MINIMUM_VERSION = "applicationMinimumVersion";
   private static final String JAVA_MINIMUM_VERSION        = "javaMinimumVersion";
 
+  private static final String [] PLUGIN_KEYS = {ID, NAME, CLASS, DESCRIPTION, VERSION, LICENSE, PROVIDER,
+                                                APPLICATION_MINIMUM_VERSION, JAVA_MINIMUM_VERSION};
+
   private static final String APPLICATION_PLUGIN_FAMILY   = "ApplicationPlugin";
 
   private static final String DEFAULT_APPLICATION_PLUGIN_PROPERTIES_FILE = 
@@ -73,25 +85,52 @@ public class PluginManager {
   
 
   public PluginManager(File [] pluginFolders) {
+    this(pluginFolders, null);
+  }
+
+  /**
+   * Reads application plug-ins from the given folders, keeping the descriptors read from
+   * plugin files in <code>pluginLibraryIndexFile</code> if it's not <code>null</code>.
+   */
+  public PluginManager(File [] pluginFolders, File pluginLibraryIndexFile) {
     this.pluginFolders = pluginFolders;
     if (pluginFolders != null) {
+      List<File> pluginFiles = new ArrayList<File>();
       for (File pluginFolder : pluginFolders) {
         // ÷  ÷  ҷ
-        File [] pluginFiles = pluginFolder.listFiles(new FileFilter () {
+        File [] folderPluginFiles = pluginFolder.listFiles(new FileFilter () {
           public boolean accept(File pathname) {
             return pathname.isFile();
           }
         });
         
-        if (pluginFiles != null) {
+        if (folderPluginFiles != null) {
           // ÷   ȣ  ó
-          Arrays.sort(pluginFiles, Collections.reverseOrder(OperatingSystem.getFileVersionComparator()));
-          for (File pluginFile : pluginFiles) {
-            try {
-              loadPlugins(pluginFile.toURI().toURL(), pluginFile.getAbsolutePath());
-            } catch (MalformedURLException ex) {
-            }
-          }
+          Arrays.sort(folderPluginFiles, Collections.reverseOrder(OperatingSystem.getFileVersionComparator()));
+          pluginFiles.addAll(Arrays.asList(folderPluginFiles));
+        }
+      }
+
+      List<URL> pluginUrls = new ArrayList<URL>(pluginFiles.size());
+      List<String> pluginLocations = new ArrayList<String>(pluginFiles.size());
+      for (Iterator<File> it = pluginFiles.iterator(); it.hasNext(); ) {
+        File pluginFile = it.next();
+        try {
+          pluginUrls.add(pluginFile.toURI().toURL());
+          pluginLocations.add(pluginFile.getAbsolutePath());
+        } catch (MalformedURLException ex) {
+          it.remove();
+        }
+      }
+      PluginLibraryIndex pluginLibraryIndex = pluginLibraryIndexFile != null
+          ? new PluginLibraryIndex(pluginLibraryIndexFile)
+          : null;
+      loadPlugins(pluginUrls, pluginLocations, pluginFiles, pluginLibraryIndex);
+      if (pluginLibraryIndex != null) {
+        try {
+          pluginLibraryIndex.save();
+        } catch (IOException ex) {
+          // Plugins will be scanned again in a next session
         }
       }
     }
@@ -102,22 +141,125 @@ public class PluginManager {
    */
   public PluginManager(URL [] pluginUrls) {
     this.pluginFolders = null;
+    List<String> pluginLocations = new ArrayList<String>(pluginUrls.length);
     for (URL pluginUrl : pluginUrls) {
-      loadPlugins(pluginUrl, pluginUrl.toExternalForm());
+      pluginLocations.add(pluginUrl.toExternalForm());
+    }
+    loadPlugins(Arrays.asList(pluginUrls), pluginLocations, null, null);
+  }
+
+  /**
+   * Loads the plugins of the given URLs, reading their descriptors in parallel,
+   * then adding them in the order of URLs.
+   */
+  private void loadPlugins(List<URL> pluginUrls, List<String> pluginLocations,
+                           List<File> pluginFiles, final PluginLibraryIndex pluginLibraryIndex) {
+    int threadCount = Math.min(pluginUrls.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = null;
+    if (threadCount > 1) {
+      executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pluginReader");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    try {
+      List<Future<Map<String, Map<String, String>>>> pluginsDescriptors = 
+          new ArrayList<Future<Map<String, Map<String, String>>>>(pluginUrls.size());
+      for (int i = 0; i < pluginUrls.size(); i++) {
+        final URL pluginUrl = pluginUrls.get(i);
+        final File pluginFile = pluginFiles != null
+            ? pluginFiles.get(i)
+            : null;
+        Callable<Map<String, Map<String, String>>> reader = new Callable<Map<String, Map<String, String>>>() {
+            public Map<String, Map<String, String>> call() {
+              return readPluginDescriptors(pluginUrl, pluginFile, pluginLibraryIndex);
+            }
+          };
+        if (executor != null) {
+          pluginsDescriptors.add(executor.submit(reader));
+        } else {
+          FutureTask<Map<String, Map<String, String>>> readerTask = 
+              new FutureTask<Map<String, Map<String, String>>>(reader);
+          readerTask.run();
+          pluginsDescriptors.add(readerTask);
+        }
+      }
+
+      for (int i = 0; i < pluginUrls.size(); i++) {
+        Map<String, Map<String, String>> pluginDescriptors;
+        try {
+          pluginDescriptors = pluginsDescriptors.get(i).get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof Error) {
+            throw (Error)cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+          } else {
+            throw new RuntimeException(cause);
+          }
+        }
+        URL pluginUrl = pluginUrls.get(i);
+        for (Map.Entry<String, Map<String, String>> descriptor : pluginDescriptors.entrySet()) {
+          try {
+            readPlugin(descriptor.getValue(), pluginLocations.get(i), 
+                "jar:" + pluginUrl.toString() + "!/" + URLEncoder.encode(descriptor.getKey(), "UTF-8").replace("+", "%20"),
+                pluginUrl);
+          } catch (IOException ex) {
+            // UTF-8 is always supported
+          }
+        }
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
     }
   }
 
   /**
    *  URL   ÷ ε.
    */
-  private void loadPlugins(URL pluginUrl, String pluginLocation) {
-    ZipInputStream zipIn = null;
+  private Map<String, Map<String, String>> readPluginDescriptors(URL pluginUrl, File pluginFile,
+                                                                 PluginLibraryIndex pluginLibraryIndex) {
+    Locale locale = Locale.getDefault();
+    if (pluginFile != null
+        && pluginLibraryIndex != null) {
+      try {
+        Map<String, Map<String, String>> pluginDescriptors = pluginLibraryIndex.getDescriptors(pluginFile, locale);
+        if (pluginDescriptors != null) {
+          return pluginDescriptors;
+        }
+      } catch (IOException ex) {
+      }
+    }
+
+    Map<String, Map<String, String>> pluginDescriptors = new LinkedHashMap<String, Map<String, String>>();
     try {
-      // ÷ URL zip  
-      zipIn = new ZipInputStream(pluginUrl.openStream());
+      List<String> zipEntryNames;
+      if (pluginFile != null) {
+        // Read entry names from the central directory of the plugin file
+        zipEntryNames = ZipFilePool.getInstance().getEntryNames(pluginFile);
+      } else {
+        zipEntryNames = new ArrayList<String>();
+        // ÷ URL zip  
+        ZipInputStream zipIn = new ZipInputStream(pluginUrl.openStream());
+        try {
+          for (ZipEntry entry; (entry = zipIn.getNextEntry()) != null; ) {
+            zipEntryNames.add(entry.getName());
+          }
+        } finally {
+          zipIn.close();
+        }
+      }
       // zip ÷ Ӽ  ã
-      for (ZipEntry entry; (entry = zipIn.getNextEntry()) != null; ) {
-        String zipEntryName = entry.getName();
+      for (String zipEntryName : zipEntryNames) {
         int lastIndex = zipEntryName.lastIndexOf(DEFAULT_APPLICATION_PLUGIN_PROPERTIES_FILE);
         if (lastIndex != -1
             && (lastIndex == 0
@@ -126,72 +268,91 @@ public class PluginManager {
             String applicationPluginFamily = zipEntryName.substring(0, lastIndex);
             applicationPluginFamily += APPLICATION_PLUGIN_FAMILY;
             ClassLoader classLoader = new URLClassLoader(new URL [] {pluginUrl}, getClass().getClassLoader());
-            readPlugin(ResourceBundle.getBundle(applicationPluginFamily, Locale.getDefault(), classLoader), 
-                pluginLocation, 
-                "jar:" + pluginUrl.toString() + "!/" + URLEncoder.encode(zipEntryName, "UTF-8").replace("+", "%20"),
-                classLoader);
+            ResourceBundle resource = ResourceBundle.getBundle(applicationPluginFamily, locale, classLoader);
+            Map<String, String> pluginProperties = new HashMap<String, String>();
+            for (String key : PLUGIN_KEYS) {
+              String value = getOptionalString(resource, key, null);
+              if (value != null) {
+                pluginProperties.put(key, value);
+              }
+            }
+            pluginDescriptors.put(zipEntryName, pluginProperties);
           } catch (MissingResourceException ex) {
             // ۵ ÷ 
           }
         }
       }
+      if (pluginFile != null
+          && pluginLibraryIndex != null) {
+        pluginLibraryIndex.putDescriptors(pluginFile, locale, pluginDescriptors);
+      }
     } catch (IOException ex) {
       //  ÷ 
-    } finally {
-      if (zipIn != null) {
-        try {
-          zipIn.close();
-        } catch (IOException ex) {
-        }
-      }
     }
+    return pluginDescriptors;
   }
   
 
-  private void readPlugin(ResourceBundle resource,
-                          String         pluginLocation,
-                          String         pluginEntry,
-                          ClassLoader    pluginClassLoader) {
+  private void readPlugin(Map<String, String> pluginProperties,
+                          String              pluginLocation,
+                          String              pluginEntry,
+                          URL                 pluginUrl) {
     try {
-      String name = resource.getString(NAME);
+      String name = getString(pluginProperties, NAME);
 
       // ڹٿ ø̼  Ȯ
-      String javaMinimumVersion = resource.getString(JAVA_MINIMUM_VERSION);
+      String javaMinimumVersion = getString(pluginProperties, JAVA_MINIMUM_VERSION);
       if (!OperatingSystem.isJavaVersionGreaterOrEqual(javaMinimumVersion)) {
         System.err.println("Invalid plug-in " + pluginEntry + ":\n" 
             + "Not compatible Java version " + System.getProperty("java.version"));
         return;
       }
       
-      String applicationMinimumVersion = resource.getString(APPLICATION_MINIMUM_VERSION);
+      String applicationMinimumVersion = getString(pluginProperties, APPLICATION_MINIMUM_VERSION);
       if (!isApplicationVersionSuperiorTo(applicationMinimumVersion)) {
         System.err.println("Invalid plug-in " + pluginEntry + ":\n" 
             + "Not compatible application version");
         return;
       }
       
-      String pluginClassName = resource.getString(CLASS);
-      Class<? extends Plugin> pluginClass = getPluginClass(pluginClassLoader, pluginClassName);
+      // Plugin class will be loaded once plugins are instantiated or if an other plugin has the same name
+      String pluginClassName = getString(pluginProperties, CLASS);
       
-      String id = getOptionalString(resource, ID, null);
-      String description = resource.getString(DESCRIPTION);
-      String version = resource.getString(VERSION);
-      String license = resource.getString(LICENSE);
-      String provider = resource.getString(PROVIDER);
+      String id = pluginProperties.get(ID);
+      String description = getString(pluginProperties, DESCRIPTION);
+      String version = getString(pluginProperties, VERSION);
+      String license = getString(pluginProperties, LICENSE);
+      String provider = getString(pluginProperties, PROVIDER);
       
       // ÷ Ӽ   
-      if (this.pluginLibraries.get(name) == null) {
-        this.pluginLibraries.put(name, new PluginLibrary(
-            pluginLocation, id, name, description, version, license, provider, pluginClass, pluginClassLoader));
-      }      
+      PluginLibrary pluginLibrary = this.pluginLibraries.get(name);
+      if (pluginLibrary != null) {
+        try {
+          // Keep the more recent plugin read first unless its class is invalid 
+          pluginLibrary.getPluginClass();
+          return;
+        } catch (IllegalArgumentException ex) {
+          System.err.println("Invalid plug-in " + pluginLibrary.getEntry() + ":\n" + ex.getMessage());
+        }
+      }
+      this.pluginLibraries.put(name, new PluginLibrary(
+          pluginLocation, pluginEntry, id, name, description, version, license, provider, pluginClassName, pluginUrl));
     } catch (MissingResourceException ex) {
       System.err.println("Invalid plug-in " + pluginEntry + ":\n" + ex.getMessage());
-    } catch (IllegalArgumentException ex) {
-      System.err.println("Invalid plug-in " + pluginEntry + ":\n" + ex.getMessage());
     } 
   }
 
 
+  private String getString(Map<String, String> pluginProperties, String key) {
+    String value = pluginProperties.get(key);
+    if (value == null) {
+      throw new MissingResourceException("Can't find plug-in property " + key, 
+          APPLICATION_PLUGIN_FAMILY, key);
+    }
+    return value;
+  }
+
+
   private String getOptionalString(ResourceBundle resource, String key, String defaultValue) {
     try {
       return resource.getString(key);
@@ -223,8 +384,8 @@ public class PluginManager {
   
 
   @SuppressWarnings("unchecked")
-  private Class<? extends Plugin> getPluginClass(ClassLoader pluginClassLoader,
-                                                 String pluginClassName) {
+  private static Class<? extends Plugin> getPluginClass(ClassLoader pluginClassLoader,
+                                                        String pluginClassName) {
     try {
       Class<? extends Plugin> pluginClass = 
           (Class<? extends Plugin>)pluginClassLoader.loadClass(pluginClassName);
@@ -255,7 +416,16 @@ public class PluginManager {
    * 밡 ÷ ̺귯 ȯ.
    */
   public List<Library> getPluginLibraries() {
-    return Collections.unmodifiableList(new ArrayList<Library>(this.pluginLibraries.values()));
+    List<Library> pluginLibraries = new ArrayList<Library>(this.pluginLibraries.size());
+    for (PluginLibrary pluginLibrary : this.pluginLibraries.values()) {
+      try {
+        // Ignore plugins with a missing or invalid class, reported when plugins are instantiated
+        pluginLibrary.getPluginClass();
+        pluginLibraries.add(pluginLibrary);
+      } catch (IllegalArgumentException ex) {
+      }
+    }
+    return Collections.unmodifiableList(pluginLibraries);
   }
   
   /**
@@ -280,8 +450,15 @@ public class PluginManager {
         plugins = new ArrayList<Plugin>();
         //  ÷ Ŭ νϽȭ
         for (PluginLibrary pluginLibrary : this.pluginLibraries.values()) {
+          Class<? extends Plugin> pluginClass;
+          try {
+            pluginClass = pluginLibrary.getPluginClass();
+          } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid plug-in " + pluginLibrary.getEntry() + ":\n" + ex.getMessage());
+            continue;
+          }
           try {
-            Plugin plugin = pluginLibrary.getPluginClass().newInstance();                      
+            Plugin plugin = pluginClass.newInstance();                      
             plugin.setPluginClassLoader(pluginLibrary.getPluginClassLoader());
             plugin.setName(pluginLibrary.getName());
             plugin.setDescription(pluginLibrary.getDescription());
@@ -388,41 +565,68 @@ public class PluginManager {
    */
   private static class PluginLibrary implements Library {
     private final String                  location;
+    private final String                  entry;
     private final String                  name;
     private final String                  id;
     private final String                  description;
     private final String                  version;
     private final String                  license;
     private final String                  provider;
-    private final Class<? extends Plugin> pluginClass;
-    private final ClassLoader             pluginClassLoader;
+    private final String                  pluginClassName;
+    private final URL                     pluginUrl;
+    private Class<? extends Plugin>       pluginClass;
+    private IllegalArgumentException      pluginClassException;
+    private ClassLoader                   pluginClassLoader;
     
     /**
      * Ű  ÷ Ӽ ۼ. 
      */
-    public PluginLibrary(String location,
+    public PluginLibrary(String location, String entry,
                          String id,
                          String name, String description, String version, 
                          String license, String provider,
-                         Class<? extends Plugin> pluginClass, ClassLoader pluginClassLoader) {
+                         String pluginClassName, URL pluginUrl) {
       this.location = location;
+      this.entry = entry;
       this.id = id;
       this.name = name;
       this.description = description;
       this.version = version;
       this.license = license;
       this.provider = provider;
-      this.pluginClass = pluginClass;
-      this.pluginClassLoader = pluginClassLoader;
+      this.pluginClassName = pluginClassName;
+      this.pluginUrl = pluginUrl;
     }
 
-    public Class<? extends Plugin> getPluginClass() {
+    /**
+     * Returns the plugin class, loaded and checked the first time it's requested.
+     * @throws IllegalArgumentException if the class is missing or can't be instantiated
+     */
+    public synchronized Class<? extends Plugin> getPluginClass() {
+      if (this.pluginClass == null
+          && this.pluginClassException == null) {
+        try {
+          this.pluginClass = PluginManager.getPluginClass(getPluginClassLoader(), this.pluginClassName);
+        } catch (IllegalArgumentException ex) {
+          this.pluginClassException = ex;
+        }
+      }
+      if (this.pluginClassException != null) {
+        throw this.pluginClassException;
+      }
       return this.pluginClass;
     }
 
-    public ClassLoader getPluginClassLoader() {
+    public synchronized ClassLoader getPluginClassLoader() {
+      if (this.pluginClassLoader == null) {
+        this.pluginClassLoader = new URLClassLoader(new URL [] {this.pluginUrl}, PluginManager.class.getClassLoader());
+      }
       return this.pluginClassLoader;
     }
+
+    public String getEntry() {
+      return this.entry;
+    }
     
     public String getType() {
       return PluginManager.PLUGIN_LIBRARY_TYPE;
@@ -1,22 +1,40 @@
 package com.eteks.homeview3d.swing;
 
-import java.text.Collator;
-import java.util.Comparator;
 import java.util.List;
-import java.util.TreeSet;
 
 import javax.swing.JTextField;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.PlainDocument;
 
+import com.eteks.homeview3d.model.AutoCompletionTrie;
+import com.eteks.homeview3d.model.UserPreferences;
+
 public class AutoCompleteTextField extends JTextField {
-  private List<String> autoCompletionStrings;
+  private final AutoCompletionTrie autoCompletionTrie;
+  private final UserPreferences    preferences;
+  private final String             autoCompletionProperty;
   private boolean directChange; 
   
   public AutoCompleteTextField(String text, int preferredLength, List<String> autoCompletionStrings) {
+    this(text, preferredLength, new AutoCompletionTrie(autoCompletionStrings), null, null);
+  }
+
+  /**
+   * Creates a text field completed with the auto completion strings of <code>preferences</code>
+   * stored for the given property.
+   */
+  public AutoCompleteTextField(String text, int preferredLength, 
+                               UserPreferences preferences, String autoCompletionProperty) {
+    this(text, preferredLength, null, preferences, autoCompletionProperty);
+  }
+
+  private AutoCompleteTextField(String text, int preferredLength, AutoCompletionTrie autoCompletionTrie,
+                                UserPreferences preferences, String autoCompletionProperty) {
     super(preferredLength);
-    this.autoCompletionStrings = autoCompletionStrings;
+    this.autoCompletionTrie = autoCompletionTrie;
+    this.preferences = preferences;
+    this.autoCompletionProperty = autoCompletionProperty;
     setDocument(new AutoCompleteDocument(text));    
     this.directChange = true;
   }
@@ -60,26 +78,11 @@ public class AutoCompleteTextField extends JTextField {
     }
 
     private String autoComplete(String stringStart) {
-      stringStart = stringStart.toLowerCase();
-      // ĺ ڵϼ 
-      final Collator comparator = Collator.getInstance();
-      comparator.setStrength(Collator.TERTIARY);
-      TreeSet<String> matchingStrings = new TreeSet<String>(new Comparator<String>() {
-          public int compare(String s1, String s2) {
-            return comparator.compare(s1, s2);
-          }
-        });
-      // ´ ڿ ã
-      for (String s : autoCompletionStrings) {
-        if (s.toLowerCase().startsWith(stringStart)) {
-          matchingStrings.add(s);
-        }
-      }
-      if (matchingStrings.size() > 0) {
-        // Return the first found one
-        return matchingStrings.first();
+      // Return the most frequently and recently used matching string
+      if (autoCompletionTrie != null) {
+        return autoCompletionTrie.getCompletion(stringStart);
       } else {
-        return null;
+        return preferences.getAutoCompletionString(autoCompletionProperty, stringStart);
       }
     }
   }
@@ -29,8 +29,11 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.AbstractAction;
 import javax.swing.AbstractListModel;
@@ -241,14 +244,18 @@ public class FurnitureCatalogListPanel extends JPanel implements View {
     this.searchTextField = new JTextField(5);
     this.searchTextField.getDocument().addDocumentListener(new DocumentListener() {  
         public void changedUpdate(DocumentEvent ev) {
-          Object selectedValue = catalogFurnitureList.getSelectedValue();
-          catalogListModel.setFilterText(searchTextField.getText());
-          catalogFurnitureList.clearSelection();
-          catalogFurnitureList.setSelectedValue(selectedValue, true);
-          
-          if (catalogListModel.getSize() == 1) {
-            catalogFurnitureList.setSelectedIndex(0);
-          }
+          final Object selectedValue = catalogFurnitureList.getSelectedValue();
+          catalogListModel.setFilterText(searchTextField.getText(), new Runnable() {
+              public void run() {
+                // Update selection once filtered furniture is available
+                catalogFurnitureList.clearSelection();
+                catalogFurnitureList.setSelectedValue(selectedValue, true);
+                
+                if (catalogListModel.getSize() == 1) {
+                  catalogFurnitureList.setSelectedIndex(0);
+                }
+              }
+            });
         }
   
         public void insertUpdate(DocumentEvent ev) {
@@ -703,11 +710,27 @@ public class FurnitureCatalogListPanel extends JPanel implements View {
   }
   
   
+  /**
+   * The model of the furniture list. When the filter is narrowed, furniture is searched among
+   * the pieces already listed, otherwise it's searched in the catalog in a separate thread,
+   * and the list is updated once the pieces matching the last filter are found.
+   */
   private static class FurnitureCatalogListModel extends AbstractListModel {
+    // Maximum count of listed pieces filtered again in the event dispatch thread
+    private static final int MAXIMUM_NARROWED_FURNITURE_COUNT = 2000;
+
+    // Executor shared by all the lists, which filters furniture in a daemon thread 
+    private static ExecutorService          furnitureFilterExecutor;
+    
     private FurnitureCatalog                catalog;
     private List<CatalogPieceOfFurniture>   furniture;
     private FurnitureCategory               filterCategory;
     private String                          filterText;
+    private FurnitureCategory               furnitureFilterCategory;
+    private String                          furnitureFilterText;
+    private Future<?>                       furnitureFilterTask;
+    private int                             furnitureFilterVersion;
+    private boolean                         furnitureResetPending;
     
     public FurnitureCatalogListModel(FurnitureCatalog catalog) {
       this.catalog = catalog;
@@ -717,12 +740,15 @@ public class FurnitureCatalogListPanel extends JPanel implements View {
 
     public void setFilterCategory(FurnitureCategory filterCategory) {
       this.filterCategory = filterCategory;
-      resetFurnitureList();
+      updateFurnitureList(null);
     }
 
-    public void setFilterText(String filterText) {
+    /**
+     * Sets the filter text and calls <code>filterListener</code> once the list is updated.
+     */
+    public void setFilterText(String filterText, Runnable filterListener) {
       this.filterText = filterText;
-      resetFurnitureList();
+      updateFurnitureList(filterListener);
     }
 
     public Object getElementAt(int index) {
@@ -735,12 +761,20 @@ public class FurnitureCatalogListPanel extends JPanel implements View {
       return this.furniture.size();
     }
     
-    private void resetFurnitureList() {
-      if (this.furniture != null) {
-        this.furniture = null;
+    private synchronized void resetFurnitureList() {
+      // Update list once all catalog listeners were notified, and only once for successive changes 
+      if (!this.furnitureResetPending) {
+        this.furnitureResetPending = true;
         EventQueue.invokeLater(new Runnable() {
             public void run() {
-              fireContentsChanged(this, -1, -1);
+              synchronized (FurnitureCatalogListModel.this) {
+                furnitureResetPending = false;
+              }
+              if (furniture != null) {
+                // Listed furniture can't be narrowed anymore once the catalog changed 
+                furnitureFilterText = null;
+                updateFurnitureList(null);
+              }
             }
           });
       }
@@ -748,18 +782,113 @@ public class FurnitureCatalogListPanel extends JPanel implements View {
 
     private void checkFurnitureList() {
       if (this.furniture == null) {
-        this.furniture = new ArrayList<CatalogPieceOfFurniture>();
-        this.furniture.clear();
-        for (FurnitureCategory category : this.catalog.getCategories()) {
-          for (CatalogPieceOfFurniture piece : category.getFurniture()) {
-            if ((this.filterCategory == null
-                  || piece.getCategory().equals(this.filterCategory))
-                && piece.matchesFilter(this.filterText)) {
-              furniture.add(piece);
+        // Filtered furniture is already sorted
+        this.furniture = filterFurniture(this.catalog.getFilteredFurniture(this.filterText), null, this.filterCategory);
+        this.furnitureFilterText = this.filterText;
+        this.furnitureFilterCategory = this.filterCategory;
+      }
+    }
+
+    /**
+     * Updates the listed furniture along the current filter, either immediately
+     * if the filter narrows listed furniture, or in a separate thread.
+     */
+    private void updateFurnitureList(final Runnable filterListener) {
+      if (this.furnitureFilterTask != null) {
+        this.furnitureFilterTask.cancel(true);
+        this.furnitureFilterTask = null;
+      }
+      final int filterVersion = ++this.furnitureFilterVersion;
+      if (this.furniture == null) {
+        // Furniture will be filtered at first request 
+        if (filterListener != null) {
+          filterListener.run();
+        }
+        return;
+      }
+      
+      final String filterText = this.filterText;
+      final FurnitureCategory filterCategory = this.filterCategory;
+      final List<CatalogPieceOfFurniture> narrowedFurniture;
+      if (this.furnitureFilterText != null
+          && filterText.startsWith(this.furnitureFilterText)
+          && (this.furnitureFilterCategory == null
+              || this.furnitureFilterCategory.equals(filterCategory))) {
+        narrowedFurniture = this.furniture;
+        if (narrowedFurniture.size() <= MAXIMUM_NARROWED_FURNITURE_COUNT) {
+          publishFurnitureList(filterFurniture(narrowedFurniture, filterText, filterCategory), 
+              filterText, filterCategory, filterListener);
+          return;
+        }
+      } else {
+        narrowedFurniture = null;
+      }
+      
+      if (furnitureFilterExecutor == null) {
+        furnitureFilterExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "furnitureFilter");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      }
+      this.furnitureFilterTask = furnitureFilterExecutor.submit(new Runnable() {
+          public void run() {
+            final List<CatalogPieceOfFurniture> furniture = narrowedFurniture != null
+                ? filterFurniture(narrowedFurniture, filterText, filterCategory)
+                : filterFurniture(catalog.getFilteredFurniture(filterText), null, filterCategory);
+            if (furniture != null) {
+              EventQueue.invokeLater(new Runnable() {
+                  public void run() {
+                    // Ignore furniture found for a filter that changed meanwhile
+                    if (filterVersion == furnitureFilterVersion) {
+                      furnitureFilterTask = null;
+                      publishFurnitureList(furniture, filterText, filterCategory, filterListener);
+                    }
+                  }
+                });
             }
           }
+        });
+    }
+
+    /**
+     * Returns the pieces of <code>furniture</code> matching the given filters,
+     * or <code>null</code> if current thread was interrupted.
+     */
+    private List<CatalogPieceOfFurniture> filterFurniture(List<CatalogPieceOfFurniture> furniture,
+                                                          String filterText,
+                                                          FurnitureCategory filterCategory) {
+      List<CatalogPieceOfFurniture> filteredFurniture = new ArrayList<CatalogPieceOfFurniture>();
+      for (int i = 0; i < furniture.size(); i++) {
+        if (i % 1000 == 999
+            && Thread.currentThread().isInterrupted()) {
+          return null;
+        }
+        CatalogPieceOfFurniture piece = furniture.get(i);
+        if ((filterCategory == null
+              || piece.getCategory().equals(filterCategory))
+            && (filterText == null
+                || piece.matchesFilter(filterText))) {
+          filteredFurniture.add(piece);
         }
-        Collections.sort(this.furniture);
+      }
+      return filteredFurniture;
+    }
+
+    /**
+     * Replaces listed furniture and notifies listeners with a single event.
+     */
+    private void publishFurnitureList(List<CatalogPieceOfFurniture> furniture,
+                                      String filterText, FurnitureCategory filterCategory, 
+                                      Runnable filterListener) {
+      this.furniture = furniture;
+      this.furnitureFilterText = filterText;
+      this.furnitureFilterCategory = filterCategory;
+      fireContentsChanged(this, -1, -1);
+      if (filterListener != null) {
+        filterListener.run();
       }
     }
     
@@ -91,7 +91,7 @@ public class HomeFurniturePanel extends JPanel implements DialogView {
     
     if (controller.isPropertyEditable(HomeFurnitureController.Property.NAME)) {
       this.nameLabel = new JLabel(SwingTools.getLocalizedLabelText(preferences, HomeFurniturePanel.class, "nameLabel.text"));
-      this.nameTextField = new AutoCompleteTextField(controller.getName(), 15, preferences.getAutoCompletionStrings("HomePieceOfFurnitureName"));
+      this.nameTextField = new AutoCompleteTextField(controller.getName(), 15, preferences, "HomePieceOfFurnitureName");
       if (!OperatingSystem.isMacOSXLeopardOrSuperior()) {
         SwingTools.addAutoSelectionOnFocusGain(this.nameTextField);
       }
@@ -146,7 +146,7 @@ public class HomeFurniturePanel extends JPanel implements DialogView {
     
     if (controller.isPropertyEditable(HomeFurnitureController.Property.DESCRIPTION)) {
       this.descriptionLabel = new JLabel(SwingTools.getLocalizedLabelText(preferences, HomeFurniturePanel.class, "descriptionLabel.text"));
-      this.descriptionTextField = new AutoCompleteTextField(controller.getDescription(), 15, preferences.getAutoCompletionStrings("HomePieceOfFurnitureDescription"));
+      this.descriptionTextField = new AutoCompleteTextField(controller.getDescription(), 15, preferences, "HomePieceOfFurnitureDescription");
       if (!OperatingSystem.isMacOSXLeopardOrSuperior()) {
         SwingTools.addAutoSelectionOnFocusGain(this.descriptionTextField);
       }
@@ -3735,7 +3735,7 @@ private void setPlanRulersVisible(JScrollPane planScrollPane,
     if (planView instanceof PlanComponent) {
       planComponent = (PlanComponent)planView;
     } else {
-      planComponent = new PlanComponent(cloneHomeInEventDispatchThread(this.home), this.preferences, null);
+      planComponent = new PlanComponent(cloneHomeInEventDispatchThread(this.home, false), this.preferences, null);
     }    
     
     OutputStream outputStream = null;
@@ -3800,19 +3800,21 @@ private void setPlanRulersVisible(JScrollPane planScrollPane,
                                               "exportToOBJ.header", new Date())
         : "";
         
-    OBJExporter.exportHomeToFile(cloneHomeInEventDispatchThread(this.home), 
+    // Export a snapshot which doesn't listen to home items
+    OBJExporter.exportHomeToFile(cloneHomeInEventDispatchThread(this.home, true), 
         objFile, header, this.exportAllToOBJ, object3dFactory);
   }
 
-  private Home cloneHomeInEventDispatchThread(final Home home) throws RecorderException {
+  private Home cloneHomeInEventDispatchThread(final Home home, 
+                                              final boolean snapshot) throws RecorderException {
     if (EventQueue.isDispatchThread()) {
-      return home.clone();
+      return snapshot ? home.createSnapshot() : home.clone();
     } else {
       try {
         final AtomicReference<Home> clonedHome = new AtomicReference<Home>();
         EventQueue.invokeAndWait(new Runnable() {
             public void run() {
-              clonedHome.set(home.clone());
+              clonedHome.set(snapshot ? home.createSnapshot() : home.clone());
             }
           });
         return clonedHome.get();
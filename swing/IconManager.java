@@ -4,35 +4,87 @@ import java.awt.Component;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 
+import com.eteks.homeview3d.io.ContentDigestManager;
 import com.eteks.homeview3d.model.Content;
 import com.eteks.homeview3d.tools.ResourceURLContent;
 
+/**
+ * Icons manager keeping the icons it loaded in a cache limited by the memory they use,
+ * and icons scaled to a given height in an optional thumbnail folder shared by sessions.
+ * Icons loaded in background are loaded from the most recently painted one, and the loading
+ * of an icon is cancelled once its component painted other icons for a while without it,
+ * until the icon is painted again.
+ */
 public class IconManager {
+  private static final String CACHE_MAXIMUM_SIZE_PROPERTY = "com.eteks.homeview3d.swing.iconCacheMaximumSize";
+  private static final long   DEFAULT_CACHE_MAXIMUM_SIZE  = 32 * 1024 * 1024;
+  // Size counted for cached icons without image, like pending, error or empty icons
+  private static final long   MINIMUM_ICON_SIZE           = 1024;
+  private static final String THUMBNAIL_EXTENSION         = ".png";
+  // Minimum delay between two updates of the priority of a pending icon load
+  private static final long   PRIORITY_UPDATE_DELAY       = 100;
+  private static final long   LOAD_CANCELLATION_DELAY     = 500;
+
   private static IconManager                     instance;
   private final Content                          errorIconContent;
   private final Content                          waitIconContent;
-  private final Map<Content, Map<Integer, Icon>> icons;
+  private final Map<Content, Map<Integer, Icon>> stateIcons;
+  private final Map<IconKey, CachedIcon>         icons;
+  private long                                   cacheMaximumSize;
+  private long                                   cacheSize;
+  private long                                   cacheHitCount;
+  private long                                   cacheMissCount;
+  private File                                   thumbnailFolder;
+  private long                                   thumbnailHitCount;
+  private long                                   thumbnailMissCount;
   private ExecutorService                        iconsLoader;
+  private final Map<IconKey, IconLoad>           iconLoads;
+  private final PriorityQueue<IconLoadRequest>   iconLoadRequests;
+  private final Map<Component, Long>             componentPaintTimes;
+  private int                                    iconLoadCount;
 
   private IconManager() {
     this.errorIconContent = new ResourceURLContent(IconManager.class, "resources/icons/tango/image-missing.png");
     this.waitIconContent = new ResourceURLContent(IconManager.class, "resources/icons/tango/image-loading.png");
-    this.icons = Collections.synchronizedMap(new WeakHashMap<Content, Map<Integer, Icon>>());
+    this.stateIcons = Collections.synchronizedMap(new HashMap<Content, Map<Integer, Icon>>());
+    // Icons are iterated from the least recently used one
+    this.icons = new LinkedHashMap<IconKey, CachedIcon>(16, 0.75f, true);
+    this.cacheMaximumSize = DEFAULT_CACHE_MAXIMUM_SIZE;
+    this.iconLoads = new HashMap<IconKey, IconLoad>();
+    this.iconLoadRequests = new PriorityQueue<IconLoadRequest>();
+    this.componentPaintTimes = new WeakHashMap<Component, Long>();
+    try {
+      String cacheMaximumSize = System.getProperty(CACHE_MAXIMUM_SIZE_PROPERTY);
+      if (cacheMaximumSize != null) {
+        this.cacheMaximumSize = Long.parseLong(cacheMaximumSize);
+      }
+    } catch (SecurityException ex) {
+    } catch (NumberFormatException ex) {
+    }
   }
-  
+
   public static IconManager getInstance() {
     if (instance == null) {
       instance = new IconManager();
@@ -46,39 +98,102 @@ public class IconManager {
       this.iconsLoader.shutdownNow();
       this.iconsLoader = null;
     }
-    this.icons.clear();
+    this.stateIcons.clear();
+    synchronized (this) {
+      this.icons.clear();
+      this.cacheSize = 0;
+      this.iconLoads.clear();
+      this.iconLoadRequests.clear();
+    }
+  }
+
+  /**
+   * Sets the maximum count of bytes used by the icons kept in memory by this manager.
+   */
+  public synchronized void setCacheMaximumSize(long cacheMaximumSize) {
+    this.cacheMaximumSize = cacheMaximumSize;
+    trimCache();
+  }
+
+  /**
+   * Returns the maximum count of bytes used by the icons kept in memory by this manager.
+   */
+  public synchronized long getCacheMaximumSize() {
+    return this.cacheMaximumSize;
+  }
+
+  /**
+   * Returns the count of bytes used by the icons kept in memory by this manager.
+   */
+  public synchronized long getCacheSize() {
+    return this.cacheSize;
+  }
+
+  /**
+   * Returns the count of requested icons found in memory.
+   */
+  public synchronized long getCacheHitCount() {
+    return this.cacheHitCount;
+  }
+
+  /**
+   * Returns the count of requested icons that had to be created.
+   */
+  public synchronized long getCacheMissCount() {
+    return this.cacheMissCount;
+  }
+
+  /**
+   * Sets the folder where icons scaled to a given height are saved to be read faster
+   * in later sessions, or disables this storage if <code>thumbnailFolder</code> is <code>null</code>.
+   */
+  public synchronized void setThumbnailFolder(File thumbnailFolder) {
+    this.thumbnailFolder = thumbnailFolder;
+  }
+
+  /**
+   * Returns the count of scaled icons read from the thumbnail folder.
+   */
+  public synchronized long getThumbnailHitCount() {
+    return this.thumbnailHitCount;
+  }
+
+  /**
+   * Returns the count of scaled icons not found in the thumbnail folder.
+   */
+  public synchronized long getThumbnailMissCount() {
+    return this.thumbnailMissCount;
   }
-  
-  
+
   public Icon getErrorIcon(int height) {
     return getIcon(this.errorIconContent, height, null);
   }
- 
+
   public Icon getErrorIcon() {
     return getIcon(this.errorIconContent, -1, null);
   }
-  
+
   public boolean isErrorIcon(Icon icon) {
-    Map<Integer, Icon> errorIcons = this.icons.get(this.errorIconContent);
+    Map<Integer, Icon> errorIcons = this.stateIcons.get(this.errorIconContent);
     return errorIcons != null
         && (errorIcons.containsValue(icon)
             || icon instanceof IconProxy
                 && errorIcons.containsValue(((IconProxy)icon).getIcon()));
   }
 
- 
+
   public Icon getWaitIcon(int height) {
     return getIcon(this.waitIconContent, height, null);
   }
-  
+
 
   public Icon getWaitIcon() {
     return getIcon(this.waitIconContent, -1, null);
   }
-  
-  
+
+
   public boolean isWaitIcon(Icon icon) {
-    Map<Integer, Icon> waitIcons = this.icons.get(this.waitIconContent);
+    Map<Integer, Icon> waitIcons = this.stateIcons.get(this.waitIconContent);
     return waitIcons != null
         && (waitIcons.containsValue(icon)
             || icon instanceof IconProxy
@@ -89,83 +204,460 @@ public class IconManager {
   public Icon getIcon(Content content, Component waitingComponent) {
     return getIcon(content, -1, waitingComponent);
   }
-  
+
 
   public Icon getIcon(Content content, final int height, Component waitingComponent) {
-    Map<Integer, Icon> contentIcons = this.icons.get(content);
-    if (contentIcons == null) {
-      contentIcons = Collections.synchronizedMap(new HashMap<Integer, Icon>());
-      this.icons.put(content, contentIcons);
-    }
-    Icon icon = contentIcons.get(height);
-    if (icon == null) {
-      if (content == null) {
-        icon = new Icon() {
-          public void paintIcon(Component c, Graphics g, int x, int y) {
-          }
-          
-          public int getIconWidth() {
-            return Math.max(0, height);
-          }
-          
-          public int getIconHeight() {
-            return Math.max(0, height);
-          }
-        };
-      } else if (content == this.errorIconContent ||
-                 content == this.waitIconContent) {
-        icon = createIcon(content, height, null); 
-      } else if (waitingComponent == null) {
-        icon = createIcon(content, height, 
-            getIcon(this.errorIconContent, height, null)); 
-      } else {
-        icon = new IconProxy(content, height, waitingComponent,
-                 getIcon(this.errorIconContent, height, null),
-                 getIcon(this.waitIconContent, height, null));
+    if (content == this.errorIconContent
+        || content == this.waitIconContent) {
+      // Keep error and wait icons out of cache to be able to recognize them
+      Map<Integer, Icon> contentIcons = this.stateIcons.get(content);
+      if (contentIcons == null) {
+        contentIcons = Collections.synchronizedMap(new HashMap<Integer, Icon>());
+        this.stateIcons.put(content, contentIcons);
+      }
+      Icon icon = contentIcons.get(height);
+      if (icon == null) {
+        icon = createIcon(content, height, null);
+        contentIcons.put(height, icon);
+      }
+      return icon;
+    }
+
+    IconKey key = new IconKey(content, height);
+    synchronized (this) {
+      CachedIcon cachedIcon = this.icons.get(key);
+      if (cachedIcon != null) {
+        this.cacheHitCount++;
+        return cachedIcon.icon;
       }
-      contentIcons.put(height, icon);
+      this.cacheMissCount++;
+    }
+
+    Icon icon;
+    if (content == null) {
+      icon = new Icon() {
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+        }
+
+        public int getIconWidth() {
+          return Math.max(0, height);
+        }
+
+        public int getIconHeight() {
+          return Math.max(0, height);
+        }
+      };
+    } else if (waitingComponent == null) {
+      icon = createIcon(content, height,
+          getIcon(this.errorIconContent, height, null));
+    } else {
+      icon = new IconProxy(content, height, waitingComponent,
+               getIcon(this.errorIconContent, height, null),
+               getIcon(this.waitIconContent, height, null));
+    }
+
+    synchronized (this) {
+      CachedIcon cachedIcon = this.icons.get(key);
+      if (cachedIcon != null) {
+        // Icon created meanwhile by an other thread
+        return cachedIcon.icon;
+      }
+      cachedIcon = new CachedIcon(icon, getIconSize(icon instanceof IconProxy
+          ? ((IconProxy)icon).getIcon()
+          : icon));
+      this.icons.put(key, cachedIcon);
+      this.cacheSize += cachedIcon.size;
+      trimCache();
+    }
+    return icon;
+  }
+
+  /**
+   * Updates the size of the cached icon matching <code>key</code> once its proxy is loaded.
+   */
+  private synchronized void updateIconSize(IconKey key, IconProxy iconProxy) {
+    CachedIcon cachedIcon = this.icons.get(key);
+    if (cachedIcon != null
+        && cachedIcon.icon == iconProxy) {
+      long iconSize = getIconSize(iconProxy.getIcon());
+      this.cacheSize += iconSize - cachedIcon.size;
+      cachedIcon.size = iconSize;
+      trimCache();
+    }
+  }
+
+  /**
+   * Removes the least recently used icons until cache size is smaller than its maximum size.
+   */
+  private void trimCache() {
+    for (Iterator<CachedIcon> it = this.icons.values().iterator();
+         this.cacheSize > this.cacheMaximumSize && it.hasNext(); ) {
+      this.cacheSize -= it.next().size;
+      it.remove();
+    }
+  }
+
+  /**
+   * Returns the count of bytes used by the image of the given <code>icon</code>.
+   */
+  private long getIconSize(Icon icon) {
+    if (icon instanceof ImageIcon
+        && !isErrorIcon(icon)
+        && !isWaitIcon(icon)) {
+      return Math.max(MINIMUM_ICON_SIZE, 4L * icon.getIconWidth() * icon.getIconHeight());
+    } else {
+      return MINIMUM_ICON_SIZE;
     }
-    return icon;    
   }
-  
+
   private Icon createIcon(Content content, int height, Icon errorIcon) {
     try {
-      InputStream contentStream = content.openStream();
-      BufferedImage image = ImageIO.read(contentStream);
-      contentStream.close();
+      BufferedImage image;
+      File thumbnailFolder;
+      synchronized (this) {
+        thumbnailFolder = this.thumbnailFolder;
+      }
+      if (height != -1
+          && thumbnailFolder != null
+          && content != this.errorIconContent
+          && content != this.waitIconContent) {
+        image = readThumbnail(content, height, thumbnailFolder);
+      } else {
+        InputStream contentStream = content.openStream();
+        try {
+          image = readImage(contentStream, height);
+        } finally {
+          contentStream.close();
+        }
+      }
       if (image != null) {
+        return new ImageIcon(image);
+      }
+    } catch (IOException ex) {
+    }
+    return errorIcon;
+  }
+
+  /**
+   * Returns the image of the given <code>content</code> scaled to <code>height</code>,
+   * read from the thumbnail folder if it was already saved, with a name built from
+   * the digest of content and height. Content digests are kept between sessions
+   * by {@link ContentDigestManager}, so the content isn't read when its thumbnail exists.
+   */
+  private BufferedImage readThumbnail(Content content, int height, File thumbnailFolder) throws IOException {
+    byte [] contentDigest = ContentDigestManager.getInstance().getContentDigest(content);
+    if (contentDigest.length == 0) {
+      throw new IOException("Can't read content");
+    }
+    File thumbnailFile = new File(thumbnailFolder, getDigestName(contentDigest) + "-" + height + THUMBNAIL_EXTENSION);
+    if (thumbnailFile.isFile()) {
+      try {
+        BufferedImage thumbnail = ImageIO.read(thumbnailFile);
+        if (thumbnail != null) {
+          synchronized (this) {
+            this.thumbnailHitCount++;
+          }
+          return thumbnail;
+        }
+      } catch (IOException ex) {
+        // Ignore damaged thumbnail and create it again
+      }
+    }
+    synchronized (this) {
+      this.thumbnailMissCount++;
+    }
+
+    BufferedImage image;
+    InputStream contentStream = content.openStream();
+    try {
+      image = readImage(contentStream, height);
+    } finally {
+      contentStream.close();
+    }
+    if (image != null) {
+      try {
+        thumbnailFolder.mkdirs();
+        File tempFile = File.createTempFile("thumbnail", ".tmp", thumbnailFolder);
+        try {
+          if (ImageIO.write(image, "png", tempFile)
+              && !tempFile.renameTo(thumbnailFile)
+              && !thumbnailFile.isFile()) {
+            throw new IOException("Can't save " + thumbnailFile);
+          }
+        } finally {
+          tempFile.delete();
+        }
+      } catch (IOException ex) {
+        // Thumbnail will be created again in a next session
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Returns the hexadecimal string of the given digest.
+   */
+  private String getDigestName(byte [] digest) {
+    StringBuilder name = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return name.toString();
+  }
+
+  /**
+   * Returns the image read from the given stream and scaled to <code>height</code> if it's not -1,
+   * or <code>null</code> if the image format isn't supported. Large images are subsampled
+   * while they are decoded, keeping twice the requested height for a smooth final scaling.
+   */
+  private BufferedImage readImage(InputStream in, int height) throws IOException {
+    ImageInputStream imageIn = ImageIO.createImageInputStream(in);
+    if (imageIn == null) {
+      return null;
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(imageIn, true, true);
+        int imageWidth = reader.getWidth(0);
+        int imageHeight = reader.getHeight(0);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (height > 0) {
+          int subsampling = imageHeight / (2 * height);
+          if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+          }
+        }
+        BufferedImage image = reader.read(0, param);
         if (height != -1 && height != image.getHeight()) {
-          int width = image.getWidth() * height / image.getHeight();
+          int width = Math.max(1, imageWidth * height / imageHeight);
           BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
           Graphics g = scaledImage.getGraphics();
           g.drawImage(image.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, null);
           g.dispose();
-          return new ImageIcon(scaledImage);
+          return scaledImage;
         } else {
-          return new ImageIcon(image);
+          return image;
         }
+      } finally {
+        reader.dispose();
       }
-    } catch (IOException ex) {
+    } finally {
+      imageIn.close();
     }
-    return errorIcon;
   }
- 
-  private class IconProxy implements Icon {
-    private Icon icon;
-    
-    public IconProxy(final Content content, final int height,
-                     final Component waitingComponent,
-                     final Icon errorIcon, Icon waitIcon) {
-      this.icon = waitIcon;
-      if (iconsLoader == null) {
-        iconsLoader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+
+  /**
+   * The key of a cached icon.
+   */
+  private static class IconKey {
+    private final Content content;
+    private final int     height;
+
+    public IconKey(Content content, int height) {
+      this.content = content;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof IconKey) {
+        IconKey key = (IconKey)obj;
+        return (this.content == key.content
+                || this.content != null && this.content.equals(key.content))
+            && this.height == key.height;
       }
-      iconsLoader.execute(new Runnable () {
-          public void run() {
-            icon = createIcon(content, height, errorIcon);
-            waitingComponent.repaint();
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return (this.content != null ? this.content.hashCode() : 0) + 31 * this.height;
+    }
+  }
+
+  /**
+   * An icon stored in cache with the count of bytes it uses.
+   */
+  private static class CachedIcon {
+    private final Icon icon;
+    private long       size;
+
+    public CachedIcon(Icon icon, long size) {
+      this.icon = icon;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Requests the load of the icon of the given <code>proxy</code>, sharing the load
+   * already requested for the same content and height if it exists.
+   */
+  private synchronized IconLoad requestIconLoad(IconKey key, IconProxy proxy, Icon errorIcon) {
+    IconLoad load = this.iconLoads.get(key);
+    if (load == null) {
+      load = new IconLoad(key, errorIcon, this.iconLoadCount++);
+      this.iconLoads.put(key, load);
+    }
+    load.proxies.add(proxy);
+    if (!load.running) {
+      offerIconLoadRequest(load, System.currentTimeMillis());
+    }
+    return load;
+  }
+
+  /**
+   * Notes that an icon was painted in <code>component</code>, and if it's still waiting
+   * for the given <code>load</code>, raises the priority of this load or requests it again
+   * if it was cancelled.
+   */
+  private synchronized void iconPainted(IconLoad load, Component component) {
+    long now = System.currentTimeMillis();
+    this.componentPaintTimes.put(component, now);
+    if (load != null
+        && !load.running
+        && !load.loaded) {
+      load.component = component;
+      load.paintTime = now;
+      if (load.cancelled) {
+        load.cancelled = false;
+        if (!this.iconLoads.containsKey(load.key)) {
+          this.iconLoads.put(load.key, load);
+        }
+        offerIconLoadRequest(load, now);
+      } else if (now - load.requestTime >= PRIORITY_UPDATE_DELAY) {
+        offerIconLoadRequest(load, now);
+      }
+    }
+  }
+
+  private void offerIconLoadRequest(IconLoad load, long requestTime) {
+    // Older requests of the load stay in queue and are ignored once polled
+    load.requestTime = requestTime;
+    this.iconLoadRequests.offer(new IconLoadRequest(load, requestTime));
+    if (this.iconsLoader == null) {
+      this.iconsLoader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+    }
+    this.iconsLoader.execute(new Runnable () {
+        public void run() {
+          loadNextIcon();
+        }
+      });
+  }
+
+  /**
+   * Loads the icon of the pending request with the highest priority.
+   */
+  private void loadNextIcon() {
+    IconLoad load;
+    synchronized (this) {
+      while (true) {
+        IconLoadRequest request = this.iconLoadRequests.poll();
+        if (request == null) {
+          return;
+        }
+        load = request.load;
+        if (request.requestTime == load.requestTime
+            && !load.running
+            && !load.loaded
+            && !load.cancelled) {
+          Long componentPaintTime = load.component != null
+              ? this.componentPaintTimes.get(load.component)
+              : null;
+          if (componentPaintTime != null
+              && componentPaintTime - load.paintTime > LOAD_CANCELLATION_DELAY) {
+            // Icon not painted anymore while its component painted other icons
+            load.cancelled = true;
+            if (this.iconLoads.get(load.key) == load) {
+              this.iconLoads.remove(load.key);
+            }
+          } else {
+            load.running = true;
+            break;
           }
-        });
+        }
+      }
+    }
+
+    Icon icon = createIcon(load.key.content, load.key.height, load.errorIcon);
+    List<IconProxy> proxies;
+    synchronized (this) {
+      load.running = false;
+      load.loaded = true;
+      if (this.iconLoads.get(load.key) == load) {
+        this.iconLoads.remove(load.key);
+      }
+      proxies = new ArrayList<IconProxy>(load.proxies);
+      for (IconProxy proxy : proxies) {
+        proxy.icon = icon;
+        proxy.load = null;
+        updateIconSize(load.key, proxy);
+      }
+    }
+    for (IconProxy proxy : proxies) {
+      proxy.waitingComponent.repaint();
+    }
+  }
+
+  /**
+   * The load of an icon shared by the proxies that display it.
+   */
+  private static class IconLoad {
+    private final IconKey         key;
+    private final Icon            errorIcon;
+    private final int             id;
+    private final List<IconProxy> proxies;
+    private Component             component;
+    private long                  paintTime;
+    private long                  requestTime;
+    private boolean               running;
+    private boolean               loaded;
+    private boolean               cancelled;
+
+    public IconLoad(IconKey key, Icon errorIcon, int id) {
+      this.key = key;
+      this.errorIcon = errorIcon;
+      this.id = id;
+      this.proxies = new ArrayList<IconProxy>(1);
+    }
+  }
+
+  /**
+   * A request of icon load, ordered from the most recent one, then in the order loads were created.
+   */
+  private static class IconLoadRequest implements Comparable<IconLoadRequest> {
+    private final IconLoad load;
+    private final long     requestTime;
+
+    public IconLoadRequest(IconLoad load, long requestTime) {
+      this.load = load;
+      this.requestTime = requestTime;
+    }
+
+    public int compareTo(IconLoadRequest request) {
+      if (this.requestTime != request.requestTime) {
+        return this.requestTime > request.requestTime ? -1 : 1;
+      } else {
+        return this.load.id - request.load.id;
+      }
+    }
+  }
+
+  private class IconProxy implements Icon {
+    private final Component   waitingComponent;
+    private volatile Icon     icon;
+    private volatile IconLoad load;
+
+    public IconProxy(Content content, int height,
+                     Component waitingComponent,
+                     Icon errorIcon, Icon waitIcon) {
+      this.icon = waitIcon;
+      this.waitingComponent = waitingComponent;
+      this.load = requestIconLoad(new IconKey(content, height), this, errorIcon);
     }
 
     public int getIconWidth() {
@@ -175,11 +667,12 @@ public class IconManager {
     public int getIconHeight() {
       return this.icon.getIconHeight();
     }
-    
+
     public void paintIcon(Component c, Graphics g, int x, int y) {
+      iconPainted(this.load, this.waitingComponent);
       this.icon.paintIcon(c, g, x, y);
     }
-    
+
     public Icon getIcon() {
       return this.icon;
     }
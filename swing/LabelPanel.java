@@ -66,7 +66,7 @@ public class LabelPanel extends JPanel implements DialogView {
                                 final LabelController controller) {
     this.textLabel = new JLabel(SwingTools.getLocalizedLabelText(preferences, 
         LabelPanel.class, "textLabel.text"));
-    this.textTextField = new AutoCompleteTextField(controller.getText(), 20, preferences.getAutoCompletionStrings("LabelText"));
+    this.textTextField = new AutoCompleteTextField(controller.getText(), 20, preferences, "LabelText");
     if (!OperatingSystem.isMacOSXLeopardOrSuperior()) {
       SwingTools.addAutoSelectionOnFocusGain(this.textTextField);
     }
@@ -90,7 +90,7 @@ public class LevelPanel extends JPanel implements DialogView {
 
     if (controller.isPropertyEditable(LevelController.Property.NAME)) {
       this.nameLabel = new JLabel(SwingTools.getLocalizedLabelText(preferences, LevelPanel.class, "nameLabel.text"));
-      this.nameTextField = new AutoCompleteTextField(controller.getName(), 15, preferences.getAutoCompletionStrings("LevelName"));
+      this.nameTextField = new AutoCompleteTextField(controller.getName(), 15, preferences, "LevelName");
       if (!OperatingSystem.isMacOSXLeopardOrSuperior()) {
         SwingTools.addAutoSelectionOnFocusGain(this.nameTextField);
       }
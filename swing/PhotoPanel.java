@@ -656,7 +656,10 @@ public class PhotoPanel extends JPanel implements DialogView {
     getRootPane().setDefaultButton(this.createButton);
     this.createButton.setAction(getActionMap().get(ActionType.STOP_PHOTO_CREATION));
     this.photoCardLayout.show(this.photoPanel, WAIT_CARD);
-    final Home home = this.home.clone();
+    // Photo renderer doesn't listen to home items and can use a snapshot of home 
+    final Home home = this.controller.getQuality() >= 2
+        ? this.home.createSnapshot()
+        : this.home.clone();
     List<Selectable> emptySelection = Collections.emptyList();
     home.setSelectedItems(emptySelection);
     this.photoCreationExecutor = Executors.newSingleThreadExecutor();
@@ -79,7 +79,7 @@ public class RoomPanel extends JPanel implements DialogView {
     if (controller.isPropertyEditable(RoomController.Property.NAME)) {
       this.nameLabel = new JLabel(SwingTools.getLocalizedLabelText(preferences, 
           RoomPanel.class, "nameLabel.text"));
-      this.nameTextField = new AutoCompleteTextField(controller.getName(), 10, preferences.getAutoCompletionStrings("RoomName"));
+      this.nameTextField = new AutoCompleteTextField(controller.getName(), 10, preferences, "RoomName");
       if (!OperatingSystem.isMacOSXLeopardOrSuperior()) {
         SwingTools.addAutoSelectionOnFocusGain(this.nameTextField);
       }
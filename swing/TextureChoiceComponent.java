@@ -78,7 +78,6 @@ import com.eteks.homeview3d.model.CollectionListener;
 import com.eteks.homeview3d.model.HomeTexture;
 import com.eteks.homeview3d.model.TextureImage;
 import com.eteks.homeview3d.model.TexturesCatalog;
-import com.eteks.homeview3d.model.TexturesCategory;
 import com.eteks.homeview3d.model.UserPreferences;
 import com.eteks.homeview3d.tools.OperatingSystem;
 import com.eteks.homeview3d.viewcontroller.TextureChoiceController;
@@ -838,15 +837,7 @@ public class TextureChoiceComponent extends JButton implements TextureChoiceView
 
       private void checkFurnitureList() {
         if (this.textures == null) {
-          this.textures = new ArrayList<CatalogTexture>();
-          this.textures.clear();
-          for (TexturesCategory category : this.catalog.getCategories()) {
-            for (CatalogTexture texture : category.getTextures()) {
-              if (texture.matchesFilter(this.filterText)) {
-                textures.add(texture);
-              }
-            }
-          }
+          this.textures = this.catalog.getFilteredTextures(this.filterText);
         }
       }
 
@@ -1,5 +1,6 @@
 package com.eteks.homeview3d.tools;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,24 +28,64 @@ public class URLContent implements Content {
   }
 
   public InputStream openStream() throws IOException {
+    // Create connection even for entries read from the ZIP file pool, 
+    // to let the URL handler check its URL
     URLConnection connection = getURL().openConnection();
-    if (OperatingSystem.isWindows() && isJAREntry()) {
+    if (isJAREntry()) {
       URL jarEntryURL = getJAREntryURL();
       if (jarEntryURL.getProtocol().equalsIgnoreCase("file")) {
         try {
-          if (new File(jarEntryURL.toURI()).canWrite()) {
-            connection.setUseCaches(false);
+          File jarFile = new File(jarEntryURL.toURI());
+          String entryName = getJAREntryName();
+          if (jarFile.isFile()
+              && entryName.length() > 0) {
+            return ZipFilePool.getInstance().openStream(jarFile, decodeEntryName(entryName));
           }
         } catch (URISyntaxException ex) {
           IOException ex2 = new IOException();
           ex2.initCause(ex);
           throw ex2;
+        } catch (IllegalArgumentException ex) {
+          // Let the connection read a file URL with an authority
         }
       }
     }
     return connection.getInputStream();
   }
 
+  /**
+   * Returns the given entry name with its escaped characters decoded as UTF-8 characters,
+   * like the default handler of <code>jar:</code> URLs.
+   */
+  private static String decodeEntryName(String entryName) throws IOException {
+    if (entryName.indexOf('%') < 0) {
+      return entryName;
+    }
+    StringBuilder decodedName = new StringBuilder(entryName.length());
+    ByteArrayOutputStream escapedBytes = new ByteArrayOutputStream();
+    for (int i = 0, n = entryName.length(); i < n; i++) {
+      char c = entryName.charAt(i);
+      if (c == '%' 
+          && i + 2 < n
+          && Character.digit(entryName.charAt(i + 1), 16) >= 0
+          && Character.digit(entryName.charAt(i + 2), 16) >= 0) {
+        escapedBytes.write(Character.digit(entryName.charAt(i + 1), 16) * 16 
+            + Character.digit(entryName.charAt(i + 2), 16));
+        i += 2;
+      } else {
+        if (escapedBytes.size() > 0) {
+          decodedName.append(escapedBytes.toString("UTF-8"));
+          escapedBytes.reset();
+        }
+        decodedName.append(c);
+      }
+    }
+    if (escapedBytes.size() > 0) {
+      decodedName.append(escapedBytes.toString("UTF-8"));
+    }
+    return decodedName.toString();
+  }
+
   public boolean isJAREntry() {
     return "jar".equals(this.url.getProtocol());
   }
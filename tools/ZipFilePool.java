@@ -0,0 +1,287 @@
+package com.eteks.homeview3d.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A pool of ZIP files shared by the streams that read their entries, to avoid opening
+ * and scanning again an archive for each of its entries. Each pooled file counts the streams
+ * that use it, and once unused, it stays open for a few seconds to be reused by next reads.
+ * A pooled file isn't reused anymore once the date or the length of its file changed.
+ */
+public class ZipFilePool {
+  private static final int  MAXIMUM_IDLE_FILE_COUNT = 16;
+  private static final long IDLE_FILE_DELAY         = 5000;
+
+  private static ZipFilePool instance;
+
+  private final Map<File, PooledZipFile> zipFiles;
+  private Timer                          closingTimer;
+  private long                           requestCount;
+  private long                           hitCount;
+  private int                            openFileCount;
+
+  private ZipFilePool() {
+    // Files are iterated in the order of their last use
+    this.zipFiles = new LinkedHashMap<File, PooledZipFile>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the shared instance of this class.
+   */
+  public static ZipFilePool getInstance() {
+    synchronized (ZipFilePool.class) {
+      if (instance == null) {
+        instance = new ZipFilePool();
+      }
+      return instance;
+    }
+  }
+
+  /**
+   * Returns a stream able to read the given entry of a ZIP file. The file will be
+   * released from the pool once the returned stream is closed.
+   * @throws FileNotFoundException if the entry doesn't exist
+   */
+  public InputStream openStream(File file, String entryName) throws IOException {
+    PooledZipFile pooledFile = acquire(file);
+    boolean released = true;
+    try {
+      ZipEntry entry = pooledFile.zipFile.getEntry(entryName);
+      if (entry == null) {
+        throw new FileNotFoundException("JAR entry " + entryName + " not found in " + file);
+      }
+      InputStream in = new PooledEntryInputStream(pooledFile.zipFile.getInputStream(entry), pooledFile);
+      released = false;
+      return in;
+    } finally {
+      if (released) {
+        release(pooledFile);
+      }
+    }
+  }
+
+  /**
+   * Returns the names of the entries of the given ZIP file, in the order of its central directory.
+   */
+  public List<String> getEntryNames(File file) throws IOException {
+    PooledZipFile pooledFile = acquire(file);
+    try {
+      List<String> entryNames = new ArrayList<String>(pooledFile.zipFile.size());
+      for (Enumeration<? extends ZipEntry> entries = pooledFile.zipFile.entries(); entries.hasMoreElements(); ) {
+        entryNames.add(entries.nextElement().getName());
+      }
+      return entryNames;
+    } finally {
+      release(pooledFile);
+    }
+  }
+
+  /**
+   * Returns a referenced pooled file for the given <code>file</code>, opened if necessary.
+   */
+  private PooledZipFile acquire(File file) throws IOException {
+    file = file.getAbsoluteFile();
+    long lastModified = file.lastModified();
+    long length = file.length();
+    synchronized (this) {
+      this.requestCount++;
+      PooledZipFile pooledFile = getValidPooledFile(file, lastModified, length);
+      if (pooledFile != null) {
+        this.hitCount++;
+        pooledFile.references++;
+        return pooledFile;
+      }
+    }
+    // Open file out of lock
+    ZipFile zipFile = new ZipFile(file);
+    synchronized (this) {
+      this.openFileCount++;
+      PooledZipFile pooledFile = getValidPooledFile(file, lastModified, length);
+      if (pooledFile != null) {
+        // File opened meanwhile by an other thread
+        closeZipFile(zipFile);
+      } else {
+        pooledFile = new PooledZipFile(file, zipFile, lastModified, length);
+        this.zipFiles.put(file, pooledFile);
+      }
+      pooledFile.references++;
+      return pooledFile;
+    }
+  }
+
+  /**
+   * Returns the pooled file of the given <code>file</code> if it didn't change,
+   * and removes it from the pool otherwise.
+   */
+  private PooledZipFile getValidPooledFile(File file, long lastModified, long length) {
+    PooledZipFile pooledFile = this.zipFiles.get(file);
+    if (pooledFile != null
+        && (pooledFile.lastModified != lastModified
+            || pooledFile.length != length)) {
+      this.zipFiles.remove(file);
+      pooledFile.invalid = true;
+      if (pooledFile.references == 0) {
+        closeZipFile(pooledFile.zipFile);
+      }
+      return null;
+    }
+    return pooledFile;
+  }
+
+  private synchronized void release(PooledZipFile pooledFile) {
+    if (--pooledFile.references == 0) {
+      pooledFile.lastUse = System.currentTimeMillis();
+      if (pooledFile.invalid
+          || (OperatingSystem.isWindows() && pooledFile.file.canWrite())) {
+        // Don't keep a lock on files that may be modified under Windows
+        if (this.zipFiles.get(pooledFile.file) == pooledFile) {
+          this.zipFiles.remove(pooledFile.file);
+        }
+        closeZipFile(pooledFile.zipFile);
+      } else {
+        closeIdleFiles(MAXIMUM_IDLE_FILE_COUNT, 0);
+        if (this.closingTimer == null) {
+          this.closingTimer = new Timer("ZipFilePool", true);
+          this.closingTimer.schedule(new TimerTask() {
+              @Override
+              public void run() {
+                closeIdleFiles(0, System.currentTimeMillis() - IDLE_FILE_DELAY);
+              }
+            }, IDLE_FILE_DELAY, IDLE_FILE_DELAY);
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the least recently used files not referenced anymore, that exceed <code>maximumIdleFileCount</code>
+   * or that weren't used since <code>minimumLastUse</code>.
+   */
+  private synchronized void closeIdleFiles(int maximumIdleFileCount, long minimumLastUse) {
+    int idleFileCount = 0;
+    for (PooledZipFile pooledFile : this.zipFiles.values()) {
+      if (pooledFile.references == 0) {
+        idleFileCount++;
+      }
+    }
+    for (Iterator<PooledZipFile> it = this.zipFiles.values().iterator(); it.hasNext(); ) {
+      PooledZipFile pooledFile = it.next();
+      if (pooledFile.references == 0
+          && (idleFileCount > maximumIdleFileCount
+              || pooledFile.lastUse < minimumLastUse)) {
+        it.remove();
+        idleFileCount--;
+        closeZipFile(pooledFile.zipFile);
+      }
+    }
+    if (this.zipFiles.isEmpty()
+        && this.closingTimer != null) {
+      this.closingTimer.cancel();
+      this.closingTimer = null;
+    }
+  }
+
+  /**
+   * Closes all the files of this pool that aren't used.
+   */
+  public void closeIdleFiles() {
+    closeIdleFiles(0, Long.MAX_VALUE);
+  }
+
+  private void closeZipFile(ZipFile zipFile) {
+    try {
+      zipFile.close();
+    } catch (IOException ex) {
+      // Ignore close errors
+    }
+    this.openFileCount--;
+  }
+
+  /**
+   * Returns the count of files requested to this pool.
+   */
+  public synchronized long getRequestCount() {
+    return this.requestCount;
+  }
+
+  /**
+   * Returns the count of requests that reused a file already opened in this pool.
+   */
+  public synchronized long getHitCount() {
+    return this.hitCount;
+  }
+
+  /**
+   * Returns the ratio between the hit count and the request count, or 0 if no file was requested.
+   */
+  public synchronized float getHitRate() {
+    return this.requestCount > 0
+        ? (float)this.hitCount / this.requestCount
+        : 0;
+  }
+
+  /**
+   * Returns the count of files currently opened by this pool, used or idle.
+   */
+  public synchronized int getOpenFileCount() {
+    return this.openFileCount;
+  }
+
+  /**
+   * A ZIP file of the pool with the count of its references.
+   */
+  private static class PooledZipFile {
+    private final File    file;
+    private final ZipFile zipFile;
+    private final long    lastModified;
+    private final long    length;
+    private int           references;
+    private long          lastUse;
+    private boolean       invalid;
+
+    public PooledZipFile(File file, ZipFile zipFile, long lastModified, long length) {
+      this.file = file;
+      this.zipFile = zipFile;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+
+  /**
+   * A stream that releases its pooled file once closed.
+   */
+  private class PooledEntryInputStream extends FilterInputStream {
+    private PooledZipFile pooledFile;
+
+    public PooledEntryInputStream(InputStream in, PooledZipFile pooledFile) {
+      super(in);
+      this.pooledFile = pooledFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.pooledFile != null) {
+        try {
+          super.close();
+        } finally {
+          release(this.pooledFile);
+          this.pooledFile = null;
+        }
+      }
+    }
+  }
+}
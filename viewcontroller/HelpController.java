@@ -6,27 +6,13 @@ import java.beans.PropertyChangeSupport;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-
-import javax.swing.text.BadLocationException;
-import javax.swing.text.ChangedCharSetException;
-import javax.swing.text.MutableAttributeSet;
-import javax.swing.text.html.HTML;
-import javax.swing.text.html.HTML.Tag;
-import javax.swing.text.html.HTMLDocument;
-import javax.swing.text.html.HTMLEditorKit;
 
 import com.eteks.homeview3d.model.UserPreferences;
 import com.eteks.homeview3d.tools.ResourceURLContent;
@@ -245,8 +231,7 @@ public class HelpController implements Controller {
   
   public void search(String searchedText) {
     URL helpIndex = getHelpIndexPageURL();
-    String [] searchedWords = getLowerCaseSearchedWords(searchedText);
-    List<HelpDocument> helpDocuments = searchInHelpDocuments(helpIndex, searchedWords);
+    List<HelpSearchIndex.Match> helpDocuments = HelpSearchIndex.getInstance(helpIndex).search(searchedText);
     URL applicationIconUrl = null;
     try {
       applicationIconUrl = new ResourceURLContent(HelpController.class, "resources/help/images/applicationIcon32.png").getURL();
@@ -283,8 +268,8 @@ public class HelpController implements Controller {
       htmlText.append("<tr><td colspan='2'><p>" + searchFound + "</td></tr>");
       
       URL searchRelevanceImage = new ResourceURLContent(HelpController.class, "resources/searchRelevance.gif").getURL();
-      for (HelpDocument helpDocument : helpDocuments) {
-        htmlText.append("<tr><td valign='middle' nowrap><a href='" + helpDocument.getBase() + "'>" 
+      for (HelpSearchIndex.Match helpDocument : helpDocuments) {
+        htmlText.append("<tr><td valign='middle' nowrap><a href='" + helpDocument.getUrl() + "'>" 
             + helpDocument.getTitle() + "</a></td><td valign='middle'>");
         for (int i = 0; i < helpDocument.getRelevance() && i < 50; i++) {
           htmlText.append("<img src='" + searchRelevanceImage + "' width='4' height='12'>");
@@ -314,176 +299,4 @@ public class HelpController implements Controller {
     } catch (MalformedURLException ex) {
     }
   }
-
-  private String [] getLowerCaseSearchedWords(String searchedText) {
-    String [] searchedWords = searchedText.split("\\s");
-    for (int i = 0; i < searchedWords.length; i++) {
-      searchedWords [i] = searchedWords [i].toLowerCase().trim();
-    }
-    return searchedWords;
-  }
-
- 
-  private List<HelpDocument> searchInHelpDocuments(URL helpIndex, String [] searchedWords) {
-    List<URL> parsedDocuments = new ArrayList<URL>(); 
-    parsedDocuments.add(helpIndex);
-    
-    List<HelpDocument> helpDocuments = new ArrayList<HelpDocument>();
-    for (int i = 0; i < parsedDocuments.size(); i++) {
-      try {
-        URL helpDocumentUrl = parsedDocuments.get(i);
-        HelpDocument helpDocument = new HelpDocument(helpDocumentUrl, searchedWords);
-        helpDocument.parse();
-        // If searched text was found add it to returned documents list
-        if (helpDocument.getRelevance() > 0) {
-          helpDocuments.add(helpDocument);
-        }
-        for (URL url : helpDocument.getReferencedDocuments()) {
-          String lowerCaseFile = url.getFile().toLowerCase();
-          if (lowerCaseFile.endsWith(".html")
-              && !parsedDocuments.contains(url)) {
-            parsedDocuments.add(url);
-          } 
-        } 
-      } catch (IOException ex) {
-      }
-    }
-    Collections.sort(helpDocuments, new Comparator<HelpDocument>() {
-        public int compare(HelpDocument document1, HelpDocument document2) {
-          return document2.getRelevance() - document1.getRelevance();
-        }
-      });
-    return helpDocuments;
-  }
-
-  private class HelpDocument extends HTMLDocument {
-    private Set<URL>     referencedDocuments = new HashSet<URL>();
-    private String []    searchedWords;
-    private int          relevance;
-    private String       title = "";
-
-    public HelpDocument(URL helpDocument, String [] searchedWords) {
-      this.searchedWords = searchedWords;
-      setBase(helpDocument);
-    }
-
-    
-    public void parse() throws IOException {
-      HTMLEditorKit html = new HTMLEditorKit();
-      Reader urlReader = null;
-      try {
-        urlReader = new InputStreamReader(getBase().openStream(), "ISO-8859-1");
-        putProperty("IgnoreCharsetDirective", Boolean.FALSE);
-        try {
-          html.read(urlReader, this, 0);
-        } catch (ChangedCharSetException ex) {
-          String mimeType = ex.getCharSetSpec();
-          String encoding = mimeType.substring(mimeType.indexOf("=") + 1).trim();
-          urlReader.close();
-          urlReader = new InputStreamReader(getBase().openStream(), encoding);
-          putProperty("IgnoreCharsetDirective", Boolean.TRUE);
-          html.read(urlReader, this, 0);
-        }
-      } catch (BadLocationException ex) {
-      } finally {
-        if (urlReader != null) {
-          try {
-            urlReader.close();
-          } catch (IOException ex) {
-          }
-        }
-      }
-    }
-
-    public Set<URL> getReferencedDocuments() {
-      return this.referencedDocuments;
-    }
-    
-    public int getRelevance() {
-      return this.relevance;
-    }
-    
-    public String getTitle() {
-      return this.title;
-    }
-    
-    private void addReferencedDocument(String referencedDocument) {
-      try {        
-        URL url = new URL(getBase(), referencedDocument);
-        if (!isBrowserPage(url)) {
-          URL urlWithNoAnchor = new URL(
-              url.getProtocol(), url.getHost(), url.getPort(), url.getFile());
-          this.referencedDocuments.add(urlWithNoAnchor);
-        }
-      } catch (MalformedURLException e) {
-      }
-    }
-
-    @Override
-    public HTMLEditorKit.ParserCallback getReader(int pos) {
-      return new HelpReader();
-    }
-
-    private class HelpReader extends HTMLEditorKit.ParserCallback {
-      private boolean inTitle;
-
-      @Override
-      public void handleStartTag(HTML.Tag tag,
-                                 MutableAttributeSet att, int pos) {
-        if (tag.equals(HTML.Tag.A)) { 
-          String attribute = (String)att.getAttribute(HTML.Attribute.HREF);
-          if (attribute != null) {
-            addReferencedDocument(attribute);
-          }
-        } else if (tag.equals(HTML.Tag.TITLE)) {
-          this.inTitle = true;
-        } 
-      }
-      
-      @Override
-      public void handleEndTag(Tag tag, int pos) {
-        if (tag.equals(HTML.Tag.TITLE)) {
-          this.inTitle = false;
-        }
-      }
-      
-      @Override
-      public void handleSimpleTag(Tag tag, MutableAttributeSet att, int pos) {
-        if (tag.equals(HTML.Tag.META)) {
-          String nameAttribute = (String)att.getAttribute(HTML.Attribute.NAME); 
-          String contentAttribute = (String)att.getAttribute(HTML.Attribute.CONTENT);
-          if ("keywords".equalsIgnoreCase(nameAttribute)
-              && contentAttribute != null) {
-            searchWords(contentAttribute);
-          }
-        }
-      }
-      
-      @Override
-      public void handleText(char [] data, int pos) {
-        String text = new String(data);
-        if (this.inTitle) {
-          title += text;
-        }
-        searchWords(text);
-      }
-
-      private void searchWords(String text) {
-        String lowerCaseText = text.toLowerCase();
-        for (String searchedWord : searchedWords) {
-          for (int index = 0; index < lowerCaseText.length(); index += searchedWord.length() + 1) {
-            index = lowerCaseText.indexOf(searchedWord, index);
-            if (index == -1) {
-              break;
-            } else {
-              relevance++;
-              if (this.inTitle) {
-                relevance++;
-              }
-            }
-          }
-        }
-      }
-    }
-  }
 }
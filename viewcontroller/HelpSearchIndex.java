@@ -0,0 +1,502 @@
+package com.eteks.homeview3d.viewcontroller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.ChangedCharSetException;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTML.Tag;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+
+/**
+ * An inverted index of the terms found in the help documents reachable from a help index page.
+ * Terms are lower case words without accents and plural mark, or pairs of consecutive characters
+ * in scripts written without spaces, and each searched word matches the terms it starts.
+ * Found documents are ranked by TF-IDF, the terms of their title counting twice.
+ * <br>The index of a help page is read from the <code>search.index</code> file stored in its folder
+ * if it exists (see {@link #main(String[]) main} method to build it), or is built at first use
+ * by parsing the help documents.
+ */
+class HelpSearchIndex {
+  static final String         INDEX_FILE          = "search.index";
+
+  private static final int    INDEX_VERSION       = 1;
+  private static final int    MAXIMUM_RELEVANCE   = 50;
+  private static final Pattern DIACRITICAL_MARKS  = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+  private static final Map<String, HelpSearchIndex> helpSearchIndices = new HashMap<String, HelpSearchIndex>();
+
+  private final URL []    documentUrls;
+  private final String [] documentTitles;
+  // Sorted terms with the documents where they're found and their weighted frequency in each document
+  private final String [] terms;
+  private final int [][]  termDocuments;
+  private final int [][]  termFrequencies;
+
+  private HelpSearchIndex(URL [] documentUrls, String [] documentTitles,
+                          String [] terms, int [][] termDocuments, int [][] termFrequencies) {
+    this.documentUrls = documentUrls;
+    this.documentTitles = documentTitles;
+    this.terms = terms;
+    this.termDocuments = termDocuments;
+    this.termFrequencies = termFrequencies;
+  }
+
+  /**
+   * Returns the search index of the documents reachable from the given help index page.
+   */
+  public static HelpSearchIndex getInstance(URL helpIndex) {
+    synchronized (helpSearchIndices) {
+      String key = helpIndex.toString();
+      HelpSearchIndex helpSearchIndex = helpSearchIndices.get(key);
+      if (helpSearchIndex == null) {
+        try {
+          helpSearchIndex = read(helpIndex, new URL(helpIndex, INDEX_FILE).openStream());
+        } catch (IOException ex) {
+          // Build missing or invalid index
+          helpSearchIndex = build(helpIndex);
+        }
+        helpSearchIndices.put(key, helpSearchIndex);
+      }
+      return helpSearchIndex;
+    }
+  }
+
+  /**
+   * Returns an index built from the documents reachable from the given help index page.
+   */
+  static HelpSearchIndex build(URL helpIndex) {
+    List<URL> parsedDocuments = new ArrayList<URL>();
+    parsedDocuments.add(helpIndex);
+    List<URL> documentUrls = new ArrayList<URL>();
+    List<String> documentTitles = new ArrayList<String>();
+    Map<String, Map<Integer, Integer>> termDocumentFrequencies = new TreeMap<String, Map<Integer, Integer>>();
+    for (int i = 0; i < parsedDocuments.size(); i++) {
+      try {
+        URL helpDocumentUrl = parsedDocuments.get(i);
+        HelpDocument helpDocument = new HelpDocument(helpDocumentUrl);
+        helpDocument.parse();
+        Integer documentIndex = documentUrls.size();
+        documentUrls.add(helpDocumentUrl);
+        documentTitles.add(helpDocument.getTitle());
+        for (String term : getTerms(helpDocument.getText())) {
+          addTerm(termDocumentFrequencies, term, documentIndex);
+        }
+        for (String term : getTerms(helpDocument.getTitle() + " " + helpDocument.getKeywords())) {
+          addTerm(termDocumentFrequencies, term, documentIndex);
+        }
+        for (URL url : helpDocument.getReferencedDocuments()) {
+          String lowerCaseFile = url.getFile().toLowerCase();
+          if (lowerCaseFile.endsWith(".html")
+              && !parsedDocuments.contains(url)) {
+            parsedDocuments.add(url);
+          }
+        }
+      } catch (IOException ex) {
+        // Ignore unreadable documents
+      }
+    }
+
+    String [] terms = new String [termDocumentFrequencies.size()];
+    int [][] termDocuments = new int [terms.length][];
+    int [][] termFrequencies = new int [terms.length][];
+    int i = 0;
+    for (Map.Entry<String, Map<Integer, Integer>> entry : termDocumentFrequencies.entrySet()) {
+      terms [i] = entry.getKey();
+      Map<Integer, Integer> documentFrequencies = entry.getValue();
+      termDocuments [i] = new int [documentFrequencies.size()];
+      termFrequencies [i] = new int [documentFrequencies.size()];
+      int j = 0;
+      for (Map.Entry<Integer, Integer> documentFrequency : documentFrequencies.entrySet()) {
+        termDocuments [i][j] = documentFrequency.getKey();
+        termFrequencies [i][j++] = documentFrequency.getValue();
+      }
+      i++;
+    }
+    return new HelpSearchIndex(documentUrls.toArray(new URL [documentUrls.size()]),
+        documentTitles.toArray(new String [documentTitles.size()]), terms, termDocuments, termFrequencies);
+  }
+
+  private static void addTerm(Map<String, Map<Integer, Integer>> termDocumentFrequencies,
+                              String term, Integer documentIndex) {
+    Map<Integer, Integer> documentFrequencies = termDocumentFrequencies.get(term);
+    if (documentFrequencies == null) {
+      documentFrequencies = new TreeMap<Integer, Integer>();
+      termDocumentFrequencies.put(term, documentFrequencies);
+    }
+    Integer frequency = documentFrequencies.get(documentIndex);
+    documentFrequencies.put(documentIndex, frequency == null ? 1 : frequency + 1);
+  }
+
+  /**
+   * Returns the terms of the given text in the order they appear.
+   */
+  static List<String> getTerms(String text) {
+    text = DIACRITICAL_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase();
+    List<String> terms = new ArrayList<String>();
+    int wordStart = -1;
+    for (int i = 0, n = text.length(); i <= n; i++) {
+      char c = i < n ? text.charAt(i) : ' ';
+      if (isUnspacedScriptCharacter(c)) {
+        addWord(terms, text, wordStart, i);
+        wordStart = -1;
+        if (i + 1 < n && isUnspacedScriptCharacter(text.charAt(i + 1))) {
+          terms.add(text.substring(i, i + 2));
+        } else if (i == 0 || !isUnspacedScriptCharacter(text.charAt(i - 1))) {
+          // Keep isolated characters
+          terms.add(text.substring(i, i + 1));
+        }
+      } else if (Character.isLetterOrDigit(c)) {
+        if (wordStart == -1) {
+          wordStart = i;
+        }
+      } else {
+        addWord(terms, text, wordStart, i);
+        wordStart = -1;
+      }
+    }
+    return terms;
+  }
+
+  private static void addWord(List<String> terms, String text, int start, int end) {
+    if (start != -1) {
+      String word = text.substring(start, end);
+      // Remove plural mark
+      if (word.length() > 3
+          && word.endsWith("s")
+          && !word.endsWith("ss")) {
+        word = word.substring(0, word.length() - 1);
+      }
+      terms.add(word);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the given character belongs to a script written without spaces.
+   */
+  private static boolean isUnspacedScriptCharacter(char c) {
+    Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+    return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+        || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+        || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+        || block == Character.UnicodeBlock.HIRAGANA
+        || block == Character.UnicodeBlock.KATAKANA
+        || block == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS && Character.isLetter(c);
+  }
+
+  /**
+   * Returns the documents matching at least one of the words of <code>searchedText</code>,
+   * sorted in decreasing order of relevance.
+   */
+  public List<Match> search(String searchedText) {
+    float [] scores = new float [this.documentUrls.length];
+    for (String searchedTerm : new HashSet<String>(getTerms(searchedText))) {
+      // Search terms starting by the searched term
+      int index = Arrays.binarySearch(this.terms, searchedTerm);
+      for (int i = index >= 0 ? index : -index - 1;
+           i < this.terms.length && this.terms [i].startsWith(searchedTerm);
+           i++) {
+        float inverseDocumentFrequency = (float)Math.log(1 + (float)this.documentUrls.length / this.termDocuments [i].length);
+        for (int j = 0; j < this.termDocuments [i].length; j++) {
+          scores [this.termDocuments [i][j]] += this.termFrequencies [i][j] * inverseDocumentFrequency;
+        }
+      }
+    }
+
+    float maximumScore = 0;
+    for (float score : scores) {
+      maximumScore = Math.max(maximumScore, score);
+    }
+    List<Match> matches = new ArrayList<Match>();
+    for (int i = 0; i < scores.length; i++) {
+      if (scores [i] > 0) {
+        int relevance = Math.max(1, Math.round(MAXIMUM_RELEVANCE * scores [i] / maximumScore));
+        matches.add(new Match(this.documentUrls [i], this.documentTitles [i], scores [i], relevance));
+      }
+    }
+    Collections.sort(matches, new Comparator<Match>() {
+        public int compare(Match match1, Match match2) {
+          return Float.compare(match2.score, match1.score);
+        }
+      });
+    return matches;
+  }
+
+  /**
+   * Writes this index to the given stream, with the URLs of documents relative to <code>helpIndex</code>.
+   */
+  public void write(URL helpIndex, OutputStream outputStream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(outputStream)));
+    try {
+      out.writeInt(INDEX_VERSION);
+      out.writeInt(this.documentUrls.length);
+      for (int i = 0; i < this.documentUrls.length; i++) {
+        out.writeUTF(getRelativeUrl(helpIndex, this.documentUrls [i]));
+        out.writeUTF(this.documentTitles [i]);
+      }
+      out.writeInt(this.terms.length);
+      for (int i = 0; i < this.terms.length; i++) {
+        out.writeUTF(this.terms [i]);
+        out.writeInt(this.termDocuments [i].length);
+        for (int j = 0; j < this.termDocuments [i].length; j++) {
+          out.writeInt(this.termDocuments [i][j]);
+          out.writeInt(this.termFrequencies [i][j]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads an index from the given stream, with the URLs of documents relative to <code>helpIndex</code>.
+   */
+  static HelpSearchIndex read(URL helpIndex, InputStream inputStream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(inputStream)));
+    try {
+      if (in.readInt() != INDEX_VERSION) {
+        throw new IOException("Unsupported help search index version");
+      }
+      URL [] documentUrls = new URL [in.readInt()];
+      String [] documentTitles = new String [documentUrls.length];
+      for (int i = 0; i < documentUrls.length; i++) {
+        documentUrls [i] = new URL(helpIndex, in.readUTF());
+        documentTitles [i] = in.readUTF();
+      }
+      String [] terms = new String [in.readInt()];
+      int [][] termDocuments = new int [terms.length][];
+      int [][] termFrequencies = new int [terms.length][];
+      for (int i = 0; i < terms.length; i++) {
+        terms [i] = in.readUTF();
+        termDocuments [i] = new int [in.readInt()];
+        termFrequencies [i] = new int [termDocuments [i].length];
+        for (int j = 0; j < termDocuments [i].length; j++) {
+          termDocuments [i][j] = in.readInt();
+          termFrequencies [i][j] = in.readInt();
+        }
+      }
+      return new HelpSearchIndex(documentUrls, documentTitles, terms, termDocuments, termFrequencies);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the given <code>url</code> relative to the folder of <code>helpIndex</code> if possible.
+   */
+  private static String getRelativeUrl(URL helpIndex, URL url) {
+    String urlText = url.toString();
+    String folder = helpIndex.toString();
+    folder = folder.substring(0, folder.lastIndexOf('/') + 1);
+    String parentFolders = "";
+    while (!urlText.startsWith(folder)) {
+      int parentFolderEnd = folder.lastIndexOf('/', folder.length() - 2);
+      if (parentFolderEnd <= folder.indexOf("//") + 1
+          || folder.endsWith("!/")) {
+        return urlText;
+      }
+      folder = folder.substring(0, parentFolderEnd + 1);
+      parentFolders += "../";
+    }
+    return parentFolders + urlText.substring(folder.length());
+  }
+
+  /**
+   * Writes the <code>search.index</code> file of each help index page given in parameter.
+   */
+  public static void main(String [] args) throws IOException {
+    for (String helpIndexFile : args) {
+      File file = new File(helpIndexFile).getAbsoluteFile();
+      URL helpIndex = file.toURI().toURL();
+      OutputStream out = new FileOutputStream(new File(file.getParentFile(), INDEX_FILE));
+      try {
+        build(helpIndex).write(helpIndex, out);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * A document matching a search.
+   */
+  public static class Match {
+    private final URL    url;
+    private final String title;
+    private final float  score;
+    private final int    relevance;
+
+    public Match(URL url, String title, float score, int relevance) {
+      this.url = url;
+      this.title = title;
+      this.score = score;
+      this.relevance = relevance;
+    }
+
+    public URL getUrl() {
+      return this.url;
+    }
+
+    public String getTitle() {
+      return this.title;
+    }
+
+    /**
+     * Returns the relevance of this document between 1 and 50.
+     */
+    public int getRelevance() {
+      return this.relevance;
+    }
+  }
+
+  /**
+   * A help document parsed to get its title, its text, its keywords and the documents it references.
+   */
+  private static class HelpDocument extends HTMLDocument {
+    private Set<URL>      referencedDocuments = new HashSet<URL>();
+    private StringBuilder text = new StringBuilder();
+    private String        keywords = "";
+    private String        title = "";
+
+    public HelpDocument(URL helpDocument) {
+      setBase(helpDocument);
+    }
+
+    public void parse() throws IOException {
+      HTMLEditorKit html = new HTMLEditorKit();
+      Reader urlReader = null;
+      try {
+        urlReader = new InputStreamReader(getBase().openStream(), "ISO-8859-1");
+        putProperty("IgnoreCharsetDirective", Boolean.FALSE);
+        try {
+          html.read(urlReader, this, 0);
+        } catch (ChangedCharSetException ex) {
+          String mimeType = ex.getCharSetSpec();
+          String encoding = mimeType.substring(mimeType.indexOf("=") + 1).trim();
+          urlReader.close();
+          urlReader = new InputStreamReader(getBase().openStream(), encoding);
+          putProperty("IgnoreCharsetDirective", Boolean.TRUE);
+          this.text.setLength(0);
+          this.keywords = "";
+          this.title = "";
+          html.read(urlReader, this, 0);
+        }
+      } catch (BadLocationException ex) {
+      } finally {
+        if (urlReader != null) {
+          try {
+            urlReader.close();
+          } catch (IOException ex) {
+          }
+        }
+      }
+    }
+
+    public Set<URL> getReferencedDocuments() {
+      return this.referencedDocuments;
+    }
+
+    public String getText() {
+      return this.text.toString();
+    }
+
+    public String getKeywords() {
+      return this.keywords;
+    }
+
+    public String getTitle() {
+      return this.title;
+    }
+
+    private void addReferencedDocument(String referencedDocument) {
+      try {
+        URL url = new URL(getBase(), referencedDocument);
+        String protocol = url.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+          URL urlWithNoAnchor = new URL(
+              url.getProtocol(), url.getHost(), url.getPort(), url.getFile());
+          this.referencedDocuments.add(urlWithNoAnchor);
+        }
+      } catch (MalformedURLException e) {
+      }
+    }
+
+    @Override
+    public HTMLEditorKit.ParserCallback getReader(int pos) {
+      return new HelpReader();
+    }
+
+    private class HelpReader extends HTMLEditorKit.ParserCallback {
+      private boolean inTitle;
+
+      @Override
+      public void handleStartTag(HTML.Tag tag,
+                                 MutableAttributeSet att, int pos) {
+        if (tag.equals(HTML.Tag.A)) {
+          String attribute = (String)att.getAttribute(HTML.Attribute.HREF);
+          if (attribute != null) {
+            addReferencedDocument(attribute);
+          }
+        } else if (tag.equals(HTML.Tag.TITLE)) {
+          this.inTitle = true;
+        }
+      }
+
+      @Override
+      public void handleEndTag(Tag tag, int pos) {
+        if (tag.equals(HTML.Tag.TITLE)) {
+          this.inTitle = false;
+        }
+      }
+
+      @Override
+      public void handleSimpleTag(Tag tag, MutableAttributeSet att, int pos) {
+        if (tag.equals(HTML.Tag.META)) {
+          String nameAttribute = (String)att.getAttribute(HTML.Attribute.NAME);
+          String contentAttribute = (String)att.getAttribute(HTML.Attribute.CONTENT);
+          if ("keywords".equalsIgnoreCase(nameAttribute)
+              && contentAttribute != null) {
+            keywords += " " + contentAttribute;
+          }
+        }
+      }
+
+      @Override
+      public void handleText(char [] data, int pos) {
+        String text = new String(data);
+        if (this.inTitle) {
+          title += text;
+        }
+        HelpDocument.this.text.append(text).append(' ');
+      }
+    }
+  }
+}
@@ -1949,7 +1949,7 @@ public class HomeController implements Controller {
         || getView().confirmSaveNewerHome(homeName)) {
       final Home savedHome; 
       try {
-        savedHome = this.home.clone();
+        savedHome = this.home.createSnapshot();
       } catch (RuntimeException ex) {
         getView().showError(preferences.getLocalizedString(
             HomeController.class, "saveError", homeName, ex));
@@ -1419,11 +1419,11 @@ public class PlanController extends FurnitureController implements Controller {
     final boolean includeBaseboards = !piece.isDoorOrWindow()
         && piece.getElevation() == 0;
     Area wallsArea = getWallsArea(includeBaseboards);
-    Collection<Wall> walls = this.home.getWalls();
     
     Wall referenceWall = null;
     if (forceOrientation
         || !piece.isDoorOrWindow()) {
+      List<Wall> walls = this.home.getItemsIntersectingRectangle(Wall.class, selectedLevel, x, y, x, y, false);
       for (Wall wall : walls) {
         if (wall.isAtLevel(selectedLevel) 
             && isLevelNullOrViewable(wall.getLevel())
@@ -1451,7 +1451,10 @@ public class PlanController extends FurnitureController implements Controller {
           piece.getX() - piece.getWidth() / 2 - margin, piece.getY() - piece.getDepth() / 2 - margin, 
           piece.getWidth() + 2 * margin, piece.getDepth() + 2 * margin, piece.getAngle()));
       float intersectionWithReferenceWallSurface = 0;
-      for (Wall wall : walls) {
+      Rectangle2D pieceBoundsWithMargin = pieceAreaWithMargin.getBounds2D();
+      for (Wall wall : this.home.getItemsIntersectingRectangle(Wall.class, selectedLevel, 
+          (float)pieceBoundsWithMargin.getMinX(), (float)pieceBoundsWithMargin.getMinY(), 
+          (float)pieceBoundsWithMargin.getMaxX(), (float)pieceBoundsWithMargin.getMaxY(), false)) {
         if (wall.isAtLevel(selectedLevel) 
             && isLevelNullOrViewable(wall.getLevel())
             && wall.getStartPointToEndPointDistance() > 0) {
@@ -1710,10 +1713,18 @@ public class PlanController extends FurnitureController implements Controller {
     float [] wallEndPointJoinedToPieceLeftPoint = null;
     float [] wallEndPointJoinedToPieceRightPoint = null;
     List<GeneralPath> roomPaths = getRoomPathsFromWalls();
+    // Ignore the paths far from piece points to avoid computing the angles of all their sides
+    Rectangle2D piecePointsBounds = new Rectangle2D.Float(pieceLeftPoint [0], pieceLeftPoint [1], 0, 0);
+    piecePointsBounds.add(pieceRightPoint [0], pieceRightPoint [1]);
+    piecePointsBounds.setRect(piecePointsBounds.getX() - 0.01, piecePointsBounds.getY() - 0.01, 
+        piecePointsBounds.getWidth() + 0.02, piecePointsBounds.getHeight() + 0.02);
     for (int i = 0; 
          i < roomPaths.size()
          && wallEndPointJoinedToPieceLeftPoint == null 
          && wallEndPointJoinedToPieceRightPoint == null; i++) {
+      if (!roomPaths.get(i).getBounds2D().intersects(piecePointsBounds)) {
+        continue;
+      }
       float [][] roomPoints = getPathPoints(roomPaths.get(i), true);
       for (int j = 0; j < roomPoints.length; j++) {
         float [] startPoint = roomPoints [j];
@@ -1882,7 +1893,10 @@ public class PlanController extends FurnitureController implements Controller {
     Area intersectionWithReferencePieceArea = null;
     float intersectionWithReferencePieceSurface = 0;
     float [][] referencePiecePoints = null;
-    for (HomePieceOfFurniture homePiece : this.home.getFurniture()) {
+    Rectangle2D pieceBounds = pieceArea.getBounds2D();
+    for (HomePieceOfFurniture homePiece : this.home.getItemsIntersectingRectangle(HomePieceOfFurniture.class, 
+        this.home.getSelectedLevel(), (float)pieceBounds.getMinX() - margin, (float)pieceBounds.getMinY() - margin, 
+        (float)pieceBounds.getMaxX() + margin, (float)pieceBounds.getMaxY() + margin, false)) {
       float homePieceElevation = homePiece.getGroundElevation();
       if (homePiece != piece 
           && isPieceOfFurnitureVisibleAtSelectedLevel(homePiece)
@@ -2073,7 +2087,9 @@ public class PlanController extends FurnitureController implements Controller {
   private DimensionLine getMeasuringDimensionLineAt(float x, float y, 
                                                     boolean magnetismEnabled) {
     float margin = PIXEL_MARGIN / getScale();
-    for (HomePieceOfFurniture piece : this.home.getFurniture()) {
+    Level selectedLevel = this.home.getSelectedLevel();
+    for (HomePieceOfFurniture piece : this.home.getItemsIntersectingRectangle(HomePieceOfFurniture.class, 
+        selectedLevel, x - margin, y - margin, x + margin, y + margin, false)) {
       if (isPieceOfFurnitureVisibleAtSelectedLevel(piece)) {
         DimensionLine dimensionLine = getDimensionLineBetweenPointsAt(piece.getPoints(), x, y, margin, magnetismEnabled);
         if (dimensionLine != null) {
@@ -2090,9 +2106,10 @@ public class PlanController extends FurnitureController implements Controller {
         }
       }
     }
-    for (Room room : this.home.getRooms()) {
+    for (Room room : this.home.getItemsIntersectingRectangle(Room.class, 
+        selectedLevel, x - margin, y - margin, x + margin, y + margin, false)) {
       if (isLevelNullOrViewable(room.getLevel()) 
-          && room.isAtLevel(this.home.getSelectedLevel())) {
+          && room.isAtLevel(selectedLevel)) {
         DimensionLine dimensionLine = getDimensionLineBetweenPointsAt(room.getPoints(), x, y, margin, magnetismEnabled);
         if (dimensionLine != null) {
           return dimensionLine;
@@ -2400,10 +2417,12 @@ public class PlanController extends FurnitureController implements Controller {
  
   private Wall getWallStartAt(float x, float y, Wall ignoredWall) {
     float margin = WALL_ENDS_PIXEL_MARGIN / getScale();
-    for (Wall wall : this.home.getWalls()) {
+    Level selectedLevel = this.home.getSelectedLevel();
+    for (Wall wall : this.home.getItemsIntersectingRectangle(Wall.class, 
+        selectedLevel, x - margin, y - margin, x + margin, y + margin, false)) {
       if (wall != ignoredWall
           && isLevelNullOrViewable(wall.getLevel())
-          && wall.isAtLevel(this.home.getSelectedLevel())
+          && wall.isAtLevel(selectedLevel)
           && wall.getWallAtStart() == null
           && wall.containsWallStartAt(x, y, margin)) 
         return wall;
@@ -2413,10 +2432,12 @@ public class PlanController extends FurnitureController implements Controller {
 
   private Wall getWallEndAt(float x, float y, Wall ignoredWall) {
     float margin = WALL_ENDS_PIXEL_MARGIN / getScale();
-    for (Wall wall : this.home.getWalls()) {
+    Level selectedLevel = this.home.getSelectedLevel();
+    for (Wall wall : this.home.getItemsIntersectingRectangle(Wall.class, 
+        selectedLevel, x - margin, y - margin, x + margin, y + margin, false)) {
       if (wall != ignoredWall
           && isLevelNullOrViewable(wall.getLevel())
-          && wall.isAtLevel(this.home.getSelectedLevel())
+          && wall.isAtLevel(selectedLevel)
           && wall.getWallAtEnd() == null
           && wall.containsWallEndAt(x, y, margin)) 
         return wall;
@@ -2763,7 +2784,12 @@ public class PlanController extends FurnitureController implements Controller {
     
     boolean basePlanLocked = this.home.isBasePlanLocked();
     Level selectedLevel = this.home.getSelectedLevel();
-    for (Label label : this.home.getLabels()) {
+    float xMin = x - margin;
+    float yMin = y - margin;
+    float xMax = x + margin;
+    float yMax = y + margin;
+    // Search labels, named pieces and rooms whatever their location, to test their text
+    for (Label label : this.home.getItemsIntersectingRectangle(Label.class, selectedLevel, xMin, yMin, xMax, yMax, true)) {
       if ((!basePlanLocked 
             || !isItemPartOfBasePlan(label)) 
           && isLevelNullOrViewable(label.getLevel())
@@ -2778,7 +2804,8 @@ public class PlanController extends FurnitureController implements Controller {
       }
     }    
     
-    for (DimensionLine dimensionLine : this.home.getDimensionLines()) {
+    for (DimensionLine dimensionLine : this.home.getItemsIntersectingRectangle(DimensionLine.class, 
+        selectedLevel, xMin, yMin, xMax, yMax, false)) {
       if ((!basePlanLocked 
             || !isItemPartOfBasePlan(dimensionLine))
           && isLevelNullOrViewable(dimensionLine.getLevel())
@@ -2791,7 +2818,8 @@ public class PlanController extends FurnitureController implements Controller {
       }
     }    
     
-    List<Polyline> polylines = this.home.getPolylines();
+    List<Polyline> polylines = this.home.getItemsIntersectingRectangle(Polyline.class, 
+        selectedLevel, xMin, yMin, xMax, yMax, false);
     for (int i = polylines.size() - 1; i >= 0; i--) {
       Polyline polyline = polylines.get(i);
       if ((!basePlanLocked 
@@ -2806,7 +2834,8 @@ public class PlanController extends FurnitureController implements Controller {
       }
     }    
     
-    List<HomePieceOfFurniture> furniture = this.home.getFurniture();
+    List<HomePieceOfFurniture> furniture = this.home.getItemsIntersectingRectangle(HomePieceOfFurniture.class, 
+        selectedLevel, xMin, yMin, xMax, yMax, true);
     List<HomePieceOfFurniture> foundFurniture = new ArrayList<HomePieceOfFurniture>();
     HomePieceOfFurniture foundPiece = null;
     for (int i = furniture.size() - 1; i >= 0; i--) {
@@ -2897,7 +2926,8 @@ public class PlanController extends FurnitureController implements Controller {
           }
         });
       items.addAll(foundFurniture);
-      for (Wall wall : this.home.getWalls()) {
+      for (Wall wall : this.home.getItemsIntersectingRectangle(Wall.class, 
+          selectedLevel, xMin, yMin, xMax, yMax, false)) {
         if ((!basePlanLocked 
               || !isItemPartOfBasePlan(wall))
             && isLevelNullOrViewable(wall.getLevel())
@@ -2910,7 +2940,8 @@ public class PlanController extends FurnitureController implements Controller {
         }
       }    
 
-      List<Room> rooms = this.home.getRooms();
+      List<Room> rooms = this.home.getItemsIntersectingRectangle(Room.class, 
+          selectedLevel, xMin, yMin, xMax, yMax, true);
       Room foundRoom = null;
       for (int i = rooms.size() - 1; i >= 0; i--) {
         Room room = rooms.get(i);
@@ -2970,11 +3001,32 @@ public class PlanController extends FurnitureController implements Controller {
   }
   
   protected List<Selectable> getSelectableItemsIntersectingRectangle(float x0, float y0, float x1, float y1) {
+    Level selectedLevel = this.home.getSelectedLevel();
+    List<Selectable> homeItems = new ArrayList<Selectable>();
+    homeItems.addAll(this.home.getItemsIntersectingRectangle(Wall.class, selectedLevel, x0, y0, x1, y1, false));
+    homeItems.addAll(this.home.getItemsIntersectingRectangle(Room.class, selectedLevel, x0, y0, x1, y1, false));
+    homeItems.addAll(this.home.getItemsIntersectingRectangle(DimensionLine.class, selectedLevel, x0, y0, x1, y1, false));
+    homeItems.addAll(this.home.getItemsIntersectingRectangle(Polyline.class, selectedLevel, x0, y0, x1, y1, false));
+    homeItems.addAll(this.home.getItemsIntersectingRectangle(Label.class, selectedLevel, x0, y0, x1, y1, false));
+    for (HomePieceOfFurniture piece : this.home.getItemsIntersectingRectangle(HomePieceOfFurniture.class, 
+        selectedLevel, x0, y0, x1, y1, false)) {
+      if (isPieceOfFurnitureVisibleAtSelectedLevel(piece)) {
+        homeItems.add(piece);
+      }
+    }
+    if (this.home.getCompass().isVisible()) {
+      homeItems.add(this.home.getCompass());
+    }
+    
     List<Selectable> items = new ArrayList<Selectable>();
     boolean basePlanLocked = this.home.isBasePlanLocked();
-    for (Selectable item : getVisibleItemsAtSelectedLevel()) {
-      if ((!basePlanLocked 
-            || !isItemPartOfBasePlan(item))
+    for (Selectable item : homeItems) {
+      if ((!(item instanceof Elevatable)
+            || item instanceof HomePieceOfFurniture
+            || isLevelNullOrViewable(((Elevatable)item).getLevel())
+               && ((Elevatable)item).isAtLevel(selectedLevel))
+          && (!basePlanLocked 
+              || !isItemPartOfBasePlan(item))
           && item.intersectsRectangle(x0, y0, x1, y1)) {
         items.add(item);
       }